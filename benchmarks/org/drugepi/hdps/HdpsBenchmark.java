@@ -0,0 +1,160 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.drugepi.hdps.storage.HdpsVariable;
+import org.drugepi.hdps.storage.comparators.HdpsVariableNameComparator;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the hd-PS stages, run in LOCAL mode against a synthetic cohort:
+ * patient read, dimension read (ingest, prevalence filtering, and bias calculation
+ * for all dimensions in parallel), variable selection, Z-bias scoring, and full and
+ * sparse output.  Per-dimension stages are in
+ * {@link org.drugepi.hdps.local.HdpsLocalBenchmark}.
+ * <p>
+ * To run, build with the <code>benchmarks</code> profile and start the JMH runner
+ * from the assembled jar:
+ * <pre>
+ * mvn -P benchmarks package
+ * java -cp target/pharmacoepi-2.4.18-jar-with-dependencies.jar org.openjdk.jmh.Main Hdps
+ * </pre>
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HdpsBenchmark {
+	/**
+	 * A run that has been started but has read nothing.
+	 */
+	@State(Scope.Thread)
+	public static class StartedRun {
+		public Hdps hdps;
+		public HdpsController controller;
+
+		@Setup(Level.Invocation)
+		public void setUp(HdpsBenchmarkCohort cohort)
+		throws Exception
+		{
+			this.hdps = cohort.createHdps();
+			this.controller = this.hdps.getController();
+			this.controller.checkParams();
+			this.controller.startHdps();
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown()
+		throws Exception
+		{
+			this.controller.closeController();
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.hdps.tempDirectory));
+		}
+	}
+
+	/**
+	 * A run that has read its patients.
+	 */
+	@State(Scope.Thread)
+	public static class PatientsRead extends StartedRun {
+		@Setup(Level.Invocation)
+		public void readPatients()
+		throws Exception
+		{
+			this.controller.patientController.readPatients();
+		}
+	}
+
+	/**
+	 * A run that has read its patients and dimensions and selected variables.  Built once
+	 * per trial; benchmarks using it must leave it as they found it.
+	 */
+	@State(Scope.Thread)
+	public static class DimensionsRead {
+		public Hdps hdps;
+		public HdpsController controller;
+		public List<HdpsVariable> selectedVariables;
+
+		@Setup(Level.Trial)
+		public void setUp(HdpsBenchmarkCohort cohort)
+		throws Exception
+		{
+			this.hdps = cohort.createHdps();
+			this.controller = this.hdps.getController();
+			this.controller.checkParams();
+			this.controller.startHdps();
+			this.controller.patientController.readPatients();
+			this.controller.readDimensions();
+
+			this.selectedVariables = this.controller.selectVariables();
+			Collections.sort(this.selectedVariables, new HdpsVariableNameComparator());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		throws Exception
+		{
+			this.controller.closeController();
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.hdps.tempDirectory));
+		}
+	}
+
+	@Benchmark
+	public HdpsController readPatients(StartedRun run)
+	throws Exception
+	{
+		run.controller.patientController.readPatients();
+		return run.controller;
+	}
+
+	@Benchmark
+	public HdpsController readDimensions(PatientsRead run)
+	throws Exception
+	{
+		run.controller.readDimensions();
+		return run.controller;
+	}
+
+	@Benchmark
+	public List<HdpsVariable> selectVariables(DimensionsRead run)
+	throws Exception
+	{
+		return run.controller.selectVariables();
+	}
+
+	@Benchmark
+	public List<HdpsVariable> scoreZBias(DimensionsRead run)
+	{
+		ZBiasCalculator.scoreVariables(run.selectedVariables);
+		return run.selectedVariables;
+	}
+
+	@Benchmark
+	public void writeFullOutput(DimensionsRead run)
+	throws Exception
+	{
+		run.hdps.doFullOutput = 1;
+		run.hdps.doSparseOutput = 0;
+		run.controller.generateCohorts(run.selectedVariables);
+	}
+
+	@Benchmark
+	public void writeSparseOutput(DimensionsRead run)
+	throws Exception
+	{
+		run.hdps.doFullOutput = 0;
+		run.hdps.doSparseOutput = 1;
+		run.controller.generateCohorts(run.selectedVariables);
+	}
+}
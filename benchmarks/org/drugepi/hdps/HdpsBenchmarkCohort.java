@@ -0,0 +1,104 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark state holding a synthetic cohort, generated once per trial from the
+ * parameters below and deleted afterwards.  Parameters can be overridden on the
+ * JMH command line, e.g. <code>-p numPatients=100000,1000000</code>.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+public class HdpsBenchmarkCohort {
+	@Param({"10000"})
+	public int numPatients;
+
+	@Param({"3"})
+	public int numDimensions;
+
+	@Param({"2000"})
+	public int numCodes;
+
+	@Param({"15"})
+	public int meanRowsPerPatient;
+
+	@Param({"1.0"})
+	public double zipfExponent;
+
+	@Param({"0.3"})
+	public double exposurePrevalence;
+
+	@Param({"0.1"})
+	public double outcomePrevalence;
+
+	public HdpsSyntheticCohort cohort;
+	public String dataDirectory;
+
+	@Setup(Level.Trial)
+	public void generate()
+	throws Exception
+	{
+		this.cohort = new HdpsSyntheticCohort();
+		this.cohort.numPatients = this.numPatients;
+		this.cohort.numDimensions = this.numDimensions;
+		this.cohort.numCodes = this.numCodes;
+		this.cohort.meanRowsPerPatient = this.meanRowsPerPatient;
+		this.cohort.zipfExponent = this.zipfExponent;
+		this.cohort.exposurePrevalence = this.exposurePrevalence;
+		this.cohort.outcomePrevalence = this.outcomePrevalence;
+
+		this.dataDirectory = createTempDirectory("hdps_bench_data");
+		this.cohort.write(this.dataDirectory);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete()
+	{
+		deleteDirectory(new File(this.dataDirectory));
+	}
+
+	/**
+	 * Create an hd-PS run over the cohort, with its own temporary directory for the
+	 * database and output files.
+	 */
+	public Hdps createHdps()
+	throws Exception
+	{
+		Hdps hdps = new Hdps(createTempDirectory("hdps_bench_run"));
+		hdps.k = 100;
+		hdps.topN = 200;
+		this.cohort.addTo(hdps, this.dataDirectory);
+
+		return hdps;
+	}
+
+	public static String createTempDirectory(String prefix)
+	throws Exception
+	{
+		return Files.createTempDirectory(prefix).toString();
+	}
+
+	public static void deleteDirectory(File directory)
+	{
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				if (f.isDirectory())
+					deleteDirectory(f);
+				else
+					f.delete();
+			}
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.drugepi.hdps.db.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of complete hd-PS runs in DB and HYBRID mode, against a synthetic cohort
+ * loaded into an embedded H2 database, and of LOCAL mode runs over the same cohort's
+ * files for comparison.  At the end of each trial the mean SQL time of each phase of
+ * the DB and HYBRID runs is printed from the runs' SQL profiles.
+ * <p>
+ * To run, build with the <code>benchmarks</code> profile and start the JMH runner
+ * from the assembled jar:
+ * <pre>
+ * mvn -P benchmarks package
+ * java -cp target/pharmacoepi-2.4.18-jar-with-dependencies.jar org.openjdk.jmh.Main HdpsDb
+ * </pre>
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ * @see HdpsEmbeddedDatabase
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class HdpsDbBenchmark {
+	/**
+	 * The benchmark cohort loaded into an embedded database.  Loaded once per trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class EmbeddedCohort {
+		public String directory;
+		public HdpsEmbeddedDatabase database;
+
+		@Setup(Level.Trial)
+		public void load(HdpsBenchmarkCohort cohort)
+		throws Exception
+		{
+			this.directory = HdpsBenchmarkCohort.createTempDirectory("hdps_bench_db");
+			this.database = new HdpsEmbeddedDatabase(this.directory);
+			this.database.load(cohort.cohort, cohort.dataDirectory);
+		}
+
+		@TearDown(Level.Trial)
+		public void delete()
+		{
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.directory));
+		}
+	}
+
+	/**
+	 * A run that has not started, in the mode being benchmarked.
+	 */
+	@State(Scope.Thread)
+	public static class UnstartedRun {
+		@Param({"LOCAL", "DB", "HYBRID"})
+		public String mode;
+
+		@Param({"4"})
+		public int dbMaxConcurrentStatements;
+
+		public Hdps hdps;
+
+		// SQL time of each phase, summed over the trial's runs
+		private Map<String, Long> sqlNanosByPhase = new LinkedHashMap<String, Long>();
+		private int numRuns;
+
+		@Setup(Level.Invocation)
+		public void setUp(HdpsBenchmarkCohort cohort, EmbeddedCohort embeddedCohort)
+		throws Exception
+		{
+			if (this.mode.equals(Hdps.hdpsModeLocal)) {
+				this.hdps = cohort.createHdps();
+			} else {
+				this.hdps = new Hdps(HdpsBenchmarkCohort.createTempDirectory("hdps_bench_run"));
+				this.hdps.k = 100;
+				this.hdps.topN = 200;
+				this.hdps.setMode(this.mode);
+				this.hdps.dbMaxConcurrentStatements = this.dbMaxConcurrentStatements;
+				embeddedCohort.database.addTo(this.hdps);
+			}
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown()
+		{
+			SqlProfiler profiler = null;
+			HdpsController controller = this.hdps.getController();
+			if (controller instanceof HdpsDbController)
+				profiler = ((HdpsDbController) controller).getProfiler();
+			else if (controller instanceof HdpsHybridController)
+				profiler = ((HdpsHybridController) controller).getProfiler();
+
+			if (profiler != null) {
+				for (Map.Entry<String, Long> e: profiler.getNanosByPhase().entrySet()) {
+					Long nanos = this.sqlNanosByPhase.get(e.getKey());
+					this.sqlNanosByPhase.put(e.getKey(), (nanos == null ? 0 : nanos) + e.getValue());
+				}
+				this.numRuns++;
+			}
+
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.hdps.tempDirectory));
+		}
+
+		@TearDown(Level.Trial)
+		public void report()
+		{
+			if (this.numRuns == 0)
+				return;
+
+			System.out.printf(Locale.ROOT, "%n%s mode mean SQL time by phase over %d runs:%n",
+					this.mode, this.numRuns);
+			for (Map.Entry<String, Long> e: this.sqlNanosByPhase.entrySet())
+				System.out.printf(Locale.ROOT, "   %s: %.3f s%n",
+						e.getKey(), e.getValue() / 1e9 / this.numRuns);
+		}
+	}
+
+	@Benchmark
+	public Hdps run(UnstartedRun run)
+	throws Exception
+	{
+		run.hdps.run();
+		return run.hdps;
+	}
+}
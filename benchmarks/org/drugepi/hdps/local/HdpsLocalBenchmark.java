@@ -0,0 +1,138 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.local;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.drugepi.hdps.*;
+import org.drugepi.hdps.storage.HdpsCode;
+import org.drugepi.util.TabDelimitedFileReader;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the LOCAL mode stages for a single dimension:  ingest into the local
+ * database, with and without bulk loading; prevalence filtering; and bias calculation,
+ * both alone and with the variable tallies recounted from the database.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ * @see org.drugepi.hdps.HdpsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HdpsLocalBenchmark {
+	/**
+	 * A run that has read its patients, with the first dimension ready to be read.
+	 */
+	@State(Scope.Thread)
+	public static class DimensionReady {
+		@Param({"0", "1"})
+		public int useBulkLoad;
+
+		public Hdps hdps;
+		public HdpsLocalController controller;
+		public HdpsLocalDimensionController dimension;
+
+		@Setup(Level.Invocation)
+		public void setUp(HdpsBenchmarkCohort cohort)
+		throws Exception
+		{
+			this.hdps = new Hdps(HdpsBenchmarkCohort.createTempDirectory("hdps_bench_run"));
+			this.hdps.useBulkLoad = this.useBulkLoad;
+
+			this.controller = new HdpsLocalController(this.hdps);
+			this.controller.addPatients(new TabDelimitedFileReader(
+					cohort.cohort.getPatientFilePath(cohort.dataDirectory)));
+			this.controller.startHdps();
+			this.controller.getPatientController().readPatients();
+
+			this.dimension = new HdpsLocalDimensionController(this.hdps, this.controller);
+			this.dimension.dimensionId = 1;
+			this.dimension.dimensionDescription = "Synthetic dimension 1";
+			this.dimension.reader = new TabDelimitedFileReader(
+					cohort.cohort.getDimensionFilePath(cohort.dataDirectory, 0));
+			this.dimension.patientController = this.controller.getPatientController();
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown()
+		throws Exception
+		{
+			this.dimension.closeController();
+			this.controller.closeController();
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.hdps.tempDirectory));
+		}
+	}
+
+	/**
+	 * A run that has read its patients and the first dimension.  Built once per trial.
+	 */
+	@State(Scope.Thread)
+	public static class DimensionRead {
+		public Hdps hdps;
+		public HdpsLocalController controller;
+		public HdpsLocalDimensionController dimension;
+
+		@Setup(Level.Trial)
+		public void setUp(HdpsBenchmarkCohort cohort)
+		throws Exception
+		{
+			DimensionReady ready = new DimensionReady();
+			ready.setUp(cohort);
+			ready.dimension.readDimension();
+
+			this.hdps = ready.hdps;
+			this.controller = ready.controller;
+			this.dimension = ready.dimension;
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		throws Exception
+		{
+			this.dimension.closeController();
+			this.controller.closeController();
+			HdpsBenchmarkCohort.deleteDirectory(new File(this.hdps.tempDirectory));
+		}
+	}
+
+	@Benchmark
+	public HdpsLocalDimensionController ingest(DimensionReady run)
+	throws Exception
+	{
+		run.dimension.buildCodePatientDatabase();
+		return run.dimension;
+	}
+
+	@Benchmark
+	public HdpsLocalDimensionController filterCodesForPrevalence(DimensionRead run)
+	throws Exception
+	{
+		run.dimension.filterCodesForPrevalence();
+		return run.dimension;
+	}
+
+	@Benchmark
+	public HdpsLocalDimensionController calculateBias(DimensionRead run)
+	{
+		for (HdpsCode code: run.dimension.codeMap.values())
+			if (code.considerForPs)
+				run.dimension.calculateBias(code);
+		return run.dimension;
+	}
+
+	@Benchmark
+	public HdpsLocalDimensionController tallyAndCalculateBias(DimensionRead run)
+	throws Exception
+	{
+		run.dimension.calculateContrastBias();
+		return run.dimension;
+	}
+}
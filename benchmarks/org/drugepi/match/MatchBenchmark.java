@@ -0,0 +1,192 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.match;
+
+import java.util.concurrent.TimeUnit;
+
+import org.drugepi.match.Match.MatchType;
+import org.drugepi.match.controllers.MatchController;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Benchmarks of the matching algorithms against synthetic propensity score cohorts:
+ * every two-way match type, and three- and <i>n</i>-way nearest neighbor matching.  Only
+ * the match itself is measured; reading and sorting the patients is done beforehand.
+ * <p>
+ * Cohort size, the ratio of referent to treated patients, and the overlap of the
+ * propensity score distributions are parameters of {@link Cohort}.  The defaults cover
+ * 10,000 to 10,000,000 patients, which takes many hours for the slower match types;
+ * narrow them on the command line, e.g. <code>-p numPatients=10000,100000</code>.
+ * <p>
+ * Run through {@link #main(String[])} to report allocation rates alongside throughput.
+ * Build with the <code>benchmarks</code> profile and start from the assembled jar:
+ * <pre>
+ * mvn -P benchmarks package
+ * java -cp target/pharmacoepi-2.4.18-jar-with-dependencies.jar org.drugepi.match.MatchBenchmark
+ * </pre>
+ * Any JMH command line options can follow the class name.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatchBenchmark {
+	/**
+	 * Parameters of the synthetic cohort.  Higher separation gives poorer overlap.
+	 */
+	@State(Scope.Benchmark)
+	public static class Cohort {
+		@Param({"10000", "100000", "1000000", "10000000"})
+		public int numPatients;
+
+		@Param({"1", "4"})
+		public double referentRatio;
+
+		@Param({"0.5", "2.0"})
+		public double separation;
+
+		public MatchSyntheticCohort createCohort(int numGroups)
+		{
+			MatchSyntheticCohort cohort = new MatchSyntheticCohort();
+			cohort.numPatients = this.numPatients;
+			cohort.numGroups = numGroups;
+			cohort.referentRatio = this.referentRatio;
+			cohort.separation = this.separation;
+
+			return cohort;
+		}
+	}
+
+	/**
+	 * A match that has read its patients and is ready to run.
+	 */
+	@State(Scope.Thread)
+	public static abstract class ReadyMatch {
+		public MatchController controller;
+
+		protected void setUp(Cohort cohort, MatchType matchType, int numGroups, int matchRatio,
+				int parallelMatchingMode)
+		throws Exception
+		{
+			MatchSyntheticCohort generator = cohort.createCohort(numGroups);
+
+			Match match = new Match();
+			match.initMatch(matchType, numGroups);
+			match.matchRatio = matchRatio;
+			match.parallelMatchingMode = parallelMatchingMode;
+			generator.addMatchGroups(match);
+			match.addPatients(generator.getReader());
+
+			this.controller = match.getMatchController();
+			this.controller.begin();
+		}
+	}
+
+	/**
+	 * Two-way matching for the match types that support both sequential and parallel mode.
+	 */
+	@State(Scope.Thread)
+	public static class TwoWayMatch extends ReadyMatch {
+		@Param({"NN", "BALANCED_NN", "GREEDY_DIGIT"})
+		public MatchType matchType;
+
+		@Param({"1", "2", "5", "10"})
+		public int matchRatio;
+
+		@Param({"0", "1"})
+		public int parallelMatchingMode;
+
+		@Setup(Level.Invocation)
+		public void setUp(Cohort cohort)
+		throws Exception
+		{
+			this.setUp(cohort, this.matchType, 2, this.matchRatio, this.parallelMatchingMode);
+		}
+	}
+
+	/**
+	 * Two-way matching for the match types that support only sequential mode.
+	 */
+	@State(Scope.Thread)
+	public static class SequentialTwoWayMatch extends ReadyMatch {
+		@Param({"GREEDY_CALIPER", "COMPLETE"})
+		public MatchType sequentialMatchType;
+
+		@Param({"1", "2", "5", "10"})
+		public int sequentialMatchRatio;
+
+		@Setup(Level.Invocation)
+		public void setUp(Cohort cohort)
+		throws Exception
+		{
+			this.setUp(cohort, this.sequentialMatchType, 2, this.sequentialMatchRatio, 0);
+		}
+	}
+
+	/**
+	 * Nearest neighbor matching of three groups, or of <i>n</i> groups for more than three.
+	 * These have no parallel mode.
+	 */
+	@State(Scope.Thread)
+	public static class MultiWayMatch extends ReadyMatch {
+		@Param({"3", "4"})
+		public int numGroups;
+
+		@Setup(Level.Invocation)
+		public void setUp(Cohort cohort)
+		throws Exception
+		{
+			this.setUp(cohort, MatchType.NN, this.numGroups, 1, 0);
+		}
+	}
+
+	@Benchmark
+	public MatchController twoWay(TwoWayMatch run)
+	throws Exception
+	{
+		run.controller.match();
+		return run.controller;
+	}
+
+	@Benchmark
+	public MatchController sequentialTwoWay(SequentialTwoWayMatch run)
+	throws Exception
+	{
+		run.controller.match();
+		return run.controller;
+	}
+
+	@Benchmark
+	public MatchController multiWay(MultiWayMatch run)
+	throws Exception
+	{
+		run.controller.match();
+		return run.controller;
+	}
+
+	/**
+	 * Run the matching benchmarks with JMH's GC profiler, which reports allocation rates.
+	 *
+	 * @param args	JMH command line options.
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(MatchBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,21 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi;
+
+/**
+ * Writes each tool message to standard output, one per line.  Every tool starts with
+ * one of these attached; remove it with {@link PharmacoepiTool#removeAllListeners()} to
+ * run silently.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ConsoleToolListener extends ToolListenerAdapter {
+	public void message(PharmacoepiTool tool, String message)
+	{
+		System.out.println(message);
+	}
+}
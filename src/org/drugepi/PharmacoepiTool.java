@@ -23,9 +23,44 @@ public abstract class PharmacoepiTool {
 	
 	private long startTime;
 	
+	protected ToolEvents events;
+	
 	public PharmacoepiTool()
 	{
-		// not implemented
+		this.events = new ToolEvents(this);
+		this.events.addListener(new ConsoleToolListener());
+	}
+	
+	/**
+	 * Add a listener for progress events.  Each tool starts with a 
+	 * {@link ConsoleToolListener} attached.
+	 * 
+	 * @param listener	The listener.
+	 */
+	public void addListener(ToolListener listener)
+	{
+		this.events.addListener(listener);
+	}
+	
+	public void removeListener(ToolListener listener)
+	{
+		this.events.removeListener(listener);
+	}
+	
+	/**
+	 * Remove all listeners, including the console listener.
+	 */
+	public void removeAllListeners()
+	{
+		this.events.removeAllListeners();
+	}
+	
+	/**
+	 * @return	The tool's event sender.
+	 */
+	public ToolEvents getEvents()
+	{
+		return this.events;
 	}
 		
 	/**
@@ -95,7 +130,7 @@ public abstract class PharmacoepiTool {
 	 
 	protected void startTool()
 	{
-        System.out.printf("NOTE: %s version %s starting at %s.\n", 
+        this.events.note("NOTE: %s version %s starting at %s.", 
         		description, version, new Date().toString());
 		this.startTime = System.currentTimeMillis();
 	}
@@ -106,7 +141,7 @@ public abstract class PharmacoepiTool {
         double minutes = Math.floor(eTime / (60 * 1000F));
         eTime -= minutes * 60 * 1000F;
         double seconds = eTime / 1000F;
-        System.out.printf("NOTE: %s finished at %s.  Run time: %02d:%02.3f.\n", 
+        this.events.note("NOTE: %s finished at %s.  Run time: %02d:%02.3f.", 
         		description, new Date().toString(), (int) minutes, seconds);
 	}
 
@@ -0,0 +1,151 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Sends a tool's events to its listeners.  Each method returns at once when no
+ * listeners are attached; in particular, messages are not formatted.  Since every tool
+ * starts with a {@link ConsoleToolListener} attached, callers reporting progress from a
+ * loop should check {@link #isProgressDue(String)} before building the report, which
+ * limits each source to one report per {@link #PROGRESS_INTERVAL_MILLIS}.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolEvents {
+	/**
+	 * Minimum time between the progress reports of a source.
+	 */
+	public static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+	private PharmacoepiTool tool;
+	private List<ToolListener> listeners;
+	private ConcurrentMap<String, Long> lastProgressTimes;
+
+	private String currentPhase;
+	private long phaseStartTime;
+
+	/**
+	 * @param tool		The tool named as the source of each event, or null for events
+	 * 					not sent by a tool, such as those of a server.
+	 */
+	public ToolEvents(PharmacoepiTool tool)
+	{
+		super();
+		this.tool = tool;
+		this.listeners = new CopyOnWriteArrayList<ToolListener>();
+		this.lastProgressTimes = new ConcurrentHashMap<String, Long>();
+	}
+
+	public void addListener(ToolListener listener)
+	{
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(ToolListener listener)
+	{
+		this.listeners.remove(listener);
+	}
+
+	public void removeAllListeners()
+	{
+		this.listeners.clear();
+	}
+
+	public boolean hasListeners()
+	{
+		return (! this.listeners.isEmpty());
+	}
+
+	/**
+	 * Check whether a source should report its progress.  A report is due when listeners
+	 * are attached and the source has not been told a report was due in the last
+	 * {@link #PROGRESS_INTERVAL_MILLIS}.  The first check for each source is always due.
+	 *
+	 * @param source	Description of the source, e.g. the thread reporting.
+	 * @return			Whether the source should report its progress now.
+	 */
+	public boolean isProgressDue(String source)
+	{
+		if (this.listeners.isEmpty())
+			return false;
+
+		long now = System.currentTimeMillis();
+		Long last = this.lastProgressTimes.get(source);
+		if (last == null)
+			return (this.lastProgressTimes.putIfAbsent(source, now) == null);
+
+		if (now - last < PROGRESS_INTERVAL_MILLIS)
+			return false;
+
+		return this.lastProgressTimes.replace(source, last, now);
+	}
+
+	/**
+	 * Send a message.
+	 *
+	 * @param format	The message, or a format string for it if there are arguments.
+	 * @param args		Arguments for the format string.
+	 */
+	public void note(String format, Object... args)
+	{
+		if (this.listeners.isEmpty())
+			return;
+
+		String message = (args.length == 0 ? format : String.format(format, args));
+		for (ToolListener listener: this.listeners)
+			listener.message(this.tool, message);
+	}
+
+	/**
+	 * End the current phase, if any, and start a new one.
+	 */
+	public synchronized void startPhase(String phase)
+	{
+		this.endPhase();
+
+		this.currentPhase = phase;
+		this.phaseStartTime = System.currentTimeMillis();
+		for (ToolListener listener: this.listeners)
+			listener.phaseStarted(this.tool, phase);
+	}
+
+	/**
+	 * End the current phase, if any.
+	 */
+	public synchronized void endPhase()
+	{
+		if (this.currentPhase == null)
+			return;
+
+		String phase = this.currentPhase;
+		this.currentPhase = null;
+		long elapsedMillis = System.currentTimeMillis() - this.phaseStartTime;
+		for (ToolListener listener: this.listeners)
+			listener.phaseEnded(this.tool, phase, elapsedMillis);
+	}
+
+	public void rowsProcessed(String source, long numRows)
+	{
+		for (ToolListener listener: this.listeners)
+			listener.rowsProcessed(this.tool, source, numRows);
+	}
+
+	public void dimensionDone(int dimensionId, String description, long numRows)
+	{
+		for (ToolListener listener: this.listeners)
+			listener.dimensionDone(this.tool, dimensionId, description, numRows);
+	}
+
+	public void matchesMade(long numMatches)
+	{
+		for (ToolListener listener: this.listeners)
+			listener.matchesMade(this.tool, numMatches);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi;
+
+/**
+ * Receives progress events from a tool.  Add listeners with
+ * {@link PharmacoepiTool#addListener(ToolListener)}.
+ * <p>
+ * Events can arrive from any of the tool's worker threads, so implementations must be
+ * thread safe.  They should return quickly and must not throw.  Extend
+ * {@link ToolListenerAdapter} to receive only some events.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ * @see ConsoleToolListener
+ */
+public interface ToolListener {
+	/**
+	 * A progress or status message, of the kind written to the console.
+	 *
+	 * @param tool		The tool sending the event.
+	 * @param message	The message, without a trailing line break.
+	 */
+	public void message(PharmacoepiTool tool, String message);
+
+	/**
+	 * A phase of the run has started.
+	 *
+	 * @param tool		The tool sending the event.
+	 * @param phase		Name of the phase, e.g. <code>read_dimensions</code>.
+	 */
+	public void phaseStarted(PharmacoepiTool tool, String phase);
+
+	/**
+	 * A phase of the run has ended.
+	 *
+	 * @param tool			The tool sending the event.
+	 * @param phase			Name of the phase.
+	 * @param elapsedMillis	Time taken by the phase.
+	 */
+	public void phaseEnded(PharmacoepiTool tool, String phase, long elapsedMillis);
+
+	/**
+	 * Rows have been processed from an input.  Sent periodically while an input is
+	 * read, and when it is finished.
+	 *
+	 * @param tool		The tool sending the event.
+	 * @param source	Description of the input.
+	 * @param numRows	Rows processed from the input so far.
+	 */
+	public void rowsProcessed(PharmacoepiTool tool, String source, long numRows);
+
+	/**
+	 * An hd-PS dimension has been read and its variables calculated.
+	 *
+	 * @param tool			The tool sending the event.
+	 * @param dimensionId	Number of the dimension, starting at 1.
+	 * @param description	Description of the dimension.
+	 * @param numRows		Input rows read, or -1 if not known.
+	 */
+	public void dimensionDone(PharmacoepiTool tool, int dimensionId, String description,
+			long numRows);
+
+	/**
+	 * Matches have been made.  Sent periodically during long matches, and when each
+	 * match pass is finished.
+	 *
+	 * @param tool			The tool sending the event.
+	 * @param numMatches	Matches made so far.
+	 */
+	public void matchesMade(PharmacoepiTool tool, long numMatches);
+}
@@ -0,0 +1,40 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi;
+
+/**
+ * A {@link ToolListener} that ignores every event.  Extend it and override the events
+ * of interest.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public abstract class ToolListenerAdapter implements ToolListener {
+	public void message(PharmacoepiTool tool, String message)
+	{
+	}
+
+	public void phaseStarted(PharmacoepiTool tool, String phase)
+	{
+	}
+
+	public void phaseEnded(PharmacoepiTool tool, String phase, long elapsedMillis)
+	{
+	}
+
+	public void rowsProcessed(PharmacoepiTool tool, String source, long numRows)
+	{
+	}
+
+	public void dimensionDone(PharmacoepiTool tool, int dimensionId, String description,
+			long numRows)
+	{
+	}
+
+	public void matchesMade(PharmacoepiTool tool, long numMatches)
+	{
+	}
+}
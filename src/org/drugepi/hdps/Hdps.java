@@ -11,8 +11,11 @@ import java.util.List;
 
 import org.drugepi.PharmacoepiTool;
 import org.drugepi.hdps.db.HdpsDbController;
+import org.drugepi.hdps.db.HdpsHybridController;
 import org.drugepi.hdps.local.HdpsLocalController;
+import org.drugepi.util.PartitionedDatabaseRowReader;
 import org.drugepi.util.RowReader;
+import org.drugepi.util.TabDelimitedFileReader;
 
 
 /**
@@ -36,8 +39,11 @@ import org.drugepi.util.RowReader;
  * Patient data must be specified in the following order:
  * <ul>
  * 	<li>patient ID
- * 	<li>exposure status (1=exposed, 0=unexposed)
+ * 	<li>exposure status (1=exposed, 0=unexposed), or the exposure level (e.g., a drug name)
+ * 		when exposure contrasts are specified
  * 	<li>outcome status (1=outcome; 0=no outcome)
+ * 	<li>follow-up time (optional; defaults to 1)
+ * 	<li>index date (optional; required only when an assessment window is used)
  * </ul>
  * <p>
  * Dimension information is specified through the {@link #addDimension(String, RowReader)} or 
@@ -46,8 +52,21 @@ import org.drugepi.util.RowReader;
  * <ul>
  * 	<li>patient ID
  * 	<li>code (e.g., diagnosis code, drug name, etc.)
- * 	<li>date that code occurred (value currently ignored; can leave as 0)
+ * 	<li>date that code occurred (used only when an assessment window is specified; 
+ * 		otherwise can leave as 0)
  * </ul>
+ * <p>
+ * Dates are integers, such as SAS date values.  When {@link #useAssessmentWindow} is set,
+ * dimension rows are kept only if the code date falls between {@link #assessmentWindowStart}
+ * and {@link #assessmentWindowEnd} days (inclusive) of the patient's index date.
+ * <p>
+ * When exposure contrasts are added with {@link #addExposureContrast(String, String)}, the
+ * exposure column holds a categorical exposure level.  Patients and dimensions are read 
+ * once; candidate variables are identified over all patients.  Variable statistics, 
+ * ranking, selection, and output are then repeated for each contrast, restricted to the 
+ * patients at the contrast's two levels.  Each contrast's output files are prefixed with 
+ * the contrast name, e.g., <code>A_vs_B_output_all_vars.txt</code>.  Only available in 
+ * LOCAL and HYBRID modes.
  * 
  * @author Jeremy A. Rassen
  * @version 2.1.0
@@ -70,6 +89,12 @@ public class Hdps extends PharmacoepiTool
 	 */
 	public static final String hdpsModeDB = "DB";
 	
+	/**
+	 * Constant string indicating hybrid mode operation: codes are counted and filtered in 
+	 * the database, and the remaining steps run in memory as in local mode. 
+	 */
+	public static final String hdpsModeHybrid = "HYBRID";
+	
 	/**
 	 * Constant string indicating bias-based variable ranking. 
 	 */
@@ -85,12 +110,28 @@ public class Hdps extends PharmacoepiTool
 	 */
 	public static final String RANKING_METHOD_OUTCOME = "OUTCOME_ASSOC";
 	
+	/**
+	 * Constant string indicating ranking by order of entry into an L1-penalized (lasso) 
+	 * logistic regression. 
+	 */
+	public static final String RANKING_METHOD_LASSO = "LASSO";
+	
 	/**
 	 * Constant string indicating no particular variable ranking; this
 	 * is meant to be used when particular variables are selected. 
 	 */
 	public static final String RANKING_METHOD_NONE = "NO_RANKING";
 	
+	/**
+	 * Constant string indicating that lasso ranking should model exposure. 
+	 */
+	public static final String LASSO_TARGET_EXPOSURE = "EXPOSURE";
+	
+	/**
+	 * Constant string indicating that lasso ranking should model outcome. 
+	 */
+	public static final String LASSO_TARGET_OUTCOME = "OUTCOME";
+	
 	/**
 	 * Constant string indicating dichotomous/binary outcome type. 
 	 */
@@ -130,9 +171,15 @@ public class Hdps extends PharmacoepiTool
 	public int frequencyMin;
 
 	/**
-	 * The type of variable ranking to do: BIAS, EXPOSURE_ASSOC, OUTCOME_ASSOC.  Default is BIAS.
+	 * The type of variable ranking to do: BIAS, EXPOSURE_ASSOC, OUTCOME_ASSOC, LASSO.  Default is BIAS.
 	 */
 	public String variableRankingMethod;
+	
+	/**
+	 * For LASSO ranking, the variable to model: EXPOSURE or OUTCOME.  OUTCOME requires 
+	 * a dichotomous outcome.  Default is EXPOSURE.
+	 */
+	public String lassoTarget;
 
 	/**
 	 * An indicator for whether to screen variables based on their confounder/exposure association only.  Default is 0.
@@ -170,6 +217,23 @@ public class Hdps extends PharmacoepiTool
 	 */
 	public String outcomeType;
 	
+	/**
+	 * An indicator for whether to restrict dimension data to an assessment window defined 
+	 * relative to each patient's index date.  The patient data must include an index date 
+	 * column.  Rows outside the window are dropped as the dimension is read.  Default is 0.
+	 */
+	public int useAssessmentWindow;
+	
+	/**
+	 * The first day of the assessment window, relative to the index date.  Default is -365.
+	 */
+	public int assessmentWindowStart;
+	
+	/**
+	 * The last day of the assessment window, relative to the index date.  Default is -1.
+	 */
+	public int assessmentWindowEnd;
+	
 	
 	/**
 	 * An indicator for whether the algorithm should output a full cohort with all variable information
@@ -185,7 +249,8 @@ public class Hdps extends PharmacoepiTool
 	
 	/**
 	 * An indicator for whether the algorithm should output a sparse cohort with a variable list
-	 * for each patient.  Default is 0.
+	 * for each patient.  In DB mode, a variable whose value is neither 0 nor 1 is listed as
+	 * <code>name=value</code>.  Default is 0.
 	 */
 	public int doSparseOutput;
 	
@@ -195,6 +260,43 @@ public class Hdps extends PharmacoepiTool
 	public String sparseOutputFilename = "output_sparse_cohort.txt";
 
 	
+	/**
+	 * An indicator for whether the algorithm should fit a logistic regression of exposure on
+	 * the selected variables, plus any covariates added through {@link #addPsCovariates(String)},
+	 * and write each patient's estimated propensity score.  Default is 0.
+	 */
+	public int doPsEstimation;
+	
+	/**
+	 *  The name of the propensity score output file, if propensity score estimation has been 
+	 *  requested.  The file contains patient_id, exposure, and ps columns, and can be passed 
+	 *  directly to {@link org.drugepi.match.Match}.  Default is output_ps.txt.
+	 */
+	public String psOutputFilename = "output_ps.txt";
+	
+	/**
+	 * The number of threads to use for multithreaded calculations.  Default is 0, 
+	 * which uses one thread per available processor.
+	 */
+	public int numThreads;
+	
+	/**
+	 * The number of resampling replicates to use to estimate how stable variable selection is.
+	 * When greater than 0, each replicate reweights patients with Poisson(1) bootstrap weights,
+	 * recalculates the ranking of every candidate variable, and selects the top <i>k</i>; the
+	 * fraction of replicates in which each variable was selected is written to the 
+	 * selection_frequency column of the variable output file.  Not available with lasso 
+	 * ranking.  Default is 0 (no stability analysis).
+	 */
+	public int stabilityReplicates;
+	
+	/**
+	 * The random number seed for the stability analysis.  Runs with the same seed and data
+	 * give the same selection frequencies, regardless of the number of threads.  Default is 1234567.
+	 */
+	public long stabilitySeed;
+
+	
 	/**
 	 * The path to a directory where the hd-PS algorithm can store temporary files.  There should be 
 	 * enough space in the directory to hold a second copy of the input cohort and each of the dimensions.
@@ -221,6 +323,111 @@ public class Hdps extends PharmacoepiTool
 	public String dbUsername;
 	public String dbPassword;
 	
+	/**
+	 * The SQL dialect of the database: NETEZZA, POSTGRESQL, or H2.  Default is null, 
+	 * which chooses the dialect from dbUrl, using NETEZZA for unrecognized URLs.
+	 */
+	public String dbDialect;
+	
+	/**
+	 * The maximum number of database connections open at once in DB mode, shared by the 
+	 * patient, dimension and output steps.  Must be at least 2.  Default is 8.
+	 */
+	public int dbMaxConnections;
+	
+	/**
+	 * The maximum number of independent SQL steps run at once in DB mode, each on its own 
+	 * connection.  Default is 4.
+	 */
+	public int dbMaxConcurrentStatements;
+	
+	/**
+	 * The number of times a DB mode SQL step is retried after a transient failure, such 
+	 * as a deadlock or serialization conflict.  Default is 2.
+	 */
+	public int dbMaxRetries;
+	
+	/**
+	 * The number of slowest SQL statement templates whose <code>EXPLAIN</code> plans are 
+	 * added to the SQL profile written at the end of a DB or HYBRID mode run.  Default is 0.
+	 */
+	public int dbExplainTopQueries;
+	
+	/*
+	 * ===========================================
+	 * PUBLIC VARIABLES FOR LOCAL MODE 
+	 * ===========================================
+	 */
+	/**
+	 * An indicator for whether dimension data should be bulk loaded into the local 
+	 * database.  When 1, (code, patient) occurrences are buffered in memory, sorted, 
+	 * spilled to temporary run files when the buffer fills, and merged into a 
+	 * deferred-write database in key order, instead of being looked up and updated in the 
+	 * database one row at a time.  Results are the same either way.  Default is 0.
+	 */
+	public int useBulkLoad;
+	
+	/**
+	 * The number of dimension rows each dimension buffers in memory during a bulk load 
+	 * before writing a sorted run to the temp directory.  Each row uses about 12 bytes.
+	 * Default is 4194304.
+	 */
+	public int bulkLoadBufferSize;
+	
+	/**
+	 * The percentage of the Java heap to use for the local database cache.  Default is 0, 
+	 * which uses the database's own default.
+	 */
+	public int dbCachePercent;
+	
+	/**
+	 * The number of rows fetched from the database at a time when dimension data is read 
+	 * from a database query, or 0 for the driver's default.  Default is 10000.
+	 */
+	public int dbFetchSize;
+	
+	/**
+	 * The number of partitions into which a dimension's database query is split, each read 
+	 * at the same time through its own connection.  Rows then arrive in no particular 
+	 * order, as they may for any query without an ORDER BY, so variable numbering can 
+	 * differ between runs.  Default is 1, which reads through a single cursor.
+	 */
+	public int dbReadPartitions;
+	
+	/**
+	 * How a dimension's database query is partitioned when dbReadPartitions is more than 1:
+	 * HASH, on the partition column's value (or its hash) modulo the number of partitions,
+	 * or RANGE, on equal ranges of an integer partition column.  Default is HASH.
+	 */
+	public String dbReadPartitionMethod;
+	
+	/**
+	 * The column on which a dimension's database query is partitioned.  Default is null, 
+	 * which uses the query's first column, the patient ID.
+	 */
+	public String dbReadPartitionColumn;
+	
+	/**
+	 * The SQL function that makes an integer of the partition column's values in HASH
+	 * partitioning, e.g. hashtext in PostgreSQL.  Default is null, which uses integer 
+	 * values as is and hashes other values with the database dialect's function: hashtext
+	 * in PostgreSQL and ORA_HASH in H2.  Netezza has none, so a character partition column
+	 * there needs a function set here.
+	 */
+	public String dbReadPartitionHashFunction;
+	
+	/**
+	 * An indicator for whether dimensions read from a database query are first filtered 
+	 * for prevalence in the database.  When 1, the database counts each code's patients, 
+	 * the codes to consider are chosen from the counts, and only the rows of those codes 
+	 * are read.  Requires the patients to be read from the same database, and no assessment
+	 * window; otherwise all rows are read.  The codes considered and the variables' counts
+	 * are the same either way.  Codes are named in the order of their first rows, so the variables'
+	 * names are the same only if the dimension query returns its rows in the same order 
+	 * each time it is run.  Default is 0.
+	 */
+	public int dbPushDownPrevalence;
+	
 	/**
 	 * Whether to maintain the output tables after the run.
 	 */
@@ -236,6 +443,8 @@ public class Hdps extends PharmacoepiTool
 	protected int numDimensions = 0;
 	protected String mode;
 	protected List<String> requestedVariables;
+	protected RowReader psCovariateReader;
+	protected List<HdpsExposureContrast> exposureContrasts;
 
 	private HdpsController hdpsController;
 	
@@ -250,13 +459,35 @@ public class Hdps extends PharmacoepiTool
 		this.frequencyMin = 0;
 		this.exposureOnlyScreen = 0;
 		this.variableRankingMethod = RANKING_METHOD_BIAS;
+		this.lassoTarget = LASSO_TARGET_EXPOSURE;
 		this.outcomeType = OUTCOME_TYPE_DICHOTOMOUS;
 		this.useOutcomeZeroCellCorrection = 0;
 		this.inferServiceIntensityVars = 0;
+		this.useAssessmentWindow = 0;
+		this.assessmentWindowStart = -365;
+		this.assessmentWindowEnd = -1;
 		this.doFullOutput = 1;
 		this.doSparseOutput = 0;
+		this.doPsEstimation = 0;
+		this.numThreads = 0;
+		this.stabilityReplicates = 0;
+		this.stabilitySeed = 1234567;
 		this.dbKeepOutputTables = 0;
+		this.dbMaxConnections = 8;
+		this.dbMaxConcurrentStatements = 4;
+		this.dbMaxRetries = 2;
+		this.dbExplainTopQueries = 0;
+		this.useBulkLoad = 0;
+		this.bulkLoadBufferSize = 1 << 22;
+		this.dbCachePercent = 0;
+		this.dbFetchSize = 10000;
+		this.dbReadPartitions = 1;
+		this.dbReadPartitionMethod = PartitionedDatabaseRowReader.PARTITION_HASH;
+		this.dbReadPartitionColumn = null;
+		this.dbReadPartitionHashFunction = null;
+		this.dbPushDownPrevalence = 0;
 		this.requestedVariables = new ArrayList<String>();
+		this.exposureContrasts = new ArrayList<HdpsExposureContrast>();
 		try {
 			this.setMode(Hdps.hdpsModeLocal);
 		} catch (Exception e) {
@@ -300,6 +531,25 @@ public class Hdps extends PharmacoepiTool
 		this.hdpsController.addDimension(description, filePath);
 	}
 	
+	/**
+	 * Add a dimension to the hd-PS run, with dimension data read from the specified row reader object.
+	 * 
+	 * @param description	Description of the dimension.
+	 * @param reader		The row reader object.  Rows should contain three columns:
+	 * 						patient_id, code, date.  Columns must be returned in this order.
+	 * @throws Exception	
+	 */
+	public void addDimension(String description, RowReader reader)
+	throws Exception
+	{
+		numDimensions++;
+		
+		if (numDimensions > Hdps.MAX_DIMENSIONS) 
+			throw new HdpsException("Too many dimensions specified.");
+		
+		this.hdpsController.addDimension(description, reader);
+	}
+	
 	/**
 	 * Add a dimension to the hd-PS run, with dimension data stored in a database.
 	 * 
@@ -344,6 +594,54 @@ public class Hdps extends PharmacoepiTool
 			this.requestedVariables.add(hashValue);
 	}
 	
+	/**
+	 * Add user-specified covariates to the propensity score model, with covariate data stored 
+	 * in a tab-delimited file.  Only used when propensity score estimation is requested.
+	 * 
+	 * @param filePath		Path of the covariate data file.  The first column must be 
+	 * 						the patient ID; each remaining column is a numeric covariate.  
+	 * 						Every patient must appear in the file.
+	 * @throws Exception	
+	 */
+	public void addPsCovariates(String filePath)
+	throws Exception
+	{
+		this.addPsCovariates(new TabDelimitedFileReader(filePath));
+	}
+	
+	/**
+	 * Add user-specified covariates to the propensity score model from the specified 
+	 * row reader object.
+	 * 
+	 * @param reader	The row reader object.
+	 * @see #addPsCovariates(String)
+	 */
+	public void addPsCovariates(RowReader reader)
+	{
+		this.psCovariateReader = reader;
+	}
+	
+	/**
+	 * Add a comparison of two levels of a categorical exposure.  Once any contrast is added,
+	 * the exposure column of the patient data is read as an exposure level rather than as 
+	 * 1/0, and one set of output is produced for each contrast.
+	 * 
+	 * @param exposedLevel		Exposure level treated as exposed (e.g., the drug of interest).
+	 * @param referenceLevel	Exposure level treated as unexposed (e.g., a comparator).
+	 */
+	public void addExposureContrast(String exposedLevel, String referenceLevel)
+	{
+		this.exposureContrasts.add(new HdpsExposureContrast(exposedLevel, referenceLevel));
+	}
+	
+	/**
+	 * @return	The exposure contrasts, in the order added.
+	 */
+	public List<HdpsExposureContrast> getExposureContrasts()
+	{
+		return this.exposureContrasts;
+	}
+	
 	/*
 	 * ===========================================
 	 * PROTECTED METHODS
@@ -361,6 +659,22 @@ public class Hdps extends PharmacoepiTool
 		this.hdpsController.run();
     }
 	
+	/**
+	 * @return	Paths of the files written by the last run.
+	 */
+	public List<String> getOutputFiles()
+	{
+		return this.hdpsController.getMetrics().getOutputFiles();
+	}
+	
+	/*
+	 * The controller for the current mode, for benchmarks in this package.
+	 */
+	HdpsController getController()
+	{
+		return this.hdpsController;
+	}
+	
 	/*
 	 * ===========================================
 	 * GETTERS AND SETTERS
@@ -459,6 +773,244 @@ public class Hdps extends PharmacoepiTool
 		this.doSparseOutput = doSparseOutput;
 	}
 	
+	/**
+     * @see #useAssessmentWindow
+	 */
+	public int getUseAssessmentWindow() {
+		return useAssessmentWindow;
+	}
+
+	/**
+     * @see #useAssessmentWindow
+	 */
+	public void setUseAssessmentWindow(int useAssessmentWindow) {
+		this.useAssessmentWindow = useAssessmentWindow;
+	}
+
+	/**
+     * @see #assessmentWindowStart
+	 */
+	public int getAssessmentWindowStart() {
+		return assessmentWindowStart;
+	}
+
+	/**
+     * @see #assessmentWindowStart
+	 */
+	public void setAssessmentWindowStart(int assessmentWindowStart) {
+		this.assessmentWindowStart = assessmentWindowStart;
+	}
+
+	/**
+     * @see #assessmentWindowEnd
+	 */
+	public int getAssessmentWindowEnd() {
+		return assessmentWindowEnd;
+	}
+
+	/**
+     * @see #assessmentWindowEnd
+	 */
+	public void setAssessmentWindowEnd(int assessmentWindowEnd) {
+		this.assessmentWindowEnd = assessmentWindowEnd;
+	}
+	
+	/**
+     * @see #doPsEstimation
+	 */
+	public int getDoPsEstimation() {
+		return doPsEstimation;
+	}
+
+	/**
+     * @see #doPsEstimation
+	 */
+	public void setDoPsEstimation(int doPsEstimation) {
+		this.doPsEstimation = doPsEstimation;
+	}
+
+	/**
+     * @see #psOutputFilename
+	 */
+	public String getPsOutputFilename() {
+		return psOutputFilename;
+	}
+
+	/**
+     * @see #psOutputFilename
+	 */
+	public void setPsOutputFilename(String psOutputFilename) {
+		this.psOutputFilename = psOutputFilename;
+	}
+
+	/**
+     * @see #numThreads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+     * @see #numThreads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+     * @see #stabilityReplicates
+	 */
+	public int getStabilityReplicates() {
+		return stabilityReplicates;
+	}
+
+	/**
+     * @see #stabilityReplicates
+	 */
+	public void setStabilityReplicates(int stabilityReplicates) {
+		this.stabilityReplicates = stabilityReplicates;
+	}
+
+	/**
+     * @see #stabilitySeed
+	 */
+	public long getStabilitySeed() {
+		return stabilitySeed;
+	}
+
+	/**
+     * @see #stabilitySeed
+	 */
+	public void setStabilitySeed(long stabilitySeed) {
+		this.stabilitySeed = stabilitySeed;
+	}
+	
+	/**
+     * @see #useBulkLoad
+	 */
+	public int getUseBulkLoad() {
+		return useBulkLoad;
+	}
+
+	/**
+     * @see #useBulkLoad
+	 */
+	public void setUseBulkLoad(int useBulkLoad) {
+		this.useBulkLoad = useBulkLoad;
+	}
+
+	/**
+     * @see #bulkLoadBufferSize
+	 */
+	public int getBulkLoadBufferSize() {
+		return bulkLoadBufferSize;
+	}
+
+	/**
+     * @see #bulkLoadBufferSize
+	 */
+	public void setBulkLoadBufferSize(int bulkLoadBufferSize) {
+		this.bulkLoadBufferSize = bulkLoadBufferSize;
+	}
+
+	/**
+     * @see #dbCachePercent
+	 */
+	public int getDbCachePercent() {
+		return dbCachePercent;
+	}
+
+	/**
+     * @see #dbCachePercent
+	 */
+	public void setDbCachePercent(int dbCachePercent) {
+		this.dbCachePercent = dbCachePercent;
+	}
+	
+	/**
+	 * @see #dbFetchSize
+	 */
+	public int getDbFetchSize() {
+		return dbFetchSize;
+	}
+
+	/**
+	 * @see #dbFetchSize
+	 */
+	public void setDbFetchSize(int dbFetchSize) {
+		this.dbFetchSize = dbFetchSize;
+	}
+
+	/**
+	 * @see #dbReadPartitions
+	 */
+	public int getDbReadPartitions() {
+		return dbReadPartitions;
+	}
+
+	/**
+	 * @see #dbReadPartitions
+	 */
+	public void setDbReadPartitions(int dbReadPartitions) {
+		this.dbReadPartitions = dbReadPartitions;
+	}
+
+	/**
+	 * @see #dbReadPartitionMethod
+	 */
+	public String getDbReadPartitionMethod() {
+		return dbReadPartitionMethod;
+	}
+
+	/**
+	 * @see #dbReadPartitionMethod
+	 */
+	public void setDbReadPartitionMethod(String dbReadPartitionMethod) {
+		this.dbReadPartitionMethod = dbReadPartitionMethod;
+	}
+
+	/**
+	 * @see #dbReadPartitionColumn
+	 */
+	public String getDbReadPartitionColumn() {
+		return dbReadPartitionColumn;
+	}
+
+	/**
+	 * @see #dbReadPartitionColumn
+	 */
+	public void setDbReadPartitionColumn(String dbReadPartitionColumn) {
+		this.dbReadPartitionColumn = dbReadPartitionColumn;
+	}
+
+	/**
+	 * @see #dbReadPartitionHashFunction
+	 */
+	public String getDbReadPartitionHashFunction() {
+		return dbReadPartitionHashFunction;
+	}
+
+	/**
+	 * @see #dbReadPartitionHashFunction
+	 */
+	public void setDbReadPartitionHashFunction(String dbReadPartitionHashFunction) {
+		this.dbReadPartitionHashFunction = dbReadPartitionHashFunction;
+	}
+
+	/**
+	 * @see #dbPushDownPrevalence
+	 */
+	public int getDbPushDownPrevalence() {
+		return dbPushDownPrevalence;
+	}
+
+	/**
+	 * @see #dbPushDownPrevalence
+	 */
+	public void setDbPushDownPrevalence(int dbPushDownPrevalence) {
+		this.dbPushDownPrevalence = dbPushDownPrevalence;
+	}
+	
 	public int getNumDimensions() {
 		return numDimensions;
 	}
@@ -471,9 +1023,11 @@ public class Hdps extends PharmacoepiTool
 			this.hdpsController = new HdpsLocalController(this);
 		} else if (this.mode.equalsIgnoreCase(Hdps.hdpsModeDB)) {
 			this.hdpsController = new HdpsDbController(this);
+		} else if (this.mode.equalsIgnoreCase(Hdps.hdpsModeHybrid)) {
+			this.hdpsController = new HdpsHybridController(this);
 		} else {
 			throw new HdpsException(String.format(
-					"Invalid mode %s specified.  Mode must be either LOCAL or DB.", mode));
+					"Invalid mode %s specified.  Mode must be LOCAL, DB, or HYBRID.", mode));
 		}
 	}
 
@@ -485,6 +1039,20 @@ public class Hdps extends PharmacoepiTool
 		this.variableRankingMethod = varibleRankingMethod;
 	}
 
+	/**
+     * @see #lassoTarget
+	 */
+	public String getLassoTarget() {
+		return lassoTarget;
+	}
+
+	/**
+     * @see #lassoTarget
+	 */
+	public void setLassoTarget(String lassoTarget) {
+		this.lassoTarget = lassoTarget;
+	}
+
 	public int getInferServiceIntensityVars() {
 		return inferServiceIntensityVars;
 	}
@@ -598,6 +1166,76 @@ public class Hdps extends PharmacoepiTool
 	public void setDbPassword(String dbPassword) {
 		this.dbPassword = dbPassword;
 	}
+
+	/**
+	 * @see #dbDialect
+	 */
+	public String getDbDialect() {
+		return dbDialect;
+	}
+
+	/**
+	 * @see #dbDialect
+	 */
+	public void setDbDialect(String dbDialect) {
+		this.dbDialect = dbDialect;
+	}
+
+	/**
+	 * @see #dbMaxConnections
+	 */
+	public int getDbMaxConnections() {
+		return dbMaxConnections;
+	}
+
+	/**
+	 * @see #dbMaxConnections
+	 */
+	public void setDbMaxConnections(int dbMaxConnections) {
+		this.dbMaxConnections = dbMaxConnections;
+	}
+
+	/**
+	 * @see #dbMaxConcurrentStatements
+	 */
+	public int getDbMaxConcurrentStatements() {
+		return dbMaxConcurrentStatements;
+	}
+
+	/**
+	 * @see #dbMaxConcurrentStatements
+	 */
+	public void setDbMaxConcurrentStatements(int dbMaxConcurrentStatements) {
+		this.dbMaxConcurrentStatements = dbMaxConcurrentStatements;
+	}
+
+	/**
+	 * @see #dbMaxRetries
+	 */
+	public int getDbMaxRetries() {
+		return dbMaxRetries;
+	}
+
+	/**
+	 * @see #dbMaxRetries
+	 */
+	public void setDbMaxRetries(int dbMaxRetries) {
+		this.dbMaxRetries = dbMaxRetries;
+	}
+
+	/**
+	 * @see #dbExplainTopQueries
+	 */
+	public int getDbExplainTopQueries() {
+		return dbExplainTopQueries;
+	}
+
+	/**
+	 * @see #dbExplainTopQueries
+	 */
+	public void setDbExplainTopQueries(int dbExplainTopQueries) {
+		this.dbExplainTopQueries = dbExplainTopQueries;
+	}
 	
 	/**
 	 * @return the database's patient table name, if one was created
@@ -0,0 +1,205 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import org.drugepi.hdps.storage.HdpsVariable;
+
+/**
+ * Computes the 2x2 tallies, prevalences, associations, and bias for a variable.
+ * <p>
+ * Tallies are accumulated one patient at a time with {@link #addPatient}; each patient
+ * carries a weight, which is 1 for an ordinary run.  Cohort totals are set on the
+ * calculator, and {@link #calculateBias(HdpsVariable)} then fills in the remaining
+ * statistics for a variable from its tallies.
+ */
+public class HdpsBiasCalculator {
+	public double nTotal;
+	public double ptTotal;
+	public double e1Total;
+	public double ptExposed;
+	public double d1Total;
+	public double sumOfOutcomes;
+	public double numEvents;
+
+	private boolean outcomeIsDichotomousOrCount;
+	private boolean outcomeIsContinuous;
+	private boolean useOutcomeZeroCellCorrection;
+
+	/**
+	 * Create a calculator with cohort totals taken from the controller's patients.
+	 */
+	public HdpsBiasCalculator(HdpsController hdpsController)
+	{
+		HdpsPatientController patientController = hdpsController.getPatientController();
+
+		this.nTotal = (double) hdpsController.getNumPatients();
+		this.ptTotal = (double) patientController.ptTotal;
+		this.e1Total = (double) patientController.nExposed;
+		this.ptExposed = (double) patientController.ptExposed;
+		this.d1Total = (double) patientController.nOutcome;
+		this.sumOfOutcomes = patientController.sumOfOutcomes;
+		this.numEvents = patientController.numEvents;
+
+		this.outcomeIsDichotomousOrCount =
+			((hdpsController.outcomeIsDichotomous()) || (hdpsController.outcomeIsCount()));
+		this.outcomeIsContinuous = hdpsController.outcomeIsContinuous();
+		this.useOutcomeZeroCellCorrection = (hdpsController.hdps.useOutcomeZeroCellCorrection == 1);
+	}
+
+	/**
+	 * Add one patient's value of a variable to the variable's tallies.
+	 *
+	 * @param var		The variable.
+	 * @param value		The patient's value of the variable: one, zero, or missing.
+	 * @param weight	The patient's weight.
+	 */
+	public static void addPatient(HdpsVariable var, int value, double weight,
+			boolean exposed, boolean outcomeDichotomous, double outcomeContinuous,
+			int outcomeCount, int followUpTime)
+	{
+		if (value == HdpsVariable.valueZero)
+			return;
+
+		// this is a running total until the end, when it's
+		// divided by c1
+		var.c1MeanOutcome += weight * outcomeContinuous;
+
+		var.c1NumEvents += weight * outcomeCount;
+
+		if (value == HdpsVariable.valueOne)
+			var.pt_c1 += weight * followUpTime;
+
+		if (exposed) {
+			if (value == HdpsVariable.valueMissing)
+				var.e1Missing += weight;
+			else if (value == HdpsVariable.valueOne)
+				var.e1c1 += weight;
+		} else {
+			if (value == HdpsVariable.valueMissing)
+				var.e0Missing += weight;
+			else if (value == HdpsVariable.valueOne)
+				var.e0c1 += weight;
+		}
+
+		if (outcomeDichotomous) {
+			if (value == HdpsVariable.valueMissing)
+				var.d1Missing += weight;
+			else if (value == HdpsVariable.valueOne)
+				var.d1c1 += weight;
+		} else {
+			if (value == HdpsVariable.valueMissing)
+				var.d0Missing += weight;
+			else if (value == HdpsVariable.valueOne)
+				var.d0c1 += weight;
+		}
+	}
+
+	/**
+	 * Complete the statistics for a variable whose tallies have been accumulated.
+	 */
+	public void calculateBias(HdpsVariable var)
+	{
+		double e0Total = nTotal - e1Total;
+		double d0Total = nTotal - d1Total;
+
+		var.bias = 0;
+		var.nMissing = var.e1Missing + var.e0Missing;
+		var.N = nTotal - var.nMissing;
+
+		var.e1 = e1Total - var.e1Missing;
+		var.e1c0 = var.e1 - var.e1c1;
+
+		var.e0 = e0Total - var.e0Missing;
+		var.e0c0 = var.e0 - var.e0c1;
+
+		var.d1 = d1Total - var.d1Missing;
+		var.d1c0 = var.d1 - var.d1c1;
+
+		var.d0 = d0Total - var.d0Missing;
+		var.d0c0 = var.d0 - var.d0c1;
+
+		var.c1 = var.e1c1 + var.e0c1;
+		var.c0 = var.N - var.c1;
+
+		var.pt = ptTotal;
+		var.pt_e1 = ptExposed;
+		var.pt_e0 = ptTotal - ptExposed;
+		var.pt_c0 = ptTotal - var.pt_c1;
+
+		var.numEvents = numEvents;
+		var.c0NumEvents = numEvents - var.c1NumEvents;
+
+		// so far, these are running totals.  divide to get means.
+		var.meanOutcome = sumOfOutcomes / nTotal;
+		if (var.c1 > 0)
+			var.c1MeanOutcome = var.c1MeanOutcome / var.c1;
+		else
+			var.c1MeanOutcome = -1;
+		if (var.c0 > 0)
+			var.c0MeanOutcome = (((var.meanOutcome * nTotal) - (var.c1MeanOutcome * var.c1)) / var.c0);
+		else
+			var.c0MeanOutcome = -1;
+
+		try {
+			if (var.e1 > 0)
+				var.pc_e1 = var.e1c1 / var.e1;
+			else
+				var.pc_e1 = 0;
+
+			if (var.e0 > 0)
+				var.pc_e0 = var.e0c1 / var.e0;
+			else
+				var.pc_e0 = 0;
+
+			if (var.pc_e1 > 0.5)
+				var.pc_e1 = 1.0 - var.pc_e1;
+			if (var.pc_e0 > 0.5)
+				var.pc_e0 = 1.0 - var.pc_e0;
+
+			// set default values, in case anything in here fails
+			// !!! better to do this in HdpsVariable?
+			var.rrCe = HdpsVariable.INVALID;
+			var.expAssocRankingVariable = HdpsVariable.INVALID;
+			var.rrCd = HdpsVariable.INVALID;
+			var.bias = HdpsVariable.INVALID;
+			var.biasRankingVariable = HdpsVariable.INVALID;
+			var.outcomeAssocRankingVariable = HdpsVariable.INVALID;
+
+			if ((var.pc_e0 > 0) && (var.pc_e1 > 0)) {
+				var.rrCe = var.pc_e1 / var.pc_e0;
+				var.expAssocRankingVariable = Math.abs(Math.log(var.rrCe));
+			}
+
+			if (this.outcomeIsDichotomousOrCount)
+			{
+				if (this.useOutcomeZeroCellCorrection)
+					var.rrCd = (((var.c1NumEvents + 0.1) / (var.pt_c1 + 0.1)) / ((var.c0NumEvents + 0.1) / (var.pt_c0 + 0.1)));
+				else if ((var.c1NumEvents > 0) && (var.pt_c1 > 0) && (var.c0NumEvents > 0) &&
+						 (var.pt_c0 > 0))
+					var.rrCd = ((var.c1NumEvents / var.pt_c1) / (var.c0NumEvents / var.pt_c0));
+
+				if ((var.rrCd > 0) && (var.rrCd < 1))
+					var.rrCd = 1 / var.rrCd;
+
+				if (var.rrCd > 0)
+					var.outcomeAssocRankingVariable = Math.abs(Math.log(var.rrCd));
+
+			} else if (this.outcomeIsContinuous) {
+				var.rrCd = var.c1MeanOutcome - var.c0MeanOutcome;
+				var.outcomeAssocRankingVariable = Math.abs(var.rrCd);
+			}
+
+			if ((var.pc_e0 > 0) && (var.pc_e1 > 0) && (var.rrCd > 0)) {
+				double biasA = var.pc_e1 * (var.rrCd - 1.0) + 1.0;
+				double biasB = var.pc_e0 * (var.rrCd - 1.0) + 1.0;
+				var.bias = biasA / biasB;
+				var.biasRankingVariable = Math.abs(Math.log(var.bias));
+			}
+		} catch (ArithmeticException e) {
+			// already set defaults to INVALID
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.util.*;
 import java.util.concurrent.*;
 
 import org.drugepi.PharmacoepiTool;
+import org.drugepi.hdps.db.SqlDialect;
 import org.drugepi.hdps.storage.*;
 import org.drugepi.hdps.storage.comparators.*;
 import org.drugepi.util.*;
@@ -28,6 +29,13 @@ public abstract class HdpsController extends PharmacoepiTool
 	protected HdpsPatientController patientController;
 
 	protected Map<String, HdpsVariable> variablesToConsider;
+	protected List<HdpsVariable> selectedVariables;
+	protected HdpsExposureContrast currentContrast;
+	
+	protected String[] psCovariateNames;
+	protected Map<String, double[]> psCovariates;
+	
+	protected HdpsRunMetrics metrics;
 	
 	/**
 	 * Constructor for the hd-PS class using default values for all parameters.
@@ -36,6 +44,9 @@ public abstract class HdpsController extends PharmacoepiTool
 	{
 		super();
 		this.hdps = hdps;
+		// events are sent on behalf of the hd-PS tool
+		this.events = hdps.getEvents();
+		this.metrics = new HdpsRunMetrics(this);
 	}
 	
 	public abstract void addPatients(RowReader reader)
@@ -73,7 +84,23 @@ public abstract class HdpsController extends PharmacoepiTool
 							String dbQuery)
 	throws Exception
 	{
-		DatabaseRowReader reader = new DatabaseRowReader(dbDriverClass, dbURL, dbUser, dbPassword, dbQuery);
+		DatabaseRowReader reader;
+		if (this.hdps.dbReadPartitions > 1) {
+			PartitionedDatabaseRowReader partitionedReader = new PartitionedDatabaseRowReader(
+					dbDriverClass, dbURL, dbUser, dbPassword, dbQuery, 
+					this.hdps.dbReadPartitions, this.hdps.dbFetchSize);
+			try {
+				partitionedReader.setPartitioning(this.hdps.dbReadPartitionMethod, 
+						this.hdps.dbReadPartitionColumn, this.hdps.dbReadPartitionHashFunction,
+						SqlDialect.getDialect(this.hdps.dbDialect, dbURL).getHashFunction());
+			} catch (IllegalArgumentException e) {
+				throw new HdpsException(e.getMessage());
+			}
+			reader = partitionedReader;
+		} else {
+			reader = new DatabaseRowReader(dbDriverClass, dbURL, dbUser, dbPassword, dbQuery, 
+					this.hdps.dbFetchSize);
+		}
         this.addDimension(description, reader);
 	}
 		
@@ -92,28 +119,42 @@ public abstract class HdpsController extends PharmacoepiTool
         this.variablesToConsider = new ConcurrentHashMap<String, HdpsVariable>(); 
         
         executor = Executors.newFixedThreadPool(this.numDimensions);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
         for (int i = 0; i < this.numDimensions; i++) {
             final int threadNum = i;
             final HdpsController hdpsController = this;
 
-            Runnable task = new Runnable() {
-                public void run() {
-                    try {
-        		        hdpsController.dimensionControllers[threadNum].readDimension();
-                    } catch(Exception e) {
-                        e.printStackTrace();
-                    }
+            Callable<Void> task = new Callable<Void>() {
+                public Void call() throws Exception {
+                	HdpsDimensionController dimensionController = 
+                		hdpsController.dimensionControllers[threadNum];
+                	hdpsController.metrics.startDimension(dimensionController);
+                	dimensionController.readDimension();
+                	hdpsController.metrics.endDimension(dimensionController);
+                	hdpsController.events.dimensionDone(dimensionController.dimensionId, 
+                			dimensionController.dimensionDescription, 
+                			dimensionController.getNumRowsRead());
+                	return null;
                 }
             };
 
-            executor.submit(task);
+            futures.add(executor.submit(task));
         }
 
-        try {
-            executor.shutdown();
-            executor.awaitTermination(100 * 60 * 60, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            e.printStackTrace();
+        // every dimension finishes before a failure is passed on, so that none is 
+        // still reading while the run cleans up
+        executor.shutdown();
+        if (! executor.awaitTermination(100 * 60 * 60, TimeUnit.SECONDS)) {
+        	executor.shutdownNow();
+        	throw new HdpsException("Dimensions did not finish reading in the time allowed.");
+        }
+        
+        for (Future<Void> f: futures) {
+        	try {
+        		f.get();
+        	} catch (ExecutionException e) {
+        		throw (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        	}
         }
         
         this.takeDimensionDoneActions();
@@ -122,8 +163,8 @@ public abstract class HdpsController extends PharmacoepiTool
 	public synchronized void writeDimensionInfoFile(String outputFileName) throws Exception {
 		final String[] outputFields = HdpsCode.outputFieldNames;
 
-		TabDelimitedFileWriter outputWriter = new TabDelimitedFileWriter(
-				Utils.getFilePath(this.hdps.tempDirectory, outputFileName),
+		FastTabDelimitedFileWriter outputWriter = new FastTabDelimitedFileWriter(
+				this.getOutputFilePath(outputFileName),
 				outputFields);
 
 		for (int i = 0; i < this.numDimensions; i++) {
@@ -137,12 +178,14 @@ public abstract class HdpsController extends PharmacoepiTool
 	protected synchronized void writeVariableInfoFile(String fileName, List<HdpsVariable> vars)
 	throws Exception
 	{
-		String[] outputFields = HdpsVariable.outputFieldNames; 
-		RowWriter outputWriter = new TabDelimitedFileWriter(
-        		Utils.getFilePath(hdps.tempDirectory, fileName), outputFields);
+		boolean includeStability = (this.hdps.stabilityReplicates > 0);
+		String[] outputFields = (includeStability ? 
+				HdpsVariable.stabilityOutputFieldNames : HdpsVariable.outputFieldNames); 
+		RowWriter outputWriter = new FastTabDelimitedFileWriter(
+        		this.getOutputFilePath(fileName), outputFields);
  
         for (HdpsVariable var: vars) {
-        	String[] outputContents = var.toStringArray(); 
+        	String[] outputContents = var.toStringArray(includeStability); 
 	        outputWriter.writeRow(outputContents);
         }
         outputWriter.close();
@@ -151,6 +194,104 @@ public abstract class HdpsController extends PharmacoepiTool
 	protected abstract void generateCohorts(List<HdpsVariable> variablesToOutput)
 	throws Exception;
 	
+	/**
+	 * Build an in-memory patient/variable matrix for the specified variables, with 
+	 * one row per patient and one column per variable.
+	 * 
+	 * @param variables			The variables (columns) to include.
+	 * @param includeMissing	Whether to store missing variable values; if false, 
+	 * 							missing values are treated as zero.
+	 */
+	protected abstract HdpsPatientVariableMatrix buildPatientVariableMatrix(List<HdpsVariable> variables, 
+			boolean includeMissing)
+	throws Exception;
+	
+	protected HdpsPatientVariableMatrix addPsCovariates(HdpsPatientVariableMatrix matrix, RowReader reader)
+	throws Exception
+	{
+		// the covariates are read once and kept for use by each exposure contrast
+		if (this.psCovariates == null) {
+			int numCovariates = reader.getNumColumns() - 1;
+			if (numCovariates < 1)
+				throw new HdpsException("Propensity score covariate data must contain at least one covariate.");
+			
+			String[] covariateNames = new String[numCovariates];
+			for (int i = 0; i < numCovariates; i++)
+				covariateNames[i] = String.format("COV%03d", i + 1);
+			
+			Map<String, double[]> covariates = new HashMap<String, double[]>();
+			String[] row;
+			while ((row = reader.getNextRow()) != null) {
+				double[] values = new double[numCovariates];
+				try {
+					for (int i = 0; i < numCovariates; i++) 
+						values[i] = Double.parseDouble(row[i + 1]);
+				} catch (Exception e) {
+					throw new HdpsException("Failed to read propensity score covariates.  Check formatting and content of covariate file.");
+				}
+				covariates.put(row[0], values);
+			}
+			reader.close();
+			
+			this.psCovariateNames = covariateNames;
+			this.psCovariates = covariates;
+		}
+		
+		try {
+			return matrix.appendColumns(this.psCovariateNames, this.psCovariates);
+		} catch (IllegalArgumentException e) {
+			throw new HdpsException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Fit a logistic regression of exposure on the selected variables and any user-specified
+	 * covariates, and write the estimated propensity score for each patient.
+	 */
+	protected void estimatePropensityScores()
+	throws Exception
+	{
+		HdpsPatientVariableMatrix matrix = this.buildPatientVariableMatrix(this.selectedVariables, false);
+		if (this.hdps.psCovariateReader != null)
+			matrix = this.addPsCovariates(matrix, this.hdps.psCovariateReader);
+		
+		HdpsLogisticRegression model = new HdpsLogisticRegression(matrix, this.hdps.numThreads);
+		double[] coefficients = model.fit();
+		double[] ps = model.getPredictedProbabilities();
+		
+		if (! model.converged)
+			this.events.note("WARNING: hd-PS propensity score model did not converge after %d iterations.",
+					HdpsLogisticRegression.MAX_ITERATIONS);
+		this.events.note("NOTE: hd-PS fit propensity score model with %d variables in %d iterations.",
+				matrix.numColumns, model.iterations);
+		
+		String[] outputFields = new String[] { "patient_id", "exposure", "ps" };
+		FastTabDelimitedFileWriter outputWriter = new FastTabDelimitedFileWriter(
+				this.getOutputFilePath(hdps.psOutputFilename), outputFields);
+		for (int i = 0; i < matrix.numPatients; i++) {
+			outputWriter.writeString(matrix.patientIds[i]);
+			outputWriter.writeInt(matrix.exposed[i] ? 1 : 0);
+			outputWriter.writeDouble(ps[i]);
+			outputWriter.endRow();
+		}
+		outputWriter.close();
+		
+		outputFields = new String[] { "var_name", "coefficient" };
+		outputWriter = new FastTabDelimitedFileWriter(
+				this.getOutputFilePath("output_ps_coefficients.txt"), outputFields);
+		outputWriter.writeString("Intercept");
+		outputWriter.writeDouble(coefficients[0]);
+		outputWriter.endRow();
+		for (int j = 0; j < matrix.numColumns; j++) {
+			outputWriter.writeString(matrix.columnNames[j]);
+			outputWriter.writeDouble(coefficients[j + 1]);
+			outputWriter.endRow();
+		}
+		outputWriter.close();
+
+		this.events.note("NOTE: hd-PS wrote propensity scores for %d patients.", matrix.numPatients);
+	}
+	
 	public boolean isRankedByExposureAssoc() {
 		return (this.hdps.variableRankingMethod.equalsIgnoreCase(Hdps.RANKING_METHOD_EXP));
 	}
@@ -163,6 +304,14 @@ public abstract class HdpsController extends PharmacoepiTool
 		return (this.hdps.variableRankingMethod.equalsIgnoreCase(Hdps.RANKING_METHOD_BIAS));
 	}
 
+	public boolean isRankedByLasso() {
+		return (this.hdps.variableRankingMethod.equalsIgnoreCase(Hdps.RANKING_METHOD_LASSO));
+	}
+	
+	public boolean isLassoTargetOutcome() {
+		return (this.hdps.lassoTarget.equalsIgnoreCase(Hdps.LASSO_TARGET_OUTCOME));
+	}
+
 	public boolean outcomeIsDichotomous() {
 		return ((this.hdps.outcomeType.equalsIgnoreCase(Hdps.OUTCOME_TYPE_BINARY)) ||
 				(this.hdps.outcomeType.equalsIgnoreCase(Hdps.OUTCOME_TYPE_DICHOTOMOUS)));
@@ -184,8 +333,18 @@ public abstract class HdpsController extends PharmacoepiTool
 		
 		if ((! this.isRankedByBias()) &&
 			(! this.isRankedByExposureAssoc()) &&
-			(! this.isRankedByOutcomeAssoc()))
+			(! this.isRankedByOutcomeAssoc()) &&
+			(! this.isRankedByLasso()))
 			throw new HdpsException("Must specify a valid variable ranking method");
+		
+		if (this.isRankedByLasso()) {
+			if ((! this.hdps.lassoTarget.equalsIgnoreCase(Hdps.LASSO_TARGET_EXPOSURE)) &&
+				(! this.isLassoTargetOutcome()))
+				throw new HdpsException("Lasso target must be EXPOSURE or OUTCOME.");
+			
+			if ((this.isLassoTargetOutcome()) && (! this.outcomeIsDichotomous()))
+				throw new HdpsException("Lasso ranking on the outcome requires a dichotomous outcome.");
+		}
 
 		File tempDir = new File(hdps.tempDirectory);
 		if (! tempDir.exists())
@@ -196,6 +355,30 @@ public abstract class HdpsController extends PharmacoepiTool
 		if ((this.hdps.exposureOnlyScreen == 1) && (! this.isRankedByExposureAssoc()))
 			throw new HdpsException("Cannot specify exposure only screen and a non-exposure variable ranking.");
 		
+		if ((this.hdps.useAssessmentWindow == 1) && 
+			(this.hdps.assessmentWindowStart > this.hdps.assessmentWindowEnd))
+			throw new HdpsException("Assessment window start must not be after assessment window end.");
+		
+		if ((this.hdps.dbCachePercent < 0) || (this.hdps.dbCachePercent > 90))
+			throw new HdpsException("Database cache percent must be between 0 and 90.");
+		
+		if (this.hdps.stabilityReplicates < 0)
+			throw new HdpsException("Number of stability replicates must not be negative.");
+		
+		if ((this.hdps.stabilityReplicates > 0) && (this.isRankedByLasso()))
+			throw new HdpsException("Stability analysis is not available with lasso ranking.");
+		
+		Set<String> contrastNames = new HashSet<String>();
+		for (HdpsExposureContrast contrast: this.hdps.exposureContrasts) {
+			if ((contrast.exposedLevel == null) || (contrast.referenceLevel == null) ||
+				(contrast.exposedLevel.equals(contrast.referenceLevel)))
+				throw new HdpsException("Each exposure contrast must compare two different exposure levels.");
+			
+			if (! contrastNames.add(contrast.getFilePrefix()))
+				throw new HdpsException(String.format("Exposure contrast %s was specified more than once.", 
+						contrast.getName()));
+		}
+		
 		if (hdps.numDimensions == 0)
         	throw new HdpsException("No dimensions specified.");
 	}
@@ -206,17 +389,11 @@ public abstract class HdpsController extends PharmacoepiTool
 	    List<HdpsVariable> rankedVariables = 
 	            new ArrayList<HdpsVariable>(this.variablesToConsider.values());
 
-	    	for (HdpsVariable var: rankedVariables) {
-	            if ((this.isRankedByExposureAssoc()) || 
-	                	(hdps.exposureOnlyScreen > 0))
-	               	var.activeRankingVariable = var.expAssocRankingVariable;
-	            else if (this.isRankedByOutcomeAssoc()) 
-	               	var.activeRankingVariable = var.outcomeAssocRankingVariable;
-	            else if (this.isRankedByBias()) 
-	               	var.activeRankingVariable = var.biasRankingVariable;
-	            else
-	            	var.activeRankingVariable = 0;
-	    	}
+	    if (this.isRankedByLasso())
+	    	this.calculateLassoRankings(rankedVariables);
+
+	    	for (HdpsVariable var: rankedVariables) 
+	    		this.setActiveRankingVariable(var);
        	Collections.sort(rankedVariables, new HdpsVariableRankingComparator());
 
     	List<HdpsVariable> selectedVariables = new ArrayList<HdpsVariable>();
@@ -233,6 +410,73 @@ public abstract class HdpsController extends PharmacoepiTool
     	return selectedVariables;
 	}
 	
+	/**
+	 * Set a variable's active ranking variable according to the ranking method.
+	 */
+	protected void setActiveRankingVariable(HdpsVariable var)
+	{
+        if ((this.isRankedByExposureAssoc()) || 
+            	(hdps.exposureOnlyScreen > 0))
+           	var.activeRankingVariable = var.expAssocRankingVariable;
+        else if (this.isRankedByOutcomeAssoc()) 
+           	var.activeRankingVariable = var.outcomeAssocRankingVariable;
+        else if (this.isRankedByBias()) 
+           	var.activeRankingVariable = var.biasRankingVariable;
+        else if (this.isRankedByLasso()) 
+           	var.activeRankingVariable = var.lassoRankingVariable;
+        else
+        	var.activeRankingVariable = 0;
+	}
+	
+	protected void calculateStabilityFrequencies()
+	throws Exception
+	{
+		// sort for a reproducible column order
+	    List<HdpsVariable> candidates = new ArrayList<HdpsVariable>(this.variablesToConsider.values());
+	    Collections.sort(candidates, new HdpsVariableNameComparator());
+	    
+		HdpsPatientVariableMatrix matrix = this.buildPatientVariableMatrix(candidates, true);
+		
+		HdpsStabilityAnalysis stability = new HdpsStabilityAnalysis(this, matrix, candidates, 
+				this.hdps.stabilityReplicates, this.hdps.stabilitySeed, this.hdps.numThreads);
+		double[] frequencies = stability.calculateSelectionFrequencies();
+		
+		int numStable = 0;
+		for (int j = 0; j < candidates.size(); j++) {
+			HdpsVariable var = candidates.get(j);
+			var.selectionFrequency = frequencies[j];
+			if ((var.selectedForPs) && (frequencies[j] >= 0.5))
+				numStable++;
+		}
+		
+		this.events.note("NOTE: hd-PS stability analysis ran %d replicates; %d of %d selected variables were selected in at least half of them.", 
+				this.hdps.stabilityReplicates, numStable, this.selectedVariables.size());
+	}
+	
+	protected void calculateLassoRankings(List<HdpsVariable> variables)
+	throws Exception
+	{
+		// sort for a reproducible column order
+	    List<HdpsVariable> candidates = new ArrayList<HdpsVariable>(variables);
+	    Collections.sort(candidates, new HdpsVariableNameComparator());
+	    
+		HdpsPatientVariableMatrix matrix = this.buildPatientVariableMatrix(candidates, false);
+		boolean[] y = (this.isLassoTargetOutcome() ? matrix.outcome : matrix.exposed);
+		
+		HdpsLassoRanking lasso = new HdpsLassoRanking(matrix, y, this.hdps.k, this.hdps.numThreads);
+		double[] rankingValues = lasso.rank();
+		
+		int numEntered = 0;
+		for (int j = 0; j < candidates.size(); j++) {
+			candidates.get(j).lassoRankingVariable = rankingValues[j];
+			if (lasso.entryLambdas[j] > 0)
+				numEntered++;
+		}
+		
+		this.events.note("NOTE: hd-PS lasso ranking fit %d penalties; %d of %d variables entered the model.", 
+				lasso.numLambdasFit, numEntered, candidates.size());
+	}
+	
 	protected List<HdpsVariable> getRequestedVariables(List<HdpsVariable> selectedVariables)
 	throws Exception 
 	{
@@ -260,7 +504,7 @@ public abstract class HdpsController extends PharmacoepiTool
 			}
 		}
 		
-		System.out.printf("NOTE: %d additional variables were requested for output; of these, %d were added\n", 
+		this.events.note("NOTE: %d additional variables were requested for output; of these, %d were added", 
 				hdps.requestedVariables.size(), additionalVariables.size());
 		
 		return additionalVariables;
@@ -274,6 +518,10 @@ public abstract class HdpsController extends PharmacoepiTool
 		selectedVariables.addAll(this.getRequestedVariables(selectedVariables));
     	
     	ZBiasCalculator.scoreVariables(selectedVariables);
+    	
+    	this.selectedVariables = selectedVariables;
+    	if (this.hdps.stabilityReplicates > 0)
+    		this.calculateStabilityFrequencies();
 
     	// sort all of the variables alphabetically and output
     	List<HdpsVariable> variablesForOutput = new ArrayList<HdpsVariable>();
@@ -287,6 +535,52 @@ public abstract class HdpsController extends PharmacoepiTool
        	this.generateCohorts(selectedVariables);
 	}
 
+	/*
+	 * Output, and optionally estimate propensity scores, for the whole cohort or
+	 * for the current exposure contrast.
+	 */
+	private void doContrastOutput()
+	throws Exception
+	{
+        this.events.note("NOTE: hd-PS beginning output.");
+        this.doOutput();
+        
+        if (this.hdps.doPsEstimation == 1) {
+	        this.events.note("NOTE: hd-PS estimating propensity scores.");
+	        this.estimatePropensityScores();
+        }
+	}
+	
+	/**
+	 * Recalculate patient totals and variable statistics for the patients in an exposure
+	 * contrast.  Candidate variables are not re-identified.
+	 */
+	protected abstract void calculateContrastStatistics(HdpsExposureContrast contrast)
+	throws Exception;
+	
+	/**
+	 * @return	The current exposure contrast, or null if exposure contrasts are not in use.
+	 */
+	public HdpsExposureContrast getCurrentContrast() {
+		return currentContrast;
+	}
+	
+	/**
+	 * @param fileName	Name of an output file.
+	 * @return			Full path of the output file, prefixed with the current exposure 
+	 * 					contrast's name if there is one.
+	 */
+	public String getOutputFilePath(String fileName) 
+	{
+		if (this.currentContrast != null)
+			fileName = this.currentContrast.getFilePrefix() + fileName;
+		
+		String path = Utils.getFilePath(this.hdps.tempDirectory, fileName);
+		this.metrics.addOutputFile(path);
+		
+		return path;
+	}
+
 	protected abstract void startHdps()
 	throws Exception;
 	
@@ -296,6 +590,15 @@ public abstract class HdpsController extends PharmacoepiTool
 	protected abstract void closeController()
 	throws Exception;
 	
+	/**
+	 * @return	The number of cache misses in the local database so far, or -1 if the
+	 * 			mode has no local database.
+	 */
+	protected long getStoreCacheMisses()
+	{
+		return -1;
+	}
+	
 	/**
 	 * Begin execution of the hd-PS algorithm.
 	 * 
@@ -305,32 +608,81 @@ public abstract class HdpsController extends PharmacoepiTool
     throws Exception
     {
 		this.startTool();
+		this.metrics.startRun();
+		boolean closed = false;
 		try {
 			this.checkParams();
 			
-	        System.out.println("NOTE: hd-PS initializing.");
+	        this.events.note("NOTE: hd-PS initializing.");
+	        this.startPhase("initialize");
 			this.startHdps();
 			
-			System.out.println("NOTE: hd-PS reading patients.");
+			this.events.note("NOTE: hd-PS reading patients.");
+			this.startPhase("read_patients");
 	        this.patientController.readPatients();
 
 			if (this.getNumPatients() == 0)
 	        	throw new HdpsException("No patients added.");
 	        
-	        System.out.println("NOTE: hd-PS building dimensions.");
+	        this.events.note("NOTE: hd-PS building dimensions.");
+	        this.startPhase("read_dimensions");
 	        this.readDimensions();
 
-	        System.out.println("NOTE: hd-PS beginning output.");
-	        this.doOutput();
+	        if (this.hdps.exposureContrasts.size() == 0) {
+	        	this.startPhase("output");
+	        	this.doContrastOutput();
+	        } else {
+	        	for (HdpsExposureContrast contrast: this.hdps.exposureContrasts) {
+	        		this.events.note("NOTE: hd-PS calculating variable statistics for exposure contrast %s.", 
+	        				contrast.getName());
+	        		this.currentContrast = contrast;
+	        		this.startPhase("contrast_statistics:" + contrast.getName());
+	        		this.calculateContrastStatistics(contrast);
+	        		this.startPhase("output:" + contrast.getName());
+	        		this.doContrastOutput();
+	        	}
+	        	this.currentContrast = null;
+	        }
 	        
-	        System.out.println("NOTE: hd-PS cleaning up.");
+	        this.events.note("NOTE: hd-PS cleaning up.");
+	        this.startPhase("clean_up");
+	        closed = true;
 	        this.closeController();
 		} catch (Exception e) {
-			e.printStackTrace();
+			this.events.note("NOTE: hd-PS failed: %s", 
+					(e.getMessage() == null ? e.toString() : e.getMessage()));
+			
+			// release the run's local database or connections, so that a server or 
+			// batch can go on to other runs, or retry in the same directory
+			if (! closed) {
+				try {
+					this.closeController();
+				} catch (Exception closeException) {
+					this.events.note("NOTE: hd-PS could not clean up after the failure: %s", 
+							closeException.getMessage());
+				}
+			}
+			throw e;
+		} finally {
+			this.events.endPhase();
+			try {
+				this.metrics.endRun();
+			} catch (Exception e) {
+				this.events.note("NOTE: hd-PS could not write run metrics: %s", e.getMessage());
+			}
+	        this.endTool();
 		}
-        this.endTool();
     }
 	
+	/*
+	 * Start a phase of the run in the metrics and for the listeners.
+	 */
+	private void startPhase(String phase)
+	{
+		this.metrics.startPhase(phase);
+		this.events.startPhase(phase);
+	}
+	
 	/**
 	 * @return		The number of patients read from the patient input file or database.
 	 */
@@ -345,5 +697,12 @@ public abstract class HdpsController extends PharmacoepiTool
 	public HdpsPatientController getPatientController() {
 		return patientController;
 	}
+	
+	/**
+	 * @return	Metrics for the current or most recent run.
+	 */
+	public HdpsRunMetrics getMetrics() {
+		return metrics;
+	}
 }
 
@@ -26,6 +26,10 @@ public abstract class HdpsDimensionController {
 	protected static final int dateColumn = 2;
 
 	// INTERNAL VARIABLES
+	// run statistics for the run metrics; -1 where not known
+	protected long numRowsRead = -1;
+	protected long numCodePatientLinks = -1;
+	
 	public HdpsDimensionController(Hdps hdps) 
 	{
 		this.hdps = hdps;
@@ -45,4 +49,25 @@ public abstract class HdpsDimensionController {
 	public void setHdps(Hdps hdps) {
 		this.hdps = hdps;
 	}
+
+	/**
+	 * @return	The number of input rows read, or -1 if not known.
+	 */
+	public long getNumRowsRead() {
+		return numRowsRead;
+	}
+	
+	/**
+	 * @return	The number of distinct codes, including generated codes, or -1 if not known.
+	 */
+	public int getNumDistinctCodes() {
+		return -1;
+	}
+
+	/**
+	 * @return	The number of code-patient links created, or -1 if not known.
+	 */
+	public long getNumCodePatientLinks() {
+		return numCodePatientLinks;
+	}
 }
@@ -0,0 +1,286 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.drugepi.hdps.db.*;
+import org.drugepi.hdps.storage.HdpsVariable;
+import org.drugepi.util.*;
+import org.junit.*;
+
+/**
+ * Checks DB and HYBRID mode against LOCAL mode on a synthetic cohort, with the DB and
+ * HYBRID runs reading from an embedded H2 database.  Unlike {@link HdpsTest}, needs no
+ * database server.  The SQL time of each phase of the DB and HYBRID runs is printed.
+ * <p>
+ * To check another dialect, load the cohort into a database server instead by setting
+ * the system properties <code>DB_DRIVER</code>, <code>DB_URL</code>, <code>DB_USER</code>,
+ * <code>DB_PASSWORD</code> and <code>DB_DIALECT</code>, named as in 
+ * <code>testing.properties</code>.  For PostgreSQL, the URL needs 
+ * <code>stringtype=unspecified</code> so that the cohort's text values load into its
+ * integer columns.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsEmbeddedDbTest {
+	private static final double TOLERANCE = 1e-6;
+
+	private static final int K = 50;
+	// with the cohort below, no two codes tie in prevalence at this cutoff in any
+	// dimension, so every mode considers the same codes; checked by checkTieFree
+	private static final int TOP_N = 104;
+
+	private String directory;
+	private String dataDirectory;
+	private HdpsSyntheticCohort cohort;
+	private HdpsEmbeddedDatabase database;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.directory = Files.createTempDirectory("hdps_embedded_test").toString();
+		this.dataDirectory = Utils.getFilePath(this.directory, "data");
+		new File(this.dataDirectory).mkdirs();
+
+		this.cohort = new HdpsSyntheticCohort();
+		this.cohort.numPatients = 2000;
+		this.cohort.numCodes = 300;
+		this.cohort.write(this.dataDirectory);
+
+		String dbUrl = System.getProperty("DB_URL");
+		if (dbUrl == null)
+			this.database = new HdpsEmbeddedDatabase(this.directory);
+		else
+			this.database = new HdpsEmbeddedDatabase(System.getProperty("DB_DRIVER"), dbUrl,
+					System.getProperty("DB_USER"), System.getProperty("DB_PASSWORD", ""),
+					System.getProperty("DB_DIALECT"));
+		this.database.load(this.cohort, this.dataDirectory);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		deleteDirectory(new File(this.directory));
+	}
+
+	private String runHdps(String mode) throws Exception
+	{
+		String tempDirectory = Utils.getFilePath(this.directory, mode);
+		new File(tempDirectory).mkdirs();
+
+		Hdps hdps = new Hdps(tempDirectory);
+		hdps.k = K;
+		hdps.topN = TOP_N;
+		hdps.doFullOutput = 1;
+		hdps.doSparseOutput = 0;
+		hdps.inferServiceIntensityVars = 0;
+
+		if (mode.equals(Hdps.hdpsModeLocal)) {
+			this.cohort.addTo(hdps, this.dataDirectory);
+		} else {
+			hdps.setMode(mode);
+			this.database.addTo(hdps);
+		}
+
+		long startTime = System.currentTimeMillis();
+		hdps.run();
+		System.out.printf("TEST: %s mode run took %.3f seconds.\n",
+				mode, (System.currentTimeMillis() - startTime) / 1e3);
+
+		return tempDirectory;
+	}
+
+	/*
+	 * Variables by hash value, which does not depend on the mode.
+	 */
+	private static Map<String, HdpsVariable> readVariables(String dir) throws Exception
+	{
+		TabDelimitedFileReader reader = new TabDelimitedFileReader(dir + "/output_all_vars.txt");
+		Map<String, HdpsVariable> variables = new HashMap<String, HdpsVariable>();
+
+		String[] row;
+		while ((row = reader.getNextRow()) != null)
+			variables.put(row[37], new HdpsVariable(null, row));
+		reader.close();
+
+		return variables;
+	}
+
+	/*
+	 * Check that the LOCAL run's prevalence and bias cutoffs fall between distinct values,
+	 * so that the modes cannot differ in the codes or variables they keep only because 
+	 * they break ties differently.
+	 */
+	private static void checkTieFree(String localDir) throws Exception
+	{
+		TabDelimitedFileReader reader = 
+			new TabDelimitedFileReader(localDir + "/output_dimension_codes.txt");
+		Map<String, double[]> cutoffs = new HashMap<String, double[]>();
+		String[] row;
+		while ((row = reader.getNextRow()) != null) {
+			double[] c = cutoffs.get(row[0]);
+			if (c == null) {
+				c = new double[] { Double.MAX_VALUE, -1 };
+				cutoffs.put(row[0], c);
+			}
+			double prevalence = Double.parseDouble(row[5]);
+			if (Boolean.parseBoolean(row[4]))
+				c[0] = Math.min(c[0], prevalence);
+			else
+				c[1] = Math.max(c[1], prevalence);
+		}
+		reader.close();
+
+		for (Map.Entry<String, double[]> e: cutoffs.entrySet())
+			assertTrue(String.format("Codes of dimension %s tie at the topN cutoff.", e.getKey()),
+					e.getValue()[0] > e.getValue()[1]);
+
+		double minSelected = Double.MAX_VALUE;
+		double maxUnselected = -1;
+		for (HdpsVariable var: readVariables(localDir).values()) {
+			// variables that are always 0 have no ranking
+			if (Double.isNaN(var.biasRankingVariable))
+				continue;
+			if (var.selectedForPs)
+				minSelected = Math.min(minSelected, var.biasRankingVariable);
+			else
+				maxUnselected = Math.max(maxUnselected, var.biasRankingVariable);
+		}
+		assertTrue("Variables tie at the k cutoff.", minSelected > maxUnselected);
+	}
+
+	/*
+	 * Every variable of the other run must match the LOCAL run's variable of the same
+	 * code and type.  The other modes do not create sporadic and frequent variables that
+	 * would be always 0, so may have fewer variables.
+	 */
+	private static void checkVariables(String localDir, String otherDir) throws Exception
+	{
+		Map<String, HdpsVariable> local = readVariables(localDir);
+		Map<String, HdpsVariable> other = readVariables(otherDir);
+
+		Set<String> localSelected = new HashSet<String>();
+		for (Map.Entry<String, HdpsVariable> e: local.entrySet())
+			if (e.getValue().selectedForPs)
+				localSelected.add(e.getKey());
+
+		Set<String> otherSelected = new HashSet<String>();
+		for (Map.Entry<String, HdpsVariable> e: other.entrySet()) {
+			HdpsVariable varA = local.get(e.getKey());
+			HdpsVariable varB = e.getValue();
+			if (varB.selectedForPs)
+				otherSelected.add(e.getKey());
+
+			assertNotNull(String.format("Variable of code %s is not in the LOCAL run.", 
+					varB.code.codeString), varA);
+			assertEquals(varA.code.codeString, varB.code.codeString);
+			assertEquals(varA.c1, varB.c1, TOLERANCE);
+			assertEquals(varA.e1c1, varB.e1c1, TOLERANCE);
+			assertEquals(varA.d1c1, varB.d1c1, TOLERANCE);
+			assertEquals(varA.numEvents, varB.numEvents, TOLERANCE);
+			assertEquals(varA.bias, varB.bias, TOLERANCE);
+			assertEquals(varA.biasRankingVariable, varB.biasRankingVariable, TOLERANCE);
+		}
+
+		assertEquals(K, localSelected.size());
+		assertEquals(localSelected, otherSelected);
+	}
+
+	/*
+	 * The runs name variables differently, so each patient's row is compared as the
+	 * hash values of the patient's non-zero variables and their values.
+	 */
+	private static void checkCohortFile(String localDir, String otherDir) throws Exception
+	{
+		assertEquals(readCohort(localDir), readCohort(otherDir));
+	}
+
+	private static Map<String, Set<String>> readCohort(String dir) throws Exception
+	{
+		Map<String, String> hashesByName = new HashMap<String, String>();
+		TabDelimitedFileReader reader = new TabDelimitedFileReader(dir + "/output_all_vars.txt");
+		String[] row;
+		while ((row = reader.getNextRow()) != null)
+			hashesByName.put(row[2].replace("\"", ""), row[37]);
+		reader.close();
+
+		BufferedReader headerReader = new BufferedReader(
+				new FileReader(dir + "/output_full_cohort.txt"));
+		String[] columnNames = headerReader.readLine().split("\t");
+		headerReader.close();
+
+		reader = new TabDelimitedFileReader(dir + "/output_full_cohort.txt");
+		Map<String, Set<String>> cohort = new HashMap<String, Set<String>>();
+		while ((row = reader.getNextRow()) != null) {
+			Set<String> values = new HashSet<String>();
+			for (int i = 1; i < row.length; i++)
+				if (Double.parseDouble(row[i]) != 0)
+					values.add(hashesByName.get(columnNames[i]) + "=" + row[i]);
+			cohort.put(row[0], values);
+		}
+		reader.close();
+
+		return cohort;
+	}
+
+	/*
+	 * Print the head of the SQL profile: total SQL time and the time in each phase.
+	 */
+	private static void printSqlTimes(String mode, String dir) throws Exception
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(
+				Utils.getFilePath(dir, SqlProfiler.PROFILE_FILE_NAME)));
+		String line;
+		System.out.printf("TEST: %s mode ", mode);
+		while (((line = reader.readLine()) != null) && (line.length() > 0))
+			System.out.println(line);
+		reader.close();
+	}
+
+	private static void deleteDirectory(File directory)
+	{
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				if (f.isDirectory())
+					deleteDirectory(f);
+				else
+					f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDbMatchesLocal() throws Exception
+	{
+		String localResults = this.runHdps(Hdps.hdpsModeLocal);
+		String dbResults = this.runHdps(Hdps.hdpsModeDB);
+		printSqlTimes(Hdps.hdpsModeDB, dbResults);
+
+		checkTieFree(localResults);
+		checkVariables(localResults, dbResults);
+		checkCohortFile(localResults, dbResults);
+	}
+
+	@Test
+	public void testHybridMatchesLocal() throws Exception
+	{
+		String localResults = this.runHdps(Hdps.hdpsModeLocal);
+		String hybridResults = this.runHdps(Hdps.hdpsModeHybrid);
+		printSqlTimes(Hdps.hdpsModeHybrid, hybridResults);
+
+		checkTieFree(localResults);
+		checkVariables(localResults, hybridResults);
+		checkCohortFile(localResults, hybridResults);
+	}
+}
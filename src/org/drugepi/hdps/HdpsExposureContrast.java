@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+/**
+ * A comparison of two levels of a categorical exposure, such as a drug of interest
+ * versus one comparator.  Patients at the exposed level are treated as exposed, patients
+ * at the reference level as unexposed, and all other patients are left out of the contrast.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsExposureContrast {
+	public String exposedLevel;
+	public String referenceLevel;
+
+	public HdpsExposureContrast(String exposedLevel, String referenceLevel)
+	{
+		this.exposedLevel = exposedLevel;
+		this.referenceLevel = referenceLevel;
+	}
+
+	/**
+	 * @return	Whether a patient with the specified exposure level is part of this contrast.
+	 */
+	public boolean includes(String exposureLevel)
+	{
+		return ((this.exposedLevel.equals(exposureLevel)) ||
+				(this.referenceLevel.equals(exposureLevel)));
+	}
+
+	/**
+	 * @return	Whether a patient with the specified exposure level is exposed in this contrast.
+	 */
+	public boolean isExposed(String exposureLevel)
+	{
+		return (this.exposedLevel.equals(exposureLevel));
+	}
+
+	/**
+	 * @return	The contrast's name, e.g., <code>A_vs_B</code>.
+	 */
+	public String getName()
+	{
+		return (this.exposedLevel + "_vs_" + this.referenceLevel);
+	}
+
+	/**
+	 * @return	The prefix added to the names of this contrast's output files.  Characters
+	 * 			that are not safe in file names are replaced by underscores.
+	 */
+	public String getFilePrefix()
+	{
+		return (this.getName().replaceAll("[^A-Za-z0-9_.-]", "_") + "_");
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.hdps.storage.HdpsPatientVariableMatrix;
+
+/**
+ * Ranks variables by the point at which they enter an L1-penalized (lasso) logistic
+ * regression along a decreasing path of penalties.
+ * <p>
+ * Each penalty on the path is fit by cyclic coordinate descent on a quadratic
+ * approximation to the log likelihood, as in glmnet (Friedman, Hastie, Tibshirani.
+ * Regularization paths for generalized linear models via coordinate descent.
+ * <I>J Stat Softw</I> 2010;33:1-22).  Columns are scaled to unit standard deviation so
+ * that rare and common variables are penalized equally.  Coordinate descent runs over
+ * the active set only; the gradient for every other variable is then checked in parallel,
+ * one block of columns per thread, and any variable that violates the optimality conditions
+ * is added to the active set.
+ * <p>
+ * A variable's ranking value is the size of its score (the absolute gradient of the
+ * scaled log likelihood) at the last solution on the path where its coefficient was
+ * still zero.  That is the penalty at which it would first enter the model, so higher
+ * values enter earlier.  Variables that never enter are ranked by their score at the
+ * end of the path, which is no larger than the final penalty.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsLassoRanking {
+	public static final int NUM_LAMBDAS = 100;
+	public static final double LAMBDA_MIN_RATIO = 0.001;
+	public static final int MAX_OUTER_ITERATIONS = 25;
+	public static final int MAX_INNER_ITERATIONS = 1000;
+	public static final double CONVERGENCE_TOLERANCE = 1e-6;
+	private static final double MIN_WEIGHT = 1e-5;
+
+	private HdpsPatientVariableMatrix matrix;
+	private boolean[] y;
+	private int numThreads;
+	private int maxVariables;
+
+	private int n;
+	private int p;
+	private double[] scale;
+
+	private double intercept;
+	private double[] beta;
+	private double[] eta;
+	private double[] mu;
+	private double[] weight;
+	private double[] residual;
+
+	/**
+	 * Ranking value for each column, set by {@link #rank()}.
+	 */
+	public double[] rankingValues;
+
+	/**
+	 * Penalty at which each column entered the model, or 0 if it never entered.
+	 */
+	public double[] entryLambdas;
+	public int numLambdasFit;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param matrix		Patient/variable matrix of candidate variables.
+	 * @param y				Dependent variable (exposure or outcome) for each patient.
+	 * @param maxVariables	The path stops once this many variables have entered the model.
+	 * @param numThreads	Number of threads to use; 0 or less uses one thread per processor.
+	 */
+	public HdpsLassoRanking(HdpsPatientVariableMatrix matrix, boolean[] y, int maxVariables, int numThreads)
+	{
+		this.matrix = matrix;
+		this.y = y;
+		this.maxVariables = maxVariables;
+		this.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+		this.n = matrix.numPatients;
+		this.p = matrix.numColumns;
+	}
+
+	/**
+	 * Fit the lasso path and compute ranking values.
+	 *
+	 * @return	Ranking value for each column of the matrix.
+	 * @throws Exception
+	 */
+	public double[] rank()
+	throws Exception
+	{
+		this.matrix.buildColumnIndex();
+		this.initialize();
+
+		this.executor = Executors.newFixedThreadPool(this.numThreads);
+		try {
+			this.fitPath();
+		} finally {
+			this.executor.shutdown();
+		}
+
+		return this.rankingValues;
+	}
+
+	private void initialize()
+	{
+		HdpsPatientVariableMatrix m = this.matrix;
+
+		this.scale = new double[this.p];
+		for (int j = 0; j < this.p; j++) {
+			double sum = 0;
+			double sumSquares = 0;
+			for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++) {
+				double x = this.getColumnValue(e);
+				sum += x;
+				sumSquares += x * x;
+			}
+			double mean = sum / this.n;
+			double variance = sumSquares / this.n - mean * mean;
+			this.scale[j] = (variance > 0 ? 1.0 / Math.sqrt(variance) : 0);
+		}
+
+		int numY = 0;
+		for (int i = 0; i < this.n; i++)
+			if (this.y[i])
+				numY++;
+		double yBar = Math.min(Math.max((double) numY / this.n, 1e-10), 1 - 1e-10);
+
+		this.intercept = Math.log(yBar / (1 - yBar));
+		this.beta = new double[this.p];
+		this.eta = new double[this.n];
+		this.mu = new double[this.n];
+		this.weight = new double[this.n];
+		this.residual = new double[this.n];
+		Arrays.fill(this.eta, this.intercept);
+
+		this.rankingValues = new double[this.p];
+		this.entryLambdas = new double[this.p];
+	}
+
+	private double getColumnValue(int entry)
+	{
+		return (this.matrix.columnValues == null ? 1 : this.matrix.columnValues[entry]);
+	}
+
+	private void fitPath()
+	throws Exception
+	{
+		this.updateWeights();
+		double[] score = this.computeScores();
+
+		double lambdaMax = 0;
+		for (int j = 0; j < this.p; j++)
+			lambdaMax = Math.max(lambdaMax, score[j]);
+
+		boolean[] active = new boolean[this.p];
+		int numEntered = 0;
+		this.numLambdasFit = 0;
+
+		for (int l = 0; l < NUM_LAMBDAS; l++) {
+			double lambda = lambdaMax * Math.pow(LAMBDA_MIN_RATIO, (double) l / (NUM_LAMBDAS - 1));
+
+			// record scores for variables that have not yet entered the model
+			for (int j = 0; j < this.p; j++)
+				if (this.entryLambdas[j] == 0)
+					this.rankingValues[j] = score[j];
+
+			// strong rule: variables likely to enter at this lambda join the active set
+			double previousLambda = (l == 0 ? lambdaMax : lambdaMax *
+					Math.pow(LAMBDA_MIN_RATIO, (double) (l - 1) / (NUM_LAMBDAS - 1)));
+			for (int j = 0; j < this.p; j++)
+				if (score[j] >= 2 * lambda - previousLambda)
+					active[j] = true;
+
+			// fit, then add any variables that violate the optimality conditions
+			boolean violations = true;
+			while (violations) {
+				this.fitLambda(lambda, active);
+				score = this.computeScores();
+
+				violations = false;
+				for (int j = 0; j < this.p; j++) {
+					if ((! active[j]) && (score[j] > lambda)) {
+						active[j] = true;
+						violations = true;
+					}
+				}
+			}
+			this.numLambdasFit++;
+
+			numEntered = 0;
+			for (int j = 0; j < this.p; j++) {
+				if (this.beta[j] != 0) {
+					if (this.entryLambdas[j] == 0)
+						this.entryLambdas[j] = lambda;
+					numEntered++;
+				}
+			}
+			if (numEntered >= this.maxVariables)
+				break;
+		}
+
+		// variables that never entered are ranked by their final score
+		for (int j = 0; j < this.p; j++)
+			if (this.entryLambdas[j] == 0)
+				this.rankingValues[j] = score[j];
+	}
+
+	/*
+	 * Fit the model at one penalty using coordinate descent over the active set.
+	 * The penalized objective is -(1/n) log likelihood + lambda * sum |beta|.
+	 */
+	private void fitLambda(double lambda, boolean[] active)
+	throws Exception
+	{
+		HdpsPatientVariableMatrix m = this.matrix;
+		double penalty = lambda * this.n;
+
+		int[] activeColumns = new int[this.p];
+		int numActive = 0;
+		for (int j = 0; j < this.p; j++)
+			if ((active[j]) && (this.scale[j] > 0))
+				activeColumns[numActive++] = j;
+
+		double[] hessian = new double[this.p];
+
+		for (int outer = 0; outer < MAX_OUTER_ITERATIONS; outer++) {
+			this.updateWeights();
+
+			double sumWeights = 0;
+			for (int i = 0; i < this.n; i++)
+				sumWeights += this.weight[i];
+
+			for (int a = 0; a < numActive; a++) {
+				int j = activeColumns[a];
+				double h = 0;
+				for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++) {
+					double x = this.getColumnValue(e) * this.scale[j];
+					h += this.weight[m.rowIndices[e]] * x * x;
+				}
+				hessian[j] = h;
+			}
+
+			// residual holds w * (z - eta) for the quadratic approximation
+			double maxOuterChange = 0;
+			for (int inner = 0; inner < MAX_INNER_ITERATIONS; inner++) {
+				double maxChange = 0;
+
+				double d0 = 0;
+				for (int i = 0; i < this.n; i++)
+					d0 += this.residual[i];
+				d0 /= sumWeights;
+				if (d0 != 0) {
+					this.intercept += d0;
+					for (int i = 0; i < this.n; i++) {
+						this.residual[i] -= this.weight[i] * d0;
+						this.eta[i] += d0;
+					}
+					maxChange = Math.max(maxChange, sumWeights * d0 * d0);
+				}
+
+				for (int a = 0; a < numActive; a++) {
+					int j = activeColumns[a];
+					double h = hessian[j];
+					if (h <= 0)
+						continue;
+
+					double g = 0;
+					for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++)
+						g += this.residual[m.rowIndices[e]] * this.getColumnValue(e) * this.scale[j];
+
+					double old = this.beta[j];
+					double u = h * old + g;
+					double updated = (Math.abs(u) <= penalty ? 0 : (u - Math.signum(u) * penalty) / h);
+					double d = updated - old;
+					if (d == 0)
+						continue;
+
+					this.beta[j] = updated;
+					for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++) {
+						int i = m.rowIndices[e];
+						double x = this.getColumnValue(e) * this.scale[j];
+						this.residual[i] -= this.weight[i] * x * d;
+						this.eta[i] += x * d;
+					}
+					maxChange = Math.max(maxChange, h * d * d);
+				}
+
+				maxOuterChange = Math.max(maxOuterChange, maxChange);
+				if (maxChange < CONVERGENCE_TOLERANCE * sumWeights)
+					break;
+			}
+
+			if (maxOuterChange < CONVERGENCE_TOLERANCE * sumWeights)
+				break;
+		}
+
+		this.updateWeights();
+	}
+
+	/*
+	 * Recompute fitted probabilities, weights, and working residuals from the
+	 * current linear predictor, one block of patients per thread.
+	 */
+	private void updateWeights()
+	throws Exception
+	{
+		int blockSize = (this.n + this.numThreads - 1) / this.numThreads;
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = 0; start < this.n; start += blockSize) {
+			final int blockStart = start;
+			final int blockEnd = Math.min(start + blockSize, this.n);
+
+			Runnable task = new Runnable() {
+				public void run() {
+					for (int i = blockStart; i < blockEnd; i++) {
+						double pr = 1.0 / (1.0 + Math.exp(-eta[i]));
+						mu[i] = pr;
+						weight[i] = Math.max(pr * (1 - pr), MIN_WEIGHT);
+						residual[i] = (y[i] ? 1.0 : 0.0) - pr;
+					}
+				}
+			};
+			futures.add(this.executor.submit(task));
+		}
+
+		for (Future<?> f: futures)
+			f.get();
+	}
+
+	/*
+	 * Absolute scaled gradient |x_j'(y - mu)| / n for every column, one block
+	 * of columns per thread.
+	 */
+	private double[] computeScores()
+	throws Exception
+	{
+		final double[] score = new double[this.p];
+		final HdpsPatientVariableMatrix m = this.matrix;
+		int blockSize = (this.p + this.numThreads - 1) / this.numThreads;
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = 0; start < this.p; start += blockSize) {
+			final int blockStart = start;
+			final int blockEnd = Math.min(start + blockSize, this.p);
+
+			Runnable task = new Runnable() {
+				public void run() {
+					for (int j = blockStart; j < blockEnd; j++) {
+						double g = 0;
+						for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++)
+							g += ((y[m.rowIndices[e]] ? 1.0 : 0.0) - mu[m.rowIndices[e]]) * getColumnValue(e);
+						score[j] = Math.abs(g * scale[j]) / n;
+					}
+				}
+			};
+			futures.add(this.executor.submit(task));
+		}
+
+		for (Future<?> f: futures)
+			f.get();
+
+		return score;
+	}
+}
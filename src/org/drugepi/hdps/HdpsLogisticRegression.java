@@ -0,0 +1,248 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.hdps.storage.HdpsPatientVariableMatrix;
+
+import Jama.*;
+
+/**
+ * Logistic regression of exposure on the columns of a sparse patient/variable
+ * matrix, fit by iteratively reweighted least squares (IRLS).
+ * <p>
+ * Each iteration accumulates the weighted cross-product matrix X'WX over the
+ * non-zero entries of each patient row only.  Patients are split into one block
+ * per thread; each thread accumulates its own partial sums, which are then added
+ * together and solved with a Cholesky decomposition.
+ * <p>
+ * A very small ridge penalty is added to the diagonal (excluding the intercept) so that
+ * variables that never occur, or that are perfectly collinear, do not make the system singular.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsLogisticRegression {
+	public static final int MAX_ITERATIONS = 25;
+	public static final double CONVERGENCE_TOLERANCE = 1e-8;
+	private static final double RIDGE = 1e-6;
+	private static final double MIN_WEIGHT = 1e-10;
+
+	private HdpsPatientVariableMatrix matrix;
+	private int numThreads;
+	private int numParams;
+
+	/**
+	 * Coefficients after fitting; the intercept is element 0 and the coefficient for
+	 * matrix column <i>j</i> is element <i>j + 1</i>.
+	 */
+	public double[] coefficients;
+	public int iterations;
+	public boolean converged;
+	public double deviance;
+
+	private class PartialSums {
+		double[] xwx;
+		double[] xwz;
+		double deviance;
+	}
+
+	/**
+	 * @param matrix		The patient/variable matrix; exposure is the dependent variable.
+	 * @param numThreads	Number of threads to use; 0 or less uses one thread per processor.
+	 */
+	public HdpsLogisticRegression(HdpsPatientVariableMatrix matrix, int numThreads)
+	{
+		this.matrix = matrix;
+		this.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+		this.numParams = matrix.numColumns + 1;
+		this.coefficients = new double[this.numParams];
+	}
+
+	/**
+	 * Fit the model.
+	 *
+	 * @return	The fitted coefficients.
+	 * @throws Exception
+	 */
+	public double[] fit()
+	throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		try {
+			double lastDeviance = Double.MAX_VALUE;
+			this.converged = false;
+
+			for (this.iterations = 1; this.iterations <= MAX_ITERATIONS; this.iterations++) {
+				PartialSums sums = this.accumulate(executor);
+				this.deviance = sums.deviance;
+
+				if (Math.abs(lastDeviance - this.deviance) <
+						CONVERGENCE_TOLERANCE * (Math.abs(this.deviance) + 0.1)) {
+					this.converged = true;
+					break;
+				}
+				lastDeviance = this.deviance;
+
+				this.coefficients = this.solve(sums);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		return this.coefficients;
+	}
+
+	/**
+	 * @return	The linear predictor for each patient under the current coefficients.
+	 */
+	public double[] getLinearPredictors()
+	{
+		double[] eta = new double[this.matrix.numPatients];
+		for (int i = 0; i < this.matrix.numPatients; i++)
+			eta[i] = this.getLinearPredictor(i, this.coefficients);
+		return eta;
+	}
+
+	/**
+	 * @return	The predicted probability of exposure (the propensity score) for each patient.
+	 */
+	public double[] getPredictedProbabilities()
+	{
+		double[] eta = this.getLinearPredictors();
+		for (int i = 0; i < eta.length; i++)
+			eta[i] = 1.0 / (1.0 + Math.exp(-eta[i]));
+		return eta;
+	}
+
+	private double getLinearPredictor(int patient, double[] beta)
+	{
+		HdpsPatientVariableMatrix m = this.matrix;
+
+		double eta = beta[0];
+		for (int entry = m.rowStarts[patient]; entry < m.rowStarts[patient + 1]; entry++)
+			eta += m.getEntryValue(entry) * beta[m.columnIndices[entry] + 1];
+		return eta;
+	}
+
+	private PartialSums accumulate(ExecutorService executor)
+	throws Exception
+	{
+		final double[] beta = this.coefficients;
+		int blockSize = (this.matrix.numPatients + this.numThreads - 1) / this.numThreads;
+
+		List<Future<PartialSums>> futures = new ArrayList<Future<PartialSums>>();
+		for (int start = 0; start < this.matrix.numPatients; start += blockSize) {
+			final int blockStart = start;
+			final int blockEnd = Math.min(start + blockSize, this.matrix.numPatients);
+
+			Callable<PartialSums> task = new Callable<PartialSums>() {
+				public PartialSums call() {
+					return accumulateBlock(blockStart, blockEnd, beta);
+				}
+			};
+			futures.add(executor.submit(task));
+		}
+
+		PartialSums total = null;
+		for (Future<PartialSums> f: futures) {
+			PartialSums sums = f.get();
+			if (total == null) {
+				total = sums;
+			} else {
+				for (int i = 0; i < total.xwx.length; i++)
+					total.xwx[i] += sums.xwx[i];
+				for (int i = 0; i < total.xwz.length; i++)
+					total.xwz[i] += sums.xwz[i];
+				total.deviance += sums.deviance;
+			}
+		}
+
+		return total;
+	}
+
+	/*
+	 * Accumulate X'WX (upper triangle, stored row-major in a p x p array),
+	 * X'Wz, and the deviance for patients start through end - 1.  Column 0 is
+	 * the intercept.
+	 */
+	private PartialSums accumulateBlock(int start, int end, double[] beta)
+	{
+		HdpsPatientVariableMatrix m = this.matrix;
+		int p = this.numParams;
+
+		PartialSums sums = new PartialSums();
+		sums.xwx = new double[p * p];
+		sums.xwz = new double[p];
+		sums.deviance = 0;
+
+		for (int i = start; i < end; i++) {
+			double eta = this.getLinearPredictor(i, beta);
+			double mu = 1.0 / (1.0 + Math.exp(-eta));
+			double y = (m.exposed[i] ? 1.0 : 0.0);
+
+			double w = Math.max(mu * (1.0 - mu), MIN_WEIGHT);
+			double z = eta + (y - mu) / w;
+
+			if (y == 1.0)
+				sums.deviance -= 2.0 * Math.log(Math.max(mu, MIN_WEIGHT));
+			else
+				sums.deviance -= 2.0 * Math.log(Math.max(1.0 - mu, MIN_WEIGHT));
+
+			int rowStart = m.rowStarts[i];
+			int rowEnd = m.rowStarts[i + 1];
+
+			// intercept row
+			sums.xwx[0] += w;
+			sums.xwz[0] += w * z;
+			for (int a = rowStart; a < rowEnd; a++) {
+				int ca = m.columnIndices[a] + 1;
+				double wxa = w * m.getEntryValue(a);
+
+				sums.xwx[ca] += wxa;
+				sums.xwz[ca] += wxa * z;
+				for (int b = a; b < rowEnd; b++) {
+					int cb = m.columnIndices[b] + 1;
+					if (ca <= cb)
+						sums.xwx[ca * p + cb] += wxa * m.getEntryValue(b);
+					else
+						sums.xwx[cb * p + ca] += wxa * m.getEntryValue(b);
+				}
+			}
+		}
+
+		return sums;
+	}
+
+	private double[] solve(PartialSums sums)
+	{
+		int p = this.numParams;
+
+		Matrix a = new Matrix(p, p);
+		Matrix b = new Matrix(p, 1);
+		for (int i = 0; i < p; i++) {
+			for (int j = i; j < p; j++) {
+				double v = sums.xwx[i * p + j];
+				a.set(i, j, v);
+				a.set(j, i, v);
+			}
+			if (i > 0)
+				a.set(i, i, a.get(i, i) + RIDGE * sums.xwx[0]);
+			b.set(i, 0, sums.xwz[i]);
+		}
+
+		CholeskyDecomposition chol = a.chol();
+		Matrix x;
+		if (chol.isSPD())
+			x = chol.solve(b);
+		else
+			x = a.solve(b);
+
+		return x.getColumnPackedCopy();
+	}
+}
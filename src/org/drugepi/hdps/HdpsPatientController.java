@@ -15,6 +15,7 @@ public abstract class HdpsPatientController
     protected static final int EXPOSED_COLUMN_NUM = 1;
     protected static final int OUTCOME_COLUMN_NUM = 2;
     protected static final int TIME_COLUMN_NUM = 3;
+    protected static final int INDEX_DATE_COLUMN_NUM = 4;
     
     public int nExposed;
     public int nOutcome;
@@ -0,0 +1,469 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.*;
+
+import org.drugepi.PharmacoepiTool;
+import org.drugepi.util.Utils;
+
+/**
+ * Metrics for a single hd-PS run:  wall and CPU time for each phase of the run and for
+ * each dimension, input rows read, distinct codes, code-patient links created, local
+ * database cache misses, heap high-water mark, and bytes written to output files.
+ * <p>
+ * While the run is in progress the metrics can be watched live through JMX, under the
+ * name <code>org.drugepi.hdps:type=HdpsRun,id=<i>n</i></code>.  When the run ends they
+ * are written as JSON to <code>run_metrics.json</code> in the output directory.  Counts
+ * that are not known in the current mode are written as null.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsRunMetrics implements HdpsRunMetricsMBean {
+	public static final String METRICS_FILE_NAME = "run_metrics.json";
+
+	private static final AtomicInteger nextRunId = new AtomicInteger(1);
+
+	private HdpsController controller;
+	private ObjectName objectName;
+
+	private long runStartNanos;
+	private long runEndNanos;
+	private long runStartCpuNanos;
+	private long runEndCpuNanos;
+	private long runHeapHighWaterBytes;
+	private long lastStoreCacheMisses;
+	private boolean running;
+
+	private List<PhaseMetrics> phases;
+	private PhaseMetrics currentPhase;
+	private Map<Integer, DimensionMetrics> dimensions;
+	private Set<String> outputFiles;
+
+	private class PhaseMetrics {
+		public String name;
+		public long startNanos;
+		public long startCpuNanos;
+		public long startStoreCacheMisses;
+		public long wallNanos;
+		public long cpuNanos;
+		public long storeCacheMisses;
+	}
+
+	private class DimensionMetrics {
+		public HdpsDimensionController dimension;
+		public long startNanos;
+		public long startCpuNanos;
+		public long wallNanos = -1;
+		public long cpuNanos = -1;
+	}
+
+	public HdpsRunMetrics(HdpsController controller)
+	{
+		super();
+		this.controller = controller;
+		this.phases = new ArrayList<PhaseMetrics>();
+		this.dimensions = new TreeMap<Integer, DimensionMetrics>();
+		this.outputFiles = new LinkedHashSet<String>();
+		this.lastStoreCacheMisses = -1;
+	}
+
+	/**
+	 * Start timing the run and register the metrics with the platform MBean server.
+	 */
+	public synchronized void startRun()
+	{
+		this.phases.clear();
+		this.dimensions.clear();
+		this.outputFiles.clear();
+		this.currentPhase = null;
+		this.lastStoreCacheMisses = -1;
+
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+
+		this.runStartNanos = System.nanoTime();
+		this.runStartCpuNanos = getProcessCpuNanos();
+		this.running = true;
+
+		try {
+			this.objectName = new ObjectName(String.format("org.drugepi.hdps:type=HdpsRun,id=%d",
+					nextRunId.getAndIncrement()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.objectName);
+		} catch (Exception e) {
+			this.controller.getEvents().note("NOTE: hd-PS run metrics could not be registered with JMX: %s",
+					e.getMessage());
+			this.objectName = null;
+		}
+	}
+
+	/**
+	 * End the current phase, if any, and start a new one.
+	 *
+	 * @param name	Name of the phase.
+	 */
+	public synchronized void startPhase(String name)
+	{
+		this.endPhase();
+
+		PhaseMetrics phase = new PhaseMetrics();
+		phase.name = name;
+		phase.startStoreCacheMisses = this.sampleStoreCacheMisses();
+		phase.startCpuNanos = getProcessCpuNanos();
+		phase.startNanos = System.nanoTime();
+		this.phases.add(phase);
+		this.currentPhase = phase;
+	}
+
+	/**
+	 * Start timing a dimension.  Must be called on the thread that reads the dimension.
+	 */
+	public synchronized void startDimension(HdpsDimensionController dimension)
+	{
+		DimensionMetrics d = new DimensionMetrics();
+		d.dimension = dimension;
+		d.startCpuNanos = getThreadCpuNanos();
+		d.startNanos = System.nanoTime();
+		this.dimensions.put(dimension.dimensionId, d);
+	}
+
+	/**
+	 * Stop timing a dimension.  Must be called on the thread that read the dimension.
+	 */
+	public synchronized void endDimension(HdpsDimensionController dimension)
+	{
+		DimensionMetrics d = this.dimensions.get(dimension.dimensionId);
+		if (d == null)
+			return;
+
+		d.wallNanos = System.nanoTime() - d.startNanos;
+		long cpuNanos = getThreadCpuNanos();
+		d.cpuNanos = ((cpuNanos < 0) || (d.startCpuNanos < 0) ? -1 : cpuNanos - d.startCpuNanos);
+	}
+
+	/**
+	 * Record a file written by the run.  Its size is read when the metrics are reported.
+	 */
+	public synchronized void addOutputFile(String path)
+	{
+		this.outputFiles.add(path);
+	}
+
+	/**
+	 * End the run, unregister the metrics from the MBean server, and write the metrics
+	 * file to the output directory.
+	 *
+	 * @throws Exception
+	 */
+	public synchronized void endRun()
+	throws Exception
+	{
+		this.endPhase();
+		this.runEndNanos = System.nanoTime();
+		this.runEndCpuNanos = getProcessCpuNanos();
+		this.runHeapHighWaterBytes = this.getHeapHighWaterBytes();
+		this.running = false;
+
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (Exception e) {
+				// already gone
+			}
+			this.objectName = null;
+		}
+
+		String path = Utils.getFilePath(this.controller.hdps.tempDirectory, METRICS_FILE_NAME);
+		Writer writer = new BufferedWriter(new FileWriter(path));
+		try {
+			writer.write(this.getMetricsJson());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/*
+	 * ===========================================
+	 * MBEAN ATTRIBUTES
+	 * ===========================================
+	 */
+	public synchronized String getCurrentPhase()
+	{
+		return (this.running && this.currentPhase != null ? this.currentPhase.name : null);
+	}
+
+	public synchronized long getElapsedMillis()
+	{
+		return (this.getEndNanos() - this.runStartNanos) / 1000000;
+	}
+
+	public synchronized long getCpuMillis()
+	{
+		long endCpuNanos = (this.running ? getProcessCpuNanos() : this.runEndCpuNanos);
+		if ((endCpuNanos < 0) || (this.runStartCpuNanos < 0))
+			return -1;
+
+		return (endCpuNanos - this.runStartCpuNanos) / 1000000;
+	}
+
+	public synchronized long getHeapHighWaterBytes()
+	{
+		if (! this.running)
+			return this.runHeapHighWaterBytes;
+		
+		long bytes = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				bytes += pool.getPeakUsage().getUsed();
+
+		return bytes;
+	}
+
+	/**
+	 * @return	Paths of the files written by the run.
+	 */
+	public synchronized List<String> getOutputFiles()
+	{
+		return new ArrayList<String>(this.outputFiles);
+	}
+
+	public synchronized long getBytesWritten()
+	{
+		long bytes = 0;
+		for (String path: this.outputFiles)
+			bytes += new File(path).length();
+
+		return bytes;
+	}
+
+	public synchronized long getStoreCacheMisses()
+	{
+		// the database is opened by the run, so its count starts at zero
+		if (this.running)
+			this.sampleStoreCacheMisses();
+
+		return this.lastStoreCacheMisses;
+	}
+
+	public synchronized int getNumDimensionsRead()
+	{
+		int n = 0;
+		for (DimensionMetrics d: this.dimensions.values())
+			if (d.wallNanos >= 0)
+				n++;
+
+		return n;
+	}
+
+	public synchronized long getRowsRead()
+	{
+		long rows = 0;
+		for (DimensionMetrics d: this.dimensions.values())
+			rows += Math.max(d.dimension.getNumRowsRead(), 0);
+
+		return rows;
+	}
+
+	public synchronized String getMetricsJson()
+	{
+		StringBuilder json = new StringBuilder();
+
+		json.append("{\n");
+		appendField(json, 1, "tool", PharmacoepiTool.description, true);
+		appendField(json, 1, "version", PharmacoepiTool.version, true);
+		appendField(json, 1, "mode", this.controller.hdps.mode, true);
+		appendField(json, 1, "num_patients", this.controller.getNumPatients(), true);
+		appendField(json, 1, "wall_millis", this.getElapsedMillis(), true);
+		appendField(json, 1, "cpu_millis", this.getCpuMillis(), true);
+		appendField(json, 1, "heap_high_water_bytes", this.getHeapHighWaterBytes(), true);
+		appendField(json, 1, "bytes_written", this.getBytesWritten(), true);
+		appendField(json, 1, "store_cache_misses", this.getStoreCacheMisses(), true);
+		appendField(json, 1, "rows_read", this.getRowsRead(), true);
+
+		json.append("\t\"phases\": [");
+		for (int i = 0; i < this.phases.size(); i++) {
+			PhaseMetrics phase = this.phases.get(i);
+			long wallNanos = (phase == this.currentPhase && this.running ?
+					System.nanoTime() - phase.startNanos : phase.wallNanos);
+			long cpuNanos = (phase == this.currentPhase && this.running ?
+					getCpuDelta(phase.startCpuNanos, getProcessCpuNanos()) : phase.cpuNanos);
+
+			json.append(i == 0 ? "\n" : ",\n").append("\t\t{\n");
+			appendField(json, 3, "name", phase.name, true);
+			appendField(json, 3, "wall_millis", wallNanos / 1000000, true);
+			appendField(json, 3, "cpu_millis", toMillis(cpuNanos), true);
+			appendField(json, 3, "store_cache_misses", this.getPhaseStoreCacheMisses(phase), false);
+			json.append("\t\t}");
+		}
+		json.append("\n\t],\n");
+
+		json.append("\t\"dimensions\": [");
+		int i = 0;
+		for (DimensionMetrics d: this.dimensions.values()) {
+			long rows = d.dimension.getNumRowsRead();
+			String rowsPerSecond = null;
+			if ((rows >= 0) && (d.wallNanos > 0))
+				rowsPerSecond = String.format(Locale.ROOT, "%.1f", rows * 1e9 / d.wallNanos);
+
+			json.append(i++ == 0 ? "\n" : ",\n").append("\t\t{\n");
+			appendField(json, 3, "id", d.dimension.dimensionId, true);
+			appendField(json, 3, "description", d.dimension.dimensionDescription, true);
+			appendField(json, 3, "wall_millis", toMillis(d.wallNanos), true);
+			appendField(json, 3, "cpu_millis", toMillis(d.cpuNanos), true);
+			appendField(json, 3, "rows_read", rows, true);
+			appendRawField(json, 3, "rows_per_second", rowsPerSecond, true);
+			appendField(json, 3, "distinct_codes", d.dimension.getNumDistinctCodes(), true);
+			appendField(json, 3, "code_patient_links", d.dimension.getNumCodePatientLinks(), false);
+			json.append("\t\t}");
+		}
+		json.append("\n\t],\n");
+
+		json.append("\t\"output_files\": [");
+		i = 0;
+		for (String path: this.outputFiles) {
+			json.append(i++ == 0 ? "\n" : ",\n").append("\t\t{\n");
+			appendField(json, 3, "path", path, true);
+			appendField(json, 3, "bytes", new File(path).length(), false);
+			json.append("\t\t}");
+		}
+		json.append("\n\t]\n");
+		json.append("}\n");
+
+		return json.toString();
+	}
+
+	/*
+	 * ===========================================
+	 * PRIVATE METHODS
+	 * ===========================================
+	 */
+	private void endPhase()
+	{
+		PhaseMetrics phase = this.currentPhase;
+		if ((phase == null) || (phase.wallNanos > 0))
+			return;
+
+		phase.wallNanos = Math.max(System.nanoTime() - phase.startNanos, 1);
+		phase.cpuNanos = getCpuDelta(phase.startCpuNanos, getProcessCpuNanos());
+		phase.storeCacheMisses = this.sampleStoreCacheMisses();
+	}
+
+	/*
+	 * Read the cumulative cache miss count.  Once the database is closed, the last count
+	 * read stands.
+	 */
+	private long sampleStoreCacheMisses()
+	{
+		long misses = -1;
+		try {
+			misses = this.controller.getStoreCacheMisses();
+		} catch (Exception e) {
+			// database not available
+		}
+
+		if (misses >= 0)
+			this.lastStoreCacheMisses = misses;
+
+		return this.lastStoreCacheMisses;
+	}
+
+	private long getPhaseStoreCacheMisses(PhaseMetrics phase)
+	{
+		long endMisses = (phase.wallNanos > 0 ? phase.storeCacheMisses : this.lastStoreCacheMisses);
+		if (endMisses < 0)
+			return -1;
+
+		return endMisses - Math.max(phase.startStoreCacheMisses, 0);
+	}
+
+	private long getEndNanos()
+	{
+		return (this.running ? System.nanoTime() : this.runEndNanos);
+	}
+
+	private static long getCpuDelta(long startCpuNanos, long endCpuNanos)
+	{
+		if ((startCpuNanos < 0) || (endCpuNanos < 0))
+			return -1;
+
+		return endCpuNanos - startCpuNanos;
+	}
+
+	private static long toMillis(long nanos)
+	{
+		return (nanos < 0 ? -1 : nanos / 1000000);
+	}
+
+	private static long getProcessCpuNanos()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+
+		return -1;
+	}
+
+	private static long getThreadCpuNanos()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (! threads.isCurrentThreadCpuTimeSupported())
+			return -1;
+
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	private static void appendField(StringBuilder json, int depth, String name, long value,
+			boolean more)
+	{
+		appendRawField(json, depth, name, (value < 0 ? null : Long.toString(value)), more);
+	}
+
+	private static void appendField(StringBuilder json, int depth, String name, String value,
+			boolean more)
+	{
+		appendRawField(json, depth, name, (value == null ? null : quote(value)), more);
+	}
+
+	private static void appendRawField(StringBuilder json, int depth, String name, String value,
+			boolean more)
+	{
+		for (int i = 0; i < depth; i++)
+			json.append('\t');
+		json.append(quote(name)).append(": ").append(value == null ? "null" : value);
+		json.append(more ? ",\n" : "\n");
+	}
+
+	private static String quote(String s)
+	{
+		StringBuilder quoted = new StringBuilder(s.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':	quoted.append("\\\""); break;
+				case '\\':	quoted.append("\\\\"); break;
+				case '\n':	quoted.append("\\n"); break;
+				case '\r':	quoted.append("\\r"); break;
+				case '\t':	quoted.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						quoted.append(String.format("\\u%04x", (int) c));
+					else
+						quoted.append(c);
+			}
+		}
+		quoted.append('"');
+
+		return quoted.toString();
+	}
+}
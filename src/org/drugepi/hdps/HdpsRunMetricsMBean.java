@@ -0,0 +1,48 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+/**
+ * Management interface of {@link HdpsRunMetrics}, registered with the platform MBean
+ * server while an hd-PS run is in progress.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public interface HdpsRunMetricsMBean {
+	/**
+	 * @return	Name of the phase in progress, or null if the run has not started or has ended.
+	 */
+	public String getCurrentPhase();
+
+	public long getElapsedMillis();
+
+	/**
+	 * @return	CPU time used by the process since the run started, or -1 if not available.
+	 */
+	public long getCpuMillis();
+
+	/**
+	 * @return	Sum of the peak usage of each heap memory pool since the run started.
+	 */
+	public long getHeapHighWaterBytes();
+
+	public long getBytesWritten();
+
+	/**
+	 * @return	Local database cache misses since the run started, or -1 if not available.
+	 */
+	public long getStoreCacheMisses();
+
+	public int getNumDimensionsRead();
+
+	public long getRowsRead();
+
+	/**
+	 * @return	All metrics, in the format of the run metrics file.
+	 */
+	public String getMetricsJson();
+}
@@ -0,0 +1,199 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.hdps.storage.*;
+import org.drugepi.hdps.storage.comparators.HdpsVariableRankingComparator;
+
+/**
+ * Estimates how often each candidate variable would be selected for the propensity score
+ * if the cohort were resampled.
+ * <p>
+ * Each replicate draws an independent Poisson(1) weight for every patient (the Poisson
+ * bootstrap), recomputes the weighted 2x2 tallies and bias for every candidate variable
+ * from the in-memory patient/variable matrix, ranks the variables, and records which
+ * variables fall in the top <i>k</i>.  Replicates run in parallel; each uses its own random
+ * number generator, seeded from the base seed and the replicate number, so that results do
+ * not depend on the number of threads.  The two are mixed with SplitMix64, since 
+ * <code>java.util.Random</code> streams from consecutive seeds start out correlated.
+ */
+public class HdpsStabilityAnalysis {
+	private HdpsController hdpsController;
+	private HdpsPatientVariableMatrix matrix;
+	private List<HdpsVariable> variables;
+	private int numReplicates;
+	private long seed;
+	private int numThreads;
+
+	/**
+	 * @param hdpsController	The controller, which supplies ranking settings.
+	 * @param matrix			Patient/variable matrix of candidate variables, including missing values.
+	 * @param variables			The candidate variables, in matrix column order.
+	 * @param numReplicates		Number of bootstrap replicates.
+	 * @param seed				Base random number seed.
+	 * @param numThreads		Number of threads to use; 0 or less uses one thread per processor.
+	 */
+	public HdpsStabilityAnalysis(HdpsController hdpsController, HdpsPatientVariableMatrix matrix,
+			List<HdpsVariable> variables, int numReplicates, long seed, int numThreads)
+	{
+		this.hdpsController = hdpsController;
+		this.matrix = matrix;
+		this.variables = variables;
+		this.numReplicates = numReplicates;
+		this.seed = seed;
+		this.numThreads = (numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Run all replicates.
+	 *
+	 * @return	For each variable, the fraction of replicates in which it was selected.
+	 * @throws Exception
+	 */
+	public double[] calculateSelectionFrequencies()
+	throws Exception
+	{
+		this.matrix.buildColumnIndex();
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		try {
+			for (int r = 0; r < this.numReplicates; r++) {
+				final int replicate = r;
+				Callable<int[]> task = new Callable<int[]>() {
+					public int[] call() {
+						return runReplicate(replicate);
+					}
+				};
+				futures.add(executor.submit(task));
+			}
+
+			int[] timesSelected = new int[this.variables.size()];
+			for (Future<int[]> f: futures) {
+				for (int j: f.get())
+					timesSelected[j]++;
+			}
+
+			double[] frequencies = new double[timesSelected.length];
+			for (int j = 0; j < timesSelected.length; j++)
+				frequencies[j] = (double) timesSelected[j] / (double) this.numReplicates;
+
+			return frequencies;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Run one replicate and return the matrix columns of the selected variables.
+	 */
+	private int[] runReplicate(int replicate)
+	{
+		HdpsPatientVariableMatrix m = this.matrix;
+		Random random = new Random(mixSeed(this.seed ^ replicate));
+
+		// draw weights and weighted cohort totals
+		HdpsBiasCalculator calculator = new HdpsBiasCalculator(this.hdpsController);
+		calculator.nTotal = 0;
+		calculator.ptTotal = 0;
+		calculator.e1Total = 0;
+		calculator.ptExposed = 0;
+		calculator.d1Total = 0;
+		calculator.sumOfOutcomes = 0;
+		calculator.numEvents = 0;
+
+		int[] weights = new int[m.numPatients];
+		for (int i = 0; i < m.numPatients; i++) {
+			int w = nextPoisson(random);
+			weights[i] = w;
+			if (w == 0)
+				continue;
+
+			calculator.nTotal += w;
+			calculator.ptTotal += w * m.followUpTime[i];
+			if (m.exposed[i]) {
+				calculator.e1Total += w;
+				calculator.ptExposed += w * m.followUpTime[i];
+			}
+			if (m.outcome[i])
+				calculator.d1Total += w;
+			calculator.sumOfOutcomes += w * m.outcomeContinuous[i];
+			calculator.numEvents += w * m.outcomeCount[i];
+		}
+
+		// weighted tallies, bias, and ranking for each variable
+		List<HdpsVariable> replicateVariables = new ArrayList<HdpsVariable>(this.variables.size());
+		Map<HdpsVariable, Integer> columns = new IdentityHashMap<HdpsVariable, Integer>();
+		for (int j = 0; j < this.variables.size(); j++) {
+			HdpsVariable original = this.variables.get(j);
+			HdpsVariable var = new HdpsVariable();
+			var.code = original.code;
+			var.varName = original.varName;
+			var.type = original.type;
+
+			for (int e = m.columnStarts[j]; e < m.columnStarts[j + 1]; e++) {
+				int i = m.rowIndices[e];
+				if (weights[i] == 0)
+					continue;
+
+				int value = (m.columnValues == null ? HdpsVariable.valueOne : (int) m.columnValues[e]);
+				HdpsBiasCalculator.addPatient(var, value, weights[i], m.exposed[i], m.outcome[i],
+						m.outcomeContinuous[i], m.outcomeCount[i], m.followUpTime[i]);
+			}
+
+			calculator.calculateBias(var);
+			this.hdpsController.setActiveRankingVariable(var);
+			replicateVariables.add(var);
+			columns.put(var, j);
+		}
+
+		Collections.sort(replicateVariables, new HdpsVariableRankingComparator());
+
+		int k = Math.min(this.hdpsController.hdps.k, replicateVariables.size());
+		int[] selected = new int[k];
+		int numSelected = 0;
+		for (HdpsVariable var: replicateVariables) {
+			if (numSelected >= k)
+				break;
+
+			if (var.activeRankingVariable != HdpsVariable.INVALID)
+				selected[numSelected++] = columns.get(var);
+		}
+
+		return Arrays.copyOf(selected, numSelected);
+	}
+
+	/*
+	 * One step of SplitMix64 (Steele, Lea and Flood), spreading nearby seeds over the 
+	 * whole range.
+	 */
+	private static long mixSeed(long seed)
+	{
+		long z = seed + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/*
+	 * Poisson(1) draw by multiplying uniforms (Knuth).
+	 */
+	private static int nextPoisson(Random random)
+	{
+		final double limit = Math.exp(-1.0);
+
+		int k = 0;
+		double p = random.nextDouble();
+		while (p > limit) {
+			k++;
+			p *= random.nextDouble();
+		}
+		return k;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps;
+
+import java.util.*;
+
+import org.drugepi.util.*;
+
+/**
+ * Generates a synthetic hd-PS cohort:  a patient file and one dimension file per dimension,
+ * in the formats read by {@link Hdps#addPatients(String)} and
+ * {@link Hdps#addDimension(String, String)}.  Output depends only on the parameters, so
+ * the same parameters always produce the same files.
+ * <p>
+ * Codes within each dimension occur with Zipf-distributed frequencies:  the code of rank
+ * <i>r</i> is drawn with probability proportional to 1/<i>r</i><sup>s</sup>.  So that
+ * variable ranking has something to find, one in ten codes is drawn more often for
+ * exposed patients and one in ten more often for patients with the outcome.  Dimension
+ * rows are grouped by patient and dated within a year before the patient's index date.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsSyntheticCohort {
+	/**
+	 * Number of patients.  Default is 10,000.
+	 */
+	public int numPatients;
+
+	/**
+	 * Number of dimensions.  Default is 3.
+	 */
+	public int numDimensions;
+
+	/**
+	 * Number of distinct codes in each dimension.  Default is 2,000.
+	 */
+	public int numCodes;
+
+	/**
+	 * Mean number of rows per patient in each dimension.  Default is 15.
+	 */
+	public int meanRowsPerPatient;
+
+	/**
+	 * Exponent of the Zipf distribution of code frequencies.  Default is 1.0.
+	 */
+	public double zipfExponent;
+
+	/**
+	 * Proportion of patients exposed.  Default is 0.3.
+	 */
+	public double exposurePrevalence;
+
+	/**
+	 * Proportion of patients with the outcome.  Default is 0.1.
+	 */
+	public double outcomePrevalence;
+
+	/**
+	 * Proportion of an exposed patient's rows, or an outcome patient's rows, drawn from
+	 * the codes associated with exposure or outcome.  Default is 0.1.
+	 */
+	public double associationStrength;
+
+	/**
+	 * Random number seed.  Default is 1234567.
+	 */
+	public long seed;
+
+	public static final String PATIENT_FILE_NAME = "synthetic_patients.txt";
+	public static final String DIMENSION_FILE_NAME = "synthetic_dim%d.txt";
+
+	private static final int INDEX_DATE_START = 18000;
+	private static final int INDEX_DATE_RANGE = 1000;
+
+	/**
+	 * Constructor for the generator using default values for all parameters.
+	 */
+	public HdpsSyntheticCohort()
+	{
+		super();
+		this.numPatients = 10000;
+		this.numDimensions = 3;
+		this.numCodes = 2000;
+		this.meanRowsPerPatient = 15;
+		this.zipfExponent = 1.0;
+		this.exposurePrevalence = 0.3;
+		this.outcomePrevalence = 0.1;
+		this.associationStrength = 0.1;
+		this.seed = 1234567;
+	}
+
+	/**
+	 * Write the patient file and all dimension files to a directory.
+	 *
+	 * @param directory		Directory for the files.  Existing files are replaced.
+	 * @throws Exception
+	 */
+	public void write(String directory)
+	throws Exception
+	{
+		boolean[] exposed = new boolean[this.numPatients];
+		boolean[] outcome = new boolean[this.numPatients];
+		int[] indexDates = new int[this.numPatients];
+
+		this.writePatients(directory, exposed, outcome, indexDates);
+		for (int d = 0; d < this.numDimensions; d++)
+			this.writeDimension(directory, d, exposed, outcome, indexDates);
+	}
+
+	/**
+	 * Add the generated patients and dimensions to an hd-PS run.  The files must already
+	 * have been written with {@link #write(String)}.
+	 */
+	public void addTo(Hdps hdps, String directory)
+	throws Exception
+	{
+		hdps.addPatients(this.getPatientFilePath(directory));
+		for (int d = 0; d < this.numDimensions; d++)
+			hdps.addDimension(String.format("Synthetic dimension %d", d + 1),
+					this.getDimensionFilePath(directory, d));
+	}
+
+	public String getPatientFilePath(String directory)
+	{
+		return Utils.getFilePath(directory, PATIENT_FILE_NAME);
+	}
+
+	/**
+	 * @param dimension		Dimension number, starting at 0.
+	 */
+	public String getDimensionFilePath(String directory, int dimension)
+	{
+		return Utils.getFilePath(directory, String.format(DIMENSION_FILE_NAME, dimension + 1));
+	}
+
+	/**
+	 * @return	The ID of the patient with the specified number.  IDs sort in number order.
+	 */
+	public static String getPatientId(int patientNumber)
+	{
+		return String.format("P%09d", patientNumber);
+	}
+
+	private void writePatients(String directory, boolean[] exposed, boolean[] outcome,
+			int[] indexDates)
+	throws Exception
+	{
+		Random random = new Random(this.seed);
+
+		FastTabDelimitedFileWriter writer = new FastTabDelimitedFileWriter(
+				this.getPatientFilePath(directory),
+				new String[] { "patient_id", "exposure", "outcome", "follow_up", "index_date" });
+		for (int i = 0; i < this.numPatients; i++) {
+			exposed[i] = (random.nextDouble() < this.exposurePrevalence);
+			outcome[i] = (random.nextDouble() < this.outcomePrevalence);
+			indexDates[i] = INDEX_DATE_START + random.nextInt(INDEX_DATE_RANGE);
+
+			writer.writeString(getPatientId(i));
+			writer.writeInt(exposed[i] ? 1 : 0);
+			writer.writeInt(outcome[i] ? 1 : 0);
+			writer.writeInt(1 + random.nextInt(365));
+			writer.writeInt(indexDates[i]);
+			writer.endRow();
+		}
+		writer.close();
+	}
+
+	private void writeDimension(String directory, int dimension, boolean[] exposed,
+			boolean[] outcome, int[] indexDates)
+	throws Exception
+	{
+		Random random = new Random(this.seed + 1000 * (dimension + 1));
+		double[] cumulative = this.getZipfCumulativeProbabilities();
+
+		// codes with rank 1, 11, 21, ... go with exposure; 2, 12, 22, ... with outcome
+		int numAssociated = Math.max(this.numCodes / 10, 1);
+		String[] codes = new String[this.numCodes];
+		for (int c = 0; c < this.numCodes; c++)
+			codes[c] = String.format("D%dC%d", dimension + 1, c + 1);
+
+		FastTabDelimitedFileWriter writer = new FastTabDelimitedFileWriter(
+				this.getDimensionFilePath(directory, dimension),
+				new String[] { "patient_id", "code", "date" });
+		for (int i = 0; i < this.numPatients; i++) {
+			String patientId = getPatientId(i);
+			int numRows = random.nextInt(2 * this.meanRowsPerPatient + 1);
+
+			for (int r = 0; r < numRows; r++) {
+				int rank;
+				double u = random.nextDouble();
+				if ((exposed[i]) && (u < this.associationStrength))
+					rank = Math.min(10 * random.nextInt(numAssociated), this.numCodes - 1);
+				else if ((outcome[i]) && (u > 1 - this.associationStrength))
+					rank = Math.min(10 * random.nextInt(numAssociated) + 1, this.numCodes - 1);
+				else
+					rank = this.drawZipfRank(cumulative, random);
+
+				writer.writeString(patientId);
+				writer.writeString(codes[rank]);
+				writer.writeInt(indexDates[i] - 1 - random.nextInt(365));
+				writer.endRow();
+			}
+		}
+		writer.close();
+	}
+
+	private double[] getZipfCumulativeProbabilities()
+	{
+		double[] cumulative = new double[this.numCodes];
+		double total = 0;
+		for (int c = 0; c < this.numCodes; c++) {
+			total += 1.0 / Math.pow(c + 1, this.zipfExponent);
+			cumulative[c] = total;
+		}
+		for (int c = 0; c < this.numCodes; c++)
+			cumulative[c] /= total;
+
+		return cumulative;
+	}
+
+	/*
+	 * Draw a zero-based code rank.
+	 */
+	private int drawZipfRank(double[] cumulative, Random random)
+	{
+		int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (rank < 0)
+			rank = -(rank + 1);
+
+		return Math.min(rank, this.numCodes - 1);
+	}
+}
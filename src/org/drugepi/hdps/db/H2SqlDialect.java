@@ -0,0 +1,61 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.util.Arrays;
+
+import org.drugepi.util.Utils;
+
+/**
+ * SQL for the H2 embedded database, which allows hd-PS to be run in DB mode without a
+ * database server.  H2 has no <code>UPDATE ... FROM</code>, so updates that join another
+ * table are written with correlated subqueries, and sequences take no data type.  (H2
+ * 1.4.200 keeps the source of a <code>MERGE ... USING</code> as a view that then blocks
+ * dropping the source's tables.)  H2 joins only
+ * by nested loops, so the keys the run's tables are joined on are indexed.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class H2SqlDialect extends SqlDialect {
+	public String getName()
+	{
+		return DIALECT_H2;
+	}
+
+	public String createSequence(String sequenceName, int start)
+	{
+		return String.format(
+				"CREATE SEQUENCE %s START WITH %d INCREMENT BY 1",
+				sequenceName, start);
+	}
+
+	public String getHashFunction()
+	{
+		return "ORA_HASH";
+	}
+
+	public String createIndex(String indexName, String tableName, String columns)
+	{
+		return String.format("CREATE INDEX %s ON %s (%s)", indexName, tableName, columns);
+	}
+
+	public String updateFrom(String tableName, String[] columns, String[] values,
+			String query, String joinCondition, String condition)
+	{
+		return String.format(
+				"UPDATE %1$s A " +
+				"SET (%2$s) = (SELECT %3$s FROM (%4$s) B WHERE %5$s) " +
+				"WHERE EXISTS (SELECT 1 FROM (%4$s) B WHERE %5$s%6$s)",
+				tableName,
+				Utils.join(Arrays.asList(columns), ", "),
+				Utils.join(Arrays.asList(values), ", "),
+				query,
+				joinCondition,
+				(condition == null ? "" : " AND " + condition)
+			);
+	}
+}
@@ -7,6 +7,7 @@ package org.drugepi.hdps.db;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.drugepi.hdps.*;
 import org.drugepi.hdps.storage.*;
@@ -14,12 +15,18 @@ import org.drugepi.util.*;
 
 public class HdpsDbController extends HdpsController
 {
+	// rows fetched from the database at a time while writing the cohort
+	private static final int FETCH_SIZE = 10000;
+	
 	private Connection connection;
 	protected String varTableName;
 	protected String varTableIdSequenceName;
 	protected String patientVarTableName;
 	
 	protected String randomSuffix;
+	protected SqlDialect dialect;
+	protected SqlConnectionPool connectionPool;
+	protected SqlProfiler profiler;
 	
 	private Map<Integer, HdpsDimensionController> dimensionsMap;
 	
@@ -73,87 +80,257 @@ public class HdpsDbController extends HdpsController
 				c.updateVariablesToConsider();
 		}
 
-		Statement s = this.connection.createStatement();
-		String sql = String.format(
-				"SELECT * " +
-				"FROM %s ",
-				this.varTableName
-		);
-		ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+		// only bother to hash every variable if we're going to keep the table; 
+		// otherwise only those considered for the PS need their hashes
+		boolean storeHashes = (this.hdps.dbKeepOutputTables > 0);
+		List<Integer> hashVarIds = new ArrayList<Integer>();
+		List<String[]> hashKeys = new ArrayList<String[]>();
+		List<HdpsVariable> hashVars = new ArrayList<HdpsVariable>();
 
-		Statement hashStatement = this.connection.createStatement();
-		String hashFileName = Utils.getFilePath(this.hdps.tempDirectory,
-				"var_hash_" + this.randomSuffix + ".txt");
-		TabDelimitedFileWriter hashWriter = new TabDelimitedFileWriter(hashFileName);
+		// some drivers, e.g. PostgreSQL's, fetch in batches only outside auto-commit;
+		// only the variables considered for the PS are made into objects.  The 
+		// connection is shared by the rest of the run, so it is always returned to 
+		// auto-commit with no transaction open.
+		this.connection.setAutoCommit(false);
+		try {
+			Statement s = this.connection.createStatement(
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			s.setFetchSize(FETCH_SIZE);
+			String sql = String.format(
+					"SELECT * " +
+					"FROM %s ",
+					this.varTableName
+			);
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+	
+			while (r.next()) {
+				boolean consider = (r.getInt("consider_for_ps") == 1);
+				if ((! consider) && (! storeHashes))
+					continue;
 				
-		SqlUtils.addToSqlBatch(hashStatement, 
-				"CREATE TEMPORARY TABLE t_hashmap(var_id int, hash_value varchar(255))");
-		
-		while (r.next()) {
-			String codeName = r.getString("code");
-			HdpsCode code = new HdpsCode(codeName);
-			code.dimension = this.dimensionsMap.get(r.getInt("dimension_id"));
-			if (codeName != null)
-				code.codeString = codeName;
-			else
-				code.codeString = "Other";
-			
-			HdpsVariable var = new HdpsVariable(code, r);
-			var.code = code;
-			
-			String h = var.getHashValue();
-			String[] row = new String[2];
-			row[0] = Integer.toString(r.getInt("var_id"));
-			row[1] = h;
-			hashWriter.writeRow(row);
+				String codeName = r.getString("code");
+				if (codeName == null)
+					codeName = "Other";
+				HdpsDimensionController dimension = this.dimensionsMap.get(r.getInt("dimension_id"));
+				
+				HdpsVariable var = null;
+				if (consider) {
+					HdpsCode code = new HdpsCode(codeName);
+					code.dimension = dimension;
+					code.codeString = codeName;
+					
+					var = new HdpsVariable(code, r);
+					var.code = code;
+					this.variablesToConsider.put(var.varName, var);
+				}
+				
+				hashVarIds.add(r.getInt("var_id"));
+				hashKeys.add(new String[] { dimension.dimensionDescription, codeName, r.getString("type") });
+				hashVars.add(var);
+			}
+			r.close();
+			s.close();
+			this.connection.commit();
+		} catch (Exception e) {
+			this.connection.rollback();
+			throw e;
+		} finally {
+			this.connection.setAutoCommit(true);
+		}
+		
+		String[] hashes = this.computeHashValues(hashKeys);
+		for (int i = 0; i < hashes.length; i++) {
+			if (hashVars.get(i) != null)
+				hashVars.get(i).setHashValue(hashes[i]);
+		}
+		
+		if (storeHashes) {
+			this.events.note("Updating variables table with hash values.");
+			this.storeHashValues(hashVarIds, hashes);
+			this.events.note("Done updating.");
+		}
+	}
+	
+	/*
+	 * Hash each variable's dimension, code and type, in blocks on several threads.
+	 */
+	private String[] computeHashValues(final List<String[]> keys)
+	throws Exception
+	{
+		final String[] hashes = new String[keys.size()];
+		if (hashes.length == 0)
+			return hashes;
+		
+		int numThreads = (this.hdps.numThreads > 0 ? 
+				this.hdps.numThreads : Runtime.getRuntime().availableProcessors());
+		int blockSize = (hashes.length + numThreads - 1) / numThreads;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int start = 0; start < hashes.length; start += blockSize) {
+				final int blockStart = start;
+				final int blockEnd = Math.min(start + blockSize, hashes.length);
+				
+				Runnable task = new Runnable() {
+					public void run() {
+						for (int i = blockStart; i < blockEnd; i++) {
+							String[] key = keys.get(i);
+							hashes[i] = HdpsVariable.computeHashValue(key[0], key[1], key[2]);
+						}
+					}
+				};
+				futures.add(executor.submit(task));
+			}
 			
-			if (r.getInt("consider_for_ps") == 1)
-				this.variablesToConsider.put(var.varName, var);
+			for (Future<?> f: futures)
+				f.get();
+		} finally {
+			executor.shutdown();
 		}
-		hashWriter.close();
-		
-		String insertSql = String.format(
-				"INSERT INTO t_hashmap " +
-				"SELECT * FROM EXTERNAL '%s' " +
-				"USING (DELIM '\t' REMOTESOURCE 'JDBC' QUOTEDVALUE DOUBLE)",
-			hashFileName);
-		SqlUtils.addToSqlBatch(hashStatement, insertSql);
-
-		String updateSql = String.format(
-				"UPDATE %s A " +
-				"SET hash_value = B.hash_value " +
-				"FROM t_hashmap B " +
-				"WHERE A.var_id = B.var_id",
-			this.varTableName);
-		SqlUtils.addToSqlBatch(hashStatement, updateSql);
+		
+		return hashes;
+	}
+	
+	/*
+	 * Copy the hash values to the variables table through a temporary table.
+	 */
+	private void storeHashValues(List<Integer> varIds, String[] hashes)
+	throws Exception
+	{
+		List<Object[]> rows = new ArrayList<Object[]>(hashes.length);
+		for (int i = 0; i < hashes.length; i++)
+			rows.add(new Object[] { varIds.get(i), hashes[i] });
+		String hashTableName = SqlUtils.getTableName("Hash_Values", this.randomSuffix);
+		this.loadTemporaryTable(this.connection, hashTableName, 
+				"var_id int, hash_value varchar(255)", 2, rows);
 
-		// only bother to execute this statement if we're going to keep the table
-		// it's slow, so only do it if necessary
-		if (this.hdps.dbKeepOutputTables > 0) {
-			System.out.println("Updating variables table with hash values.");
-			SqlUtils.executeSqlBatch(hashStatement);
-			System.out.println("Done updating.");
+		Statement s = this.connection.createStatement();
+		try {
+			String updateSql = this.dialect.updateFrom(this.varTableName,
+					new String[] { "hash_value" },
+					new String[] { "B.hash_value" },
+					String.format("SELECT * FROM %s", hashTableName),
+					"A.var_id = B.var_id", null);
+			SqlUtils.executeSql(s, updateSql);
+		} finally {
+			SqlUtils.executeSql(s, String.format("DROP TABLE %s", hashTableName));
+			s.close();
 		}
-		hashStatement.close();
+	}
+	
+	/*
+	 * Create a temporary table and load rows into it, straight from memory where the 
+	 * dialect supports it and from a file otherwise.  Some databases, e.g. H2, make 
+	 * temporary tables visible to every connection, so the table's name should carry
+	 * the run's suffix, as the run's other tables do.  If the rows cannot be loaded, the
+	 * table is dropped; otherwise the caller drops it, whether or not its use succeeds,
+	 * so that it is not left on a pooled connection.
+	 */
+	private void loadTemporaryTable(Connection c, String tableName, String columns, 
+			int numColumns, List<Object[]> rows)
+	throws Exception
+	{
+		Statement s = c.createStatement();
+		SqlUtils.executeSql(s, String.format("CREATE TEMPORARY TABLE %s(%s)", 
+				tableName, columns));
 		
-		r.close();
-		s.close();
+		try {
+			if (this.dialect.supportsBatchInsert()) {
+				this.dialect.batchInsert(c, tableName, numColumns, rows.iterator());
+			} else {
+				String fileName = Utils.getFilePath(this.hdps.tempDirectory, tableName + ".txt");
+				FastTabDelimitedFileWriter writer = new FastTabDelimitedFileWriter(fileName);
+				for (Object[] row: rows) {
+					for (Object value: row)
+						writer.writeString(value.toString());
+					writer.endRow();
+				}
+				writer.close();
+				
+				this.dialect.bulkLoad(c, tableName, fileName, numColumns);
+			}
+		} catch (Exception e) {
+			SqlUtils.executeSql(s, String.format("DROP TABLE %s", tableName));
+			throw e;
+		} finally {
+			s.close();
+		}
 	}
 
 	
-	protected void updateAggregateField(Statement s, String aggField, String aggQuery)
+	/*
+	 * Compute every covariate-level count and sum in one grouped scan of the
+	 * patient variables joined to the patients, written to a staging table and
+	 * then copied to the variables table in one update, after the totals step.
+	 * The join is an outer join so that, as when each count had its own query, c1 
+	 * counts every patient with the variable, whether or not the patient is in the 
+	 * patient view, and the sums of variables with no such patients are 0.
+	 */
+	protected SqlTaskGraph.Task addCovariateCountTasks(SqlTaskGraph graph, boolean additiveMode,
+			SqlTaskGraph.Task totalsTask)
 	throws Exception
 	{
+		HdpsDbPatientController pc = (HdpsDbPatientController) this.patientController;
+		String statsTableName = SqlUtils.getTableName("Var_Stats", this.randomSuffix);
+		
+		String regressionSums = "";
+		if (additiveMode)
+			regressionSums = String.format(
+					", COALESCE(SUM(A.standardized_value * B.%s), 0) AS ce_sum" +
+					", COALESCE(SUM(A.standardized_value * B.%s), 0) AS cd_sum",
+					pc.getExposureFieldName(),
+					pc.getOutcomeFieldName()
+				);
+
 		String sql = String.format(
-				"UPDATE %s A " +
-				"SET A.%s = B.the_value " +
-				"FROM (%s) B " +
-				"WHERE A.var_id = B.var_id",
-				this.varTableName,
-				aggField,
-				aggQuery
+				"CREATE TABLE %s AS " +
+				"SELECT A.var_id, " +
+				"       COUNT(DISTINCT A.patient_id) AS c1, " +
+				"       COUNT(DISTINCT CASE WHEN B.%s = 1 THEN A.patient_id END) AS e1c1, " +
+				"       COUNT(DISTINCT CASE WHEN B.%s = 0 THEN A.patient_id END) AS e0c1, " +
+				"       COUNT(DISTINCT CASE WHEN B.%s = 1 THEN A.patient_id END) AS d1c1, " +
+				"       COUNT(DISTINCT CASE WHEN B.%s = 0 THEN A.patient_id END) AS d0c1, " +
+				"       COALESCE(SUM(B.%s), 0) AS c1_num_events, " +
+				"       COALESCE(SUM(B.%s), 0) AS pt_c1" +
+				"%s " +
+				"FROM %s A LEFT OUTER JOIN %s B " +
+				"ON A.patient_id = B.%s " +
+				"GROUP BY A.var_id",
+				statsTableName,
+				pc.getExposureFieldName(),
+				pc.getExposureFieldName(),
+				pc.getOutcomeFieldName(),
+				pc.getOutcomeFieldName(),
+				pc.getOutcomeFieldName(),
+				pc.getPersonTimeFieldName(),
+				regressionSums,
+				this.patientVarTableName,
+				pc.getPatientViewName(),
+				pc.getPatientIdFieldName()
 			);
-		s.addBatch(sql);
+		SqlTaskGraph.Task statsTask = graph.add("covariate_counts", Collections.singletonList(sql));
+		
+		List<String> columns = new ArrayList<String>(Arrays.asList(
+				"c1", "e1c1", "e0c1", "d1c1", "d0c1", "c1_num_events", "pt_c1"));
+		List<String> values = new ArrayList<String>();
+		for (String column: columns)
+			values.add("B." + column);
+		if (additiveMode) {
+			columns.add("ce_regression_beta");
+			values.add("B.ce_sum");
+			columns.add("cd_regression_beta");
+			values.add("B.cd_sum");
+		}
+		
+		sql = this.dialect.updateFrom(this.varTableName,
+				columns.toArray(new String[0]),
+				values.toArray(new String[0]),
+				String.format("SELECT * FROM %s", statsTableName),
+				"A.var_id = B.var_id", null);
+		
+		return graph.add("covariate_count_update", 
+				Arrays.asList(sql, String.format("DROP TABLE %s", statsTableName)),
+				statsTask, totalsTask);
 	}
 	
 	protected void scaleVariables()
@@ -163,65 +340,68 @@ public class HdpsDbController extends HdpsController
 		
 		Statement s = this.connection.createStatement();
 		// NULLIF avoids division by 0 (will yield NULL)
-		String sql = String.format(
-			"UPDATE %s A " +
-			"SET A.mean = sumValue / NULLIF(C.n_patients, 0) " +
+		String query = String.format(
+			"SELECT B.var_id, B.sumValue, C.n_patients " +
 			"FROM ( " +
 			"    SELECT var_id, " +
 			"           SUM(var_value) AS sumValue " +
 			"     FROM %s P, %s Q " +
 			"	  WHERE P.patient_id = Q.%s " +
 			"     GROUP BY var_id " +
-			") AS B, " +
+			") B, " +
 			"( " +
 			"   SELECT COUNT(*) AS n_patients" +
 			"	FROM %s" +
-			") AS C " +
-			"WHERE A.var_id = B.var_id",
-			this.varTableName,
+			") C",
 			patientVarTableName,
 			pc.getPatientViewName(),
 			pc.getPatientIdFieldName(),
 			pc.getPatientViewName()
 		);
-		System.out.println(sql);
-		s.execute(sql);
+		String sql = this.dialect.updateFrom(this.varTableName,
+				new String[] { "mean" },
+				new String[] { "B.sumValue / NULLIF(B.n_patients, 0)" },
+				query,
+				"A.var_id = B.var_id", null);
+		this.events.note(sql);
+		SqlUtils.executeSql(s, sql);
 
 		// variance is SUM(x^2) - n(mean ^ 2)
-		sql = String.format(
-				"UPDATE %s A " +
-				"SET A.variance = (sumSquares - (n_patients * (A.mean ^ 2))) / n_patients " +
+		query = String.format(
+				"SELECT B.var_id, B.sumSquares, C.n_patients " +
 				"FROM ( " +
 				"    SELECT var_id, " +
-				"           SUM(var_value ^ 2) AS sumSquares  " +
+				"           SUM(%s) AS sumSquares  " +
 				"     FROM %s P, %s Q " +
 				"	  WHERE P.patient_id = Q.%s " +
 				"     GROUP BY var_id " +
-				") AS B, " +
+				") B, " +
 				"( " +
 				"   SELECT COUNT(*) AS n_patients" +
 				"	FROM %s" +
-				") AS C " +
-				"WHERE A.var_id = B.var_id",
-				this.varTableName,
+				") C",
+				this.dialect.power("var_value", 2),
 				patientVarTableName,
 				pc.getPatientViewName(),
 				pc.getPatientIdFieldName(),
 				pc.getPatientViewName()
 			);
-		System.out.println(sql);
-		s.execute(sql);		
+		sql = this.dialect.updateFrom(this.varTableName,
+				new String[] { "variance" },
+				new String[] { String.format("(B.sumSquares - (B.n_patients * %s)) / B.n_patients",
+						this.dialect.power("A.mean", 2)) },
+				query,
+				"A.var_id = B.var_id", null);
+		this.events.note(sql);
+		SqlUtils.executeSql(s, sql);		
 		
-		sql = String.format(
-			"UPDATE %s A " +
-			"SET A.standardized_value = (A.var_value - B.mean) / NULLIF(SQRT(B.variance), 0) " +
-			"FROM %s B " +
-			"WHERE A.var_id = B.var_id",
-			this.patientVarTableName, 
-			this.varTableName
-		);
-		System.out.println(sql);
-		s.execute(sql);
+		sql = this.dialect.updateFrom(this.patientVarTableName,
+				new String[] { "standardized_value" },
+				new String[] { "(A.var_value - B.mean) / NULLIF(SQRT(B.variance), 0)" },
+				String.format("SELECT var_id, mean, variance FROM %s", this.varTableName),
+				"A.var_id = B.var_id", null);
+		this.events.note(sql);
+		SqlUtils.executeSql(s, sql);
 		s.close();
 	}
 	
@@ -231,19 +411,16 @@ public class HdpsDbController extends HdpsController
 		// update the variable table with names based on the ordering
 		// of the codes
 		Statement s = this.connection.createStatement();
-		String sql = String.format(
-				"UPDATE %s A " +
-				"SET var_name = RTRIM('D' || A.dimension_id || 'V' || B.ranking || A.type) " +
-				"FROM ( " +
-				"    SELECT var_id, " +
-				"	        RANK() OVER (PARTITION BY dimension_id ORDER BY code DESC) AS ranking " +
-				"    FROM %s " +
-				") AS B " +
-				"WHERE A.var_id = B.var_id ",
-				this.varTableName,
-				this.varTableName
-			);
-		s.execute(sql);
+		String sql = this.dialect.updateFrom(this.varTableName,
+				new String[] { "var_name" },
+				new String[] { "RTRIM('D' || A.dimension_id || 'V' || B.ranking || A.type)" },
+				String.format(
+					"SELECT var_id, " +
+					"       RANK() OVER (PARTITION BY dimension_id ORDER BY code DESC) AS ranking " +
+					"FROM %s ",
+					this.varTableName),
+				"A.var_id = B.var_id", null);
+		SqlUtils.executeSql(s, sql);
 		s.close();
 	}
 	
@@ -263,7 +440,7 @@ public class HdpsDbController extends HdpsController
 					"SELECT COUNT(*) AS c FROM %s WHERE is_dichotomous = 0",
 					this.varTableName
 				);
-			ResultSet r = s.executeQuery(sql);
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
 			r.next();
 			additiveMode = (r.getInt("c") > 0);
 		}
@@ -312,93 +489,14 @@ public class HdpsDbController extends HdpsController
 				HdpsVariable.INVALID, HdpsVariable.INVALID, HdpsVariable.INVALID, 
 				HdpsVariable.INVALID, HdpsVariable.INVALID, HdpsVariable.INVALID 
 			);
-		SqlUtils.addToSqlBatch(s, sql);
-		
-		this.updateAggregateField(s, "c1", 
-				String.format(
-						"SELECT var_id, count(DISTINCT patient_id) AS the_value " +
-						"FROM %s " +
-						"GROUP BY var_id",
-						patientVarTableName
-				));
 		
-		this.updateAggregateField(s, "e1c1", 
-				String.format(
-						"SELECT var_id, count(DISTINCT patient_id) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"      AND B.%s = 1 " +
-						"GROUP BY var_id",
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName(),
-						pc.getExposureFieldName()
-				));
-	
-		this.updateAggregateField(s, "e0c1", 
-				String.format(
-						"SELECT var_id, count(DISTINCT patient_id) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"      AND B.%s = 0 " +
-						"GROUP BY var_id",
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName(),
-						pc.getExposureFieldName()
-				));
-	
-		
-		this.updateAggregateField(s, "d1c1", 
-				String.format(
-						"SELECT var_id, count(DISTINCT patient_id) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"      AND B.%s = 1 " +
-						"GROUP BY var_id",
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName(),
-						pc.getOutcomeFieldName()
-				));
-	
-		this.updateAggregateField(s, "d0c1", 
-				String.format(
-						"SELECT var_id, count(DISTINCT patient_id) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"      AND B.%s = 0 " +
-						"GROUP BY var_id",
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName(),
-						pc.getOutcomeFieldName()
-				));
-
-		this.updateAggregateField(s, "c1_num_events", 
-				String.format(
-						"SELECT var_id, SUM(B.%s) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"GROUP BY var_id",
-						pc.getOutcomeFieldName(),
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName()
-				));
-		
-		this.updateAggregateField(s, "pt_c1", 
-				String.format(
-						"SELECT var_id, SUM(B.%s) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"GROUP BY var_id",
-						pc.getPersonTimeFieldName(),
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName()
-				));
+		// the totals and the covariate counts are independent until the counts
+		// are written; everything after that updates the same rows in order
+		SqlTaskGraph graph = this.createTaskGraph();
+		SqlTaskGraph.Task totalsTask = graph.add("variable_totals", Collections.singletonList(sql));
+		SqlTaskGraph.Task countsTask = this.addCovariateCountTasks(graph, additiveMode, totalsTask);
 		
+		List<String> statements = new ArrayList<String>();
 		sql = String.format(
 				"UPDATE %s " +
 				"SET e0 = n - e1," +
@@ -406,7 +504,7 @@ public class HdpsDbController extends HdpsController
 				"    c0 = n - c1",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 		
 		sql = String.format(
 				"UPDATE %s " +
@@ -418,7 +516,7 @@ public class HdpsDbController extends HdpsController
 				"    c0_num_events = num_events - c1_num_events ",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 
 		sql = String.format(
 				"UPDATE %s " +
@@ -426,7 +524,7 @@ public class HdpsDbController extends HdpsController
 				"    WHERE e0 > 0",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 
 		sql = String.format(
 				"UPDATE %s " +
@@ -434,7 +532,7 @@ public class HdpsDbController extends HdpsController
 				"    WHERE e1 > 0",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 
 		sql = String.format(
 				"UPDATE %s " +
@@ -442,7 +540,7 @@ public class HdpsDbController extends HdpsController
 				"WHERE pc_e1 > 0.5",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 	
 		sql = String.format(
 				"UPDATE %s " +
@@ -450,7 +548,7 @@ public class HdpsDbController extends HdpsController
 				"WHERE pc_e0 > 0.5",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
+		statements.add(sql);
 				
 		if (! additiveMode) {
 			sql = String.format(
@@ -459,7 +557,7 @@ public class HdpsDbController extends HdpsController
 					"WHERE pc_e1 > 0 AND pc_e0 > 0",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 
 			// exp(abs(ln(rr_cd))) will make all rr_cd > 1.0
 			if (this.hdps.useOutcomeZeroCellCorrection == 1) 
@@ -475,7 +573,7 @@ public class HdpsDbController extends HdpsController
 						"WHERE c1_num_events > 0 AND pt_c1 > 0 AND c0_num_events > 0 AND pt_c0 > 0",
 						this.varTableName
 					);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 			
 			sql = String.format(
 					"UPDATE %s " +
@@ -483,7 +581,7 @@ public class HdpsDbController extends HdpsController
 					"WHERE pc_e1 > 0 AND pc_e0 > 0",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 		
 			sql = String.format(
 					"UPDATE %s " +
@@ -491,7 +589,7 @@ public class HdpsDbController extends HdpsController
 					"WHERE rr_cd > 0",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 			
 			sql = String.format(
 					"UPDATE %s " +
@@ -500,7 +598,7 @@ public class HdpsDbController extends HdpsController
 					"WHERE pc_e1 > 0 AND pc_e0 > 0 AND rr_cd > 0",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 		} 
 		
 		if (additiveMode) {
@@ -508,37 +606,14 @@ public class HdpsDbController extends HdpsController
 			// requires that variables have been standardized already
 			// see http://en.wikipedia.org/wiki/Ordinary_least_squares#Simple_regression_model
 			// for formula
-			this.updateAggregateField(s, "ce_regression_beta",
-					String.format(
-						"SELECT var_id, SUM(standardized_value * %s) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"GROUP BY var_id",
-						pc.getExposureFieldName(),
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName()
-					));
-			
-			this.updateAggregateField(s, "cd_regression_beta",
-					String.format(
-						"SELECT var_id, SUM(standardized_value * %s) AS the_value " +
-						"FROM %s A, %s B " +
-						"WHERE A.patient_id = B.%s " +
-						"GROUP BY var_id",
-						pc.getOutcomeFieldName(),
-						patientVarTableName,
-						pc.getPatientViewName(),
-						pc.getPatientIdFieldName()
-					));
-	
+			// the sums are computed with the covariate counts in updateCovariateCounts()
 			sql = String.format(
 					"UPDATE %s " +
 					"SET exp_assoc_ranking_var = abs(ce_regression_beta), " +
 					"    outcome_assoc_ranking_var = abs(cd_regression_beta) ",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 		
 			// FIX!!!
 			sql = String.format(
@@ -546,7 +621,7 @@ public class HdpsDbController extends HdpsController
 					"SET bias = (ce_regression_beta * cd_regression_beta) ",
 					this.varTableName
 				);
-			SqlUtils.addToSqlBatch(s, sql);
+			statements.add(sql);
 		}
 
 		sql = String.format(
@@ -555,9 +630,10 @@ public class HdpsDbController extends HdpsController
 				"WHERE bias > 0",
 				this.varTableName
 			);
-		SqlUtils.addToSqlBatch(s, sql);
-
-		SqlUtils.executeSqlBatch(s);
+		statements.add(sql);
+		
+		graph.add("variable_bias", statements, countsTask);
+		graph.run();
 		s.close();
 	}
 
@@ -573,12 +649,12 @@ public class HdpsDbController extends HdpsController
        		fullOutputFields[k++] = var.varName;
        	}
        	
-       	RowWriter fullOutputWriter = null;
+       	FastTabDelimitedFileWriter fullOutputWriter = null;
        	if (this.hdps.doFullOutput == 1) {
-       		String path = Utils.getFilePath(hdps.tempDirectory, hdps.fullOutputFilename);
+       		String path = this.getOutputFilePath(hdps.fullOutputFilename);
        		
-       		System.out.printf("Writing full output file to %s\n", path);
-       		fullOutputWriter = new TabDelimitedFileWriter(
+       		this.events.note("Writing full output file to %s", path);
+       		fullOutputWriter = new FastTabDelimitedFileWriter(
        			path, fullOutputFields);
        	}
        	
@@ -587,138 +663,116 @@ public class HdpsDbController extends HdpsController
        	sparseOutputFields[0] = "patient_id";
        	sparseOutputFields[1] = "var_list";
        	
-       	RowWriter sparseOutputWriter = null;
+       	FastTabDelimitedFileWriter sparseOutputWriter = null;
        	if (this.hdps.doSparseOutput == 1)  {
-       		String path = Utils.getFilePath(hdps.tempDirectory, hdps.sparseOutputFilename);
+       		String path = this.getOutputFilePath(hdps.sparseOutputFilename);
        		
-       		System.out.printf("Writing sparse output file to %s\n", path);
-       		sparseOutputWriter = new TabDelimitedFileWriter(
+       		this.events.note("Writing sparse output file to %s", path);
+       		sparseOutputWriter = new FastTabDelimitedFileWriter(
        			path, sparseOutputFields);
        	}
        	
-       	Connection c = HdpsDbController.connectionFactory(this.hdps);
-       	Statement s = c.createStatement();
-       	String sql;
+       	Connection c = this.connectionPool.getConnection();
+       	try {
+	       	Statement s = c.createStatement();
+	       	String sql;
        	
-		// variablesToOutput some come in sorted
-		// build a variable -> index lookup table
-		final SortedMap<String, Integer> varMap = new TreeMap<String, Integer>();
-		int i = 1;  		// first index is 1
-		for (HdpsVariable var: variablesToOutput) {
-//			System.out.printf("Adding var %s\n", var.varName);
-			varMap.put(var.varName, new Integer(i));
-			i++;
-		}
+			// flag the variables and number them in output order, so that each row
+			// of the cohort query carries its column directly
+			List<String> varNames = new ArrayList<String>(variablesToOutput.size());
+			List<Object[]> ordinals = new ArrayList<Object[]>(variablesToOutput.size());
+			int i = 1;  		// first index is 1
+			for (HdpsVariable var: variablesToOutput) {
+				varNames.add(var.varName);
+				ordinals.add(new Object[] { var.varName, i });
+				i++;
+			}
+			String ordinalTableName = SqlUtils.getTableName("Output_Ordinals", this.randomSuffix);
+			this.loadTemporaryTable(c, ordinalTableName, 
+					"var_name varchar(255), output_ordinal int", 2, ordinals);
 		
-		sql = String.format(
-				"UPDATE %s " +
-				"SET selected_for_ps = 1 " +
-				"WHERE var_name IN ( %s )",
-				this.varTableName,
-				(varMap.keySet().size() == 0) ? 
-						"'BAD_VARIABLE_NAME'" : 
-						Utils.join(varMap.keySet(), ",", "'")
-		);
-		SqlUtils.executeSql(s, sql);
-       	
-        final String oneStr = "1";
-        final String zeroStr = "0";
-        final String quoteStr = "\"";
+			try {
+				sql = this.dialect.updateFrom(this.varTableName,
+						new String[] { "selected_for_ps", "output_ordinal" },
+						new String[] { "1", "B.output_ordinal" },
+						String.format("SELECT * FROM %s", ordinalTableName),
+						"A.var_name = B.var_name", null);
+				SqlUtils.executeSql(s, sql);
+			} finally {
+				SqlUtils.executeSql(s, String.format("DROP TABLE %s", ordinalTableName));
+				s.close();
+			}
        	
-        // do an outer join to get patients who have all 
-        // variables = 0
-   		sql = String.format(
-   				"SELECT P.%s AS patient_id, T.var_name, T.standardized_value " +
-   				"FROM %s P " +
-   				"LEFT OUTER JOIN " +
-   				"     (SELECT PV.patient_id, V.var_name, PV.standardized_value " +
-   				"      FROM %s PV, %s V " +
-   				"      WHERE PV.var_id = V.var_id AND" +
-   				"            V.selected_for_ps = 1 " +
-   				") T ON P.%s = T.patient_id " +
-   				"ORDER BY patient_id, var_name ",
-   				((HdpsDbPatientController) this.patientController).patientIdFieldName,
-   				((HdpsDbPatientController) this.patientController).patientViewName,
-   				this.patientVarTableName,
-   				this.varTableName,
-   				((HdpsDbPatientController) this.patientController).patientIdFieldName
-   		);
-   		ResultSet r = SqlUtils.executeSqlQuery(s, sql);
-   		
-   		String currentPatient = null;
-   		boolean rowInProgress = false;
-   		List<String> currentPatientVars = new ArrayList<String>();
-   		SortedMap<String, Integer> mapSegment = varMap;
+	        // do an outer join to get patients who have all 
+	        // variables = 0
+	   		sql = String.format(
+	   				"SELECT P.%s AS patient_id, T.output_ordinal, T.standardized_value " +
+	   				"FROM %s P " +
+	   				"LEFT OUTER JOIN " +
+	   				"     (SELECT PV.patient_id, V.output_ordinal, PV.standardized_value " +
+	   				"      FROM %s PV, %s V " +
+	   				"      WHERE PV.var_id = V.var_id AND" +
+	   				"            V.selected_for_ps = 1 " +
+	   				") T ON P.%s = T.patient_id " +
+	   				"ORDER BY patient_id ",
+	   				((HdpsDbPatientController) this.patientController).patientIdFieldName,
+	   				((HdpsDbPatientController) this.patientController).patientViewName,
+	   				this.patientVarTableName,
+	   				this.varTableName,
+	   				((HdpsDbPatientController) this.patientController).patientIdFieldName
+	   		);
    		
-   		while (r.next()) {
-   			// trim strings because they come back with spaces appended
-   			String patientId = r.getString(1).trim();
-   			String varName = r.getString(2);
-   			double varValue = r.getDouble(3);
-   			
-   			if (! patientId.equals(currentPatient)) {
-   				// start new row
-   				if (rowInProgress) {
-   					if (fullOutputWriter != null)
-   	   					fullOutputWriter.writeRow(fullOutputFields);
-   					
-   					if (sparseOutputWriter != null) {
-   						sparseOutputFields[1] = Utils.join(currentPatientVars, ",");
-   						sparseOutputWriter.writeRow(sparseOutputFields);
-   					}
-   				}
-
-   				rowInProgress = true;
-   				mapSegment = varMap;
-   				currentPatient = patientId;
-   				currentPatientVars.clear();
-
-   				fullOutputFields[0] = quoteStr + currentPatient + quoteStr;
-   				for (int j = 1; j < fullOutputFields.length; j++)
-   					fullOutputFields[j] = zeroStr;
-
-   				sparseOutputFields[0] = fullOutputFields[0];
-   			}
-   			
-   			if (varName != null) {
-   				// trim because the DB can pad the value
-   				varName = varName.trim();
-   				
-   				// make the segment smaller and smaller in order to speed up the search
-	   			mapSegment = mapSegment.tailMap(varName);
-
-	   			// get the first item in the map
-	   			Map.Entry<String, Integer> entry = mapSegment.entrySet().iterator().next();
-	   			String lookupVarName = entry.getKey();
-	   			int varIndex = entry.getValue();
-	   			if (! lookupVarName.equals(varName))
-	   				throw new HdpsException("Fatal variable lookup error.");
-	   			if (varValue == 1.0d) 
-	   				fullOutputFields[varIndex] = oneStr;
-	   			else
-	   				fullOutputFields[varIndex] = Double.toString(varValue);
-
-	   			currentPatientVars.add(varName);
-   			}
+	   		// some drivers, e.g. PostgreSQL's, fetch in batches only outside auto-commit
+	   		c.setAutoCommit(false);
+	   		try {
+		   		s = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		   		s.setFetchSize(FETCH_SIZE);
+		   		ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+	   		
+		   		// the current patient's values by ordinal; NaN where the patient has no row
+		   		double[] values = new double[variablesToOutput.size() + 1];
+		   		StringBuffer varList = new StringBuffer();
+		   		String currentPatient = null;
+	   		
+		   		while (r.next()) {
+		   			String patientId = r.getString(1);
+	   			
+		   			if (! patientId.equals(currentPatient)) {
+		   				if (currentPatient != null)
+		   					this.writeCohortRow(currentPatient, values, varNames, varList,
+		   							fullOutputWriter, sparseOutputWriter);
+	   				
+		   				currentPatient = patientId;
+		   				Arrays.fill(values, Double.NaN);
+		   			}
+	   			
+		   			int varIndex = r.getInt(2);
+		   			if (! r.wasNull()) {
+		   				if ((varIndex < 1) || (varIndex >= values.length))
+		   					throw new HdpsException("Fatal variable lookup error.");
+		   				values[varIndex] = r.getDouble(3);
+		   			}
+		       	}
+	       	
+		   		if (currentPatient != null)
+					this.writeCohortRow(currentPatient, values, varNames, varList,
+							fullOutputWriter, sparseOutputWriter);
+	   		
+				r.close();
+				s.close();
+				c.commit();
+	   		} catch (Exception e) {
+	   			c.rollback();
+	   			throw e;
+	   		} finally {
+	   			c.setAutoCommit(true);
+	   		}
+       	} finally {
+       		this.connectionPool.releaseConnection(c);
+       		c = null;
        	}
-       	
-   		if (rowInProgress) {
-			if (fullOutputWriter != null)
-   				fullOutputWriter.writeRow(fullOutputFields);
-				
-			// !!! BUG -- WILL NOT OUTPUT CORRECT STANDARDIZED VALUE!!!
-			if (sparseOutputWriter != null) {
-				sparseOutputFields[1] = Utils.join(currentPatientVars, ",");
-				sparseOutputWriter.writeRow(sparseOutputFields);
-			}
-   		}
-   		
-		r.close();
-		s.close();
-		c.close();
-		c = null;
 		        
-		System.out.printf("NOTE: hd-PS wrote %d patients to cohort.\n",
+		this.events.note("NOTE: hd-PS wrote %d patients to cohort.",
 				this.patientController.getNumPatients());
 
 		if (fullOutputWriter != null)
@@ -728,6 +782,139 @@ public class HdpsDbController extends HdpsController
 			sparseOutputWriter.close();
 	}
 	
+	/*
+	 * Write one patient's row of the full and sparse output.  values holds the patient's
+	 * value of each variable by ordinal, or NaN if the patient has none.  As in LOCAL mode,
+	 * the sparse output lists the variables whose value is 1 by name; a variable with any
+	 * other non-zero value, such as a standardized value, is listed as name=value.
+	 */
+	private void writeCohortRow(String patientId, double[] values, List<String> varNames,
+			StringBuffer varList, FastTabDelimitedFileWriter fullOutputWriter, 
+			FastTabDelimitedFileWriter sparseOutputWriter)
+	throws Exception
+	{
+		// trim because the DB can pad the value
+		String quotedPatientId = "\"" + patientId.trim() + "\"";
+		
+		if (fullOutputWriter != null) {
+			fullOutputWriter.writeString(quotedPatientId);
+			for (int j = 1; j < values.length; j++) {
+				if (Double.isNaN(values[j]))
+					fullOutputWriter.writeString("0");
+				else if (values[j] == 1.0d)
+					fullOutputWriter.writeString("1");
+				else
+					fullOutputWriter.writeString(Double.toString(values[j]));
+			}
+			fullOutputWriter.endRow();
+		}
+		
+		if (sparseOutputWriter != null) {
+			varList.setLength(0);
+			varList.append('"');
+			for (int j = 1; j < values.length; j++) {
+				if ((Double.isNaN(values[j])) || (values[j] == 0.0d))
+					continue;
+				
+				if (varList.length() > 1)
+					varList.append(',');
+				varList.append(varNames.get(j - 1));
+				if (values[j] != 1.0d)
+					varList.append('=').append(Double.toString(values[j]));
+			}
+			varList.append('"');
+			
+			sparseOutputWriter.writeString(quotedPatientId);
+			sparseOutputWriter.writeString(varList.toString());
+			sparseOutputWriter.endRow();
+		}
+	}
+	
+	protected HdpsPatientVariableMatrix buildPatientVariableMatrix(List<HdpsVariable> variables, 
+			boolean includeMissing)
+	throws Exception
+	{
+		HdpsDbPatientController pc = (HdpsDbPatientController) this.patientController;
+
+		String[] columnNames = new String[variables.size()];
+		Map<String, Integer> columnsByVarName = new HashMap<String, Integer>();
+		for (int j = 0; j < variables.size(); j++) {
+			columnNames[j] = variables.get(j).varName;
+			columnsByVarName.put(columnNames[j], j);
+		}
+		
+		HdpsPatientVariableMatrix matrix = 
+			new HdpsPatientVariableMatrix(columnNames, this.getNumPatients());
+		
+       	Connection c = this.connectionPool.getConnection();
+       	try {
+	       	Statement s = c.createStatement();
+
+	       	// this may run before variables are flagged as selected, so every 
+	       	// variable is read and those not requested are skipped below
+	   		String sql = String.format(
+	   				"SELECT P.%s AS patient_id, P.%s AS exposure, P.%s AS outcome, P.%s AS fu_time, " +
+	   				"       T.var_name, T.var_value " +
+	   				"FROM %s P " +
+	   				"LEFT OUTER JOIN " +
+	   				"     (SELECT PV.patient_id, V.var_name, PV.var_value " +
+	   				"      FROM %s PV, %s V " +
+	   				"      WHERE PV.var_id = V.var_id " +
+	   				") T ON P.%s = T.patient_id " +
+	   				"ORDER BY patient_id ",
+	   				pc.getPatientIdFieldName(),
+	   				pc.getExposureFieldName(),
+	   				pc.getOutcomeFieldName(),
+	   				pc.getPersonTimeFieldName(),
+	   				pc.getPatientViewName(),
+	   				this.patientVarTableName,
+	   				this.varTableName,
+	   				pc.getPatientIdFieldName()
+	   		);
+	   		ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+   		
+	   		String currentPatient = null;
+	   		while (r.next()) {
+	   			// trim strings because they come back with spaces appended
+	   			String patientId = r.getString(1).trim();
+	   			if (! patientId.equals(currentPatient)) {
+	   				currentPatient = patientId;
+	   				double outcome = r.getDouble(3);
+	   				matrix.addPatient(patientId, (r.getDouble(2) != 0), (outcome >= 1), 
+	   						outcome, (int) outcome, r.getInt(4));
+	   			}
+   			
+	   			String varName = r.getString(5);
+	   			if (varName != null) {
+	   				Integer column = columnsByVarName.get(varName.trim());
+	   				if (column != null)
+	   					matrix.addValue(column, r.getDouble(6));
+	   			}
+	   		}
+			r.close();
+			s.close();
+       	} finally {
+       		this.connectionPool.releaseConnection(c);
+       	}
+		matrix.finish();
+		
+		return matrix;
+	}
+	
+	/*
+	 * Index columns of one of the run's tables, if the dialect needs the index to join
+	 * on them.  The index is dropped with the table.
+	 */
+	void createIndex(Statement s, String tableName, String columns)
+	throws Exception
+	{
+		String indexName = String.format("%s_%s_ix", tableName, 
+				columns.replaceAll("[^A-Za-z0-9]+", "_"));
+		String sql = this.dialect.createIndex(indexName, tableName, columns);
+		if (sql != null)
+			SqlUtils.executeSql(s, sql);
+	}
+	
 	protected void createTables()
 	throws Exception
 	{
@@ -737,11 +924,11 @@ public class HdpsDbController extends HdpsController
 		this.varTableName = SqlUtils.getTableName("Vars", this.randomSuffix);
 		this.patientVarTableName = SqlUtils.getTableName("Patient_Vars", this.randomSuffix);
 		
-		System.out.printf("Variables table name is %s\n", this.varTableName);
-		System.out.printf("Patient variables table name is %s\n", this.patientVarTableName);
+		this.events.note("Variables table name is %s", this.varTableName);
+		this.events.note("Patient variables table name is %s", this.patientVarTableName);
 		
 		sql = String.format(
-				"CREATE TABLE %s (" +
+				"CREATE TABLE %1$s (" +
 				"   var_id	            int, " +
 				"   dimension_name      varchar(255), " +
 				"   var_name            varchar(255), " +
@@ -749,66 +936,70 @@ public class HdpsDbController extends HdpsController
 				"   dimension_id        int, " +
 				"   code                varchar(255), " +
 				"   is_dichotomous      int, " +
-				"   n                   double, " +
-				"   pt                  double, " +
-				"	e1                  double, " +
-				"   e0                  double, " +
-				"   c1                  double, " +
-				"   c0                  double, " +
-				"   d1                  double, " +
-				"   d0                  double, " +
-				"   pt_e1               double, " +
-				"   pt_e0               double, " +
-				"   pt_c1               double, " +
-				"   pt_c0               double, " +
-				"   e1c1                double, " +
-				"   e1c0                double, " +
-				"   e0c1                double, " +
-				"   e0c0                double, " +
-				"   d1c1                double, " +
-				"   d1c0                double, " +
-				"   d0c1                double, " +
-				"   d0c0                double, " +
-				"   num_events          double, " +
-				"   c1_num_events       double, " +
-				"   c0_num_events       double, " +
-				"   pc_e0               double, " +
-				"   pc_e1               double, " +
-				"   rr_ce               double, " +
-				"   rr_cd               double, " +
-				"   mean	            double, " +
-				"   variance            double, " +
-				"   ce_regression_beta  double, " +
-				"   cd_regression_beta  double, " +
-				"   exp_assoc_ranking_var 			double, " +
-				"   outcome_assoc_ranking_var       double, " +
-				"   bias_ranking_var		        double, " +
-				"   bias                double, " +
+				"   n                   %2$s, " +
+				"   pt                  %2$s, " +
+				"	e1                  %2$s, " +
+				"   e0                  %2$s, " +
+				"   c1                  %2$s, " +
+				"   c0                  %2$s, " +
+				"   d1                  %2$s, " +
+				"   d0                  %2$s, " +
+				"   pt_e1               %2$s, " +
+				"   pt_e0               %2$s, " +
+				"   pt_c1               %2$s, " +
+				"   pt_c0               %2$s, " +
+				"   e1c1                %2$s, " +
+				"   e1c0                %2$s, " +
+				"   e0c1                %2$s, " +
+				"   e0c0                %2$s, " +
+				"   d1c1                %2$s, " +
+				"   d1c0                %2$s, " +
+				"   d0c1                %2$s, " +
+				"   d0c0                %2$s, " +
+				"   num_events          %2$s, " +
+				"   c1_num_events       %2$s, " +
+				"   c0_num_events       %2$s, " +
+				"   pc_e0               %2$s, " +
+				"   pc_e1               %2$s, " +
+				"   rr_ce               %2$s, " +
+				"   rr_cd               %2$s, " +
+				"   mean	            %2$s, " +
+				"   variance            %2$s, " +
+				"   ce_regression_beta  %2$s, " +
+				"   cd_regression_beta  %2$s, " +
+				"   exp_assoc_ranking_var 			%2$s, " +
+				"   outcome_assoc_ranking_var       %2$s, " +
+				"   bias_ranking_var		        %2$s, " +
+				"   bias                %2$s, " +
 				"   consider_for_ps     integer, " +
 				"   selected_for_ps     integer," +
+				"   output_ordinal      integer," +
 				"   hash_value			varchar(255)" +
 				")",
-				this.varTableName
+				this.varTableName,
+				this.dialect.getDoubleType()
 			);
 		SqlUtils.executeSql(s, sql);
+		this.createIndex(s, this.varTableName, "var_id");
+		this.createIndex(s, this.varTableName, "code");
 		
 		this.varTableIdSequenceName = this.varTableName + "_sequence";
-		sql = String.format(
-				"CREATE SEQUENCE %s AS integer START WITH 1000 INCREMENT BY 1",
-				this.varTableIdSequenceName);
+		sql = this.dialect.createSequence(this.varTableIdSequenceName, 1000);
 		SqlUtils.executeSql(s, sql);
 		
 		// create a patient <-> variable linkage table
 		sql = String.format(
-				"CREATE TABLE %s (" +
+				"CREATE TABLE %1$s (" +
 				"   var_id            	int, " +
 				"   patient_id          varchar(255), " +
-				"   var_value           double, " +
-				"   standardized_value  double " +
+				"   var_value           %2$s, " +
+				"   standardized_value  %2$s " +
 				")",
-				this.patientVarTableName
+				this.patientVarTableName,
+				this.dialect.getDoubleType()
 			);
 		SqlUtils.executeSql(s, sql);
+		this.createIndex(s, this.patientVarTableName, "var_id");
 		
 		s.close();
 	}
@@ -817,12 +1008,36 @@ public class HdpsDbController extends HdpsController
 	throws Exception
 	{
 		super.checkParams();
+		
+		if (this.hdps.getExposureContrasts().size() > 0)
+			throw new HdpsException("Exposure contrasts are only available in LOCAL mode.");
+		
+		// the controller holds one connection for the run, and each SQL step needs another
+		if (this.hdps.dbMaxConnections < 2)
+			throw new HdpsException("The maximum number of database connections must be at least 2.");
+		
+		if (this.hdps.dbMaxConcurrentStatements < 1)
+			throw new HdpsException("The maximum number of concurrent SQL statements must be at least 1.");
+		
+		if (this.hdps.dbMaxRetries < 0)
+			throw new HdpsException("The number of SQL retries cannot be negative.");
+	}
+	
+	protected void calculateContrastStatistics(HdpsExposureContrast contrast)
+	throws Exception
+	{
+		throw new HdpsException("Exposure contrasts are only available in LOCAL mode.");
 	}
 	
 	protected void startHdps()
 	throws Exception
 	{
-		this.connection = HdpsDbController.connectionFactory(this.hdps);
+		this.profiler = new SqlProfiler(this, this.randomSuffix);
+		this.connectionPool = new SqlConnectionPool(this.hdps, this.hdps.dbMaxConnections, 
+				this.profiler);
+		this.connection = this.connectionPool.getConnection();
+		this.dialect = SqlDialect.getDialect(this.hdps.dbDialect, this.hdps.dbUrl);
+		this.events.note("Using %s SQL dialect.", this.dialect.getName());
 		this.createTables();
 	}
 	
@@ -830,33 +1045,71 @@ public class HdpsDbController extends HdpsController
 	throws Exception
 	{
 		try {
-			this.patientController.closeController();
+			// the plans need the run's tables, so are read before they are dropped
+			if (this.hdps.dbExplainTopQueries > 0)
+				this.profiler.explainSlowest(this.connection, this.dialect, 
+						this.hdps.dbExplainTopQueries);
 			
+			// dimension views depend on the patient view, so drop them first
 			for (HdpsDimensionController dc: this.dimensionsMap.values()) {
 				dc.closeController();
 			}
 			
+			this.patientController.closeController();
+			
 			if (this.hdps.dbKeepOutputTables == 0) {
 		     	Statement s = this.connection.createStatement();
 		       	String sql = String.format("DROP TABLE %s",
 		       				this.patientVarTableName);
-		       	s.execute(sql);
+		       	SqlUtils.executeSql(s, sql);
 		
 		       	sql = String.format("DROP TABLE %s",
 		   				this.varTableName);
 	
-		       	s.execute(sql);
+		       	SqlUtils.executeSql(s, sql);
 		       	
 		       	s.close();
 			}
-	       	
-	       	this.connection.close();
-	       	this.connection = null;
 		} catch (SQLException e) {
 			// ignore errors
+		} finally {
+			if (this.connectionPool != null) {
+		       	this.connectionPool.releaseConnection(this.connection);
+		       	this.connection = null;
+				this.connectionPool.close();
+			}
+			this.writeSqlProfile();
 		}
 	}
 	
+	private void writeSqlProfile()
+	{
+		if (this.profiler == null)
+			return;
+		
+		try {
+			this.profiler.writeReport();
+		} catch (Exception e) {
+			this.events.note("NOTE: hd-PS could not write the SQL profile: %s", e.getMessage());
+		}
+	}
+	
+	/*
+	 * A graph of SQL steps that runs on this run's connection pool.
+	 */
+	protected SqlTaskGraph createTaskGraph()
+	{
+		return new SqlTaskGraph(this.connectionPool, this.events,
+				this.hdps.dbMaxConcurrentStatements, this.hdps.dbMaxRetries);
+	}
+	
+	/**
+	 * @return	The profile of the SQL run so far, or null before the run has started.
+	 */
+	public SqlProfiler getProfiler() {
+		return this.profiler;
+	}
+	
 	public static Connection connectionFactory(Hdps hdps)
 	throws Exception {
 		Properties properties = new Properties();
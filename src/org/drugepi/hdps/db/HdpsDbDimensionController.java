@@ -20,6 +20,7 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	
 	private Connection connection;
 	private String dimensionViewName;
+	private String inputViewName;
 	private String codeTableName;
 	private String patientCodeTableName;
 	private String patientProfileScoreTableName;
@@ -34,74 +35,134 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	}
 	
 	public void readDimension() throws Exception {
-		this.connection = HdpsDbController.connectionFactory(this.hdps);
-		
-		this.dimensionViewName = SqlUtils.getTableName(this.getFormattedDimId(), 
-				this.hdpsController.randomSuffix);
+		this.connection = this.hdpsController.connectionPool.getConnection();
+		try {
+			this.dimensionViewName = SqlUtils.getTableName(this.getFormattedDimId(), 
+					this.hdpsController.randomSuffix);
 		
-		int numRowsRead = 0;
-		String sql = String.format(
-					"CREATE VIEW %s AS %s",
-					this.dimensionViewName,
-			  		((DatabaseRowReader) this.reader).getQuery());
-		Statement s = this.connection.createStatement();
-		SqlUtils.executeSql(s, sql);
+			int numRowsRead = 0;
+			String sql = String.format(
+						"CREATE VIEW %s AS %s",
+						this.dimensionViewName,
+				  		((DatabaseRowReader) this.reader).getQuery());
+			Statement s = this.connection.createStatement();
+			SqlUtils.executeSql(s, sql);
 		
-		sql = String.format(
-				"SELECT COUNT(*) AS num_rows FROM %s",
-				this.dimensionViewName);
-		ResultSet r = s.executeQuery(sql);
-		r.next();
-		numRowsRead = r.getInt("num_rows");
-		r.close();
+			sql = String.format(
+					"SELECT * FROM %s WHERE 1=0",
+					this.dimensionViewName);
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+			this.patientIdFieldName = r.getMetaData().getColumnName(1);
+			this.codeFieldName = r.getMetaData().getColumnName(2);
+			if (r.getMetaData().getColumnCount() > 2)
+				this.dateFieldName = r.getMetaData().getColumnName(3);
+			else
+				// hack: "1" will sub OK in the SQL
+				this.dateFieldName = "1";
+			r.close();
+		
+			if (this.hdps.useAssessmentWindow == 1)
+				this.createAssessmentWindowView(s);
 		
-		sql = String.format(
-				"SELECT * FROM %s WHERE 1=0",
-				this.dimensionViewName);
-		r = s.executeQuery(sql);
-		this.patientIdFieldName = r.getMetaData().getColumnName(1);
-		this.codeFieldName = r.getMetaData().getColumnName(2);
-		if (r.getMetaData().getColumnCount() > 2)
-			this.dateFieldName = r.getMetaData().getColumnName(3);
-		else
-			// hack: "1" will sub OK in the SQL
-			this.dateFieldName = "1";
-
-		r.close();
-		s.close();
+			sql = String.format(
+					"SELECT COUNT(*) AS num_rows FROM %s",
+					this.dimensionViewName);
+			r = SqlUtils.executeSqlQuery(s, sql);
+			r.next();
+			numRowsRead = r.getInt("num_rows");
+			this.numRowsRead = numRowsRead;
+			r.close();
+			s.close();
 	
-        reader.close();
-        System.out.printf("NOTE: hd-PS dimension %s has %d rows in view %s.", this.dimensionDescription,
-        		numRowsRead, this.dimensionViewName);
-        System.out.println("");
-		
-		this.createCodeDatabase();
-		
+	        reader.close();
+	        this.hdps.getEvents().rowsProcessed(this.dimensionDescription, numRowsRead);
+	        this.hdps.getEvents().note("NOTE: hd-PS dimension %s has %d rows in view %s.", this.dimensionDescription,
+	        		numRowsRead, this.dimensionViewName);
+		
+			this.createCodeDatabase();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(this.connection);
+			this.connection = null;
+		}
 		
+		// each kind of derived variable reads the code tables and adds variables
+		// of its own type, so they are built at the same time
+		SqlTaskGraph graph = this.hdpsController.createTaskGraph();
 		if (this.hdps.inferServiceIntensityVars == 1) {
-			this.createServiceIntensityVariables(true);
-			this.createServiceIntensityVariables(false);
+			graph.add(new SqlTaskGraph.Task(this.getFormattedDimId() + "_service_intensity_unique") {
+				protected void execute(Connection c) throws Exception {
+					createServiceIntensityVariables(c, true);
+				}
+			});
+			graph.add(new SqlTaskGraph.Task(this.getFormattedDimId() + "_service_intensity_all") {
+				protected void execute(Connection c) throws Exception {
+					createServiceIntensityVariables(c, false);
+				}
+			});
 		}
 
-		if (this.hdps.createProfileScores == 1)
-			this.createProfileScoreVariables(12);
+		if (this.hdps.createProfileScores == 1) {
+			graph.add(new SqlTaskGraph.Task(this.getFormattedDimId() + "_profile_scores") {
+				protected void execute(Connection c) throws Exception {
+					createProfileScoreVariables(c, 12);
+				}
+			});
+		}
 
-		if (this.hdps.createTimeInteractions == 1)
-			this.createTimeInteractionVariables();
+		if (this.hdps.createTimeInteractions == 1) {
+			graph.add(new SqlTaskGraph.Task(this.getFormattedDimId() + "_time_interactions") {
+				protected void execute(Connection c) throws Exception {
+					createTimeInteractionVariables(c);
+				}
+			});
+		}
+		graph.run();
 		
-		System.out.printf(
-				"NOTE: hd-PS dimension %s building finished into table %s.\n",
+		this.hdps.getEvents().note(
+				"NOTE: hd-PS dimension %s building finished into table %s.",
 				this.dimensionDescription, this.codeTableName);
 
 	}	
 
+	private void createAssessmentWindowView(Statement s) throws Exception
+	{
+		HdpsDbPatientController pc = (HdpsDbPatientController) this.patientController;
+		if (pc.indexDateFieldName == null)
+			throw new HdpsException("An assessment window was specified, but the patient data has no index date column.");
+		if (this.dateFieldName.equals("1"))
+			throw new HdpsException("An assessment window was specified, but the dimension data has no date column.");
+		
+		// the input view stays in place; the dimension view becomes its windowed subset
+		this.inputViewName = this.dimensionViewName;
+		this.dimensionViewName = SqlUtils.getTableName(this.getFormattedDimId() + "_Window", 
+				this.hdpsController.randomSuffix);
+		
+		String sql = String.format(
+				"CREATE VIEW %s AS " +
+				"SELECT D.* " +
+				"FROM %s D, %s P " +
+				"WHERE D.%s = P.%s " +
+				"AND (D.%s - P.%s) BETWEEN %d AND %d",
+				this.dimensionViewName,
+				this.inputViewName,
+				pc.patientViewName,
+				this.patientIdFieldName,
+				pc.patientIdFieldName,
+				this.dateFieldName,
+				pc.indexDateFieldName,
+				this.hdps.assessmentWindowStart,
+				this.hdps.assessmentWindowEnd
+			);
+		SqlUtils.executeSql(s, sql);
+	}
+	
 	private void createCodeDatabase() throws Exception
 	{
 		this.codeTableName = SqlUtils.getTableName(this.getFormattedDimId() + "_Codes", this.hdpsController.randomSuffix);
-		System.out.printf("Code table name is %s\n", this.codeTableName);
+		this.hdps.getEvents().note("Code table name is %s", this.codeTableName);
 		this.patientCodeTableName = SqlUtils.getTableName(
 				this.getFormattedDimId() + "_Patient_Codes", this.hdpsController.randomSuffix);
-		System.out.printf("Patient code table name is %s\n", this.patientCodeTableName);
+		this.hdps.getEvents().note("Patient code table name is %s", this.patientCodeTableName);
 
 		Statement s = this.connection.createStatement();
 
@@ -111,13 +172,15 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				"    code               varchar(512)," +
 				"    frequency          int," +
 				"    consider_for_ps    int," +
-				"    prevalence         double," +
-				"    median_occurrences double," +
-				"    q3_occurrences     double" +
+				"    prevalence         %2$s," +
+				"    median_occurrences %2$s," +
+				"    q3_occurrences     %2$s" +
 				")",
-				this.codeTableName
+				this.codeTableName,
+				this.hdpsController.dialect.getDoubleType()
 			);
 		SqlUtils.executeSql(s, sql);
+		this.hdpsController.createIndex(s, this.codeTableName, "code");
 
 		// make basic code table
 		sql = String.format(
@@ -202,38 +265,35 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				this.patientIdFieldName
 			);
 		SqlUtils.executeSql(s, sql);
+		this.hdpsController.createIndex(s, this.patientCodeTableName, "code");
 
-		sql = String.format(
-				"UPDATE %s A " +
-				"SET median_occurrences = B.median, " +
-				"    q3_occurrences = B.q3 " +
-				"FROM ( " +
-				"   SELECT code, " +
-				"   percentile_cont(0.50) WITHIN GROUP(ORDER BY frequency) AS median, " +
-				"   percentile_cont(0.75) WITHIN GROUP(ORDER BY frequency) AS q3 " +
-				"   FROM %s GROUP BY code " +
-				") AS B " +
-				"WHERE A.code = B.code AND" +
-				"      A.consider_for_ps = 1",
-				this.codeTableName,
-				this.patientCodeTableName
-		);
+		sql = this.hdpsController.dialect.updateFrom(this.codeTableName,
+				new String[] { "median_occurrences", "q3_occurrences" },
+				new String[] { "B.median", "B.q3" },
+				String.format(
+					"SELECT code, " +
+					"percentile_cont(0.50) WITHIN GROUP(ORDER BY frequency) AS median, " +
+					"percentile_cont(0.75) WITHIN GROUP(ORDER BY frequency) AS q3 " +
+					"FROM %s GROUP BY code ",
+					this.patientCodeTableName),
+				"A.code = B.code",
+				"A.consider_for_ps = 1");
 		SqlUtils.executeSql(s, sql);
 		
 		// create each of the three types of variables: once, sporadic, and frequent
 		sql = String.format(
 				"INSERT INTO %s(dimension_name, var_id, type, dimension_id, code, is_dichotomous) (" +
-				"   SELECT '%s' as dimension_name, NEXT VALUE FOR %s, " +
+				"   SELECT '%s' as dimension_name, %s, " +
 				"			'%s' AS type, %d as dimension_id, code, 1 " +
 				"   FROM %s " +
 				"   WHERE consider_for_ps = 1 " +
 				"   UNION ALL " +
-				"   SELECT '%s' as dimension_name, NEXT VALUE FOR %s, " +
+				"   SELECT '%s' as dimension_name, %s, " +
 				"           '%s' AS type, %d as dimension_id, code, 1 " +
 				"   FROM %s " +
 				"   WHERE consider_for_ps = 1 AND median_occurrences > 1 " +
 				"   UNION ALL " +
-				"   SELECT '%s' as dimension_name, NEXT VALUE FOR %s, " +
+				"   SELECT '%s' as dimension_name, %s, " +
 				"           '%s' AS type, %d as dimension_id, code, 1 " +
 				"   FROM %s " +
 				"   WHERE consider_for_ps = 1 AND q3_occurrences > median_occurrences" +
@@ -241,19 +301,19 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				hdpsController.varTableName,
 				
 				this.dimensionDescription,
-				this.hdpsController.varTableIdSequenceName,
+				this.hdpsController.dialect.nextValue(this.hdpsController.varTableIdSequenceName),
 				HdpsVariable.VAR_TYPE_ONCE,
 				this.dimensionId,
 				this.codeTableName,
 				
 				this.dimensionDescription,
-				this.hdpsController.varTableIdSequenceName,
+				this.hdpsController.dialect.nextValue(this.hdpsController.varTableIdSequenceName),
 				HdpsVariable.VAR_TYPE_SPORADIC,
 				this.dimensionId,
 				this.codeTableName,
 				
 				this.dimensionDescription,
-				this.hdpsController.varTableIdSequenceName,
+				this.hdpsController.dialect.nextValue(this.hdpsController.varTableIdSequenceName),
 				HdpsVariable.VAR_TYPE_FREQUENT,
 				this.dimensionId,
 				this.codeTableName
@@ -295,16 +355,16 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	}
 	
 
-	protected void createTimeInteractionVariables()
+	protected void createTimeInteractionVariables(Connection c)
 	throws Exception
 	{
-		Statement s = this.connection.createStatement();
+		Statement s = c.createStatement();
 		String sql;
 		
 		sql = String.format(
 				"INSERT INTO %s(dimension_name, var_id, type, dimension_id, code, is_dichotomous) (" +
 				"   SELECT dimension_name, " +
-				"           NEXT VALUE FOR %s, " +  
+				"           %s, " +  
 				"		    '%s' AS type, " +
 				"		    dimension_id, code, " +
 				"			0 AS is_dichotomous " +
@@ -312,7 +372,7 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				"   WHERE type = 'Once' AND dimension_id = %d" +
 				")",
 				hdpsController.varTableName,
-				hdpsController.varTableIdSequenceName,
+				hdpsController.dialect.nextValue(hdpsController.varTableIdSequenceName),
 				HdpsVariable.VAR_TYPE_TIME_INTERACTION,
 				hdpsController.varTableName,
 				this.dimensionId
@@ -359,15 +419,15 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	 * 6) Dichotomize the profile score as being <5.5 (remote occurrences) or >= 5.5
 	 *    (more recent occurrences)
 	 */
-	protected void createProfileScoreVariables(int numPeriods)
+	protected void createProfileScoreVariables(Connection c, int numPeriods)
 	throws Exception
 	{
 		this.patientProfileScoreTableName = 
 			SqlUtils.getTableName(this.getFormattedDimId() + "_ProfileScores", 
 					this.hdpsController.randomSuffix);
-		System.out.printf("Patient profile score table name is %s\n", this.patientProfileScoreTableName);
+		this.hdps.getEvents().note("Patient profile score table name is %s", this.patientProfileScoreTableName);
 		
-		Statement s = this.connection.createStatement();
+		Statement s = c.createStatement();
 		String sql;
 		StringBuffer sqlBuf = new StringBuffer();
 		
@@ -437,13 +497,13 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 		// with type 'Once'
 		sql = String.format(
 				"INSERT INTO %s(dimension_name, var_id, type, dimension_id, code, is_dichotomous) (" +
-				"   SELECT '%s' as dimension_name, NEXT VALUE FOR %s, " +
+				"   SELECT '%s' as dimension_name, %s, " +
 				"			'%s' AS type, %d as dimension_id, code, 1 " +
 				"   FROM %s " +
 				")",
 				hdpsController.varTableName,
 				this.dimensionDescription,
-				this.hdpsController.varTableIdSequenceName,
+				this.hdpsController.dialect.nextValue(this.hdpsController.varTableIdSequenceName),
 				HdpsVariable.VAR_TYPE_PROFILE_SCORE,
 				this.dimensionId,
 				this.codeTableName
@@ -468,27 +528,27 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 		s.close();
 	}
 	
-	protected void createServiceIntensityVariables(boolean uniqueOnly)
+	protected void createServiceIntensityVariables(Connection c, boolean uniqueOnly)
 	throws Exception
 	{
-		Statement s = this.connection.createStatement();
+		Statement s = c.createStatement();
 		String sql;
 		
 		for (int i = 1; i <= 4; i++) {
 			sql = String.format(
 					"INSERT INTO %s(dimension_id, dimension_name, var_id, " +
 					"               code, is_dichotomous, type) VALUES ( " +
-					"    %d as dimension_id, " +
-					"    '%s' as dimension_name, " +
-					"    NEXT VALUE FOR %s, " +
-					"    RTRIM('D%d_INT_%s_Q%d') AS code, " +
-					"    1 as is_dichotomous, " +
+					"    %d, " +
+					"    '%s', " +
+					"    %s, " +
+					"    RTRIM('D%d_INT_%s_Q%d'), " +
+					"    1, " +
 					"    '%s' " +
 					")",
 					hdpsController.varTableName, 
 					this.dimensionId,
 					this.dimensionDescription,
-					this.hdpsController.varTableIdSequenceName,
+					this.hdpsController.dialect.nextValue(this.hdpsController.varTableIdSequenceName),
 					this.dimensionId,
 					(uniqueOnly ? "UNIQ" : "ALL"),
 					i,
@@ -552,17 +612,22 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				"ORDER BY code",
 				this.codeTableName
 		);
-		Statement s = this.connection.createStatement();
-		ResultSet r = s.executeQuery(sql);
+		Connection c = this.hdpsController.connectionPool.getConnection();
+		try {
+			Statement s = c.createStatement();
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
 
-		while (r.next()) {
-			String id = r.getString("code");
-			HdpsCode code = new HdpsCode(id, r);
-			code.dimension = this;
-			writer.writeRow(code.toStringArray());
+			while (r.next()) {
+				String id = r.getString("code");
+				HdpsCode code = new HdpsCode(id, r);
+				code.dimension = this;
+				writer.writeRow(code.toStringArray());
+			}
+			r.close();
+			s.close();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(c);
 		}
-		r.close();
-		s.close();
 	}
 	
 	public List<HdpsCode> getCodes() throws Exception
@@ -575,17 +640,22 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 				"ORDER BY code",
 				this.codeTableName
 		);
-		Statement s = this.connection.createStatement();
-		ResultSet r = s.executeQuery(sql);
+		Connection c = this.hdpsController.connectionPool.getConnection();
+		try {
+			Statement s = c.createStatement();
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
 
-		while (r.next()) {
-			String id = r.getString("code");
-			HdpsCode code = new HdpsCode(id, r);
-			code.dimension = this;
-			codes.add(code);
+			while (r.next()) {
+				String id = r.getString("code");
+				HdpsCode code = new HdpsCode(id, r);
+				code.dimension = this;
+				codes.add(code);
+			}
+			r.close();
+			s.close();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(c);
 		}
-		r.close();
-		s.close();
 		
 		return codes;
 	}
@@ -597,22 +667,27 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	public void updateVariablesToConsider()
 	throws Exception
 	{
-		Statement s = this.connection.createStatement();
-		String sql = String.format(
-				"UPDATE %s " +
-				"SET consider_for_ps = 1 " +
-				"WHERE var_id IN (" +
-				"   SELECT var_id " +
-				"   FROM %s C, %s V " +
-				"   WHERE (C.code = V.code AND C.consider_for_ps = 1) OR " +
-				"          V.type NOT IN ('Once', 'Spor', 'Freq')" +
-				")",
-				hdpsController.varTableName,
-				this.codeTableName,
-				hdpsController.varTableName
-		);
-		SqlUtils.executeSql(s, sql);
-		s.close();
+		Connection c = this.hdpsController.connectionPool.getConnection();
+		try {
+			Statement s = c.createStatement();
+			String sql = String.format(
+					"UPDATE %s " +
+					"SET consider_for_ps = 1 " +
+					"WHERE var_id IN (" +
+					"   SELECT var_id " +
+					"   FROM %s C, %s V " +
+					"   WHERE (C.code = V.code AND C.consider_for_ps = 1) OR " +
+					"          V.type NOT IN ('Once', 'Spor', 'Freq')" +
+					")",
+					hdpsController.varTableName,
+					this.codeTableName,
+					hdpsController.varTableName
+			);
+			SqlUtils.executeSql(s, sql);
+			s.close();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(c);
+		}
 	}
 
 	private String getFormattedDimId()
@@ -624,31 +699,39 @@ public class HdpsDbDimensionController extends HdpsDimensionController {
 	throws Exception
 	{
 		if (this.hdps.dbKeepOutputTables == 0) {
-	     	Statement s = this.connection.createStatement();
-	       	String sql = String.format("DROP VIEW %s",
-	       				this.dimensionViewName);
-	       	SqlUtils.addToSqlBatch(s, sql);
-	
-	       	sql = String.format("DROP TABLE %s",
-	   				this.codeTableName);
-	       	SqlUtils.addToSqlBatch(s, sql);
+			Connection c = this.hdpsController.connectionPool.getConnection();
+			try {
+		     	Statement s = c.createStatement();
+		       	String sql = String.format("DROP VIEW %s",
+		       				this.dimensionViewName);
+		       	SqlUtils.addToSqlBatch(s, sql);
 	       	
-	       	sql = String.format("DROP TABLE %s",
-	   				this.patientCodeTableName);
-	       	SqlUtils.addToSqlBatch(s, sql);
+		       	if (this.inputViewName != null) {
+			       	sql = String.format("DROP VIEW %s",
+			       				this.inputViewName);
+			       	SqlUtils.addToSqlBatch(s, sql);
+		       	}
+	
+		       	sql = String.format("DROP TABLE %s",
+		   				this.codeTableName);
+		       	SqlUtils.addToSqlBatch(s, sql);
 	       	
-	       	if ((this.hdps.createProfileScores == 1) && 
-	       		(this.patientProfileScoreTableName != null)) {
 		       	sql = String.format("DROP TABLE %s",
-		   				this.patientProfileScoreTableName);
+		   				this.patientCodeTableName);
 		       	SqlUtils.addToSqlBatch(s, sql);
-	       	}
-	       	SqlUtils.executeSqlBatch(s);
-	       	s.close();
+	       	
+		       	if ((this.hdps.createProfileScores == 1) && 
+		       		(this.patientProfileScoreTableName != null)) {
+			       	sql = String.format("DROP TABLE %s",
+			   				this.patientProfileScoreTableName);
+			       	SqlUtils.addToSqlBatch(s, sql);
+		       	}
+		       	SqlUtils.executeSqlBatch(s);
+		       	s.close();
+			} finally {
+				this.hdpsController.connectionPool.releaseConnection(c);
+			}
 		}
-       	
-       	this.connection.close();
-       	this.connection = null;
 	}
 
 }
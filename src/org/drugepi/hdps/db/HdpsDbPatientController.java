@@ -14,13 +14,13 @@ import org.drugepi.util.DatabaseRowReader;
 public class HdpsDbPatientController extends HdpsPatientController
 {
 	private HdpsDbController hdpsController;
-	private Connection connection;
 
 	public String patientViewName;
 	public String patientIdFieldName;
 	public String exposureFieldName;
 	public String outcomeFieldName;
 	public String personTimeFieldName;
+	public String indexDateFieldName;
 	
    public HdpsDbPatientController(Hdps hdps, HdpsDbController hdpsController)
     {
@@ -31,8 +31,6 @@ public class HdpsDbPatientController extends HdpsPatientController
 	public void readPatients()
     throws Exception
     {
-		this.connection = HdpsDbController.connectionFactory(this.hdps);
-		
 		this.patientViewName = SqlUtils.getTableName("patients", this.hdpsController.randomSuffix);
 		
 		String sql;
@@ -48,48 +46,60 @@ public class HdpsDbPatientController extends HdpsPatientController
 			  		((DatabaseRowReader) this.reader).getQuery());
 			sql = sql.replaceFirst("\\s[Ff][Rr][Oo][Mm]\\s", ", 1 AS fu_time FROM ");
 		}
-		Statement s = this.connection.createStatement();
-		s.execute(sql);
-		System.out.printf("Patients view name is %s\n", this.patientViewName);
+		Connection c = this.hdpsController.connectionPool.getConnection();
+		try {
+			Statement s = c.createStatement();
+			SqlUtils.executeSql(s, sql);
+			this.hdps.getEvents().note("Patients view name is %s", this.patientViewName);
 		
-		sql = String.format(
-				"SELECT COUNT(*) AS num_patients FROM %s",
-				this.patientViewName);
-		ResultSet r = s.executeQuery(sql);
-		r.next();
-		this.setNumPatients(r.getInt("num_patients"));
-		r.close();
+			sql = String.format(
+					"SELECT COUNT(*) AS num_patients FROM %s",
+					this.patientViewName);
+			ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+			r.next();
+			this.setNumPatients(r.getInt("num_patients"));
+			r.close();
 		
-		sql = String.format(
-				"SELECT * FROM %s",
-				this.patientViewName);
-		r = s.executeQuery(sql);
-		this.patientIdFieldName = r.getMetaData().getColumnName(1);
-		this.exposureFieldName = r.getMetaData().getColumnName(2);
-		this.outcomeFieldName = r.getMetaData().getColumnName(3);
-		this.personTimeFieldName = r.getMetaData().getColumnName(4);
-		r.close();
-		s.close();
+			sql = String.format(
+					"SELECT * FROM %s",
+					this.patientViewName);
+			r = SqlUtils.executeSqlQuery(s, sql);
+			this.patientIdFieldName = r.getMetaData().getColumnName(1);
+			this.exposureFieldName = r.getMetaData().getColumnName(2);
+			this.outcomeFieldName = r.getMetaData().getColumnName(3);
+			this.personTimeFieldName = r.getMetaData().getColumnName(4);
+			if (r.getMetaData().getColumnCount() > 4)
+				this.indexDateFieldName = r.getMetaData().getColumnName(5);
+			r.close();
+			s.close();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(c);
+		}
 		
-        System.out.printf("NOTE: hd-PS read %d patients.", this.hdpsController.getNumPatients());
-        System.out.println("");
+        this.hdps.getEvents().rowsProcessed("patients", this.hdpsController.getNumPatients());
+        this.hdps.getEvents().note("NOTE: hd-PS read %d patients.", this.hdpsController.getNumPatients());
     }
 	
 	public List<String> getPatients()
 	throws Exception
 	{
-       	Statement s = this.connection.createStatement();
-       	String sql = String.format("SELECT %S FROM %s ORDER BY %s",
-       			this.patientIdFieldName,
-       			this.patientViewName,
-       			this.patientIdFieldName
-       	);
-       	ResultSet r = s.executeQuery(sql);
        	List<String> patients = new ArrayList<String>();
-       	while (r.next()) 
-       		patients.add(r.getString(1));
-       	r.close();
-       	s.close();
+		Connection c = this.hdpsController.connectionPool.getConnection();
+		try {
+	       	Statement s = c.createStatement();
+	       	String sql = String.format("SELECT %S FROM %s ORDER BY %s",
+	       			this.patientIdFieldName,
+	       			this.patientViewName,
+	       			this.patientIdFieldName
+	       	);
+	       	ResultSet r = SqlUtils.executeSqlQuery(s, sql);
+	       	while (r.next()) 
+	       		patients.add(r.getString(1));
+	       	r.close();
+	       	s.close();
+		} finally {
+			this.hdpsController.connectionPool.releaseConnection(c);
+		}
        
        	return patients;
 	}
@@ -98,15 +108,17 @@ public class HdpsDbPatientController extends HdpsPatientController
 	throws Exception
 	{
 		if (this.hdps.dbKeepOutputTables == 0) {
-	     	Statement s = this.connection.createStatement();
-	       	String sql = String.format("DROP VIEW %s",
-	       				this.patientViewName);
-	       	s.execute(sql);
-	       	s.close();
+			Connection c = this.hdpsController.connectionPool.getConnection();
+			try {
+		     	Statement s = c.createStatement();
+		       	String sql = String.format("DROP VIEW %s",
+		       				this.patientViewName);
+		       	SqlUtils.executeSql(s, sql);
+		       	s.close();
+			} finally {
+				this.hdpsController.connectionPool.releaseConnection(c);
+			}
 		}
-       	
-       	this.connection.close();
-       	this.connection = null;
   }
 	
 	public String getPatientViewName() {
@@ -128,5 +140,9 @@ public class HdpsDbPatientController extends HdpsPatientController
 	public String getPersonTimeFieldName() {
 		return personTimeFieldName;
 	}
+
+	public String getIndexDateFieldName() {
+		return indexDateFieldName;
+	}
 }
 
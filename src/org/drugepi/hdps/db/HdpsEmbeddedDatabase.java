@@ -0,0 +1,201 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+import org.drugepi.hdps.*;
+import org.drugepi.util.*;
+
+/**
+ * A synthetic cohort loaded into an H2 database run in-process, so that DB and HYBRID mode
+ * can be tested and benchmarked without a database server.  The tables hold the same rows
+ * as the files written by {@link HdpsSyntheticCohort}, and are loaded through the H2
+ * {@link SqlDialect}; a run over them should select the same variables as a LOCAL mode run
+ * over the files.
+ * <p>
+ * The same tables can instead be loaded into a database server, to check a run through
+ * another dialect against LOCAL mode.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsEmbeddedDatabase {
+	public static final String DRIVER_CLASS = "org.h2.Driver";
+	public static final String USERNAME = "sa";
+	public static final String PASSWORD = "";
+
+	public static final String PATIENT_TABLE_NAME = "synthetic_patients";
+	public static final String DIMENSION_TABLE_NAME = "synthetic_dim%d";
+
+	// long enough for the concurrent steps of a DB mode run to wait for each other's locks
+	private static final int LOCK_TIMEOUT_MILLIS = 60000;
+
+	private String driverClass;
+	private String url;
+	private String username;
+	private String password;
+	private String dialectName;
+	private HdpsSyntheticCohort cohort;
+
+	/**
+	 * @param directory		Directory for the database's files.
+	 */
+	public HdpsEmbeddedDatabase(String directory)
+	{
+		this(DRIVER_CLASS, String.format("jdbc:h2:%s;LOCK_TIMEOUT=%d",
+				new File(directory, "hdps").getAbsolutePath(), LOCK_TIMEOUT_MILLIS),
+				USERNAME, PASSWORD, SqlDialect.DIALECT_H2);
+	}
+
+	/**
+	 * Use a database server instead of an embedded database.  Loading replaces the
+	 * cohort's tables in the database.
+	 *
+	 * @param driverClass	JDBC driver class.
+	 * @param url			JDBC URL of the database.
+	 * @param username		Database user name.
+	 * @param password		Database password.
+	 * @param dialectName	Name of the database's SQL dialect, such as 
+	 * 						{@link SqlDialect#DIALECT_POSTGRESQL}.
+	 */
+	public HdpsEmbeddedDatabase(String driverClass, String url, String username,
+			String password, String dialectName)
+	{
+		super();
+		this.driverClass = driverClass;
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.dialectName = dialectName;
+	}
+
+	/**
+	 * Create the cohort's tables, replacing any already loaded, and load them from the
+	 * cohort's files.
+	 *
+	 * @param cohort			The cohort.
+	 * @param dataDirectory		Directory to which the cohort's files have been written with
+	 * 							{@link HdpsSyntheticCohort#write(String)}.
+	 * @throws Exception
+	 */
+	public void load(HdpsSyntheticCohort cohort, String dataDirectory)
+	throws Exception
+	{
+		Class.forName(this.driverClass);
+		SqlDialect dialect = SqlDialect.getDialect(this.dialectName, this.url);
+
+		Connection c = DriverManager.getConnection(this.url, this.username, this.password);
+		try {
+			Statement s = c.createStatement();
+			SqlUtils.executeSql(s, String.format("DROP TABLE IF EXISTS %s", PATIENT_TABLE_NAME));
+			SqlUtils.executeSql(s, String.format(
+					"CREATE TABLE %s (patient_id varchar(20), exposure int, outcome int, " +
+					"follow_up int, index_date int)",
+					PATIENT_TABLE_NAME));
+			loadFile(c, dialect, PATIENT_TABLE_NAME, 5, cohort.getPatientFilePath(dataDirectory));
+			SqlUtils.executeSql(s, String.format("CREATE INDEX %s_ix ON %s (patient_id)",
+					PATIENT_TABLE_NAME, PATIENT_TABLE_NAME));
+
+			for (int d = 0; d < cohort.numDimensions; d++) {
+				String tableName = getDimensionTableName(d);
+				SqlUtils.executeSql(s, String.format("DROP TABLE IF EXISTS %s", tableName));
+				SqlUtils.executeSql(s, String.format(
+						"CREATE TABLE %s (patient_id varchar(20), code varchar(20), service_date int)",
+						tableName));
+				loadFile(c, dialect, tableName, 3, cohort.getDimensionFilePath(dataDirectory, d));
+				SqlUtils.executeSql(s, String.format("CREATE INDEX %s_ix ON %s (patient_id)",
+						tableName, tableName));
+			}
+			s.close();
+		} finally {
+			c.close();
+		}
+
+		this.cohort = cohort;
+	}
+
+	/**
+	 * Add the loaded patients and dimensions to an hd-PS run, and point the run's
+	 * database settings at this database.  The run's mode must already be set to DB or
+	 * HYBRID.  Dimensions are described as by {@link HdpsSyntheticCohort#addTo(Hdps, String)},
+	 * so that the runs' variables have the same hash values.
+	 */
+	public void addTo(Hdps hdps)
+	throws Exception
+	{
+		if (this.cohort == null)
+			throw new HdpsException("The embedded database has not been loaded.");
+
+		hdps.dbDriverClass = this.driverClass;
+		hdps.dbUrl = this.url;
+		hdps.dbUsername = this.username;
+		hdps.dbPassword = this.password;
+		hdps.dbDialect = this.dialectName;
+
+		hdps.addPatients(this.driverClass, this.url, this.username, this.password, String.format(
+				"SELECT patient_id, exposure, outcome, follow_up, index_date FROM %s",
+				PATIENT_TABLE_NAME));
+		for (int d = 0; d < this.cohort.numDimensions; d++)
+			hdps.addDimension(String.format("Synthetic dimension %d", d + 1), null, null, null, null,
+					String.format("SELECT patient_id, code, service_date FROM %s",
+							getDimensionTableName(d)));
+	}
+
+	public String getUrl()
+	{
+		return this.url;
+	}
+
+	/**
+	 * @param dimension		Dimension number, starting at 0.
+	 */
+	public static String getDimensionTableName(int dimension)
+	{
+		return String.format(DIMENSION_TABLE_NAME, dimension + 1);
+	}
+
+	/*
+	 * Insert the rows of a tab-delimited file with a header row, as they are read.
+	 */
+	private static void loadFile(Connection c, SqlDialect dialect, String tableName,
+			int numColumns, String filePath)
+	throws Exception
+	{
+		final TabDelimitedFileReader reader = new TabDelimitedFileReader(filePath);
+		final String[] firstRow = reader.getNextRow();
+
+		Iterator<Object[]> rows = new Iterator<Object[]>() {
+			private String[] nextRow = firstRow;
+
+			public boolean hasNext() {
+				return (this.nextRow != null);
+			}
+
+			public Object[] next() {
+				String[] row = this.nextRow;
+				try {
+					this.nextRow = reader.getNextRow();
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				return row;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		try {
+			dialect.batchInsert(c, tableName, numColumns, rows);
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.sql.Connection;
+
+import org.drugepi.hdps.*;
+import org.drugepi.hdps.local.HdpsLocalController;
+import org.drugepi.util.*;
+
+/**
+ * Controller for HYBRID mode.  Codes' patients are counted in the database, and only
+ * the (patient, code, occurrences) rows of the codes considered for the PS are
+ * streamed to the JVM.  Variable statistics, ranking and cohort output are then done by
+ * the LOCAL mode engine, with none of DB mode's server-side updates.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsHybridController extends HdpsLocalController
+{
+	protected String randomSuffix;
+	protected SqlProfiler profiler;
+
+	public HdpsHybridController(Hdps hdps)
+	{
+		super(hdps);
+		this.randomSuffix = SqlUtils.generateRandomName();
+	}
+
+	/*
+	 * ===========================================
+	 * PROTECTED METHODS
+	 * ===========================================
+	 */
+	protected void addDimension(String description, RowReader reader)
+	{
+		dimensionControllers[numDimensions] = new HdpsHybridDimensionController(this.hdps, this);
+		dimensionControllers[numDimensions].dimensionId = numDimensions + 1;
+		dimensionControllers[numDimensions].dimensionDescription = description;
+		dimensionControllers[numDimensions].reader = reader;
+		dimensionControllers[numDimensions].patientController = patientController;
+
+		this.numDimensions++;
+	}
+
+	protected void startHdps()
+	throws Exception
+	{
+		super.startHdps();
+		this.profiler = new SqlProfiler(this, this.randomSuffix);
+	}
+	
+	protected void closeController()
+	throws Exception
+	{
+		try {
+			// the plans need the code tables, so are read before they are dropped
+			if (this.hdps.dbExplainTopQueries > 0) {
+				Connection c = HdpsDbController.connectionFactory(this.hdps);
+				try {
+					this.profiler.explainSlowest(c, 
+							SqlDialect.getDialect(this.hdps.dbDialect, this.hdps.dbUrl),
+							this.hdps.dbExplainTopQueries);
+				} finally {
+					c.close();
+				}
+			}
+			
+			// each dimension holds its own connection, so all are closed before 
+			// any failure is passed on
+			Exception failure = null;
+			for (int i = 0; i < this.numDimensions; i++) {
+				try {
+					this.dimensionControllers[i].closeController();
+				} catch (Exception e) {
+					if (failure == null)
+						failure = e;
+				}
+			}
+			if (failure != null)
+				throw failure;
+		} finally {
+			super.closeController();
+			this.writeSqlProfile();
+		}
+	}
+	
+	/**
+	 * @return	The profile of the SQL run so far, or null before the run has started.
+	 */
+	public SqlProfiler getProfiler()
+	{
+		return this.profiler;
+	}
+	
+	private void writeSqlProfile()
+	{
+		if (this.profiler == null)
+			return;
+		
+		try {
+			this.profiler.writeReport();
+		} catch (Exception e) {
+			this.events.note("NOTE: hd-PS could not write the SQL profile: %s", e.getMessage());
+		}
+	}
+}
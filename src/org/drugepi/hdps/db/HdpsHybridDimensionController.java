@@ -0,0 +1,399 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.sql.*;
+import java.util.*;
+
+import org.drugepi.ToolEvents;
+import org.drugepi.hdps.*;
+import org.drugepi.hdps.local.*;
+import org.drugepi.hdps.storage.HdpsCode;
+import org.drugepi.util.*;
+
+/**
+ * Dimension controller for HYBRID mode.  The dimension's query is run only inside
+ * aggregate queries: one that counts each code's cohort patients into a code table, and 
+ * one that streams the occurrences of each candidate code for each patient into the local
+ * database.  The candidates are chosen from the counts as in LOCAL mode.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsHybridDimensionController extends HdpsLocalDimensionController {
+	// rows fetched from the database at a time
+	private static final int FETCH_SIZE = 10000;
+
+	// rows between progress events while reading
+	private static final int PROGRESS_ROWS = 1000000;
+
+	private HdpsHybridController hdpsController;
+
+	private Connection connection;
+	private String sourceQuery;
+	private String codeTableName;
+	private String patientIdFieldName;
+	private String codeFieldName;
+	private String dateFieldName;
+	private String patientTableName;
+	private String patientIdQuery;
+	private String patientIdJoinField;
+	private String candidateList;
+
+	public HdpsHybridDimensionController(Hdps hdps, HdpsHybridController hdpsController)
+	{
+		super(hdps, hdpsController);
+		this.hdpsController = hdpsController;
+	}
+
+	public void readDimension() throws Exception {
+		if (! (this.reader instanceof DatabaseRowReader))
+			throw new HdpsException(String.format(
+					"Dimension %s must be read from a database in HYBRID mode.",
+					this.dimensionDescription));
+
+		// only the query is used; the rows are aggregated in the database
+		String query = ((DatabaseRowReader) this.reader).getQuery();
+		this.reader.close();
+
+		this.connection = HdpsDbController.connectionFactory(this.hdps);
+		SqlProfiler.attach(this.connection, this.hdpsController.profiler);
+		this.createSourceQuery(query);
+		this.createCodeTable();
+		this.readCodes();
+		if (this.hdps.inferServiceIntensityVars == 1)
+			this.readPatientCodeCounts();
+		this.readCodePatientLinks();
+		this.calculateMediansAndBias();
+
+		this.hdps.getEvents().note(
+				"NOTE: hd-PS dimension %s building finished.",
+				this.dimensionDescription);
+	}
+
+	/*
+	 * Find the dimension's column names, and restrict its rows to the assessment window
+	 * if one is used.
+	 */
+	private void createSourceQuery(String query)
+	throws Exception
+	{
+		Statement s = this.connection.createStatement();
+		ResultSet r = SqlUtils.executeSqlQuery(s, String.format(
+				"SELECT * FROM (%s) D WHERE 1=0", query));
+		this.patientIdFieldName = r.getMetaData().getColumnName(1);
+		this.codeFieldName = r.getMetaData().getColumnName(2);
+		if (r.getMetaData().getColumnCount() > 2)
+			this.dateFieldName = r.getMetaData().getColumnName(3);
+		r.close();
+
+		this.sourceQuery = query;
+		if (this.hdps.useAssessmentWindow == 1) {
+			String patientQuery = this.hdpsController.getPatientQuery();
+			if (patientQuery == null)
+				throw new HdpsException("An assessment window in HYBRID mode requires patients read from a database.");
+			if (this.dateFieldName == null)
+				throw new HdpsException("An assessment window was specified, but the dimension data has no date column.");
+
+			r = SqlUtils.executeSqlQuery(s, String.format(
+					"SELECT * FROM (%s) P WHERE 1=0", patientQuery));
+			String patientPatientIdFieldName = r.getMetaData().getColumnName(1);
+			String indexDateFieldName = (r.getMetaData().getColumnCount() > 4 ?
+					r.getMetaData().getColumnName(5) : null);
+			r.close();
+			if (indexDateFieldName == null)
+				throw new HdpsException("An assessment window was specified, but the patient data has no index date column.");
+
+			this.sourceQuery = String.format(
+					"SELECT D.* " +
+					"FROM (%s) D, (%s) P " +
+					"WHERE D.%s = P.%s " +
+					"AND (D.%s - P.%s) BETWEEN %d AND %d",
+					query,
+					patientQuery,
+					this.patientIdFieldName,
+					patientPatientIdFieldName,
+					this.dateFieldName,
+					indexDateFieldName,
+					this.hdps.assessmentWindowStart,
+					this.hdps.assessmentWindowEnd
+				);
+		}
+		s.close();
+	}
+
+	/*
+	 * Count each code's patients, counting only the patients of the cohort.
+	 */
+	private void createCodeTable()
+	throws Exception
+	{
+		this.codeTableName = SqlUtils.getTableName(
+				String.format("Dim_%d_Codes", this.dimensionId), this.hdpsController.randomSuffix);
+		this.hdps.getEvents().note("Code table name is %s", this.codeTableName);
+
+		this.createPatientIdQuery();
+		String sql = String.format(
+				"CREATE TABLE %s AS " +
+				"SELECT D.%s AS code, COUNT(DISTINCT D.%s) AS frequency, 0 AS consider_for_ps " +
+				"FROM (%s) D, (%s) P " +
+				"WHERE %s = P.patient_id " +
+				"AND D.%s IS NOT NULL " +
+				"GROUP BY D.%s",
+				this.codeTableName,
+				this.codeFieldName,
+				this.patientIdFieldName,
+				this.sourceQuery,
+				this.patientIdQuery,
+				this.patientIdJoinField,
+				this.codeFieldName,
+				this.codeFieldName
+			);
+		Statement s = this.connection.createStatement();
+		SqlUtils.executeSql(s, sql);
+		s.close();
+	}
+
+	/*
+	 * Find a query of the cohort's patient IDs, as column patient_id.  Patients read
+	 * from the run's database are taken from their query.  Otherwise their IDs are
+	 * loaded into a temporary table and compared as text.  Some databases, e.g. H2, 
+	 * keep temporary tables past the connection, so the table is dropped on closing.
+	 */
+	private void createPatientIdQuery()
+	throws Exception
+	{
+		DatabaseRowReader patientReader = this.hdpsController.getPatientDatabaseReader();
+		if ((patientReader != null) && (this.hdps.dbUrl.equals(patientReader.getUrl()))) {
+			Statement s = this.connection.createStatement();
+			ResultSet r = SqlUtils.executeSqlQuery(s, String.format(
+					"SELECT * FROM (%s) P WHERE 1=0", patientReader.getQuery()));
+			String patientPatientIdFieldName = r.getMetaData().getColumnName(1);
+			r.close();
+			s.close();
+
+			this.patientIdQuery = String.format(
+					"SELECT P0.%s AS patient_id FROM (%s) P0",
+					patientPatientIdFieldName, patientReader.getQuery());
+			this.patientIdJoinField = "D." + this.patientIdFieldName;
+			return;
+		}
+
+		String tableName = SqlUtils.getTableName(
+				String.format("Dim_%d_Patients", this.dimensionId), this.hdpsController.randomSuffix);
+		this.patientTableName = tableName;
+		SqlDialect dialect = SqlDialect.getDialect(this.hdps.dbDialect, this.hdps.dbUrl);
+		Statement s = this.connection.createStatement();
+		SqlUtils.executeSql(s, String.format(
+				"CREATE TEMPORARY TABLE %s (patient_id varchar(255))", tableName));
+		String indexSql = dialect.createIndex(tableName + "_ix", tableName, "patient_id");
+		if (indexSql != null)
+			SqlUtils.executeSql(s, indexSql);
+		s.close();
+
+		final HdpsLocalPatientController localPatientController =
+			(HdpsLocalPatientController) this.patientController;
+		final int numPatients = localPatientController.getNumPatientsRead();
+		dialect.batchInsert(this.connection, tableName, 1, new Iterator<Object[]>() {
+			private int patientNumber = 0;
+
+			public boolean hasNext() {
+				return (this.patientNumber < numPatients);
+			}
+
+			public Object[] next() {
+				return new Object[] { localPatientController.getPatientId(this.patientNumber++) };
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		this.patientIdQuery = String.format("SELECT patient_id FROM %s", tableName);
+		this.patientIdJoinField = String.format("CAST(D.%s AS varchar(255))",
+				this.patientIdFieldName);
+	}
+
+	/*
+	 * Create the codes and mark those considered for the PS: those seen in more than
+	 * frequencyMin patients, and among them the topN by prevalence.  They are chosen 
+	 * here rather than ranked in the database so that, as in LOCAL mode, no more than 
+	 * topN are chosen when codes tie in prevalence.
+	 */
+	private void readCodes()
+	throws Exception
+	{
+		Statement s = this.connection.createStatement();
+		ResultSet r = SqlUtils.executeSqlQuery(s, String.format(
+				"SELECT code, frequency FROM %s ORDER BY code",
+				this.codeTableName));
+
+		while (r.next()) {
+			String codeString = r.getString(1);
+			if ((codeString == null) || (codeString.length() == 0))
+				continue;
+
+			HdpsCode code = this.createCode(codeString);
+			code.numUniqueOccurrences = r.getInt(2);
+		}
+		r.close();
+
+		this.filterCodesForPrevalence();
+		int numConsidered = 0;
+		StringBuffer codeList = new StringBuffer();
+		for (HdpsCode code: this.codeMap.values()) {
+			if (! code.considerForPs)
+				continue;
+
+			numConsidered++;
+			if (codeList.length() > 0)
+				codeList.append(", ");
+			codeList.append("'").append(code.codeString.replace("'", "''")).append("'");
+		}
+		this.candidateList = codeList.toString();
+
+		// kept code tables show the candidates
+		if (numConsidered > 0)
+			SqlUtils.executeSql(s, String.format(
+					"UPDATE %s SET consider_for_ps = 1 WHERE code IN (%s)",
+					this.codeTableName, this.candidateList));
+		s.close();
+
+		this.hdps.getEvents().note("NOTE: hd-PS dimension %s has %d codes, %d considered for the PS.",
+				this.dimensionDescription, this.codeMap.size(), numConsidered);
+	}
+
+	/*
+	 * Read each patient's total and distinct code counts, for the service intensity
+	 * variables.
+	 */
+	private void readPatientCodeCounts()
+	throws Exception
+	{
+		HdpsLocalPatientController localPatientController =
+			(HdpsLocalPatientController) this.patientController;
+
+		Statement s = this.createStreamingStatement();
+		ResultSet r = SqlUtils.executeSqlQuery(s, String.format(
+				"SELECT D.%s, COUNT(*), COUNT(DISTINCT D.%s) " +
+				"FROM (%s) D " +
+				"WHERE D.%s IS NOT NULL " +
+				"GROUP BY D.%s",
+				this.patientIdFieldName,
+				this.codeFieldName,
+				this.sourceQuery,
+				this.codeFieldName,
+				this.patientIdFieldName));
+
+		while (r.next()) {
+			String patientId = r.getString(1);
+			if (localPatientController.getPatientNumber(patientId) >= 0)
+				this.addPatientCodeCounts(patientId, r.getInt(2), r.getInt(3));
+		}
+		r.close();
+		this.closeStreamingStatement(s);
+	}
+
+	/*
+	 * Stream the number of occurrences of each candidate code for each patient into
+	 * the local database.
+	 */
+	private void readCodePatientLinks()
+	throws Exception
+	{
+		ToolEvents events = this.hdps.getEvents();
+		HdpsLocalPatientController localPatientController =
+			(HdpsLocalPatientController) this.patientController;
+
+		String condition = (this.candidateList.length() > 0 ?
+				String.format("D.%s IN (%s)", this.codeFieldName, this.candidateList) : "1=0");
+		Statement s = this.createStreamingStatement();
+		ResultSet r = SqlUtils.executeSqlQuery(s, String.format(
+				"SELECT D.%s, D.%s, COUNT(*) " +
+				"FROM (%s) D " +
+				"WHERE %s " +
+				"GROUP BY D.%s, D.%s",
+				this.patientIdFieldName,
+				this.codeFieldName,
+				this.sourceQuery,
+				condition,
+				this.patientIdFieldName,
+				this.codeFieldName));
+
+		this.numCodePatientLinks = 0;
+		int rowsRead = 0;
+		while (r.next()) {
+			rowsRead++;
+			if (rowsRead % PROGRESS_ROWS == 0)
+				events.rowsProcessed(this.dimensionDescription, rowsRead);
+
+			int patientNumber = localPatientController.getPatientNumber(r.getString(1));
+			HdpsCode code = this.codeMap.get(r.getString(2));
+			if ((patientNumber < 0) || (code == null))
+				continue;
+
+			this.putLink(code, patientNumber, r.getInt(3));
+		}
+		r.close();
+		this.closeStreamingStatement(s);
+
+		this.numRowsRead = rowsRead;
+		events.rowsProcessed(this.dimensionDescription, rowsRead);
+		events.note(
+				"NOTE: hd-PS dimension %s read finished.  %d patient-code rows streamed.",
+				this.dimensionDescription, rowsRead);
+	}
+
+	/*
+	 * Some drivers, e.g. PostgreSQL's, fetch in batches only outside auto-commit.
+	 */
+	private Statement createStreamingStatement()
+	throws Exception
+	{
+		this.connection.setAutoCommit(false);
+		Statement s = this.connection.createStatement(
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		s.setFetchSize(FETCH_SIZE);
+
+		return s;
+	}
+
+	private void closeStreamingStatement(Statement s)
+	throws Exception
+	{
+		s.close();
+		this.connection.commit();
+		this.connection.setAutoCommit(true);
+	}
+
+	public void closeController()
+	throws Exception
+	{
+		super.closeController();
+		if (this.connection == null)
+			return;
+
+		try {
+			// a failed read may have left a transaction open
+			if (! this.connection.getAutoCommit()) {
+				this.connection.rollback();
+				this.connection.setAutoCommit(true);
+			}
+
+			Statement s = this.connection.createStatement();
+			if ((this.hdps.dbKeepOutputTables == 0) && (this.codeTableName != null))
+				SqlUtils.executeSql(s, String.format("DROP TABLE %s", this.codeTableName));
+			if (this.patientTableName != null)
+				SqlUtils.executeSql(s, String.format("DROP TABLE %s", this.patientTableName));
+			s.close();
+		} finally {
+			SqlProfiler.detach(this.connection);
+			this.connection.close();
+			this.connection = null;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.sql.*;
+
+/**
+ * SQL for Netezza.  Files are loaded through a remote-source external table.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class NetezzaSqlDialect extends SqlDialect {
+	public String getName()
+	{
+		return DIALECT_NETEZZA;
+	}
+
+	public String power(String expression, int exponent)
+	{
+		return String.format("(%s ^ %d)", expression, exponent);
+	}
+
+	/*
+	 * Netezza inserts row by row slowly, even in batches; an external table is faster.
+	 */
+	public boolean supportsBatchInsert()
+	{
+		return false;
+	}
+
+	public void bulkLoad(Connection connection, String tableName, String filePath, int numColumns)
+	throws Exception
+	{
+		String sql = String.format(
+				"INSERT INTO %s " +
+				"SELECT * FROM EXTERNAL '%s' " +
+				"USING (DELIM '\t' REMOTESOURCE 'JDBC' QUOTEDVALUE DOUBLE)",
+				tableName, filePath.replace("'", "''"));
+		Statement s = connection.createStatement();
+		SqlUtils.executeSql(s, sql);
+		s.close();
+	}
+}
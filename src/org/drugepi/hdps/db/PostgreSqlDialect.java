@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.sql.*;
+
+/**
+ * SQL for PostgreSQL.  Files are loaded with <code>COPY ... FROM STDIN</code> through the
+ * PostgreSQL driver's <code>CopyManager</code>, which is found at run time so that the
+ * driver is needed only when this dialect is used.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class PostgreSqlDialect extends SqlDialect {
+	public String getName()
+	{
+		return DIALECT_POSTGRESQL;
+	}
+
+	public String getDoubleType()
+	{
+		return "double precision";
+	}
+
+	public String getHashFunction()
+	{
+		return "hashtext";
+	}
+
+	public String nextValue(String sequenceName)
+	{
+		return String.format("nextval('%s')", sequenceName);
+	}
+
+	public void bulkLoad(Connection connection, String tableName, String filePath, int numColumns)
+	throws Exception
+	{
+		Object copyManager;
+		Method copyIn;
+		try {
+			Class<?> baseConnectionClass = Class.forName("org.postgresql.core.BaseConnection");
+			Class<?> copyManagerClass = Class.forName("org.postgresql.copy.CopyManager");
+			copyManager = copyManagerClass.getConstructor(baseConnectionClass).newInstance(
+					connection.unwrap(baseConnectionClass));
+			copyIn = copyManagerClass.getMethod("copyIn", String.class, Reader.class);
+		} catch (Exception e) {
+			// not the PostgreSQL driver's connection, e.g. a pool's wrapper
+			super.bulkLoad(connection, tableName, filePath, numColumns);
+			return;
+		}
+
+		String sql = String.format(
+				"COPY %s FROM STDIN WITH (FORMAT csv, DELIMITER E'\\t', QUOTE '\"')",
+				tableName);
+		Reader r = new BufferedReader(new FileReader(filePath));
+		try {
+			copyIn.invoke(copyManager, sql, r);
+		} finally {
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+import org.drugepi.hdps.Hdps;
+
+/**
+ * A bounded pool of connections to the hd-PS database, shared by all of a DB mode run's
+ * controllers.  Connections are opened as needed, up to the pool's size, and reused once
+ * returned.  Callers wait when all connections are in use, so a caller must return its
+ * connection before asking for another.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class SqlConnectionPool {
+	private Hdps hdps;
+	private SqlProfiler profiler;
+	private Semaphore permits;
+	private LinkedList<Connection> idleConnections;
+	private int numOpened;
+
+	/**
+	 * @param hdps				The hd-PS run, whose database settings are used.
+	 * @param maxConnections	Maximum number of connections open at once.
+	 * @param profiler			Profiler recording the statements run on the connections, 
+	 * 							or null.
+	 */
+	public SqlConnectionPool(Hdps hdps, int maxConnections, SqlProfiler profiler)
+	{
+		super();
+		this.hdps = hdps;
+		this.profiler = profiler;
+		this.permits = new Semaphore(maxConnections, true);
+		this.idleConnections = new LinkedList<Connection>();
+	}
+
+	/**
+	 * Take a connection from the pool, waiting if all are in use.  The connection is in
+	 * auto-commit mode.
+	 *
+	 * @return	The connection.  Return it with {@link #releaseConnection(Connection)}.
+	 * @throws Exception
+	 */
+	public Connection getConnection()
+	throws Exception
+	{
+		this.permits.acquire();
+		try {
+			Connection c;
+			while ((c = this.takeIdleConnection()) != null) {
+				if (! c.isClosed())
+					return c;
+			}
+
+			c = HdpsDbController.connectionFactory(this.hdps);
+			if (this.profiler != null)
+				SqlProfiler.attach(c, this.profiler);
+			synchronized (this) {
+				this.numOpened++;
+			}
+			return c;
+		} catch (Exception e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a connection to the pool.  Any open transaction is rolled back.
+	 *
+	 * @param c		The connection, or null.
+	 */
+	public void releaseConnection(Connection c)
+	{
+		if (c == null)
+			return;
+
+		try {
+			if (! c.getAutoCommit()) {
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+			synchronized (this) {
+				this.idleConnections.addFirst(c);
+			}
+		} catch (SQLException e) {
+			// the connection is no longer usable
+			closeQuietly(c);
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Close all connections in the pool.  Connections still in use are closed by
+	 * their users.
+	 */
+	public synchronized void close()
+	{
+		for (Connection c: this.idleConnections)
+			closeQuietly(c);
+		this.idleConnections.clear();
+	}
+
+	/**
+	 * @return	The number of connections opened so far.
+	 */
+	public synchronized int getNumOpened()
+	{
+		return this.numOpened;
+	}
+
+	private synchronized Connection takeIdleConnection()
+	{
+		return this.idleConnections.poll();
+	}
+
+	private static void closeQuietly(Connection c)
+	{
+		SqlProfiler.detach(c);
+		try {
+			c.close();
+		} catch (SQLException e) {
+			// nothing more to do
+		}
+	}
+}
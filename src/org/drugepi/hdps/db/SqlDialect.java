@@ -0,0 +1,283 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.drugepi.hdps.HdpsException;
+
+/**
+ * The SQL that differs between the databases supported in DB mode.  The SQL written by
+ * the DB-mode controllers uses this class for updates that join another table, sequences,
+ * exponents, floating point column types and bulk loads; everything else is written in SQL
+ * common to all supported databases.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public abstract class SqlDialect {
+	public static final String DIALECT_NETEZZA = "NETEZZA";
+	public static final String DIALECT_POSTGRESQL = "POSTGRESQL";
+	public static final String DIALECT_H2 = "H2";
+
+	/**
+	 * Number of rows sent to the database at once by {@link #bulkLoad}.
+	 */
+	protected static final int BULK_LOAD_BATCH_SIZE = 10000;
+
+	/**
+	 * Get the dialect with the specified name, or the dialect for a JDBC URL if no name
+	 * is given.  URLs for unknown databases use the Netezza dialect.
+	 *
+	 * @param name		NETEZZA, POSTGRESQL, H2, or null.
+	 * @param dbUrl		JDBC URL of the database.
+	 * @return			The dialect.
+	 * @throws HdpsException	If the name is not a known dialect.
+	 */
+	public static SqlDialect getDialect(String name, String dbUrl)
+	throws HdpsException
+	{
+		if (name == null) {
+			if ((dbUrl != null) && (dbUrl.startsWith("jdbc:postgresql:")))
+				name = DIALECT_POSTGRESQL;
+			else if ((dbUrl != null) && (dbUrl.startsWith("jdbc:h2:")))
+				name = DIALECT_H2;
+			else
+				name = DIALECT_NETEZZA;
+		}
+
+		if (name.equalsIgnoreCase(DIALECT_NETEZZA))
+			return new NetezzaSqlDialect();
+		else if (name.equalsIgnoreCase(DIALECT_POSTGRESQL))
+			return new PostgreSqlDialect();
+		else if (name.equalsIgnoreCase(DIALECT_H2))
+			return new H2SqlDialect();
+
+		throw new HdpsException(String.format(
+				"Invalid database dialect %s specified.  Dialect must be NETEZZA, POSTGRESQL, or H2.",
+				name));
+	}
+
+	public abstract String getName();
+
+	/**
+	 * @return	The type of double-precision floating point columns.
+	 */
+	public String getDoubleType()
+	{
+		return "double";
+	}
+
+	/**
+	 * @return	SQL raising an expression to a power.
+	 */
+	public String power(String expression, int exponent)
+	{
+		return String.format("POWER(%s, %d)", expression, exponent);
+	}
+
+	/**
+	 * @return	SQL creating an integer sequence.
+	 */
+	public String createSequence(String sequenceName, int start)
+	{
+		return String.format(
+				"CREATE SEQUENCE %s AS integer START WITH %d INCREMENT BY 1",
+				sequenceName, start);
+	}
+
+	/**
+	 * @return	SQL creating an index on columns of a table, or null if joins on the columns
+	 * 			need no index.  This implementation returns null, leaving the join strategy 
+	 * 			to the database.
+	 */
+	public String createIndex(String indexName, String tableName, String columns)
+	{
+		return null;
+	}
+
+	/**
+	 * @return	SQL expression taking the next value from a sequence.
+	 */
+	public String nextValue(String sequenceName)
+	{
+		return String.format("NEXT VALUE FOR %s", sequenceName);
+	}
+
+	/**
+	 * Get an update of the rows of a table that match the rows of a query.  The table is
+	 * aliased A and the query B, e.g. joinCondition <code>A.var_id = B.var_id</code>.  Each
+	 * table row must match at most one query row.
+	 *
+	 * @param tableName		Table to update.
+	 * @param columns		Columns to set.
+	 * @param values		Values of the columns, which may refer to A and B.
+	 * @param query			Query whose rows give the new values.
+	 * @param joinCondition	Condition matching rows of the table and the query.
+	 * @param condition		Additional condition on the rows to update, or null.
+	 * @return				SQL of the update.
+	 */
+	public String updateFrom(String tableName, String[] columns, String[] values,
+			String query, String joinCondition, String condition)
+	{
+		return String.format(
+				"UPDATE %s A " +
+				"SET %s " +
+				"FROM (%s) B " +
+				"WHERE %s%s",
+				tableName,
+				getAssignments(columns, values),
+				query,
+				joinCondition,
+				(condition == null ? "" : " AND " + condition)
+			);
+	}
+
+	/**
+	 * @return	Name of a SQL function that makes an integer of a character value, used to
+	 * 			hash partition a query on a character column, or null if the database has 
+	 * 			none.  This implementation returns null.
+	 */
+	public String getHashFunction()
+	{
+		return null;
+	}
+
+	/**
+	 * @return	SQL showing the database's plan for a statement, without running it.
+	 */
+	public String explain(String sql)
+	{
+		return "EXPLAIN " + sql;
+	}
+
+	/**
+	 * Append the rows of a tab-delimited file, without a header row, to a table.  This
+	 * implementation sends the rows in batches of prepared inserts.
+	 *
+	 * @param connection	Connection to the database.
+	 * @param tableName		Table to load.
+	 * @param filePath		Path of the file.
+	 * @param numColumns	Number of columns in the file and the table.
+	 * @throws Exception
+	 */
+	public void bulkLoad(Connection connection, String tableName, String filePath, int numColumns)
+	throws Exception
+	{
+		StringBuffer placeholders = new StringBuffer("?");
+		for (int i = 1; i < numColumns; i++)
+			placeholders.append(", ?");
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		PreparedStatement ps = connection.prepareStatement(String.format(
+				"INSERT INTO %s VALUES (%s)", tableName, placeholders));
+		BufferedReader br = new BufferedReader(new FileReader(filePath));
+		try {
+			int numBatched = 0;
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] row = line.split("\\t", -1);
+				for (int i = 0; i < numColumns; i++)
+					ps.setString(i + 1, (i < row.length ? unquote(row[i]) : null));
+				ps.addBatch();
+
+				if (++numBatched == BULK_LOAD_BATCH_SIZE) {
+					ps.executeBatch();
+					numBatched = 0;
+				}
+			}
+
+			if (numBatched > 0)
+				ps.executeBatch();
+			connection.commit();
+		} finally {
+			br.close();
+			ps.close();
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * @return	Whether rows held in memory are loaded faster by
+	 * 			{@link #batchInsert(Connection, String, int, Iterator)} than by writing them to
+	 * 			a file for {@link #bulkLoad}.
+	 */
+	public boolean supportsBatchInsert()
+	{
+		return true;
+	}
+
+	/**
+	 * Append rows to a table in batches of prepared inserts, without an intermediate file.
+	 *
+	 * @param connection	Connection to the database.
+	 * @param tableName		Table to load.
+	 * @param numColumns	Number of columns in each row and in the table.
+	 * @param rows			The rows, read once.
+	 * @throws Exception
+	 */
+	public void batchInsert(Connection connection, String tableName, int numColumns,
+			Iterator<Object[]> rows)
+	throws Exception
+	{
+		StringBuffer placeholders = new StringBuffer("?");
+		for (int i = 1; i < numColumns; i++)
+			placeholders.append(", ?");
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		PreparedStatement ps = connection.prepareStatement(String.format(
+				"INSERT INTO %s VALUES (%s)", tableName, placeholders));
+		try {
+			int numBatched = 0;
+			while (rows.hasNext()) {
+				Object[] row = rows.next();
+				for (int i = 0; i < numColumns; i++)
+					ps.setObject(i + 1, row[i]);
+				ps.addBatch();
+
+				if (++numBatched == BULK_LOAD_BATCH_SIZE) {
+					ps.executeBatch();
+					numBatched = 0;
+				}
+			}
+
+			if (numBatched > 0)
+				ps.executeBatch();
+			connection.commit();
+		} finally {
+			ps.close();
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	protected static String getAssignments(String[] columns, String[] values)
+	{
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(columns[i]);
+			sb.append(" = ");
+			sb.append(values[i]);
+		}
+
+		return sb.toString();
+	}
+
+	private static String unquote(String s)
+	{
+		if ((s.length() >= 2) && (s.startsWith("\"")) && (s.endsWith("\"")))
+			return s.substring(1, s.length() - 1);
+
+		return s;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.drugepi.hdps.HdpsController;
+
+/**
+ * Timings of the SQL run by one hd-PS run.  Each statement, and each element of a batch,
+ * is recorded under its template -- its SQL with literals and the run's table name suffix
+ * replaced -- and the phase of the run that issued it.  At the end of the run the time spent
+ * in each phase and the templates are written to <code>sql_profile.txt</code> in the output
+ * directory, slowest first, with the <code>EXPLAIN</code> plans of the slowest if requested.
+ * <p>
+ * {@link SqlUtils} records a statement if its connection has been attached to a profiler
+ * with {@link #attach(Connection, SqlProfiler)}.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class SqlProfiler {
+	public static final String PROFILE_FILE_NAME = "sql_profile.txt";
+
+	private static final Map<Connection, SqlProfiler> profilers =
+		Collections.synchronizedMap(new WeakHashMap<Connection, SqlProfiler>());
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private HdpsController controller;
+	private String randomSuffix;
+	private Map<String, TemplateStats> templates;
+	private Map<String, Long> nanosByPhase;
+	private Map<Statement, List<String>> batches;
+	private int numStatements;
+	private long totalNanos;
+
+	private static class TemplateStats {
+		public String phase;
+		public String template;
+		public int count;
+		public long totalNanos;
+		public long maxNanos = -1;
+		public long rows = -1;
+		public String slowestSql;
+		public String plan;
+	}
+
+	/**
+	 * @param controller	The run's controller, whose metrics give the current phase.
+	 * @param randomSuffix	Suffix of the run's table names, or null.
+	 */
+	public SqlProfiler(HdpsController controller, String randomSuffix)
+	{
+		super();
+		this.controller = controller;
+		this.randomSuffix = randomSuffix;
+		this.templates = new HashMap<String, TemplateStats>();
+		this.nanosByPhase = new LinkedHashMap<String, Long>();
+		this.batches = new IdentityHashMap<Statement, List<String>>();
+	}
+
+	/**
+	 * Record the statements run on a connection with this profiler.
+	 */
+	public static void attach(Connection c, SqlProfiler profiler)
+	{
+		profilers.put(c, profiler);
+	}
+
+	/**
+	 * Stop recording the statements run on a connection.
+	 */
+	public static void detach(Connection c)
+	{
+		profilers.remove(c);
+	}
+
+	/**
+	 * @return	The profiler recording a statement's connection, or null if there is none.
+	 */
+	public static SqlProfiler getProfiler(Statement s)
+	throws SQLException
+	{
+		return profilers.get(s.getConnection());
+	}
+
+	/**
+	 * Record a statement that has run.
+	 *
+	 * @param sql		The statement.
+	 * @param nanos		Time taken.
+	 * @param rows		Rows affected, or -1 if not known.
+	 */
+	public void record(String sql, long nanos, long rows)
+	{
+		String phase = this.controller.getMetrics().getCurrentPhase();
+		String template = this.getTemplate(sql);
+
+		synchronized (this) {
+			this.add(phase, template, sql, nanos, rows);
+		}
+	}
+
+	/**
+	 * Note a statement added to a statement's batch.
+	 */
+	public synchronized void queueBatch(Statement s, String sql)
+	{
+		List<String> batch = this.batches.get(s);
+		if (batch == null) {
+			batch = new ArrayList<String>();
+			this.batches.put(s, batch);
+		}
+		batch.add(sql);
+	}
+
+	/**
+	 * Record a statement's batch that has run.  The time taken is divided evenly among
+	 * the batch's statements, since the driver reports only the total.
+	 *
+	 * @param s			The statement.
+	 * @param nanos		Time taken by the batch.
+	 * @param counts	Update counts returned by the driver.
+	 */
+	public void recordBatch(Statement s, long nanos, int[] counts)
+	{
+		List<String> batch;
+		synchronized (this) {
+			batch = this.batches.remove(s);
+		}
+		if ((batch == null) || (batch.size() == 0))
+			return;
+
+		String phase = this.controller.getMetrics().getCurrentPhase();
+		String[] templates = new String[batch.size()];
+		for (int i = 0; i < batch.size(); i++)
+			templates[i] = this.getTemplate(batch.get(i));
+
+		synchronized (this) {
+			for (int i = 0; i < batch.size(); i++) {
+				long rows = ((counts != null) && (i < counts.length) && (counts[i] >= 0) ?
+						counts[i] : -1);
+				this.add(phase, templates[i], batch.get(i), nanos / batch.size(), rows);
+			}
+		}
+	}
+
+	/**
+	 * @return	Time spent running SQL in each phase of the run, in nanoseconds, in the
+	 * 			order the phases first ran SQL.
+	 */
+	public synchronized Map<String, Long> getNanosByPhase()
+	{
+		return new LinkedHashMap<String, Long>(this.nanosByPhase);
+	}
+
+	/**
+	 * Get the <code>EXPLAIN</code> plan of the slowest run of each of the slowest
+	 * templates.  Must be called before the run's tables are dropped.  A plan that cannot
+	 * be had is replaced by the database's error.
+	 *
+	 * @param c				Connection on which to run the EXPLAIN statements; they are
+	 * 						not themselves recorded.
+	 * @param dialect		Dialect of the database.
+	 * @param numTemplates	Number of templates to explain.
+	 */
+	public void explainSlowest(Connection c, SqlDialect dialect, int numTemplates)
+	{
+		List<TemplateStats> ranked = this.getRankedTemplates();
+		for (int i = 0; i < Math.min(numTemplates, ranked.size()); i++) {
+			TemplateStats stats = ranked.get(i);
+			try {
+				Statement s = c.createStatement();
+				try {
+					ResultSet r = s.executeQuery(dialect.explain(stats.slowestSql));
+					int numColumns = r.getMetaData().getColumnCount();
+					StringBuffer plan = new StringBuffer();
+					while (r.next()) {
+						for (int j = 1; j <= numColumns; j++) {
+							if (j > 1)
+								plan.append('\t');
+							plan.append(r.getString(j));
+						}
+						plan.append('\n');
+					}
+					r.close();
+					stats.plan = plan.toString();
+				} finally {
+					s.close();
+				}
+			} catch (SQLException e) {
+				stats.plan = String.format("EXPLAIN failed: %s\n", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write the templates, slowest first, to the profile file in the output directory.
+	 *
+	 * @throws Exception
+	 */
+	public void writeReport()
+	throws Exception
+	{
+		List<TemplateStats> ranked = this.getRankedTemplates();
+		Map<String, Long> nanosByPhase = this.getNanosByPhase();
+		int numStatements;
+		long totalNanos;
+		synchronized (this) {
+			numStatements = this.numStatements;
+			totalNanos = this.totalNanos;
+		}
+
+		String path = this.controller.getOutputFilePath(PROFILE_FILE_NAME);
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(path)));
+		try {
+			writer.printf(Locale.ROOT, "hd-PS SQL profile: %d statements in %d templates, %.3f seconds\n",
+					numStatements, ranked.size(), totalNanos / 1e9);
+			for (Map.Entry<String, Long> e: nanosByPhase.entrySet())
+				writer.printf(Locale.ROOT, "   phase %s: %.3f s\n", e.getKey(), e.getValue() / 1e9);
+			writer.println();
+			for (int i = 0; i < ranked.size(); i++) {
+				TemplateStats stats = ranked.get(i);
+				writer.printf(Locale.ROOT,
+						"%d. phase %s: %d runs, total %.3f s, mean %.3f s, max %.3f s, rows %s\n",
+						i + 1, stats.phase, stats.count,
+						stats.totalNanos / 1e9,
+						stats.totalNanos / 1e9 / stats.count,
+						stats.maxNanos / 1e9,
+						(stats.rows < 0 ? "unknown" : Long.toString(stats.rows)));
+				writer.printf("   %s\n", stats.template);
+				if (stats.plan != null) {
+					writer.println("   Plan:");
+					for (String line: stats.plan.split("\n"))
+						writer.printf("      %s\n", line);
+				}
+				writer.println();
+			}
+		} finally {
+			writer.close();
+		}
+
+		this.controller.getEvents().note("NOTE: hd-PS wrote the profile of %d SQL statements to %s.",
+				numStatements, path);
+	}
+
+	/*
+	 * ===========================================
+	 * PRIVATE METHODS
+	 * ===========================================
+	 */
+	private void add(String phase, String template, String sql, long nanos, long rows)
+	{
+		if (phase == null)
+			phase = "none";
+
+		String key = phase + "\t" + template;
+		TemplateStats stats = this.templates.get(key);
+		if (stats == null) {
+			stats = new TemplateStats();
+			stats.phase = phase;
+			stats.template = template;
+			this.templates.put(key, stats);
+		}
+
+		stats.count++;
+		stats.totalNanos += nanos;
+		if (nanos > stats.maxNanos) {
+			stats.maxNanos = nanos;
+			stats.slowestSql = sql;
+		}
+		if (rows >= 0)
+			stats.rows = Math.max(stats.rows, 0) + rows;
+
+		Long phaseNanos = this.nanosByPhase.get(phase);
+		this.nanosByPhase.put(phase, (phaseNanos == null ? 0 : phaseNanos) + nanos);
+
+		this.numStatements++;
+		this.totalNanos += nanos;
+	}
+
+	private synchronized List<TemplateStats> getRankedTemplates()
+	{
+		List<TemplateStats> ranked = new ArrayList<TemplateStats>(this.templates.values());
+		Collections.sort(ranked, new Comparator<TemplateStats>() {
+			public int compare(TemplateStats a, TemplateStats b) {
+				if (a.totalNanos != b.totalNanos)
+					return (a.totalNanos > b.totalNanos ? -1 : 1);
+				return a.template.compareTo(b.template);
+			}
+		});
+
+		return ranked;
+	}
+
+	private String getTemplate(String sql)
+	{
+		String template = sql;
+		if (this.randomSuffix != null)
+			template = template.replace(this.randomSuffix, "*");
+		template = STRING_LITERAL.matcher(template).replaceAll("'?'");
+		template = NUMBER_LITERAL.matcher(template).replaceAll("?");
+		template = WHITESPACE.matcher(template).replaceAll(" ");
+
+		return template.trim();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.db;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.ToolEvents;
+import org.drugepi.hdps.HdpsException;
+
+/**
+ * Steps of SQL work and the steps each depends on.  A step starts once all of its
+ * dependencies have finished, and independent steps run at the same time, up to a limit.
+ * Each step runs in one transaction on a connection from a {@link SqlConnectionPool}, and
+ * is retried when the database reports a transient failure such as a deadlock or a
+ * serialization conflict.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class SqlTaskGraph {
+	// delay before the first retry; later retries wait longer
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	/**
+	 * A step of SQL work.
+	 */
+	public static abstract class Task {
+		private String name;
+		private List<Task> dependencies;
+		private List<Task> dependents;
+		private int numUnfinishedDependencies;
+
+		public Task(String name)
+		{
+			this.name = name;
+			this.dependencies = new ArrayList<Task>();
+			this.dependents = new ArrayList<Task>();
+		}
+
+		/**
+		 * Do the step's work.  The connection is not in auto-commit mode; the step is
+		 * committed when this method returns.
+		 */
+		protected abstract void execute(Connection c)
+		throws Exception;
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private SqlConnectionPool pool;
+	private ToolEvents events;
+	private int maxConcurrentTasks;
+	private int maxRetries;
+	private List<Task> tasks;
+
+	/**
+	 * @param pool					Pool from which each step takes its connection.
+	 * @param events				Events to which retries are reported.
+	 * @param maxConcurrentTasks	Maximum number of steps run at once.
+	 * @param maxRetries			Number of times a step is retried after a transient
+	 * 								failure.
+	 */
+	public SqlTaskGraph(SqlConnectionPool pool, ToolEvents events, int maxConcurrentTasks,
+			int maxRetries)
+	{
+		super();
+		this.pool = pool;
+		this.events = events;
+		this.maxConcurrentTasks = maxConcurrentTasks;
+		this.maxRetries = maxRetries;
+		this.tasks = new ArrayList<Task>();
+	}
+
+	/**
+	 * Add a step.
+	 *
+	 * @param task			The step.
+	 * @param dependencies	Steps, already added, that must finish before this one starts.
+	 * @return				The step.
+	 */
+	public Task add(Task task, Task... dependencies)
+	{
+		for (Task dependency: dependencies) {
+			if (! this.tasks.contains(dependency))
+				throw new IllegalArgumentException(String.format(
+						"Step %s depends on step %s, which has not been added.",
+						task.name, dependency.name));
+			task.dependencies.add(dependency);
+		}
+		this.tasks.add(task);
+
+		return task;
+	}
+
+	/**
+	 * Add a step that executes SQL statements in order.
+	 *
+	 * @param name			Name of the step.
+	 * @param statements	The statements.
+	 * @param dependencies	Steps, already added, that must finish before this one starts.
+	 * @return				The step.
+	 */
+	public Task add(String name, final List<String> statements, Task... dependencies)
+	{
+		Task task = new Task(name) {
+			protected void execute(Connection c)
+			throws Exception
+			{
+				Statement s = c.createStatement();
+				try {
+					for (String sql: statements)
+						SqlUtils.executeSql(s, sql);
+				} finally {
+					s.close();
+				}
+			}
+		};
+
+		return this.add(task, dependencies);
+	}
+
+	/**
+	 * Run all steps and wait for them to finish.  Once a step fails, no further steps
+	 * are started.
+	 *
+	 * @throws Exception	The failure of the first step that failed.
+	 */
+	public void run()
+	throws Exception
+	{
+		if (this.tasks.size() == 0)
+			return;
+
+		for (Task task: this.tasks) {
+			task.dependents.clear();
+			task.numUnfinishedDependencies = task.dependencies.size();
+		}
+		for (Task task: this.tasks) {
+			for (Task dependency: task.dependencies)
+				dependency.dependents.add(task);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(this.maxConcurrentTasks, this.tasks.size())));
+		CompletionService<Task> completionService = new ExecutorCompletionService<Task>(executor);
+		Exception failure = null;
+		try {
+			int numRunning = 0;
+			for (Task task: this.tasks) {
+				if (task.numUnfinishedDependencies == 0) {
+					completionService.submit(this.createCallable(task));
+					numRunning++;
+				}
+			}
+
+			while (numRunning > 0) {
+				Future<Task> future = completionService.take();
+				numRunning--;
+
+				Task task;
+				try {
+					task = future.get();
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = (e.getCause() instanceof Exception ?
+								(Exception) e.getCause() : e);
+					continue;
+				}
+
+				if (failure != null)
+					continue;
+
+				for (Task dependent: task.dependents) {
+					dependent.numUnfinishedDependencies--;
+					if (dependent.numUnfinishedDependencies == 0) {
+						completionService.submit(this.createCallable(dependent));
+						numRunning++;
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	private Callable<Task> createCallable(final Task task)
+	{
+		return new Callable<Task>() {
+			public Task call()
+			throws Exception
+			{
+				runTask(task);
+				return task;
+			}
+		};
+	}
+
+	private void runTask(Task task)
+	throws Exception
+	{
+		for (int attempt = 0; ; attempt++) {
+			Connection c = this.pool.getConnection();
+			try {
+				c.setAutoCommit(false);
+				task.execute(c);
+				c.commit();
+				return;
+			} catch (SQLException e) {
+				if ((attempt >= this.maxRetries) || (! isTransient(e)))
+					throw new HdpsException(String.format("SQL step %s failed: %s",
+							task.name, e.getMessage()));
+
+				this.events.note("NOTE: hd-PS retrying SQL step %s after a transient failure: %s",
+						task.name, e.getMessage());
+			} finally {
+				this.pool.releaseConnection(c);
+			}
+
+			Thread.sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+		}
+	}
+
+	/*
+	 * Failures after which the transaction was rolled back and may succeed if run again.
+	 */
+	private static boolean isTransient(SQLException e)
+	{
+		if (e instanceof SQLTransientException)
+			return true;
+
+		// class 40: transaction rollback, e.g. serialization failure or deadlock
+		String state = e.getSQLState();
+		return ((state != null) && (state.startsWith("40")));
+	}
+}
@@ -10,8 +10,6 @@ import java.sql.*;
 import org.apache.commons.lang3.RandomStringUtils;
 
 public class SqlUtils {
-	static int queryCounter = 0;
-	
 	public static String generateRandomName(int numChars)
 	{
 		return RandomStringUtils.randomAlphabetic(numChars);
@@ -32,49 +30,27 @@ public class SqlUtils {
 		return (SqlUtils.getTableName(fixedName, SqlUtils.generateRandomName()));
 	}
 	
-	private static long logQueryStart(int queryCounter, String sql)
-	{
-		long startTime = System.currentTimeMillis();
-//		System.out.printf("Starting query %4d: \n%s\n", queryCounter, sql);
-
-		return startTime;
-	}
-	
-	private static void logQueryQueued(int queryCounter, String sql)
-	{
-//		System.out.printf("Queueing query %4d: \n%s\n", queryCounter, sql);
-	}
-	
-	@SuppressWarnings("unused")
-	private static void logQueryEnd(int queryCounter, long startTime)
-	{
-		long eTime = System.currentTimeMillis() - startTime;
-        double minutes = Math.floor(eTime / (60 * 1000F));
-        eTime -= minutes * 60 * 1000F;
-        double seconds = eTime / 1000F;
-        
-//        System.out.printf("Query %4d finished.  Run time: %02d:%02.3f.\n\n", 
-//        		queryCounter, (int) minutes, seconds);
-	}
-	
 	public static void executeSql(Statement s, String sql)
 	throws Exception
 	{
-		queryCounter++;
+		SqlProfiler profiler = SqlProfiler.getProfiler(s);
 
-		long startTime = logQueryStart(queryCounter, sql);
-		s.execute(sql);
-		logQueryEnd(queryCounter, startTime);
+		long startTime = System.nanoTime();
+		boolean hasResults = s.execute(sql);
+		if (profiler != null)
+			profiler.record(sql, System.nanoTime() - startTime, 
+					(hasResults ? -1 : s.getUpdateCount()));
 	}
 	
 	public static ResultSet executeSqlQuery(Statement s, String sql)
 	throws Exception
 	{
-		queryCounter++;
+		SqlProfiler profiler = SqlProfiler.getProfiler(s);
 		
-		long startTime = logQueryStart(queryCounter, sql);
+		long startTime = System.nanoTime();
 		ResultSet r = s.executeQuery(sql);
-		logQueryEnd(queryCounter, startTime);
+		if (profiler != null)
+			profiler.record(sql, System.nanoTime() - startTime, -1);
 
         return r;
 	}
@@ -82,17 +58,20 @@ public class SqlUtils {
 	public static void addToSqlBatch(Statement s, String sql)
 	throws Exception
 	{
-		logQueryQueued(queryCounter, sql);
+		SqlProfiler profiler = SqlProfiler.getProfiler(s);
+		if (profiler != null)
+			profiler.queueBatch(s, sql);
 		s.addBatch(sql);
 	}
 	
 	public static void executeSqlBatch(Statement s)
 	throws Exception 
 	{
-		queryCounter++;
+		SqlProfiler profiler = SqlProfiler.getProfiler(s);
 		
-		long startTime = logQueryStart(queryCounter, "SQL Batch");
-		s.executeBatch();
-		logQueryEnd(queryCounter, startTime);
+		long startTime = System.nanoTime();
+		int[] counts = s.executeBatch();
+		if (profiler != null)
+			profiler.recordBatch(s, System.nanoTime() - startTime, counts);
 	}
 }
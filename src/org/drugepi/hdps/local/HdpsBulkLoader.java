@@ -0,0 +1,251 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.local;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Collects (code, patient) occurrences for bulk loading into the local database.
+ * <p>
+ * Each occurrence is packed into a long, with the code number in the high 32 bits and
+ * the patient number in the low 32 bits, and added to an in-memory buffer.  When the
+ * buffer fills, it is sorted, repeated keys are collapsed into occurrence counts, and the
+ * result is written to a run file in the temporary directory.  {@link #merge(LinkHandler)}
+ * then merges the run files and the final buffer in key order, summing counts, and passes
+ * each distinct (code, patient) pair to a handler exactly once.
+ * <p>
+ * Memory use is about 12 bytes per buffer entry.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsBulkLoader {
+	/**
+	 * Receives each distinct (code, patient) pair, in key order.
+	 */
+	public interface LinkHandler {
+		public void addLink(int codeNumber, int patientNumber, int numOccurrences)
+		throws Exception;
+	}
+
+	private String tempDirectory;
+	private String name;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	private List<File> runFiles;
+
+	/**
+	 * @param tempDirectory		Directory for run files.
+	 * @param name				Name used in run file names.
+	 * @param bufferSize		Number of occurrences held in memory before a run is written.
+	 */
+	public HdpsBulkLoader(String tempDirectory, String name, int bufferSize)
+	{
+		this.tempDirectory = tempDirectory;
+		this.name = name;
+		this.keys = new long[Math.max(bufferSize, 1024)];
+		this.counts = new int[this.keys.length];
+		this.size = 0;
+		this.runFiles = new ArrayList<File>();
+	}
+
+	public static long packKey(int codeNumber, int patientNumber)
+	{
+		return (((long) codeNumber) << 32) | (patientNumber & 0xFFFFFFFFL);
+	}
+
+	public static int getCodeNumber(long key)
+	{
+		return (int) (key >>> 32);
+	}
+
+	public static int getPatientNumber(long key)
+	{
+		return (int) key;
+	}
+
+	/**
+	 * Add one occurrence of a code for a patient.
+	 */
+	public void add(int codeNumber, int patientNumber)
+	throws Exception
+	{
+		if (this.size == this.keys.length)
+			this.writeRun();
+
+		this.keys[this.size++] = packKey(codeNumber, patientNumber);
+	}
+
+	/**
+	 * @return	The number of run files written so far.
+	 */
+	public int getNumRuns()
+	{
+		return this.runFiles.size();
+	}
+
+	/*
+	 * Sort the buffer and collapse repeated keys; returns the number of distinct keys.
+	 */
+	private int sortBuffer()
+	{
+		Arrays.sort(this.keys, 0, this.size);
+
+		int distinct = 0;
+		for (int i = 0; i < this.size; i++) {
+			if ((distinct > 0) && (this.keys[distinct - 1] == this.keys[i])) {
+				this.counts[distinct - 1]++;
+			} else {
+				this.keys[distinct] = this.keys[i];
+				this.counts[distinct] = 1;
+				distinct++;
+			}
+		}
+
+		return distinct;
+	}
+
+	private void writeRun()
+	throws Exception
+	{
+		int distinct = this.sortBuffer();
+
+		File f = File.createTempFile("hdps_bulk_" + this.name + "_", ".tmp", new File(this.tempDirectory));
+		f.deleteOnExit();
+		this.runFiles.add(f);
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(distinct);
+			for (int i = 0; i < distinct; i++) {
+				out.writeLong(this.keys[i]);
+				out.writeInt(this.counts[i]);
+			}
+		} finally {
+			out.close();
+		}
+
+		this.size = 0;
+	}
+
+	/**
+	 * Merge all occurrences in key order and pass each distinct (code, patient) pair to the
+	 * handler.  Run files are deleted afterwards.
+	 */
+	public void merge(LinkHandler handler)
+	throws Exception
+	{
+		int distinct = this.sortBuffer();
+		this.size = 0;
+
+		List<RunSource> sources = new ArrayList<RunSource>();
+		try {
+			sources.add(new MemoryRunSource(distinct));
+			for (File f: this.runFiles)
+				sources.add(new FileRunSource(f));
+
+			PriorityQueue<RunSource> queue = new PriorityQueue<RunSource>(sources.size() + 1);
+			for (RunSource source: sources)
+				if (source.advance())
+					queue.add(source);
+
+			while (! queue.isEmpty()) {
+				RunSource source = queue.poll();
+				long key = source.key;
+				int count = source.count;
+				if (source.advance())
+					queue.add(source);
+
+				// the same key may appear once in each run
+				while ((! queue.isEmpty()) && (queue.peek().key == key)) {
+					RunSource other = queue.poll();
+					count += other.count;
+					if (other.advance())
+						queue.add(other);
+				}
+
+				handler.addLink(getCodeNumber(key), getPatientNumber(key), count);
+			}
+		} finally {
+			for (RunSource source: sources)
+				source.close();
+			for (File f: this.runFiles)
+				f.delete();
+			this.runFiles.clear();
+		}
+	}
+
+	private abstract class RunSource implements Comparable<RunSource> {
+		long key;
+		int count;
+
+		abstract boolean advance() throws Exception;
+
+		void close() throws Exception
+		{
+		}
+
+		public int compareTo(RunSource other)
+		{
+			return (this.key < other.key ? -1 : (this.key == other.key ? 0 : 1));
+		}
+	}
+
+	private class MemoryRunSource extends RunSource {
+		private int position = 0;
+		private int length;
+
+		MemoryRunSource(int length)
+		{
+			this.length = length;
+		}
+
+		boolean advance()
+		{
+			if (this.position >= this.length)
+				return false;
+
+			this.key = keys[this.position];
+			this.count = counts[this.position];
+			this.position++;
+			return true;
+		}
+	}
+
+	private class FileRunSource extends RunSource {
+		private DataInputStream in;
+		private int remaining;
+
+		FileRunSource(File f)
+		throws Exception
+		{
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+			this.remaining = this.in.readInt();
+		}
+
+		boolean advance()
+		throws Exception
+		{
+			if (this.remaining == 0)
+				return false;
+
+			this.key = this.in.readLong();
+			this.count = this.in.readInt();
+			this.remaining--;
+			return true;
+		}
+
+		void close()
+		throws Exception
+		{
+			this.in.close();
+		}
+	}
+}
@@ -22,6 +22,9 @@ public class HdpsLocalController extends HdpsController
 	 */
 	protected HdpsLocalDatabase database;
 	
+	// keys of the links to candidate codes, by patient
+	protected HdpsPatientLinkTable patientLinkTable;
+	
 	/**
 	 * Constructor for the hd-PS class using default values for all parameters.
 	 */
@@ -64,6 +67,45 @@ public class HdpsLocalController extends HdpsController
 			
 	        this.variablesToConsider.putAll(c.getVariablesToConsider());
 		}
+		
+		HdpsLocalPatientController localPatientController = 
+			(HdpsLocalPatientController) this.patientController;
+		this.patientLinkTable = new HdpsPatientLinkTable(localPatientController.getNumPatientsRead());
+		for (int i = 0; i < this.hdps.getNumDimensions(); i++) {
+			HdpsLocalDimensionController c = 
+				(HdpsLocalDimensionController) this.dimensionControllers[i];
+			c.addLinksToTable(this.patientLinkTable);
+		}
+		this.patientLinkTable.finish();
+	}
+	
+	/*
+	 * Read the patient's links to the specified codes into the map, keyed by code key.
+	 */
+	private void readPatientLinks(int patientNumber, Set<Long> codeKeys, 
+			Map<Long, HdpsCodePatientLink> links)
+	{
+		links.clear();
+		
+		int end = this.patientLinkTable.getEnd(patientNumber);
+		for (int i = this.patientLinkTable.getStart(patientNumber); i < end; i++) {
+			long id = this.patientLinkTable.getLinkId(i);
+			Long codeKey = HdpsCodePatientLink.getCodeKey(id);
+			if (codeKeys.contains(codeKey))
+				links.put(codeKey, this.getCodePatientLinkDatabase().get(id));
+		}
+	}
+	
+	/*
+	 * @return	The code key of each variable's code.
+	 */
+	private Long[] getCodeKeys(List<HdpsVariable> variables)
+	{
+		Long[] codeKeys = new Long[variables.size()];
+		for (int j = 0; j < variables.size(); j++)
+			codeKeys[j] = HdpsCodePatientLink.getCodeKey(variables.get(j).code);
+		
+		return codeKeys;
 	}
 	
 	protected void generateSparseOutput(List<HdpsVariable> variablesToOutput)
@@ -73,30 +115,31 @@ public class HdpsLocalController extends HdpsController
        	outputFields[0] = "patient_id";
        	outputFields[1] = "var_list";
 
-       	RowWriter outputWriter = new TabDelimitedFileWriter(
-       			Utils.getFilePath(hdps.tempDirectory, hdps.sparseOutputFilename),
+       	RowWriter outputWriter = new FastTabDelimitedFileWriter(
+       			this.getOutputFilePath(hdps.sparseOutputFilename),
        			outputFields);
 		
         final String quoteStr = "\"";
         final String commaStr = ",";
 
-		Map<String, HdpsCodePatientLink> codeMap = new HashMap<String, HdpsCodePatientLink>();
-		EntityCursor<HdpsPatient> cursor = this.getPatientDatabase().entities();
-        for (HdpsPatient patient: cursor) { 
-        	outputFields[0] = quoteStr + patient.id + quoteStr;
+		Long[] codeKeys = this.getCodeKeys(variablesToOutput);
+		Set<Long> codeKeySet = new HashSet<Long>(Arrays.asList(codeKeys));
+		Map<Long, HdpsCodePatientLink> codeMap = new HashMap<Long, HdpsCodePatientLink>();
+		HdpsPatientTable patients = this.getPatientTable();
+        for (int patientNumber = 0; patientNumber < patients.getNumPatients(); patientNumber++) { 
+        	if (! this.isPatientIncluded(patientNumber))
+        		continue;
+        	
+        	outputFields[0] = quoteStr + patients.getPatientId(patientNumber) + quoteStr;
         	
         	StringBuffer varListString = new StringBuffer(quoteStr);
         	
-        	codeMap.clear();
-        	EntityCursor<HdpsCodePatientLink> c = 
-        		this.getCodePatientLinkByPatientLookup().subIndex(patient.id).entities();
-        	for (HdpsCodePatientLink cpl: c)
-        		codeMap.put(cpl.codeId, cpl);
-        	c.close();
+        	this.readPatientLinks(patientNumber, codeKeySet, codeMap);
         	
+        	int j = 0;
         	for (HdpsVariable var: variablesToOutput) {
         		// get whether this patient has this code
-        		HdpsCodePatientLink codePatientLink = codeMap.get(var.code.id);
+        		HdpsCodePatientLink codePatientLink = codeMap.get(codeKeys[j++]);
         		
         		if (codePatientLink != null) {
 	        		int value = codePatientLink.getValueForVarType(var.type);
@@ -114,9 +157,8 @@ public class HdpsLocalController extends HdpsController
         	
 	        outputWriter.writeRow(outputFields);
         }	
-        cursor.close();
         
-		System.out.printf("NOTE: hd-PS wrote %d patients to sparse output cohort.\n",
+		this.events.note("NOTE: hd-PS wrote %d patients to sparse output cohort.",
 				this.getNumPatients());
         outputWriter.close();
 	}
@@ -132,8 +174,8 @@ public class HdpsLocalController extends HdpsController
        		outputFields[k++] = var.varName;
        	}
 
-       	RowWriter outputWriter = new TabDelimitedFileWriter(
-       			Utils.getFilePath(hdps.tempDirectory, hdps.fullOutputFilename),
+       	RowWriter outputWriter = new FastTabDelimitedFileWriter(
+       			this.getOutputFilePath(hdps.fullOutputFilename),
        			outputFields);
 		
         final String oneStr = "1";
@@ -141,27 +183,27 @@ public class HdpsLocalController extends HdpsController
         //final String missingStr = "";
         final String quoteStr = "\"";
       
-		Map<String, HdpsCodePatientLink> codeMap = new HashMap<String, HdpsCodePatientLink>();
-		EntityCursor<HdpsPatient> cursor = this.getPatientDatabase().entities();
-        for (HdpsPatient patient: cursor) 
+		Long[] codeKeys = this.getCodeKeys(variablesToOutput);
+		Set<Long> codeKeySet = new HashSet<Long>(Arrays.asList(codeKeys));
+		Map<Long, HdpsCodePatientLink> codeMap = new HashMap<Long, HdpsCodePatientLink>();
+		HdpsPatientTable patients = this.getPatientTable();
+        for (int patientNumber = 0; patientNumber < patients.getNumPatients(); patientNumber++) 
         {
-        	outputFields[0] = quoteStr + patient.id + quoteStr;
+        	if (! this.isPatientIncluded(patientNumber))
+        		continue;
+        	
+        	outputFields[0] = quoteStr + patients.getPatientId(patientNumber) + quoteStr;
         	int fieldIndex = 1;
         	
-        	// load all variables for this patient into memory
-        	codeMap.clear();
-        	EntityCursor<HdpsCodePatientLink> c = 
-        		this.getCodePatientLinkByPatientLookup().subIndex(patient.id).entities();
-        	for (HdpsCodePatientLink cpl: c)
-        		codeMap.put(cpl.codeId, cpl);
-        	c.close();
+        	// load this patient's links to the output variables into memory
+        	this.readPatientLinks(patientNumber, codeKeySet, codeMap);
         	
         	for (HdpsVariable var: variablesToOutput) {
         		// default of 0
         		outputFields[fieldIndex] = zeroStr;
 
         		// get whether this patient has this variable
-        		HdpsCodePatientLink cpl = codeMap.get(var.code.id);
+        		HdpsCodePatientLink cpl = codeMap.get(codeKeys[fieldIndex - 1]);
         		if (cpl != null) {
         			int varValue = HdpsVariable.valueZero;
         			
@@ -186,13 +228,140 @@ public class HdpsLocalController extends HdpsController
         	
 	        outputWriter.writeRow(outputFields);
         }	
-        cursor.close();
         
-		System.out.printf("NOTE: hd-PS wrote %d patients to full output cohort.\n",
+		this.events.note("NOTE: hd-PS wrote %d patients to full output cohort.",
 				this.getNumPatients());
         outputWriter.close();
 	}	
 	
+	protected HdpsPatientVariableMatrix buildPatientVariableMatrix(List<HdpsVariable> variables, 
+			boolean includeMissing)
+	throws Exception
+	{
+		String[] columnNames = new String[variables.size()];
+		
+		for (int j = 0; j < variables.size(); j++) 
+			columnNames[j] = variables.get(j).varName;
+		
+		Long[] codeKeys = this.getCodeKeys(variables);
+		Set<Long> codeKeySet = new HashSet<Long>(Arrays.asList(codeKeys));
+		Map<Long, HdpsCodePatientLink> codeMap = new HashMap<Long, HdpsCodePatientLink>();
+		
+		HdpsPatientVariableMatrix matrix = 
+			new HdpsPatientVariableMatrix(columnNames, this.getNumPatients());
+		
+		HdpsPatientTable patients = this.getPatientTable();
+        for (int patientNumber = 0; patientNumber < patients.getNumPatients(); patientNumber++) { 
+        	if (! this.isPatientIncluded(patientNumber))
+        		continue;
+        	
+        	matrix.addPatient(patients.getPatientId(patientNumber), this.isPatientExposed(patientNumber), 
+        			patients.isOutcome(patientNumber), patients.getOutcomeContinuous(patientNumber), 
+        			patients.getOutcomeCount(patientNumber), patients.getFollowUpTime(patientNumber));
+        	
+        	// values are added in column order
+        	this.readPatientLinks(patientNumber, codeKeySet, codeMap);
+        	for (int j = 0; j < variables.size(); j++) {
+        		HdpsCodePatientLink cpl = codeMap.get(codeKeys[j]);
+        		if (cpl == null)
+        			continue;
+        		
+        		HdpsVariable var = variables.get(j);
+        		int varValue = HdpsVariable.valueZero;
+        		
+        		if (var.isTypeOnce()) 
+        			varValue = cpl.onceVarValue;
+        		else if (var.isTypeSporadic()) 
+        			varValue = cpl.sporadicVarValue;
+        		else if (var.isTypeFrequent()) 
+        			varValue = cpl.frequentVarValue;
+        		else if (var.isTypeServiceIntensity()) 
+        			varValue = cpl.intensityVarValue;
+        		
+        		if (varValue == HdpsVariable.valueOne)
+        			matrix.addValue(j, 1);
+        		else if ((varValue == HdpsVariable.valueMissing) && (includeMissing))
+        			matrix.addValue(j, HdpsVariable.valueMissing);
+        	}
+        }
+        matrix.finish();
+        
+        return matrix;
+	}
+	
+	/**
+	 * @return	Whether the patient is part of the current exposure contrast; always true
+	 * 			when exposure contrasts are not in use.
+	 */
+	public boolean isPatientIncluded(int patientNumber)
+	{
+		return ((this.currentContrast == null) || 
+				(this.currentContrast.includes(this.getPatientTable().getExposureLevel(patientNumber))));
+	}
+	
+	/**
+	 * @return	Whether the patient is exposed, in the current exposure contrast if there is one.
+	 */
+	public boolean isPatientExposed(int patientNumber)
+	{
+		HdpsPatientTable patients = this.getPatientTable();
+		if (this.currentContrast == null)
+			return patients.isExposed(patientNumber);
+		
+		return this.currentContrast.isExposed(patients.getExposureLevel(patientNumber));
+	}
+	
+	protected void calculateContrastStatistics(HdpsExposureContrast contrast)
+	throws Exception
+	{
+		// patient totals for the contrast
+		int n = 0;
+		int nExposed = 0;
+		int nOutcome = 0;
+		int ptTotal = 0;
+		int ptExposed = 0;
+		double sumOfOutcomes = 0;
+		int numEvents = 0;
+		
+		HdpsPatientTable patients = this.getPatientTable();
+        for (int patientNumber = 0; patientNumber < patients.getNumPatients(); patientNumber++) { 
+        	String exposureLevel = patients.getExposureLevel(patientNumber);
+        	if (! contrast.includes(exposureLevel))
+        		continue;
+        	
+        	n++;
+        	ptTotal += patients.getFollowUpTime(patientNumber);
+        	if (contrast.isExposed(exposureLevel)) {
+        		nExposed++;
+        		ptExposed += patients.getFollowUpTime(patientNumber);
+        	}
+        	sumOfOutcomes += patients.getOutcomeContinuous(patientNumber);
+        	numEvents += patients.getOutcomeCount(patientNumber);
+        	if (patients.isOutcome(patientNumber)) nOutcome++;
+        }
+        
+        if ((nExposed == 0) || (nExposed == n))
+        	throw new HdpsException(String.format(
+        			"Exposure contrast %s must have patients at both exposure levels.", contrast.getName()));
+        
+        this.patientController.setNumPatients(n);
+        this.patientController.nExposed = nExposed;
+        this.patientController.nOutcome = nOutcome;
+        this.patientController.ptTotal = ptTotal;
+        this.patientController.ptExposed = ptExposed;
+        this.patientController.sumOfOutcomes = sumOfOutcomes;
+        this.patientController.numEvents = numEvents;
+        
+		this.events.note("NOTE: hd-PS exposure contrast %s has %d patients, %d exposed.", 
+				contrast.getName(), n, nExposed);
+        
+		for (int i = 0; i < this.hdps.getNumDimensions(); i++) {
+			HdpsLocalDimensionController c = 
+				(HdpsLocalDimensionController) this.dimensionControllers[i];
+			c.calculateContrastBias();
+		}
+	}
+	
 	protected void generateCohorts(List<HdpsVariable> variablesToOutput)
 	throws Exception
 	{
@@ -212,29 +381,69 @@ public class HdpsLocalController extends HdpsController
 	protected void startHdps()
 	throws Exception
 	{
-		this.database = new HdpsLocalDatabase(hdps.tempDirectory);
+		this.database = new HdpsLocalDatabase(hdps.tempDirectory, 
+				(hdps.useBulkLoad == 1), hdps.dbCachePercent);
+		this.events.note("NOTE: Opened database with cache size %8.2f MB (%d percent of available)", 
+				((double) this.database.getCacheSize()) / (1024d * 1024d),
+				this.database.getCachePercent());
 	}
 	
 	protected void closeController()
 	throws Exception
 	{
-        this.database.close();
+		// may be called after a failed run, so may find nothing opened
+		if (this.database != null) {
+			this.database.close();
+			this.database = null;
+		}
+	}
+	
+	/**
+	 * @return	The patients, shared read-only by all dimension controllers.
+	 */
+	public HdpsPatientTable getPatientTable() {
+		return ((HdpsLocalPatientController) this.patientController).getPatientTable();
 	}
 	
-	public PrimaryIndex<String, HdpsPatient> getPatientDatabase() {
-		return this.database.patientById;
+	/**
+	 * @return	The reader of the patients if they are read from a database, or null.
+	 */
+	public DatabaseRowReader getPatientDatabaseReader()
+	{
+		if ((this.patientController != null) &&
+			(this.patientController.reader instanceof DatabaseRowReader))
+			return (DatabaseRowReader) this.patientController.reader;
+
+		return null;
 	}
 
-	public PrimaryIndex<String, HdpsCodePatientLink> getCodePatientLinkDatabase() {
-		return database.codePatientLinkById;
+	/**
+	 * @return	The query that yields the patients, or null if the patients are not read
+	 * 			from a database.
+	 */
+	public String getPatientQuery()
+	{
+		DatabaseRowReader reader = this.getPatientDatabaseReader();
+		
+		return (reader == null ? null : reader.getQuery());
 	}
 
-	public SecondaryIndex<String, String, HdpsCodePatientLink> getCodePatientLinkByCodeLookup() {
-		return database.codePatientLinkByCode;
+	public PrimaryIndex<Long, HdpsCodePatientLink> getCodePatientLinkDatabase() {
+		return database.codePatientLinkById;
 	}
 
-	public SecondaryIndex<String, String, HdpsCodePatientLink> getCodePatientLinkByPatientLookup() {
-		return database.codePatientLinkByPatient;
+	/**
+	 * @return	Keys of the links to candidate codes, by patient number.
+	 */
+	public HdpsPatientLinkTable getPatientLinkTable() {
+		return this.patientLinkTable;
 	}	
+
+	protected long getStoreCacheMisses() {
+		if (this.database == null)
+			return -1;
+		
+		return this.database.getCacheMisses();
+	}
 }
 
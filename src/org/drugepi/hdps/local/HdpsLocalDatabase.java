@@ -20,15 +20,20 @@ public class HdpsLocalDatabase {
 	
 	private EnvironmentConfig envConfig;
 	
-	public PrimaryIndex<String, HdpsPatient> patientById;
-	public PrimaryIndex<String, HdpsCodePatientLink> codePatientLinkById;
-	
-	public SecondaryIndex<String, String, HdpsCodePatientLink> codePatientLinkByCode;
-	public SecondaryIndex<String, String, HdpsCodePatientLink> codePatientLinkByPatient;
+	public PrimaryIndex<Long, HdpsCodePatientLink> codePatientLinkById;
 
 	String homeDirectory;
 	
 	public HdpsLocalDatabase(String homeDirectory) {
+		this(homeDirectory, false, 0);
+	}
+	
+	/**
+	 * @param homeDirectory		Directory for the database files.
+	 * @param deferredWrite		Whether to open the store in deferred-write mode, for bulk loading.
+	 * @param cachePercent		Percentage of the heap to use for the cache, or 0 for the default.
+	 */
+	public HdpsLocalDatabase(String homeDirectory, boolean deferredWrite, int cachePercent) {
 		super();
 		
 		this.homeDirectory = homeDirectory;
@@ -38,25 +43,46 @@ public class HdpsLocalDatabase {
 		envConfig.setAllowCreate(true);
 		// avoid error with "too many open files" (default value is 100)
 		envConfig.setConfigParam(EnvironmentConfig.LOG_FILE_CACHE_SIZE, "50");
+		if (cachePercent > 0)
+			envConfig.setCachePercent(cachePercent);
 		env = new Environment(new File(homeDirectory), envConfig);
 
 		StoreConfig storeConfig = new StoreConfig();
-//		storeConfig.setDeferredWrite(true);
+		storeConfig.setDeferredWrite(deferredWrite);
 		storeConfig.setAllowCreate(true);
 		storeConfig.setTransactional(false);
-		storeConfig.setTemporary(true);
+		// a store cannot be both deferred-write and temporary; either way, 
+		// the database files are deleted on close
+		storeConfig.setTemporary(! deferredWrite);
 		String storeName = String.format("HdpsStore_%s", RandomStringUtils.randomAlphabetic(8));
 		store = new EntityStore(env, storeName, storeConfig);
-		
-		System.out.printf("NOTE: Opened database with cache size %8.2f MB (%d percent of available)\n", 
-				((double) env.getMutableConfig().getCacheSize()) / (1024d * 1024d),
-				env.getMutableConfig().getCachePercent());
 
-		patientById = store.getPrimaryIndex(String.class, HdpsPatient.class);
-		codePatientLinkById = store.getPrimaryIndex(String.class, HdpsCodePatientLink.class);
+		codePatientLinkById = store.getPrimaryIndex(Long.class, HdpsCodePatientLink.class);
+	}
+
+	/**
+	 * @return	The cache size, in bytes.
+	 */
+	public long getCacheSize() {
+		return env.getMutableConfig().getCacheSize();
+	}
+	
+	/**
+	 * @return	The cache size as a percentage of the heap.
+	 */
+	public int getCachePercent() {
+		return env.getMutableConfig().getCachePercent();
+	}
+	
+	/**
+	 * @return	The number of requests for database objects not in the cache, or -1 
+	 * 			if the database is closed.
+	 */
+	public long getCacheMisses() {
+		if (! env.isValid())
+			return -1;
 		
-		codePatientLinkByCode = store.getSecondaryIndex(codePatientLinkById, String.class, "codeId");
-		codePatientLinkByPatient = store.getSecondaryIndex(codePatientLinkById, String.class, "patientId");
+		return env.getStats(null).getNCacheMiss();
 	}
 
 	public void close()
@@ -14,8 +14,14 @@
 
 package org.drugepi.hdps.local;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.*;
 
+import org.drugepi.ToolEvents;
 import org.drugepi.hdps.*;
 import org.drugepi.hdps.storage.*;
 import org.drugepi.hdps.storage.comparators.*;
@@ -25,6 +31,9 @@ import com.sleepycat.persist.EntityCursor;
 
 public class HdpsLocalDimensionController extends HdpsDimensionController {
 	public Map<String, HdpsCode> codeMap;
+	
+	// codes by their dimension-local number
+	private List<HdpsCode> codesByNumber;
 
 	// INTERNAL VARIABLES
 	private int varGenerationSequence = 0;
@@ -38,23 +47,28 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 	
 	private HashMap<String, NumPatientCodesStore> numPatientCodes;
 	
+	// rows between progress events while reading
+	private static final int PROGRESS_ROWS = 1000000;
+	
+	// when codes are filtered for prevalence in the database: the dimension's query, its
+	// number of rows, and each candidate code's number of patients as counted there
+	private String databaseQuery;
+	private long numDatabaseRows;
+	private Map<HdpsCode, Integer> databaseFrequencies;
+	
 	public HdpsLocalDimensionController(Hdps hdps, HdpsLocalController hdpsController) 
 	{
 		super(hdps);
 		this.hdpsController = hdpsController;
 
 		this.codeMap = new HashMap<String, HdpsCode>();
+		this.codesByNumber = new ArrayList<HdpsCode>();
 		this.numPatientCodes = new HashMap<String, NumPatientCodesStore>();
 	}
 
-	private void filterCodesForPrevalence() throws Exception
+	protected void filterCodesForPrevalence() throws Exception
 	{
-		for (HdpsCode code : this.codeMap.values()) {
-			code.prevalence = (float) code.numUniqueOccurrences
-					/ (float) this.hdpsController.getNumPatients();
-			if (code.prevalence > 0.5)
-				code.prevalence = 1.0 - code.prevalence;
-		}
+		this.calculatePrevalences();
 
 		// sort by descending prevalence
 		List<HdpsCode> sortedCodes = new ArrayList<HdpsCode>(this.codeMap.values());
@@ -73,44 +87,87 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 	}
 	
 	public void buildCodePatientDatabase() throws Exception {
+		this.numCodePatientLinks = 0;
+		ToolEvents events = this.hdps.getEvents();
+		
 		String[] row;
 		int rowsRead = 0;
 		HdpsCode code = null;
-		HdpsPatient patient = null;
+		String patientId = null;
+		int patientNum = -1;
 		HdpsCodePatientLink codePatientLink = null;
+		int rowsOutsideWindow = 0;
+		
+		boolean useWindow = (this.hdps.useAssessmentWindow == 1);
+		int windowStart = this.hdps.assessmentWindowStart;
+		int windowEnd = this.hdps.assessmentWindowEnd;
+		HdpsLocalPatientController localPatientController = 
+			(HdpsLocalPatientController) this.patientController;
+		int[] indexDates = localPatientController.getIndexDates();
+		NumPatientCodesStore store = null;
+		
+		// when bulk loading, occurrences go to the bulk loader rather than the database
+		HdpsBulkLoader bulkLoader = null;
+		if (this.hdps.useBulkLoad == 1) 
+			bulkLoader = new HdpsBulkLoader(this.hdps.tempDirectory, 
+					String.format("D%02d", this.dimensionId), this.hdps.bulkLoadBufferSize);
 		
 		while ((row = this.reader.getNextRow()) != null) {
 			rowsRead++;
+			if (rowsRead % PROGRESS_ROWS == 0)
+				events.rowsProcessed(this.dimensionDescription, rowsRead);
 
 			String codeString = row[codeColumn];
-			String patientId = row[patientColumn];
+			String rowPatientId = row[patientColumn];
 			
 			if ((codeString == null) ||
 				(codeString.length() == 0) ||
-				(patientId == null) ||
-				(patientId.length() == 0)) 
+				(rowPatientId == null) ||
+				(rowPatientId.length() == 0)) 
 				continue;
-
-			if ((patient == null) || (! patient.id.equals(patientId)))
-				patient = this.hdpsController.getPatientDatabase().get(patientId);
-
-			code = codeMap.get(codeString);
-			if (code == null) {
-				code = new HdpsCode(this.generateVariableName());
-				code.codeString = codeString;
-				code.dimension = this;
-				code.numUniqueOccurrences = 0;
-				codeMap.put(code.codeString, code);
+			
+			if (! rowPatientId.equals(patientId)) {
+				patientId = rowPatientId;
+				patientNum = localPatientController.getPatientNumber(patientId);
+				store = null;
+			}
+			
+			// drop rows outside the assessment window before any code is created
+			if (useWindow) {
+				int date = (row.length > dateColumn ? 
+						Utils.parseInputDate(row[dateColumn]) : Utils.MISSING_DATE);
+				if ((patientNum < 0) || (date == Utils.MISSING_DATE)) {
+					rowsOutsideWindow++;
+					continue;
+				}
+				
+				int daysFromIndex = date - indexDates[patientNum];
+				if ((daysFromIndex < windowStart) || (daysFromIndex > windowEnd)) {
+					rowsOutsideWindow++;
+					continue;
+				}
 			}
-		
-			if (patient != null) {
-				String cplId = HdpsCodePatientLink.generateId(code, patient);
 
-				NumPatientCodesStore store = this.numPatientCodes.get(patient.id);
+			code = codeMap.get(codeString);
+			if (code == null) 
+				code = this.createCode(codeString);
+			
+			if (patientNum < 0)
+				continue;
+			
+			if (store == null) {
+				store = this.numPatientCodes.get(patientId);
 				if (store == null) {
 					store = new NumPatientCodesStore();
-					this.numPatientCodes.put(patient.id, store);
+					this.numPatientCodes.put(patientId, store);
 				}
+			}
+			
+			if (bulkLoader != null) {
+				bulkLoader.add(code.number, patientNum);
+				store.numPatientCodes++;
+			} else {
+				long cplId = HdpsCodePatientLink.generateId(code, patientNum);
 
 				// do a lookup with a cursor in order to do a possible update below
 				EntityCursor<HdpsCodePatientLink> cursor = 
@@ -119,13 +176,12 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 				if (codePatientLink == null) {
 					codePatientLink = new HdpsCodePatientLink();
 					codePatientLink.id = cplId;
-					codePatientLink.patientId = patient.id;
-					codePatientLink.codeId = code.id;
 					codePatientLink.numOccurrences = 1;
 					code.putInRecurrenceBin(codePatientLink.numOccurrences);
 					code.numUniqueOccurrences++;
 					store.numUniquePatientCodes++;
 					this.hdpsController.getCodePatientLinkDatabase().put(codePatientLink);
+					this.numCodePatientLinks++;
 				} else {
 					codePatientLink.numOccurrences++;
 					code.switchRecurrenceBin(codePatientLink.numOccurrences - 1, codePatientLink.numOccurrences);
@@ -138,26 +194,365 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 			}
 		}
 		
-		// one last time, just in case
-		this.hdpsController.getCodePatientLinkDatabase().put(codePatientLink);
+		if (bulkLoader != null) {
+			int numRuns = bulkLoader.getNumRuns();
+			this.mergeBulkLoad(bulkLoader);
+			events.note("NOTE: hd-PS dimension %s bulk loaded from %d sorted runs.",
+					this.dimensionDescription, numRuns + 1);
+		} else if (codePatientLink != null) {
+			// one last time, just in case
+			this.hdpsController.getCodePatientLinkDatabase().put(codePatientLink);
+		}
+		this.numRowsRead = rowsRead;
+		events.rowsProcessed(this.dimensionDescription, rowsRead);
+
+		if (useWindow)
+			events.note(
+					"NOTE: hd-PS dimension %s read finished.  %d input rows processed.  %d rows outside the assessment window.",
+					this.dimensionDescription, rowsRead, rowsOutsideWindow);
+		else
+			events.note(
+					"NOTE: hd-PS dimension %s read finished.  %d input rows processed.",
+					this.dimensionDescription, rowsRead);
+	}
 
-		System.out.printf(
-				"NOTE: hd-PS dimension %s read finished.  %d input rows processed.",
-				this.dimensionDescription, rowsRead);
-		System.out.println("");
+	/*
+	 * Set each code's prevalence from its number of patients.  Prevalences over 
+	 * 50% are flipped.
+	 */
+	protected void calculatePrevalences()
+	{
+		for (HdpsCode code : this.codeMap.values()) {
+			code.prevalence = (float) code.numUniqueOccurrences
+					/ (float) this.hdpsController.getNumPatients();
+			if (code.prevalence > 0.5)
+				code.prevalence = 1.0 - code.prevalence;
+		}
+	}
+	
+	protected HdpsCode createCode(String codeString)
+	throws Exception
+	{
+		HdpsCode code = new HdpsCode(this.generateVariableName());
+		code.codeString = codeString;
+		code.dimension = this;
+		code.numUniqueOccurrences = 0;
+		this.numberCode(code);
+		codeMap.put(code.codeString, code);
+		
+		return code;
+	}
+	
+	/*
+	 * Give the code the next dimension-local number, for use in link keys.
+	 */
+	private void numberCode(HdpsCode code)
+	throws Exception
+	{
+		if (this.codesByNumber.size() > HdpsCodePatientLink.MAX_CODE_NUMBER)
+			throw new HdpsException(String.format(
+					"Dimension %s has more than %d distinct codes.", 
+					this.dimensionDescription, HdpsCodePatientLink.MAX_CODE_NUMBER + 1));
+		
+		code.number = this.codesByNumber.size();
+		this.codesByNumber.add(code);
+	}
+	
+	/*
+	 * Write each distinct (code, patient) pair to the database in key order, and 
+	 * update the code and patient counts that are otherwise updated row by row.
+	 */
+	private void mergeBulkLoad(HdpsBulkLoader bulkLoader)
+	throws Exception
+	{
+		final HdpsLocalPatientController localPatientController = 
+			(HdpsLocalPatientController) this.patientController;
+		
+		bulkLoader.merge(new HdpsBulkLoader.LinkHandler() {
+			public void addLink(int codeNumber, int patientNumber, int numOccurrences)
+			throws Exception
+			{
+				HdpsCode code = codesByNumber.get(codeNumber);
+				String patientId = localPatientController.getPatientId(patientNumber);
+				
+				putLink(code, patientNumber, numOccurrences);
+				code.numUniqueOccurrences++;
+				numPatientCodes.get(patientId).numUniquePatientCodes++;
+			}
+		});
+	}
+	
+	/*
+	 * Write a new link between a code and a patient with the given number of 
+	 * occurrences to the database.
+	 */
+	protected void putLink(HdpsCode code, int patientNumber, int numOccurrences)
+	{
+		HdpsCodePatientLink codePatientLink = new HdpsCodePatientLink();
+		codePatientLink.id = HdpsCodePatientLink.generateId(code, patientNumber);
+		codePatientLink.numOccurrences = numOccurrences;
+		code.putInRecurrenceBin(numOccurrences);
+		this.hdpsController.getCodePatientLinkDatabase().put(codePatientLink);
+		this.numCodePatientLinks++;
+	}
+	
+	/*
+	 * Add to a patient's total and distinct code counts, used for service 
+	 * intensity variables.
+	 */
+	protected void addPatientCodeCounts(String patientId, int numPatientCodes, 
+			int numUniquePatientCodes)
+	{
+		NumPatientCodesStore store = this.numPatientCodes.get(patientId);
+		if (store == null) {
+			store = new NumPatientCodesStore();
+			this.numPatientCodes.put(patientId, store);
+		}
+		store.numPatientCodes += numPatientCodes;
+		store.numUniquePatientCodes += numUniquePatientCodes;
 	}
 
 	public void readDimension() throws Exception {
+		boolean pushDown = this.canPushDownPrevalence();
+		if (pushDown)
+			this.readCodesFromDatabase();
 		this.buildCodePatientDatabase();
+		if (pushDown)
+			this.finishCodesFromDatabase();
 		this.filterCodesForPrevalence();
 		this.calculateMediansAndBias();
 		
-		System.out.printf(
-				"NOTE: hd-PS dimension %s building finished.\n",
+		this.hdps.getEvents().note(
+				"NOTE: hd-PS dimension %s building finished.",
 				this.dimensionDescription);
 	}
 
-	protected void createServiceIntensityVariables(boolean uniqueOnly) {
+	/*
+	 * Codes can be filtered for prevalence in the database only when the patients are 
+	 * read from the same database, and no rows are dropped by an assessment window.
+	 */
+	private boolean canPushDownPrevalence()
+	{
+		if (this.hdps.dbPushDownPrevalence != 1)
+			return false;
+		
+		String reason = null;
+		DatabaseRowReader patientReader = this.hdpsController.getPatientDatabaseReader();
+		if (! (this.reader instanceof DatabaseRowReader))
+			reason = "it is not read from a database";
+		else if ((patientReader == null) || 
+				 (patientReader.getUrl() == null) ||
+				 (! patientReader.getUrl().equals(((DatabaseRowReader) this.reader).getUrl())))
+			reason = "the patients are not read from the same database";
+		else if (this.hdps.useAssessmentWindow == 1)
+			reason = "an assessment window is used";
+		
+		if (reason != null) {
+			this.hdps.getEvents().note(
+					"NOTE: hd-PS dimension %s will read all rows, since %s.",
+					this.dimensionDescription, reason);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/*
+	 * Count each code's patients in the database and create the codes in the order 
+	 * of their first rows, so that they are numbered and named as if every row had been 
+	 * read.  Then mark the codes considered for the PS, and replace the dimension's reader 
+	 * with one that reads only their rows.
+	 * 
+	 * The dimension query has no key to order its rows by, so they are numbered in the
+	 * order the database returns them.  If it returns them in another order when read
+	 * in full, codes are named differently; which codes are considered, and their
+	 * counts, do not depend on the order.
+	 */
+	private void readCodesFromDatabase()
+	throws Exception
+	{
+		DatabaseRowReader dimensionReader = (DatabaseRowReader) this.reader;
+		this.databaseQuery = dimensionReader.getQuery();
+		String patientQuery = this.hdpsController.getPatientQuery();
+		
+		String patientIdField;
+		String codeField;
+		long numRows = 0;
+		Connection connection = dimensionReader.createConnection();
+		try {
+			Statement s = connection.createStatement();
+			ResultSet r = s.executeQuery(String.format(
+					"SELECT * FROM (%s) D WHERE 1=0", this.databaseQuery));
+			ResultSetMetaData metaData = r.getMetaData();
+			patientIdField = metaData.getColumnName(patientColumn + 1);
+			codeField = metaData.getColumnName(codeColumn + 1);
+			String patientCondition = getNotEmptyCondition("D." + patientIdField, 
+					metaData.getColumnType(patientColumn + 1));
+			r.close();
+			
+			r = s.executeQuery(String.format(
+					"SELECT * FROM (%s) P WHERE 1=0", patientQuery));
+			String patientPatientIdField = r.getMetaData().getColumnName(1);
+			r.close();
+
+			// rows without a patient create no code
+			r = s.executeQuery(String.format(
+					"SELECT D.%s, " +
+					"       MIN(CASE WHEN %s THEN D.hdps_row_number END) AS first_row, " +
+					"       COUNT(*) AS num_rows, " +
+					"       COUNT(DISTINCT P.patient_id) AS frequency " +
+					"FROM (SELECT Q.*, ROW_NUMBER() OVER () AS hdps_row_number FROM (%s) Q) D " +
+					"LEFT OUTER JOIN (SELECT DISTINCT P0.%s AS patient_id FROM (%s) P0) P " +
+					"ON D.%s = P.patient_id " +
+					"GROUP BY D.%s " +
+					"ORDER BY first_row",
+					codeField,
+					patientCondition,
+					this.databaseQuery,
+					patientPatientIdField,
+					patientQuery,
+					patientIdField,
+					codeField));
+			while (r.next()) {
+				String codeString = r.getString(1);
+				r.getLong(2);
+				boolean noPatientRows = r.wasNull();
+				numRows += r.getLong(3);
+				int frequency = r.getInt(4);
+				
+				if ((codeString == null) || (codeString.length() == 0) || (noPatientRows))
+					continue;
+				
+				HdpsCode code = this.createCode(codeString);
+				code.numUniqueOccurrences = frequency;
+			}
+			r.close();
+			s.close();
+		} finally {
+			connection.close();
+		}
+		this.numDatabaseRows = numRows;
+		
+		// the candidates' rows are read and counted again; the others' never are
+		this.filterCodesForPrevalence();
+		this.databaseFrequencies = new HashMap<HdpsCode, Integer>();
+		StringBuffer codeList = new StringBuffer();
+		for (HdpsCode code: this.codeMap.values()) {
+			if (! code.considerForPs)
+				continue;
+			
+			this.databaseFrequencies.put(code, code.numUniqueOccurrences);
+			code.numUniqueOccurrences = 0;
+			if (codeList.length() > 0)
+				codeList.append(", ");
+			codeList.append("'").append(code.codeString.replace("'", "''")).append("'");
+		}
+		
+		String condition = (codeList.length() > 0 ? 
+				String.format("D.%s IN (%s)", codeField, codeList) : "1=0");
+		this.reader = dimensionReader.createReader(String.format(
+				"SELECT D.* FROM (%s) D WHERE %s", this.databaseQuery, condition));
+		dimensionReader.close();
+
+		this.hdps.getEvents().note(
+				"NOTE: hd-PS dimension %s has %d codes in the database, %d considered for the PS.  Only their rows will be read.",
+				this.dimensionDescription, this.codeMap.size(), this.databaseFrequencies.size());
+	}
+	
+	/*
+	 * Check the candidates' counts against the database's, and read the patients' 
+	 * counts of all codes, not only of the candidates, for the service intensity variables.
+	 * The counts can differ if the data changed between the queries, or if the database
+	 * matches patient IDs that the patients read do not; the counts read are kept, since
+	 * they are the counts of the rows read.
+	 */
+	private void finishCodesFromDatabase()
+	throws Exception
+	{
+		for (Map.Entry<HdpsCode, Integer> e: this.databaseFrequencies.entrySet()) {
+			HdpsCode code = e.getKey();
+			if (code.numUniqueOccurrences != e.getValue().intValue())
+				this.hdps.getEvents().note(
+						"NOTE: hd-PS dimension %s code %s has %d patients in the database, but %d were read.  The count read is used.",
+						this.dimensionDescription, code.codeString, 
+						e.getValue(), code.numUniqueOccurrences);
+		}
+		this.databaseFrequencies = null;
+		
+		this.hdps.getEvents().note(
+				"NOTE: hd-PS dimension %s read %d of %d rows after filtering codes for prevalence in the database.",
+				this.dimensionDescription, this.numRowsRead, this.numDatabaseRows);
+		this.numRowsRead = this.numDatabaseRows;
+		
+		if (this.hdps.inferServiceIntensityVars == 1) 
+			this.readPatientCodeCountsFromDatabase();
+	}
+	
+	private void readPatientCodeCountsFromDatabase()
+	throws Exception
+	{
+		HdpsLocalPatientController localPatientController = 
+			(HdpsLocalPatientController) this.patientController;
+		
+		this.numPatientCodes.clear();
+		Connection connection = ((DatabaseRowReader) this.reader).createConnection();
+		try {
+			Statement s = connection.createStatement();
+			ResultSet r = s.executeQuery(String.format(
+					"SELECT * FROM (%s) D WHERE 1=0", this.databaseQuery));
+			ResultSetMetaData metaData = r.getMetaData();
+			String patientIdField = metaData.getColumnName(patientColumn + 1);
+			String codeField = metaData.getColumnName(codeColumn + 1);
+			String codeCondition = getNotEmptyCondition("D." + codeField, 
+					metaData.getColumnType(codeColumn + 1));
+			r.close();
+			
+			r = s.executeQuery(String.format(
+					"SELECT D.%s, COUNT(*), COUNT(DISTINCT D.%s) " +
+					"FROM (%s) D " +
+					"WHERE %s " +
+					"GROUP BY D.%s",
+					patientIdField,
+					codeField,
+					this.databaseQuery,
+					codeCondition,
+					patientIdField));
+			while (r.next()) {
+				String patientId = r.getString(1);
+				if ((patientId != null) && (localPatientController.getPatientNumber(patientId) >= 0))
+					this.addPatientCodeCounts(patientId, r.getInt(2), r.getInt(3));
+			}
+			r.close();
+			s.close();
+		} finally {
+			connection.close();
+		}
+	}
+	
+	/*
+	 * Rows with a null or, for character columns, empty value are skipped when read.
+	 */
+	private static String getNotEmptyCondition(String field, int sqlType)
+	{
+		switch (sqlType) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				return String.format("(%s IS NOT NULL AND %s <> '')", field, field);
+			default:
+				return String.format("%s IS NOT NULL", field);
+		}
+	}
+
+	protected void createServiceIntensityVariables(boolean uniqueOnly) 
+	throws Exception
+	{
+		HdpsLocalPatientController localPatientController = 
+			(HdpsLocalPatientController) this.patientController;
+
 		Integer freq[] = new Integer[this.numPatientCodes.size()];
 
 		int i = 0;
@@ -184,11 +579,12 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 			quartileCodes[i].codeString = codeString;
 			quartileCodes[i].dimension = this;
 			quartileCodes[i].considerForPs = true;
+			this.numberCode(quartileCodes[i]);
 			codeMap.put(quartileCodes[i].codeString, quartileCodes[i]);			
 		}
 		
 		for (Map.Entry<String,NumPatientCodesStore> e: this.numPatientCodes.entrySet()) {
-			HdpsPatient patient = this.hdpsController.getPatientDatabase().get(e.getKey());
+			int patientNumber = localPatientController.getPatientNumber(e.getKey());
 			int f = 0;
 			if (uniqueOnly == true)
 				f = e.getValue().numUniquePatientCodes;
@@ -201,17 +597,16 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 				
 				if ((f > quartileMin) && (f <= quartileMax)) {
 					// Make a code patient link
-					String cplId = HdpsCodePatientLink.generateId(quartileCodes[j], patient);
+					long cplId = HdpsCodePatientLink.generateId(quartileCodes[j], patientNumber);
 					
 					HdpsCodePatientLink codePatientLink = new HdpsCodePatientLink();
 					codePatientLink.id = cplId;
-					codePatientLink.patientId = patient.id;
-					codePatientLink.codeId = quartileCodes[j].id;
 					codePatientLink.intensityVarValue = 1;
 					this.hdpsController.getCodePatientLinkDatabase().put(codePatientLink);
+					this.numCodePatientLinks++;
 					
 					HdpsVariable var = quartileCodes[j].getVariableByType(HdpsVariable.VAR_TYPE_SERVICE_INTENSITY);
-					this.updateVarCounts(var, codePatientLink.intensityVarValue, patient);
+					this.updateVarCounts(var, codePatientLink.intensityVarValue, patientNumber);
 				}
 			}
 		}
@@ -241,10 +636,10 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 		// use primary keys in order to call update() rather than put() below.
 		// a bit of a hack.
 		EntityCursor<HdpsCodePatientLink> cursor = 
-			HdpsCodePatientLink.getCursorForCodeId(this.hdpsController, code.id);
+			HdpsCodePatientLink.getCursorForCode(this.hdpsController, code);
 		
 		for (HdpsCodePatientLink codePatientLink: cursor) {
-			HdpsPatient patient = this.hdpsController.getPatientDatabase().get(codePatientLink.patientId);
+			int patientNumber = codePatientLink.getPatientNumber();
 
 			boolean setOnceVar = (codePatientLink.numOccurrences >= 1);
 			boolean setSporadicVar = (codePatientLink.numOccurrences >= code.median);
@@ -268,163 +663,87 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 			if (setOnceVar) 
 				codePatientLink.onceVarValue = HdpsVariable.valueOne;
 			
-			this.updateVarCounts(code.vars[HdpsCode.kOnceVarIndex], codePatientLink.onceVarValue, patient);
-			this.updateVarCounts(code.vars[HdpsCode.kSporadicVarIndex], codePatientLink.sporadicVarValue, patient);
-			this.updateVarCounts(code.vars[HdpsCode.kFrequentVarIndex], codePatientLink.frequentVarValue, patient);
+			this.updateVarCounts(code.vars[HdpsCode.kOnceVarIndex], codePatientLink.onceVarValue, patientNumber);
+			this.updateVarCounts(code.vars[HdpsCode.kSporadicVarIndex], codePatientLink.sporadicVarValue, patientNumber);
+			this.updateVarCounts(code.vars[HdpsCode.kFrequentVarIndex], codePatientLink.frequentVarValue, patientNumber);
 			
 			cursor.update(codePatientLink);
 		}
 		cursor.close();
 	}
 	
-	private void updateVarCounts(HdpsVariable var, int value, HdpsPatient patient) 
+	private void updateVarCounts(HdpsVariable var, int value, int patientNumber) 
 	{
-		if (value == HdpsVariable.valueZero)
-			return;
-		
-		// this is a running total until the end, when it's
-		// divided by c1
-		var.c1MeanOutcome += patient.outcomeContinuous;
-		
-		var.c1NumEvents += patient.outcomeCount;
-		
-		if (value == HdpsVariable.valueOne)
-			var.pt_c1 += patient.followUpTime;
-		
-		if (patient.exposed) {
-			if (value == HdpsVariable.valueMissing)
-				var.e1Missing++;
-			else if (value == HdpsVariable.valueOne) 
-				var.e1c1++;
-		} else {
-			if (value == HdpsVariable.valueMissing)
-				var.e0Missing++;
-			else if (value == HdpsVariable.valueOne)
-				var.e0c1++;
-		}
-
-		if (patient.outcomeDichotomous) {
-			if (value == HdpsVariable.valueMissing)
-				var.d1Missing++;
-			else if (value == HdpsVariable.valueOne)
-				var.d1c1++;
-		} else {
-			if (value == HdpsVariable.valueMissing)
-				var.d0Missing++;
-			else if (value == HdpsVariable.valueOne)
-				var.d0c1++;
-		}
+		HdpsPatientTable patients = this.hdpsController.getPatientTable();
+		HdpsBiasCalculator.addPatient(var, value, 1, this.hdpsController.isPatientExposed(patientNumber), 
+				patients.isOutcome(patientNumber), 
+				patients.getOutcomeContinuous(patientNumber), patients.getOutcomeCount(patientNumber), 
+				patients.getFollowUpTime(patientNumber));
 	}
 
-	protected void calculateBias(HdpsCode code) throws ClassNotFoundException {
-		double nTotal = (double) this.hdpsController.getNumPatients();
-		double ptTotal = (double) this.patientController.ptTotal;
-		double e1Total = (double) this.patientController.nExposed;
-		double ptExposed = (double) this.patientController.ptExposed;
-		double e0Total = nTotal - e1Total;
-		double d1Total = (double) this.patientController.nOutcome;
-		double d0Total = nTotal - d1Total;
-		double sumOfOutcomes = this.patientController.sumOfOutcomes;
-		double numEvents = this.patientController.numEvents;
+	protected void calculateBias(HdpsCode code) {
+		HdpsBiasCalculator calculator = new HdpsBiasCalculator(this.hdpsController);
 
-		for (HdpsVariable var: code.vars) { 
-			var.bias = 0;
-			var.nMissing = var.e1Missing + var.e0Missing;
-			var.N = nTotal - var.nMissing;
-
-			var.e1 = e1Total - var.e1Missing;
-			var.e1c0 = var.e1 - var.e1c1;
-
-			var.e0 = e0Total - var.e0Missing;
-			var.e0c0 = var.e0 - var.e0c1;
-
-			var.d1 = d1Total - var.d1Missing;
-			var.d1c0 = var.d1 - var.d1c1;
-
-			var.d0 = d0Total - var.d0Missing;
-			var.d0c0 = var.d0 - var.d0c1;
+		for (HdpsVariable var: code.vars) 
+			calculator.calculateBias(var);
+	}
 
-			var.c1 = var.e1c1 + var.e0c1;
-			var.c0 = var.N - var.c1;
-			
-			var.pt = ptTotal;
-			var.pt_e1 = ptExposed;
-			var.pt_e0 = ptTotal - ptExposed;
-			var.pt_c0 = ptTotal - var.pt_c1;
+	/**
+	 * Recalculate the statistics of every candidate variable for the patients in the 
+	 * controller's current exposure contrast.  Variable values are those already set 
+	 * for all patients; only the tallies are redone.
+	 */
+	public void calculateContrastBias() 
+	throws Exception
+	{
+		for (HdpsCode code: this.codeMap.values()) {
+			if (! code.considerForPs)
+				continue;
 			
-			var.numEvents = numEvents;
-			var.c0NumEvents = numEvents - var.c1NumEvents;
+			for (HdpsVariable var: code.vars)
+				var.resetCounts();
 			
-			// so far, these are running totals.  divide to get means.
-			var.meanOutcome = sumOfOutcomes / nTotal;
-			if (var.c1 > 0)
-				var.c1MeanOutcome = var.c1MeanOutcome / var.c1;
-			else
-				var.c1MeanOutcome = -1;
-			if (var.c0 > 0)
-				var.c0MeanOutcome = (((var.meanOutcome * nTotal) - (var.c1MeanOutcome * var.c1)) / var.c0);
-			else
-				var.c0MeanOutcome = -1;
-
-			try {
-				if (var.e1 > 0)
-					var.pc_e1 = var.e1c1 / var.e1;
-				else
-					var.pc_e1 = 0;
-				
-				if (var.e0 > 0)
-					var.pc_e0 = var.e0c1 / var.e0;
-				else
-					var.pc_e0 = 0;
+			EntityCursor<HdpsCodePatientLink> cursor = 
+				HdpsCodePatientLink.getCursorForCode(this.hdpsController, code);
+			for (HdpsCodePatientLink codePatientLink: cursor) {
+				int patientNumber = codePatientLink.getPatientNumber();
+				if (! this.hdpsController.isPatientIncluded(patientNumber))
+					continue;
 				
-				if (var.pc_e1 > 0.5)
-					var.pc_e1 = 1.0 - var.pc_e1;
-				if (var.pc_e0 > 0.5)
-					var.pc_e0 = 1.0 - var.pc_e0;
-				
-				// set default values, in case anything in here fails
-				// !!! better to do this in HdpsVariable?
-				var.rrCe = HdpsVariable.INVALID;
-				var.expAssocRankingVariable = HdpsVariable.INVALID;
-				var.rrCd = HdpsVariable.INVALID;
-				var.bias = HdpsVariable.INVALID;
-				var.biasRankingVariable = HdpsVariable.INVALID;
-				var.outcomeAssocRankingVariable = HdpsVariable.INVALID;
-				
-				if ((var.pc_e0 > 0) && (var.pc_e1 > 0)) {
-					var.rrCe = var.pc_e1 / var.pc_e0;
-					var.expAssocRankingVariable = Math.abs(Math.log(var.rrCe));
-				} 
-
-				if ((this.hdpsController.outcomeIsDichotomous()) ||
-						(this.hdpsController.outcomeIsCount()))
-				{
-					if (this.hdps.useOutcomeZeroCellCorrection == 1)
-						var.rrCd = (((var.c1NumEvents + 0.1) / (var.pt_c1 + 0.1)) / ((var.c0NumEvents + 0.1) / (var.pt_c0 + 0.1)));
-					else if ((var.c1NumEvents > 0) && (var.pt_c1 > 0) && (var.c0NumEvents > 0) &&
-							 (var.pt_c0 > 0))
-						var.rrCd = ((var.c1NumEvents / var.pt_c1) / (var.c0NumEvents / var.pt_c0));
-					
-					if ((var.rrCd > 0) && (var.rrCd < 1))
-						var.rrCd = 1 / var.rrCd;
+				for (HdpsVariable var: code.vars) {
+					int value = HdpsVariable.valueZero;
+					if (var.isTypeOnce()) 
+						value = codePatientLink.onceVarValue;
+					else if (var.isTypeSporadic()) 
+						value = codePatientLink.sporadicVarValue;
+					else if (var.isTypeFrequent()) 
+						value = codePatientLink.frequentVarValue;
+					else if (var.isTypeServiceIntensity()) 
+						value = codePatientLink.intensityVarValue;
 					
-					if (var.rrCd > 0) 
-						var.outcomeAssocRankingVariable = Math.abs(Math.log(var.rrCd));
-					
-				} else if (this.hdpsController.outcomeIsContinuous()) {
-					var.rrCd = var.c1MeanOutcome - var.c0MeanOutcome;
-					var.outcomeAssocRankingVariable = Math.abs(var.rrCd);
-				}
-				
-				if ((var.pc_e0 > 0) && (var.pc_e1 > 0) && (var.rrCd > 0)) {
-					double biasA = var.pc_e1 * (var.rrCd - 1.0) + 1.0;
-					double biasB = var.pc_e0 * (var.rrCd - 1.0) + 1.0;
-					var.bias = biasA / biasB;
-					var.biasRankingVariable = Math.abs(Math.log(var.bias));
+					this.updateVarCounts(var, value, patientNumber);
 				}
-			} catch (ArithmeticException e) {
-				// already set defaults to INVALID
 			}
+			cursor.close();
+			
+			calculateBias(code);
+		}
+	}
+
+	/**
+	 * Add the keys of all links to codes being considered for the PS to the table.
+	 */
+	public void addLinksToTable(HdpsPatientLinkTable table) 
+	{
+		for (HdpsCode code: this.codeMap.values()) {
+			if (! code.considerForPs)
+				continue;
+			
+			EntityCursor<Long> cursor = 
+				HdpsCodePatientLink.getKeyCursorForCode(this.hdpsController, code);
+			for (Long id: cursor)
+				table.add(id);
+			cursor.close();
 		}
 	}
 
@@ -449,6 +768,10 @@ public class HdpsLocalDimensionController extends HdpsDimensionController {
 		// not yet implemented -- necessary? 
 	}
 
+	public int getNumDistinctCodes() {
+		return this.codeMap.size();
+	}
+
 	public synchronized Map<String, HdpsVariable> getVariablesToConsider()
 	throws Exception 
 	{
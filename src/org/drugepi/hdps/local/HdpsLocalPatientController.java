@@ -5,17 +5,25 @@
  */
 package org.drugepi.hdps.local;
 
+import java.util.*;
+
 import org.drugepi.hdps.*;
 import org.drugepi.hdps.storage.HdpsPatient;
+import org.drugepi.util.Utils;
 
 public class HdpsLocalPatientController extends HdpsPatientController
 {
 	public HdpsLocalController hdpsController;
 	
+	// patients are held in memory, numbered in patient ID order.  numbers 
+	// are the low half of code-patient link keys.
+	private HdpsPatientTable patientTable;
+	
 	public HdpsLocalPatientController(Hdps hdps, HdpsLocalController hdpsController)
     {
     	super(hdps);
     	this.hdpsController = hdpsController;
+    	this.patientTable = new HdpsPatientTable(new ArrayList<HdpsPatient>());
     }
 
 	public void readPatients()
@@ -28,15 +36,27 @@ public class HdpsLocalPatientController extends HdpsPatientController
         nExposed = 0;
         nOutcome = 0;
         int n = 0;
+        boolean useWindow = (this.hdps.useAssessmentWindow == 1);
+        boolean useContrasts = (this.hdps.getExposureContrasts().size() > 0);
+        List<HdpsPatient> patientsRead = new ArrayList<HdpsPatient>();
+        Set<String> idsRead = new HashSet<String>();
+        if ((useWindow) && (reader.getNumColumns() <= INDEX_DATE_COLUMN_NUM))
+        	throw new HdpsException("An assessment window was specified, but the patient data has no index date column.");
+        
         while ((row = reader.getNextRow()) != null) {
             String key = row[KEY_COLUMN_NUM];
-            HdpsPatient patient = this.hdpsController.getPatientDatabase().get(key);
-            if (patient == null) {
+            if (! idsRead.contains(key)) {
+            	HdpsPatient patient = null;
             	try {
 	            	patient = new HdpsPatient(this.hdps.getNumDimensions());
 	            	n++;
 	            	patient.id = key;
-	            	patient.exposed = (Integer.parseInt(row[EXPOSED_COLUMN_NUM]) != 0); 
+	            	if (useContrasts) {
+	            		// exposure is set for each contrast from the exposure level
+	            		patient.exposureLevel = row[EXPOSED_COLUMN_NUM].trim();
+	            		patient.exposed = false;
+	            	} else
+	            		patient.exposed = (Integer.parseInt(row[EXPOSED_COLUMN_NUM]) != 0); 
 	            	patient.outcomeDichotomous = (Integer.parseInt(row[OUTCOME_COLUMN_NUM]) != 0);
 	            	patient.outcomeCount = (Integer.parseInt(row[OUTCOME_COLUMN_NUM]));
 	            	patient.outcomeContinuous = Double.parseDouble(row[OUTCOME_COLUMN_NUM]);
@@ -44,6 +64,11 @@ public class HdpsLocalPatientController extends HdpsPatientController
 	            		patient.followUpTime = Integer.parseInt(row[TIME_COLUMN_NUM]);
 	            	else
 	            		patient.followUpTime = 1;
+	            	if (useWindow) {
+	            		patient.indexDate = Utils.parseInputDate(row[INDEX_DATE_COLUMN_NUM]);
+	            		if (patient.indexDate == Utils.MISSING_DATE)
+	            			throw new HdpsException("Missing index date.");
+	            	}
             	} catch (Exception e) {
             		throw new HdpsException("Failed to read patient information.  Check formatting and content of patient file.");
             	}
@@ -58,20 +83,66 @@ public class HdpsLocalPatientController extends HdpsPatientController
             	numEvents += patient.outcomeCount;
             	if (patient.outcomeDichotomous) nOutcome++;
 
-            	this.hdpsController.getPatientDatabase().put(patient);
+            	idsRead.add(patient.id);
+            	patientsRead.add(patient);
             }
         }
         if (n== 0)
         	throw new HdpsException("No patients read.");
 
         this.setNumPatients(n);
+        this.patientTable = new HdpsPatientTable(patientsRead);
         
         reader.close();
-        System.out.printf("NOTE: hd-PS patient read finished.  %d rows read.", 
+        this.hdps.getEvents().rowsProcessed("patients", n);
+        this.hdps.getEvents().note("NOTE: hd-PS patient read finished.  %d rows read.", 
         		this.hdpsController.getNumPatients());
-        System.out.println("");
     }
 	
+	/**
+	 * @return		The patients read.  The table is shared, read-only, by all 
+	 * 				dimension controllers.
+	 */
+	public HdpsPatientTable getPatientTable()
+	{
+		return this.patientTable;
+	}
+	
+	/**
+	 * @param patientId		A patient ID.
+	 * @return				The patient's number, or -1 if the patient is unknown.
+	 */
+	public int getPatientNumber(String patientId)
+	{
+		return this.patientTable.getPatientNumber(patientId);
+	}
+	
+	/**
+	 * @param patientNumber		A patient number.
+	 * @return					The patient's ID.
+	 */
+	public String getPatientId(int patientNumber)
+	{
+		return this.patientTable.getPatientId(patientNumber);
+	}
+	
+	/**
+	 * @return		The number of patients read, which is one more than the highest 
+	 * 				patient number.
+	 */
+	public int getNumPatientsRead()
+	{
+		return this.patientTable.getNumPatients();
+	}
+	
+	/**
+	 * @return		Index dates, by patient number.
+	 */
+	public int[] getIndexDates()
+	{
+		return this.patientTable.getIndexDates();
+	}
+	
 	public void closeController() 
 	throws Exception
 	{
@@ -0,0 +1,103 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.local;
+
+import java.util.Arrays;
+
+import org.drugepi.hdps.storage.HdpsCodePatientLink;
+
+/**
+ * In-memory table of code-patient link keys grouped by patient, replacing a secondary
+ * index on patient.  Keys are added in any order; {@link #finish()} groups them by
+ * patient number with a counting sort.  A patient's keys are then the entries from
+ * {@link #getStart(int)} up to {@link #getEnd(int)}, and the links themselves are read
+ * from the link database by primary key.
+ * <p>
+ * Memory use is 8 bytes per key plus 4 bytes per patient.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsPatientLinkTable {
+	private int numPatients;
+	private long[] linkIds;
+	private int size;
+	private int[] patientStarts;
+
+	/**
+	 * @param numPatients	Number of patients; patient numbers run from 0 to numPatients - 1.
+	 */
+	public HdpsPatientLinkTable(int numPatients)
+	{
+		this.numPatients = numPatients;
+		this.linkIds = new long[1024];
+		this.size = 0;
+		this.patientStarts = null;
+	}
+
+	/**
+	 * Add a link key.  Must be called before {@link #finish()}.
+	 */
+	public void add(long linkId)
+	{
+		if (this.size == this.linkIds.length)
+			this.linkIds = Arrays.copyOf(this.linkIds, this.linkIds.length * 2);
+
+		this.linkIds[this.size++] = linkId;
+	}
+
+	/**
+	 * Group the keys by patient.  Keys for the same patient keep the order in which
+	 * they were added.
+	 */
+	public void finish()
+	{
+		this.patientStarts = new int[this.numPatients + 1];
+		for (int i = 0; i < this.size; i++)
+			this.patientStarts[HdpsCodePatientLink.getPatientNumber(this.linkIds[i]) + 1]++;
+		for (int p = 0; p < this.numPatients; p++)
+			this.patientStarts[p + 1] += this.patientStarts[p];
+
+		int[] next = Arrays.copyOf(this.patientStarts, this.numPatients);
+		long[] sorted = new long[this.size];
+		for (int i = 0; i < this.size; i++)
+			sorted[next[HdpsCodePatientLink.getPatientNumber(this.linkIds[i])]++] = this.linkIds[i];
+
+		this.linkIds = sorted;
+	}
+
+	/**
+	 * @return	Position of the patient's first key.
+	 */
+	public int getStart(int patientNumber)
+	{
+		return this.patientStarts[patientNumber];
+	}
+
+	/**
+	 * @return	Position following the patient's last key.
+	 */
+	public int getEnd(int patientNumber)
+	{
+		return this.patientStarts[patientNumber + 1];
+	}
+
+	/**
+	 * @return	The key at the specified position.
+	 */
+	public long getLinkId(int position)
+	{
+		return this.linkIds[position];
+	}
+
+	/**
+	 * @return	The number of keys in the table.
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+}
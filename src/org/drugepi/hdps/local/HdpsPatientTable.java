@@ -0,0 +1,130 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.local;
+
+import java.util.*;
+
+import org.drugepi.hdps.storage.HdpsPatient;
+import org.drugepi.hdps.storage.comparators.HdpsPatientComparator;
+
+/**
+ * In-memory, column-oriented table of patient information.  Patients are numbered in
+ * patient ID order, and each attribute is held in a primitive array or bit set indexed
+ * by patient number.  The table is built once, after all patients are read, and is
+ * not modified afterwards, so it can be read by any number of threads.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsPatientTable {
+	private int numPatients;
+	private String[] ids;
+	private Map<String, Integer> numbers;
+
+	private BitSet exposed;
+	private String[] exposureLevels;
+	private BitSet outcomeDichotomous;
+	private int[] outcomeCount;
+	private double[] outcomeContinuous;
+	private int[] followUpTime;
+	private int[] indexDates;
+
+	/**
+	 * @param patients	The patients, in any order.  Patient IDs must be unique.
+	 */
+	public HdpsPatientTable(List<HdpsPatient> patients)
+	{
+		List<HdpsPatient> sorted = new ArrayList<HdpsPatient>(patients);
+		Collections.sort(sorted, new HdpsPatientComparator());
+
+		this.numPatients = sorted.size();
+		this.ids = new String[this.numPatients];
+		this.numbers = new HashMap<String, Integer>(this.numPatients * 2);
+		this.exposed = new BitSet(this.numPatients);
+		this.exposureLevels = new String[this.numPatients];
+		this.outcomeDichotomous = new BitSet(this.numPatients);
+		this.outcomeCount = new int[this.numPatients];
+		this.outcomeContinuous = new double[this.numPatients];
+		this.followUpTime = new int[this.numPatients];
+		this.indexDates = new int[this.numPatients];
+
+		for (int i = 0; i < this.numPatients; i++) {
+			HdpsPatient patient = sorted.get(i);
+
+			this.ids[i] = patient.id;
+			this.numbers.put(patient.id, i);
+			this.exposed.set(i, patient.exposed);
+			// there are only a few distinct levels
+			if (patient.exposureLevel != null)
+				this.exposureLevels[i] = patient.exposureLevel.intern();
+			this.outcomeDichotomous.set(i, patient.outcomeDichotomous);
+			this.outcomeCount[i] = patient.outcomeCount;
+			this.outcomeContinuous[i] = patient.outcomeContinuous;
+			this.followUpTime[i] = patient.followUpTime;
+			this.indexDates[i] = patient.indexDate;
+		}
+	}
+
+	public int getNumPatients()
+	{
+		return this.numPatients;
+	}
+
+	/**
+	 * @return	The patient's number, or -1 if the patient is unknown.
+	 */
+	public int getPatientNumber(String patientId)
+	{
+		Integer num = this.numbers.get(patientId);
+		return (num == null ? -1 : num.intValue());
+	}
+
+	public String getPatientId(int patientNumber)
+	{
+		return this.ids[patientNumber];
+	}
+
+	public boolean isExposed(int patientNumber)
+	{
+		return this.exposed.get(patientNumber);
+	}
+
+	/**
+	 * @return	The patient's exposure level, or null if exposure contrasts are not in use.
+	 */
+	public String getExposureLevel(int patientNumber)
+	{
+		return this.exposureLevels[patientNumber];
+	}
+
+	public boolean isOutcome(int patientNumber)
+	{
+		return this.outcomeDichotomous.get(patientNumber);
+	}
+
+	public int getOutcomeCount(int patientNumber)
+	{
+		return this.outcomeCount[patientNumber];
+	}
+
+	public double getOutcomeContinuous(int patientNumber)
+	{
+		return this.outcomeContinuous[patientNumber];
+	}
+
+	public int getFollowUpTime(int patientNumber)
+	{
+		return this.followUpTime[patientNumber];
+	}
+
+	/**
+	 * @return	Index dates, by patient number.
+	 */
+	public int[] getIndexDates()
+	{
+		return this.indexDates;
+	}
+}
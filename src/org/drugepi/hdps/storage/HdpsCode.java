@@ -18,6 +18,8 @@ public class HdpsCode {
     public String codeType;
 	public String codeString;
 	public HdpsDimensionController dimension;
+	// dimension-local code number, used in code-patient link keys (LOCAL mode only)
+	public int number;
     public boolean considerForPs;
     public boolean usedInPs;
     public double prevalence = -1;
@@ -5,65 +5,88 @@
  */
 package org.drugepi.hdps.storage;
 
-import static com.sleepycat.persist.model.Relationship.MANY_TO_ONE;
-
 import org.drugepi.hdps.local.HdpsLocalController;
 
 import com.sleepycat.persist.EntityCursor;
 import com.sleepycat.persist.model.*;
 
 
+/**
+ * A code's occurrence in one patient.  Links are keyed by a single long:  the code key
+ * (dimension ID and dimension-local code number) in the high 32 bits and the patient number
+ * in the low 32 bits.  All of a code's links are therefore one numeric key range,
+ * in patient number order.
+ */
 @Entity
 public class HdpsCodePatientLink {
 //    public HdpsPatient patient;
 //	public Map<Class<?>, HdpsVarEntry> patientVarEntries;
 
 	@PrimaryKey
-	public String id;
-	
-	@SecondaryKey(relate=MANY_TO_ONE)
-	public String patientId;
-
-	@SecondaryKey(relate=MANY_TO_ONE)
-	public String codeId;
-	
+	public long id;
+
 	public int numOccurrences;
-	
+
 	public int onceVarValue;
 	public int sporadicVarValue;
 	public int frequentVarValue;
 	public int anyVarValue;
 	public int intensityVarValue;
 
+	// the code key holds the dimension ID above the code number
+	private static final int DIMENSION_SHIFT = 24;
+
+	/**
+	 * Largest code number that can be held in a key.
+	 */
+	public static final int MAX_CODE_NUMBER = (1 << DIMENSION_SHIFT) - 1;
+
 	public HdpsCodePatientLink() {
     	super();
     }
 
-	public String getId()
+	public int getPatientNumber()
 	{
-		return(this.codeId + "|" + this.patientId);
+		return(getPatientNumber(this.id));
 	}
-	
-	public static String generateId(HdpsCode code, HdpsPatient patient) {
-		return(code.id + "|" + patient.id);
+
+	public static long getCodeKey(HdpsCode code) {
+		return((((long) code.dimension.dimensionId) << DIMENSION_SHIFT) | code.number);
 	}
-	
-	// get all records whose id starts with the code id
-	// may screw up if code id's aren't the first part of the key
-	// hack.
-	public static EntityCursor<HdpsCodePatientLink> getCursorForCodeId(HdpsLocalController hdps, String codeId)
+
+	public static long getCodeKey(long id) {
+		return(id >>> 32);
+	}
+
+	public static int getPatientNumber(long id) {
+		return((int) id);
+	}
+
+	public static long generateId(HdpsCode code, int patientNumber) {
+		return((getCodeKey(code) << 32) | (patientNumber & 0xFFFFFFFFL));
+	}
+
+	// get all records for the code:  a range scan over every patient number
+	public static EntityCursor<HdpsCodePatientLink> getCursorForCode(HdpsLocalController hdps, HdpsCode code)
 	{
-		// get all everything that begins with the noted code id
-		// \u007e is the last ascii character
+		long first = generateId(code, 0);
 		return(hdps.getCodePatientLinkDatabase().entities(
-				codeId + "|", false, codeId + "|\u007e", true));
+				first, true, first | 0xFFFFFFFFL, true));
 	}
-	
+
+	// as above, but keys only
+	public static EntityCursor<Long> getKeyCursorForCode(HdpsLocalController hdps, HdpsCode code)
+	{
+		long first = generateId(code, 0);
+		return(hdps.getCodePatientLinkDatabase().keys(
+				first, true, first | 0xFFFFFFFFL, true));
+	}
+
     public int getValueForVarType(String type)
     {
     	if (type.equals(HdpsVariable.VAR_TYPE_ONCE))
     		return this.onceVarValue;
-    	
+
     	if (type.equals(HdpsVariable.VAR_TYPE_SPORADIC))
     		return this.sporadicVarValue;
 
@@ -12,10 +12,12 @@ public class HdpsPatient implements Comparable<HdpsPatient> {
 	@PrimaryKey
 	public String id;
 	public boolean exposed;
+	public String exposureLevel;
 	public boolean outcomeDichotomous;
 	public int outcomeCount;
 	public double outcomeContinuous;
 	public int followUpTime;
+	public int indexDate;
 	
 	public HdpsPatient() {
 		this(0);
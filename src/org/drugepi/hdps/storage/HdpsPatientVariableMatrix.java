@@ -0,0 +1,241 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.hdps.storage;
+
+import java.util.*;
+
+/**
+ * Sparse patient-by-variable matrix held in memory.  Rows are patients, in the
+ * order added; only non-zero values are stored.  Values are stored row by row
+ * (compressed sparse row format): the entries for patient <i>i</i> are at
+ * positions <code>rowStarts[i]</code> through <code>rowStarts[i + 1] - 1</code>
+ * of <code>columnIndices</code> and <code>values</code>.
+ * <p>
+ * When every stored value is 1, as with hd-PS binary variables,
+ * <code>values</code> is null.  Missing hd-PS variable values, when included, are 
+ * stored as {@link HdpsVariable#valueMissing}.
+ * <p>
+ * A column-by-column copy of the entries can be built with {@link #buildColumnIndex()}
+ * for algorithms that work one variable at a time.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class HdpsPatientVariableMatrix {
+	public int numPatients;
+	public int numColumns;
+	public int numEntries;
+
+	public String[] patientIds;
+	public boolean[] exposed;
+	public boolean[] outcome;
+	public double[] outcomeContinuous;
+	public int[] outcomeCount;
+	public int[] followUpTime;
+	public String[] columnNames;
+
+	public int[] rowStarts;
+	public int[] columnIndices;
+	public double[] values;
+
+	public int[] columnStarts;
+	public int[] rowIndices;
+	public double[] columnValues;
+
+	private boolean finished;
+
+	/**
+	 * Create an empty matrix.  Patients are then added with {@link #addPatient(String, boolean, boolean)}
+	 * and each patient's values with {@link #addValue(int, double)}.
+	 *
+	 * @param columnNames		Names of the columns (variables).
+	 * @param expectedPatients	Expected number of patients; used to size internal storage.
+	 */
+	public HdpsPatientVariableMatrix(String[] columnNames, int expectedPatients)
+	{
+		int capacity = Math.max(expectedPatients, 16);
+
+		this.columnNames = columnNames;
+		this.numColumns = columnNames.length;
+		this.numPatients = 0;
+		this.numEntries = 0;
+		this.patientIds = new String[capacity];
+		this.exposed = new boolean[capacity];
+		this.outcome = new boolean[capacity];
+		this.outcomeContinuous = new double[capacity];
+		this.outcomeCount = new int[capacity];
+		this.followUpTime = new int[capacity];
+		this.rowStarts = new int[capacity + 1];
+		this.columnIndices = new int[capacity * 4];
+		this.values = null;
+		this.finished = false;
+	}
+
+	/**
+	 * Start a new row for the specified patient, with a dichotomous outcome and 
+	 * follow-up time of 1.
+	 */
+	public void addPatient(String patientId, boolean isExposed, boolean isOutcome)
+	{
+		int outcomeValue = (isOutcome ? 1 : 0);
+		this.addPatient(patientId, isExposed, isOutcome, outcomeValue, outcomeValue, 1);
+	}
+
+	/**
+	 * Start a new row for the specified patient.
+	 */
+	public void addPatient(String patientId, boolean isExposed, boolean isOutcome, 
+			double patientOutcomeContinuous, int patientOutcomeCount, int patientFollowUpTime)
+	{
+		if (this.numPatients == this.patientIds.length) {
+			int capacity = this.patientIds.length * 2;
+			this.patientIds = Arrays.copyOf(this.patientIds, capacity);
+			this.exposed = Arrays.copyOf(this.exposed, capacity);
+			this.outcome = Arrays.copyOf(this.outcome, capacity);
+			this.outcomeContinuous = Arrays.copyOf(this.outcomeContinuous, capacity);
+			this.outcomeCount = Arrays.copyOf(this.outcomeCount, capacity);
+			this.followUpTime = Arrays.copyOf(this.followUpTime, capacity);
+			this.rowStarts = Arrays.copyOf(this.rowStarts, capacity + 1);
+		}
+
+		this.patientIds[this.numPatients] = patientId;
+		this.exposed[this.numPatients] = isExposed;
+		this.outcome[this.numPatients] = isOutcome;
+		this.outcomeContinuous[this.numPatients] = patientOutcomeContinuous;
+		this.outcomeCount[this.numPatients] = patientOutcomeCount;
+		this.followUpTime[this.numPatients] = patientFollowUpTime;
+		this.numPatients++;
+		this.rowStarts[this.numPatients] = this.numEntries;
+	}
+
+	/**
+	 * Add a value for the most recently added patient.  Zero values are not stored.
+	 */
+	public void addValue(int column, double value)
+	{
+		if (value == 0)
+			return;
+
+		if (this.numEntries == this.columnIndices.length) {
+			int capacity = this.columnIndices.length * 2;
+			this.columnIndices = Arrays.copyOf(this.columnIndices, capacity);
+			if (this.values != null)
+				this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		// values are only stored once a value other than 1 is seen
+		if ((value != 1) && (this.values == null)) {
+			this.values = new double[this.columnIndices.length];
+			Arrays.fill(this.values, 0, this.numEntries, 1);
+		}
+
+		this.columnIndices[this.numEntries] = column;
+		if (this.values != null)
+			this.values[this.numEntries] = value;
+		this.numEntries++;
+		this.rowStarts[this.numPatients] = this.numEntries;
+	}
+
+	/**
+	 * Trim internal storage once all patients have been added.
+	 */
+	public void finish()
+	{
+		if (this.finished)
+			return;
+
+		this.patientIds = Arrays.copyOf(this.patientIds, this.numPatients);
+		this.exposed = Arrays.copyOf(this.exposed, this.numPatients);
+		this.outcome = Arrays.copyOf(this.outcome, this.numPatients);
+		this.outcomeContinuous = Arrays.copyOf(this.outcomeContinuous, this.numPatients);
+		this.outcomeCount = Arrays.copyOf(this.outcomeCount, this.numPatients);
+		this.followUpTime = Arrays.copyOf(this.followUpTime, this.numPatients);
+		this.rowStarts = Arrays.copyOf(this.rowStarts, this.numPatients + 1);
+		this.columnIndices = Arrays.copyOf(this.columnIndices, this.numEntries);
+		if (this.values != null)
+			this.values = Arrays.copyOf(this.values, this.numEntries);
+		this.finished = true;
+	}
+
+	/**
+	 * @return	The value at entry position <code>entry</code>.
+	 */
+	public double getEntryValue(int entry)
+	{
+		return (this.values == null ? 1 : this.values[entry]);
+	}
+
+	/**
+	 * Build the column-by-column (compressed sparse column) copy of the entries.  The entries
+	 * for column <i>j</i> are at positions <code>columnStarts[j]</code> through
+	 * <code>columnStarts[j + 1] - 1</code> of <code>rowIndices</code> and
+	 * <code>columnValues</code>, in patient order.  <code>columnValues</code> is null
+	 * when every stored value is 1.
+	 */
+	public void buildColumnIndex()
+	{
+		if (this.columnStarts != null)
+			return;
+
+		this.finish();
+
+		int[] starts = new int[this.numColumns + 1];
+		for (int entry = 0; entry < this.numEntries; entry++)
+			starts[this.columnIndices[entry] + 1]++;
+		for (int j = 0; j < this.numColumns; j++)
+			starts[j + 1] += starts[j];
+
+		int[] next = Arrays.copyOf(starts, this.numColumns);
+		int[] rows = new int[this.numEntries];
+		double[] vals = (this.values == null ? null : new double[this.numEntries]);
+		for (int i = 0; i < this.numPatients; i++) {
+			for (int entry = this.rowStarts[i]; entry < this.rowStarts[i + 1]; entry++) {
+				int position = next[this.columnIndices[entry]]++;
+				rows[position] = i;
+				if (vals != null)
+					vals[position] = this.values[entry];
+			}
+		}
+
+		this.rowIndices = rows;
+		this.columnValues = vals;
+		this.columnStarts = starts;
+	}
+
+	/**
+	 * Create a new matrix with additional dense columns appended after the existing columns.
+	 *
+	 * @param newColumnNames	Names of the new columns.
+	 * @param newValues			Values of the new columns, by patient ID.  Every patient
+	 * 							in the matrix must have an entry.
+	 * @return					The new matrix.
+	 * @throws IllegalArgumentException	if a patient has no entry in <code>newValues</code>.
+	 */
+	public HdpsPatientVariableMatrix appendColumns(String[] newColumnNames, Map<String, double[]> newValues)
+	{
+		String[] names = new String[this.numColumns + newColumnNames.length];
+		System.arraycopy(this.columnNames, 0, names, 0, this.numColumns);
+		System.arraycopy(newColumnNames, 0, names, this.numColumns, newColumnNames.length);
+
+		HdpsPatientVariableMatrix m = new HdpsPatientVariableMatrix(names, this.numPatients);
+		for (int i = 0; i < this.numPatients; i++) {
+			double[] patientValues = newValues.get(this.patientIds[i]);
+			if (patientValues == null)
+				throw new IllegalArgumentException(
+						String.format("No covariate values found for patient %s.", this.patientIds[i]));
+
+			m.addPatient(this.patientIds[i], this.exposed[i], this.outcome[i], 
+					this.outcomeContinuous[i], this.outcomeCount[i], this.followUpTime[i]);
+			for (int entry = this.rowStarts[i]; entry < this.rowStarts[i + 1]; entry++)
+				m.addValue(this.columnIndices[entry], this.getEntryValue(entry));
+			for (int j = 0; j < newColumnNames.length; j++)
+				m.addValue(this.numColumns + j, patientValues[j]);
+		}
+		m.finish();
+
+		return m;
+	}
+}
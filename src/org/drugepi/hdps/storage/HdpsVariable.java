@@ -6,6 +6,7 @@
 package org.drugepi.hdps.storage;
 
 import java.sql.ResultSet;
+import java.util.Arrays;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.drugepi.util.Utils;
@@ -72,12 +73,20 @@ public class HdpsVariable  {
 	public double biasRankingVariable = 0;
 	public double expAssocRankingVariable = 0;
 	public double outcomeAssocRankingVariable = 0;
+	public double lassoRankingVariable = 0;
 	
 	public double activeRankingVariable = 0;
 	
 	public int zBiasScore = 0;
+	
+	// fraction of stability analysis replicates in which the variable was selected
+	public double selectionFrequency = INVALID;
 
 	public boolean selectedForPs;
+	
+	// computed on first use, since the dimension, code and type do not change
+	private String hashValue;
+	
 	public static final int valueOne = 1;
 	public static final int valueMissing = -1;
 	public static final int valueZero = 0;
@@ -138,6 +147,17 @@ public class HdpsVariable  {
 			"hash_value"				// 37
 		};
     
+    // output fields when a stability analysis has been run
+    public static final String[] stabilityOutputFieldNames = appendElement(outputFieldNames, 
+    		"selection_frequency");		// 38
+    
+    private static String[] appendElement(String[] a, String element)
+    {
+    	String[] s = Arrays.copyOf(a, a.length + 1);
+    	s[a.length] = element;
+    	return s;
+    }
+    
     public HdpsVariable(HdpsCode code, String type)
 	{
     	this();
@@ -268,16 +288,64 @@ public class HdpsVariable  {
 		return (this.type == VAR_TYPE_SERVICE_INTENSITY);
 	}
 	
+	/**
+	 * Clear the variable's patient tallies and selection results, so that its 
+	 * statistics can be recalculated for a different set of patients.
+	 */
+	public void resetCounts()
+	{
+		this.e1c1 = 0;
+		this.e0c1 = 0;
+		this.e1Missing = 0;
+		this.e0Missing = 0;
+		this.d1c1 = 0;
+		this.d0c1 = 0;
+		this.d1Missing = 0;
+		this.d0Missing = 0;
+		this.pt_c1 = 0;
+		this.c1NumEvents = 0;
+		this.c1MeanOutcome = 0;
+		
+		this.lassoRankingVariable = 0;
+		this.activeRankingVariable = 0;
+		this.zBiasScore = 0;
+		this.selectionFrequency = INVALID;
+		this.selectedForPs = false;
+	}
+	
 	public String getHashValue() {
-		String s = this.code.dimension.dimensionDescription + "/" +
-				   this.code.codeString + "/" +
-				   this.type;
+		if (this.hashValue == null)
+			this.hashValue = computeHashValue(this.code.dimension.dimensionDescription,
+					this.code.codeString, this.type);
+		return this.hashValue;
+	}
+	
+	/**
+	 * Set the variable's hash value, when it has been computed elsewhere with
+	 * {@link #computeHashValue(String, String, String)}.
+	 */
+	public void setHashValue(String hashValue) {
+		this.hashValue = hashValue;
+	}
+	
+	/**
+	 * @return	The hash that identifies a variable across runs: the SHA-512 hex of its 
+	 * 			dimension, code and type.
+	 */
+	public static String computeHashValue(String dimensionDescription, String codeString, 
+			String type) {
+		String s = dimensionDescription + "/" +
+				   codeString + "/" +
+				   type;
 		
-		String hash = DigestUtils.sha512Hex(s);
-		return hash;
+		return DigestUtils.sha512Hex(s);
 	}
 	
 	public String[] toStringArray() {
+		return this.toStringArray(false);
+	}
+	
+	public String[] toStringArray(boolean includeStability) {
 		final String quoteStr = "\"";
 		
 		String[] s = {
@@ -321,6 +389,10 @@ public class HdpsVariable  {
 			quoteStr + this.getHashValue() + quoteStr
 		};
 		
+		if (includeStability) {
+			s = appendElement(s, Utils.formatOutputDouble(this.selectionFrequency));
+		}
+		
 		return s;
 	}
 }
@@ -92,6 +92,13 @@ public class Match extends PharmacoepiTool {
 	 */
 	public int endDigit = 1;
 
+	/**
+	 * The random number seed for the match.  Matches with the same seed and data
+	 * give the same results.  Must be set before {@link #initMatch(MatchType, int)}.  
+	 * Default is 1234567.
+	 */
+	public long randomSeed = MatchRandomizer.DEFAULT_SEED;
+
 	/**
 	 * Stores output data of the match, if no file is specified.
 	 */
@@ -211,12 +218,15 @@ public class Match extends PharmacoepiTool {
 	throws Exception
 	{
     	this.startTool();
+    	this.events.startPhase("match");
     	this.matchController.begin();
 		this.matchController.match();
+		this.events.matchesMade(this.matchController.getNumMatches());
 		
+		this.events.startPhase("write_output");
 		RowWriter writer;
 		if (this.outfilePath != null)
-			writer = new TabDelimitedFileWriter(this.outfilePath);
+			writer = new FastTabDelimitedFileWriter(this.outfilePath);
 		else
 			writer = new StringBufferRowWriter();
 		
@@ -225,9 +235,18 @@ public class Match extends PharmacoepiTool {
 		if (this.outfilePath == null)
 			this.matchOutputData = writer.toString();
 		
+		this.events.endPhase();
     	this.endTool();
 	}
     
+	/*
+	 * The controller for the current match type, for benchmarks in this package.
+	 */
+	MatchController getMatchController()
+	{
+		return this.matchController;
+	}
+    
 	/**
 	 * @see  #outfilePath
 	 */
@@ -242,6 +261,20 @@ public class Match extends PharmacoepiTool {
 		this.outfilePath = outfilePath;
 	}
 	
+	/**
+	 * @see  #randomSeed
+	 */
+	public long getRandomSeed() {
+		return randomSeed;
+	}
+
+	/**
+	 * @see  #randomSeed
+	 */
+	public void setRandomSeed(long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+	
 	/**
 	 * @return the matchType
 	 */
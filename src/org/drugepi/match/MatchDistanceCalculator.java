@@ -267,19 +267,21 @@ public class MatchDistanceCalculator {
 	
 	public static void main(String[] args)
 	{
-		MatchPatient p1 = new MatchPatient(3);
-		p1.addPs(-1d);
-		p1.addPs(-2d);
+		MatchRandomizer randomizer = new MatchRandomizer();
+		
+		MatchPatient p1 = new MatchPatient(3, randomizer);
+		p1.addPs(-1d, randomizer);
+		p1.addPs(-2d, randomizer);
 //		p1.addPs(3d);
 		
-		MatchPatient p2 = new MatchPatient(3);
-		p2.addPs(2d);
-		p2.addPs(4d);
+		MatchPatient p2 = new MatchPatient(3, randomizer);
+		p2.addPs(2d, randomizer);
+		p2.addPs(4d, randomizer);
 //		p2.addPs(5d);
 		
-		MatchPatient p3 = new MatchPatient(3);
-		p3.addPs(0);
-		p3.addPs(0);
+		MatchPatient p3 = new MatchPatient(3, randomizer);
+		p3.addPs(0, randomizer);
+		p3.addPs(0, randomizer);
 //		p3.addPs(0);
 
 		ProjectionResult pr = MatchDistanceCalculator.projectAndMove(p1, p3, p2);
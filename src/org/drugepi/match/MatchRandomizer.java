@@ -7,12 +7,20 @@ package org.drugepi.match;
 
 import java.util.Random;
 
+/**
+ * Source of random numbers for a match.  Each match controller has its own randomizer,
+ * so matches running in the same JVM do not share a random number sequence.
+ */
 public class MatchRandomizer {
-	final static private int seed = 1234567;
+	public static final long DEFAULT_SEED = 1234567;
 	
 	private Random random;
 
 	public MatchRandomizer() {
+		this(DEFAULT_SEED);
+	}
+	
+	public MatchRandomizer(long seed) {
 		random = new Random(seed);
 	}
 	
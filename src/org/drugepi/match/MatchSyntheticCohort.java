@@ -0,0 +1,212 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.match;
+
+import java.util.Random;
+
+import org.drugepi.util.*;
+
+/**
+ * Generates a synthetic propensity score cohort in the format read by
+ * {@link Match#addPatients(RowReader)}:  patient ID, group indicator, and the propensity
+ * scores of every group but the last.  Group indicators are 1, 2, ..., <i>n</i>; group 1
+ * is the treatment group.  Output depends only on the parameters, so the same parameters
+ * always produce the same cohort.
+ * <p>
+ * Each patient has a single standard normal confounder <i>x</i>.  Group membership follows
+ * a multinomial logit model in which group <i>g</i> has linear predictor
+ * log(<i>w<sub>g</sub></i>) + <i>separation</i> &middot; <i>c<sub>g</sub></i> &middot; <i>x</i>,
+ * where <i>w<sub>g</sub></i> is 1 for the treatment group and <code>referentRatio</code>
+ * for every other group, and <i>c<sub>g</sub></i> runs evenly from +1 for the treatment
+ * group to -1 for the last group.  The propensity scores written are the true
+ * probabilities of group membership under the model.  A separation near 0 gives
+ * near-complete overlap of the propensity score distributions; a separation of 2 or
+ * more gives poor overlap.
+ * <p>
+ * Patients are generated as they are read, so cohorts of any size can be matched
+ * without being held in memory or written to disk first.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class MatchSyntheticCohort {
+	/**
+	 * Number of patients.  Default is 10,000.
+	 */
+	public int numPatients;
+
+	/**
+	 * Number of exposure groups.  Default is 2.
+	 */
+	public int numGroups;
+
+	/**
+	 * Approximate number of patients in each referent group per patient in the treatment
+	 * group.  Default is 1.
+	 */
+	public double referentRatio;
+
+	/**
+	 * Strength of the confounder's effect on group membership.  Higher values give less
+	 * overlap between groups.  Default is 0.5.
+	 */
+	public double separation;
+
+	/**
+	 * Random number seed.  Default is 1234567.
+	 */
+	public long seed;
+
+	/**
+	 * Constructor for the generator using default values for all parameters.
+	 */
+	public MatchSyntheticCohort()
+	{
+		super();
+		this.numPatients = 10000;
+		this.numGroups = 2;
+		this.referentRatio = 1.0;
+		this.separation = 0.5;
+		this.seed = 1234567;
+	}
+
+	/**
+	 * Add the groups to a match, in order, starting with the treatment group.  The match
+	 * must already have been initialized with {@link Match#initMatch(Match.MatchType, int)}.
+	 */
+	public void addMatchGroups(Match match)
+	{
+		for (int g = 0; g < this.numGroups; g++)
+			match.addMatchGroup(getGroupIndicator(g));
+	}
+
+	/**
+	 * @return	A reader that generates the cohort.  Resetting the reader starts the
+	 * 			cohort over from the first patient.
+	 */
+	public RowReader getReader()
+	throws Exception
+	{
+		return new CohortReader();
+	}
+
+	/**
+	 * Write the cohort to a tab-delimited file.
+	 *
+	 * @param path		Path of the file.  Any existing file will be replaced.
+	 * @throws Exception
+	 */
+	public void write(String path)
+	throws Exception
+	{
+		String[] header = new String[this.numGroups + 1];
+		header[0] = "patient_id";
+		header[1] = "group";
+		for (int g = 0; g < this.numGroups - 1; g++)
+			header[g + 2] = String.format("ps%d", g + 1);
+
+		RowReader reader = this.getReader();
+		FastTabDelimitedFileWriter writer = new FastTabDelimitedFileWriter(path, header);
+		String[] row;
+		while ((row = reader.getNextRow()) != null)
+			writer.writeRow(row);
+		writer.close();
+		reader.close();
+	}
+
+	/**
+	 * @param group		Group number, starting at 0.
+	 * @return	The indicator of the group.
+	 */
+	public static String getGroupIndicator(int group)
+	{
+		return Integer.toString(group + 1);
+	}
+
+	/**
+	 * @return	The ID of the patient with the specified number.  IDs sort in number order.
+	 */
+	public static String getPatientId(int patientNumber)
+	{
+		return String.format("P%09d", patientNumber);
+	}
+
+	private class CohortReader extends RowReader {
+		private Random random;
+		private int patientNumber;
+		private double[] intercepts;
+		private double[] slopes;
+		private double[] ps;
+
+		public CohortReader()
+		throws Exception
+		{
+			super();
+			int n = MatchSyntheticCohort.this.numGroups;
+			this.numColumns = n + 1;
+
+			this.intercepts = new double[n];
+			this.slopes = new double[n];
+			this.ps = new double[n];
+			for (int g = 0; g < n; g++) {
+				this.intercepts[g] = (g == 0 ? 0 : Math.log(MatchSyntheticCohort.this.referentRatio));
+				this.slopes[g] = MatchSyntheticCohort.this.separation * (1 - 2.0 * g / (n - 1));
+			}
+
+			this.reset();
+		}
+
+		public String[] getNextRow()
+		{
+			if (this.patientNumber >= MatchSyntheticCohort.this.numPatients)
+				return null;
+
+			// softmax of the linear predictors, shifted by the largest for stability
+			double x = this.random.nextGaussian();
+			double max = Double.NEGATIVE_INFINITY;
+			for (int g = 0; g < this.ps.length; g++) {
+				this.ps[g] = this.intercepts[g] + this.slopes[g] * x;
+				max = Math.max(max, this.ps[g]);
+			}
+			double total = 0;
+			for (int g = 0; g < this.ps.length; g++) {
+				this.ps[g] = Math.exp(this.ps[g] - max);
+				total += this.ps[g];
+			}
+
+			// draw the group from the propensity scores
+			double u = this.random.nextDouble() * total;
+			int group = this.ps.length - 1;
+			double cumulative = 0;
+			for (int g = 0; g < this.ps.length - 1; g++) {
+				cumulative += this.ps[g];
+				if (u < cumulative) {
+					group = g;
+					break;
+				}
+			}
+
+			String[] row = new String[this.numColumns];
+			row[0] = getPatientId(this.patientNumber);
+			row[1] = getGroupIndicator(group);
+			for (int g = 0; g < this.ps.length - 1; g++)
+				row[g + 2] = Double.toString(this.ps[g] / total);
+
+			this.patientNumber++;
+			return row;
+		}
+
+		public void reset()
+		{
+			this.random = new Random(MatchSyntheticCohort.this.seed);
+			this.patientNumber = 0;
+		}
+
+		public void close()
+		{
+		}
+	}
+}
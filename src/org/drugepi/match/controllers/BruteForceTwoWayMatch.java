@@ -40,7 +40,7 @@ public class BruteForceTwoWayMatch extends MatchController {
 	}
 	
     protected MatchPatient createPatient(String[] row) {
-    	MatchPatient patient =  new MatchPatient(2);
+    	MatchPatient patient =  new MatchPatient(2, this.randomizer);
         patient.id = row[KEY_COLUMN];
         patient.matchGroup = this.matchGroupMap.get(row[EXP_COLUMN]);
         if (patient.matchGroup == null)
@@ -50,7 +50,7 @@ public class BruteForceTwoWayMatch extends MatchController {
         // don't need the PS for the last group
         double ps = Double.parseDouble(row[PS_COLUMN]);
         // setPs() will perturb slightly to avoid duplicates
-		patient.addPs(ps);
+		patient.addPs(ps, this.randomizer);
 		
         return patient;
     }	
@@ -65,7 +65,7 @@ public class BruteForceTwoWayMatch extends MatchController {
 		if (ms.distance < this.match.caliper) {
 			matchHeap.add(ms);
    			if (this.matchHeap.size() % 100000 == 0)
-   				System.out.printf("Heap size: %d\n", this.matchHeap.size());
+   				this.events.note("Heap size: %d", this.matchHeap.size());
 		}
 		
 		//System.out.printf("Adding: p1=%f p2=%f dist=%f\n", p1.ps, p2.ps, ms.distance);
@@ -73,7 +73,7 @@ public class BruteForceTwoWayMatch extends MatchController {
 	
     public void match()
     {
-    	System.out.println("Using two-way brute force match algorithm");
+    	this.events.note("Using two-way brute force match algorithm");
 
     	if (this.match.caliper == Match.INVALID_CALIPER)
     		this.match.caliper = DEFAULT_CALIPER;
@@ -89,8 +89,8 @@ public class BruteForceTwoWayMatch extends MatchController {
     		largerGroup = this.matchGroupsList.get(0);
     	}
 
-       	System.out.printf("%d items in the smaller group\n", smallerGroup.size());
-       	System.out.printf("%d items in the larger group\n", largerGroup.size());
+       	this.events.note("%d items in the smaller group", smallerGroup.size());
+       	this.events.note("%d items in the larger group", largerGroup.size());
        	
        	for (int i = 0; i < smallerGroup.size(); i++) {
        		for (int j = 0; j < largerGroup.size(); j++) {
@@ -98,10 +98,10 @@ public class BruteForceTwoWayMatch extends MatchController {
        		}
        	}
        	
-       	System.out.printf("%d possible matches created\n", matchHeap.size());
+       	this.events.note("%d possible matches created", matchHeap.size());
        	
 
-    	System.out.println("Finding optimal matches");
+    	this.events.note("Finding optimal matches");
     	while (! matchHeap.isEmpty()) {
        		// get the smallest distance match
        		MatchSet ms = matchHeap.poll();
@@ -114,16 +114,18 @@ public class BruteForceTwoWayMatch extends MatchController {
        		if ((! matchedPatients.containsKey(s.id)) &&
        			(! matchedPatients.containsKey(l.id))) {
        			matches.add(ms);
-       			if (this.matches.size() % 100 == 0)
-       		       	System.out.printf("%d matched pairs found; %d possibilities remain\n", 
+       			if (this.matches.size() % 100 == 0) {
+       				this.events.matchesMade(matches.size());
+       		       	this.events.note("%d matched pairs found; %d possibilities remain", 
        		       			matches.size(),
        		       			matchHeap.size());
+       			}
        			
        			matchedPatients.put(s.id, s);
        			matchedPatients.put(l.id, l);
        		}
     	}
        			
-       	System.out.printf("%d matched pairs found\n", matches.size());
+       	this.events.note("%d matched pairs found", matches.size());
     }
 }
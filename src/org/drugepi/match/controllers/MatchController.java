@@ -7,6 +7,7 @@ package org.drugepi.match.controllers;
 
 import java.util.*;
 
+import org.drugepi.ToolEvents;
 import org.drugepi.match.*;
 import org.drugepi.match.storage.*;
 import org.drugepi.util.*;
@@ -25,8 +26,9 @@ public abstract class MatchController {
 	protected List<MatchSet> matches;
 	
 	protected Match match;
+	protected ToolEvents events;
 	
-	protected static MatchRandomizer randomizer = new MatchRandomizer();
+	protected MatchRandomizer randomizer;
 
 	/**
 	 * Generic constructor for matching algorithms.
@@ -35,6 +37,8 @@ public abstract class MatchController {
 		super();
 		
 		this.match = match;
+		this.events = match.getEvents();
+		this.randomizer = new MatchRandomizer(match.randomSeed);
 		this.numGroups = numGroups;
 
 		this.numGroups = numGroups;
@@ -44,7 +48,7 @@ public abstract class MatchController {
 		matches = new ArrayList<MatchSet>();
 	}
 	
-	public static MatchRandomizer getRandomizer()
+	public MatchRandomizer getRandomizer()
 	{
 		return randomizer;
 	}
@@ -92,8 +96,17 @@ public abstract class MatchController {
         	mg.sort(this.getComparator());
         
         reader.close();
+        this.events.rowsProcessed("patients", patientList.size());
     }	        
     
+    /**
+     * @return	The number of matched sets made so far.
+     */
+    public int getNumMatches()
+    {
+    	return this.matches.size();
+    }
+    
     protected abstract MatchPatient createPatient(String[] row)
     throws MatchException;
     
@@ -149,7 +162,7 @@ public abstract class MatchController {
     	if (this.matchGroupsList.size() == 0)
     		throw new MatchException("No match groups specified.");
     	
-    	System.out.printf("Beginning %s match with %d match groups\n", 
+    	this.events.note("Beginning %s match with %d match groups", 
     			this.description, matchGroupsList.size());
 
     	for (int i = 0; i < this.matchGroupsList.size(); i++) {
@@ -158,7 +171,7 @@ public abstract class MatchController {
     		if (mg.size() == 0)
     			throw new MatchException("Match group " + mg.groupIndicator + " has no patients");
     		
-        	System.out.printf("Match group %s has %d patients\n", mg.groupIndicator, mg.size());
+        	this.events.note("Match group %s has %d patients", mg.groupIndicator, mg.size());
     	}
 	}
 
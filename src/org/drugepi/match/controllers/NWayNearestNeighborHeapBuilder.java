@@ -47,10 +47,13 @@ public class NWayNearestNeighborHeapBuilder {
     	// for each patient in the smallest group, find all patients in Group 2
     	// within the width of the caliper
     	int numPatients = 0;
+    	String progressSource = String.format("match heap thread %d", this.threadNum);
     	for (MatchPatient p: this.baseGroup) {
-    		if (numPatients % 100 == 0) 
-    	    	System.out.printf("[%d] Adding heap items for patient %d (%d items in heap) at %s\n", 
+    		if ((numPatients % 100 == 0) && (this.controller.events.isProgressDue(progressSource))) {
+    			this.controller.events.rowsProcessed(progressSource, numPatients);
+    	    	this.controller.events.note("[%d] Adding heap items for patient %d (%d items in heap) at %s", 
     	    			this.threadNum, numPatients, this.controller.matchHeap.size(), new Date().toString());
+    		}
 
     		MultiMatchPatient basePatient = (MultiMatchPatient) p;
     		
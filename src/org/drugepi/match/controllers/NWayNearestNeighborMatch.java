@@ -62,7 +62,7 @@ public class NWayNearestNeighborMatch extends MatchController {
     protected MultiMatchPatient createPatient(String[] row) 
     throws MatchException
     {
-        MultiMatchPatient patient =  new MultiMatchPatient(this.numGroups);
+        MultiMatchPatient patient =  new MultiMatchPatient(this.numGroups, this.randomizer);
         
 		try {
 			patient.id = row[KEY_COLUMN];
@@ -83,7 +83,7 @@ public class NWayNearestNeighborMatch extends MatchController {
 	        // get PSs for all but the last group --
 	        // don't need the PS for the last group
 	        for (int i = 0; i < this.matchGroupsList.size() - 1; i++) 
-	        	patient.addPs(Double.parseDouble(row[PS_COLUMN + i]));
+	        	patient.addPs(Double.parseDouble(row[PS_COLUMN + i]), this.randomizer);
 		} catch (Exception e) {
 			throw new MatchException("Failed to read propensity scores for all patients.");
 		}
@@ -109,7 +109,7 @@ public class NWayNearestNeighborMatch extends MatchController {
     public void match()
     throws Exception
     {
-    	System.out.println(version);
+    	this.events.note(version);
     	
     	if (this.match.caliper == Match.INVALID_CALIPER)
     		this.match.caliper = DEFAULT_CALIPER;
@@ -131,7 +131,7 @@ public class NWayNearestNeighborMatch extends MatchController {
     	for (int i = 0; i < numOtherGroups; i++) 
     		groups[i] = otherGroups.get(i);
 
-    	System.out.printf("Building KD Tree(s) at %s\n", new Date().toString());
+    	this.events.note("Building KD Tree(s) at %s", new Date().toString());
 
     	// build KD Trees
     	this.trees = new MultiMatchKDTree[numOtherGroups];
@@ -139,7 +139,7 @@ public class NWayNearestNeighborMatch extends MatchController {
     		trees[i] = buildInitialKDTree(groups[i]);
     	}
     	
-    	System.out.printf("Building match heap at %s\n", new Date().toString());
+    	this.events.note("Building match heap at %s", new Date().toString());
 
     	// fork off worker threads to build local heaps, then merge all the heaps
     	// together
@@ -181,8 +181,8 @@ public class NWayNearestNeighborMatch extends MatchController {
 //        for (int i = 0; i < NUM_HEAP_BUILDERS; i++) 
 //        	this.matchHeap.addAll(heapBuilders[i].matchHeap);
 
-    	System.out.printf("Evaluating match heap at %s\n", new Date().toString());
-    	System.out.printf("%d potential matches in the match heap\n", matchHeap.size());
+    	this.events.note("Evaluating match heap at %s", new Date().toString());
+    	this.events.note("%d potential matches in the match heap", matchHeap.size());
 
 		// go through the heap and collect all valid matches
 		for (MatchSet ms: matchHeap) {
@@ -192,9 +192,9 @@ public class NWayNearestNeighborMatch extends MatchController {
 			}
 		}
     		
-    	System.out.printf("Evaluating match heap at %s\n", new Date().toString());
+    	this.events.note("Evaluating match heap at %s", new Date().toString());
 
- 		System.out.printf("%d matches made\n", matches.size());
+ 		this.events.note("%d matches made", matches.size());
     }
     
     protected String[] getOutputFields()
@@ -59,7 +59,7 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
     protected MultiMatchPatient createPatient(String[] row) 
     throws MatchException 
     {
-        MultiMatchPatient patient =  new MultiMatchPatient(3);
+        MultiMatchPatient patient =  new MultiMatchPatient(3, this.randomizer);
 		try {
 			patient.id = row[KEY_COLUMN];
 		} catch (Exception e) {
@@ -79,7 +79,7 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
 	       // get PSs for all but the last group --
 	        // don't need the PS for the last group
 	        for (int i = 0; i < this.matchGroupsList.size() - 1; i++) 
-	        	patient.addPs(Double.parseDouble(row[PS_COLUMN + i]));
+	        	patient.addPs(Double.parseDouble(row[PS_COLUMN + i]), this.randomizer);
 		} catch (Exception e) {
 			throw new MatchException("Failed to read propensity scores for all patients.");
 		}
@@ -102,7 +102,7 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
 		return ms;
     }
     
-	public static int gqs = 0;
+	public int gqs = 0;
 	public int cmpCnt = 0;
 	public boolean debug = false;
     
@@ -205,7 +205,7 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
     public void match()
     throws Exception
     {
-    	System.out.println(version);
+    	this.events.note(version);
     	
     	if (this.match.caliper == Match.INVALID_CALIPER)
     		this.match.caliper = DEFAULT_CALIPER;
@@ -222,19 +222,19 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
     	this.blueGroup = otherGroups.get(0);
     	this.greenGroup = otherGroups.get(1);
 
-    	System.out.printf("Building KD Tree(s) at %s\n", new Date().toString());
+    	this.events.note("Building KD Tree(s) at %s", new Date().toString());
 
     	MatchPatientKDTree blueTree = MatchPatientKDTree.makeTree(blueGroup);
     	MatchPatientKDTree greenTree = MatchPatientKDTree.makeTree(greenGroup);
     	
-    	System.out.printf("Building match heap at %s\n", new Date().toString());
+    	this.events.note("Building match heap at %s", new Date().toString());
 
     	for (MatchPatient redPatient: redGroup) {
     		addPutativeMatches(redPatient, blueTree, greenTree);
     	}
     	
-    	System.out.printf("Evaluating match heap at %s\n", new Date().toString());
-    	System.out.printf("%d potential matches in the match heap\n", matchHeap.size());
+    	this.events.note("Evaluating match heap at %s", new Date().toString());
+    	this.events.note("%d potential matches in the match heap", matchHeap.size());
     		
 		int count = 0;
 		MatchSet m = null;
@@ -274,7 +274,7 @@ public class ThreeWayNearestNeighborMatch extends MatchController {
 			}
 		}
 	
- 		System.out.printf("%d matches made\n", matches.size());
+ 		this.events.note("%d matches made", matches.size());
  		
 // 		for (int i = 0; i < 100; i++) {
 // 			MatchSet ms = this.matches.get(i);
@@ -113,10 +113,10 @@ public class TwoWayBalancedNearestNeighborMatch extends TwoWayNearestNeighborMat
 				numRightHeavySets++;
 		}
 		
-		System.out.printf("Total number of balanced sets: %d\n", numBalancedSets);
-		System.out.printf("Total number of right-heavy sets: %d\n",
+		this.events.note("Total number of balanced sets: %d", numBalancedSets);
+		this.events.note("Total number of right-heavy sets: %d",
 				numRightHeavySets);
-		System.out.printf("Total number of left-heavy  sets: %d\n",
+		this.events.note("Total number of left-heavy  sets: %d",
 				numLeftHeavySets);
 	}
 }
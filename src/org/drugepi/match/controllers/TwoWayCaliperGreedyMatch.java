@@ -100,7 +100,7 @@ public class TwoWayCaliperGreedyMatch extends TwoWayMatchController {
 	  	this.printPreMatchStatistics();
 
     	// make sure the referent group has the most extreme patients
-    	TwoWayMatchController.padPatientsInGroup(this.referentGroup, 1);
+    	this.padPatientsInGroup(this.referentGroup, 1);
 
     	// build a tree of referent patients
 		for (MatchPatient refPatient: this.referentGroup) {
@@ -50,7 +50,7 @@ public class TwoWayDigitGreedyMatch extends TwoWayMatchController {
     protected void doGreedyMatch(MatchGroup treatmentGroup, MatchGroup referentGroup, 
     		int matchPass)
     {
-		System.out.printf("Beginning greedy match for 1:%d matches.\n", matchPass);
+		this.events.note("Beginning greedy match for 1:%d matches.", matchPass);
 
 		numMatchesAtDigit = new int[this.match.startDigit + 1];
 		for (int i = 0; i <= this.match.startDigit; i++)
@@ -84,7 +84,7 @@ public class TwoWayDigitGreedyMatch extends TwoWayMatchController {
 			}
 			
 			if (numDigits == this.match.startDigit)
-				System.out.printf("... %d unmatched patients in the referent group\n", unmatchedReferentPatients.size());
+				this.events.note("... %d unmatched patients in the referent group", unmatchedReferentPatients.size());
 			
 			// sorts by the masked value, with ties broken by random id
 			Collections.sort(unmatchedReferentPatients, TwoWayMatchPatient.greedyMatchComparator);
@@ -139,7 +139,7 @@ public class TwoWayDigitGreedyMatch extends TwoWayMatchController {
 		}
 		
 		for (int i = this.match.startDigit; i >= this.match.endDigit; i--)
-			System.out.printf("... 1:%d matches at digit %d: %d pairs\n", matchPass, i, numMatchesAtDigit[i]);
+			this.events.note("... 1:%d matches at digit %d: %d pairs", matchPass, i, numMatchesAtDigit[i]);
     }
     
     public void printMatchSpecificStatistics()
@@ -56,7 +56,7 @@ public abstract class TwoWayMatchController extends MatchController {
 	protected TwoWayMatchPatient createPatient(String[] row) 
 	throws MatchException 
 	{
-		TwoWayMatchPatient patient = new TwoWayMatchPatient();
+		TwoWayMatchPatient patient = new TwoWayMatchPatient(this.randomizer);
 
 		try {
 			patient.id = row[KEY_COLUMN];
@@ -77,7 +77,7 @@ public abstract class TwoWayMatchController extends MatchController {
 			// don't need the PS for the last group
 			double ps = Double.parseDouble(row[PS_COLUMN]);
 			// setPs will perturb slightly to avoid duplicates
-			patient.addPs(ps); 
+			patient.addPs(ps, this.randomizer); 
 		} catch (Exception e) {
 			throw new MatchException("Failed to read propensity scores for all patients.");
 		}
@@ -87,19 +87,19 @@ public abstract class TwoWayMatchController extends MatchController {
 		return patient;
 	}
 
-	protected static void padPatientsInGroup(MatchGroup mg, int numToPad) {
+	protected void padPatientsInGroup(MatchGroup mg, int numToPad) {
 		for (int i = 0; i < numToPad; i++) {
-			TwoWayMatchPatient p = new TwoWayMatchPatient();
+			TwoWayMatchPatient p = new TwoWayMatchPatient(this.randomizer);
 			p.id = String.format("BAD ID LOW %d", i);
-			p.addPs(LOW_PAD_VALUE);
+			p.addPs(LOW_PAD_VALUE, this.randomizer);
 			p.matchGroup = mg;
 			mg.add(p);
 		}
 
 		for (int i = 0; i < numToPad; i++) {
-			TwoWayMatchPatient p = new TwoWayMatchPatient();
+			TwoWayMatchPatient p = new TwoWayMatchPatient(this.randomizer);
 			p.id = String.format("BAD ID HIGH %d", i);
-			p.addPs(HIGH_PAD_VALUE);
+			p.addPs(HIGH_PAD_VALUE, this.randomizer);
 			p.matchGroup = mg;
 			mg.add(p);
 		}
@@ -127,13 +127,13 @@ public abstract class TwoWayMatchController extends MatchController {
 	
 	public void printPreMatchStatistics() 
 	{
-	  	System.out.printf("%d:1 match beginning using the %s match method in %s ratio, %s mode\n", 
+	  	this.events.note("%d:1 match beginning using the %s match method in %s ratio, %s mode", 
 	  			this.match.matchRatio, this.getClass().getSimpleName(),
 	  			(this.match.fixedRatio == 0 ? "variable" : "fixed"),
 	  			(this.match.parallelMatchingMode == 0 ? "sequential" : "parallel"));
 	    
-       	System.out.printf("%d items in the treatment (indicator=%s) group\n", this.treatmentGroup.size(), treatmentGroup.groupIndicator);
-    	System.out.printf("%d items in the referent (indicator=%s) group\n", this.referentGroup.size(), referentGroup.groupIndicator);
+       	this.events.note("%d items in the treatment (indicator=%s) group", this.treatmentGroup.size(), treatmentGroup.groupIndicator);
+    	this.events.note("%d items in the referent (indicator=%s) group", this.referentGroup.size(), referentGroup.groupIndicator);
 	}
 	
 	public void printPostMatchStatistics() 
@@ -160,20 +160,20 @@ public abstract class TwoWayMatchController extends MatchController {
 			}
 			
 			for (int i = 1; i <= this.match.matchRatio; i++) {
-				System.out.printf("Number of 1:%d matched sets: %d\n", i,
+				this.events.note("Number of 1:%d matched sets: %d", i,
 						matchedSetsPerLevel[i]);
 			}
 		}
 
-		System.out.printf("Treated patients matched: %d (%3.1f%%)\n",
+		this.events.note("Treated patients matched: %d (%3.1f%%)",
 				numTreatmentPatientsMatched, (float) numTreatmentPatientsMatched
 						/ (float) this.treatmentGroupSize * 100f);
-		System.out.printf("Referent patients matched: %d (%3.1f%%)\n",
+		this.events.note("Referent patients matched: %d (%3.1f%%)",
 				numRefPatientsMatched, (float) numRefPatientsMatched
 						/ (float) this.referentGroupSize * 100f);
 
-		System.out.printf("Total number of matched sets: %d\n", matches.size());
-		System.out.printf("Total match distance: %.4f\n", totalMatchDistance);
+		this.events.note("Total number of matched sets: %d", matches.size());
+		this.events.note("Total match distance: %.4f", totalMatchDistance);
 		
 		this.printMatchSpecificStatistics();
 	}
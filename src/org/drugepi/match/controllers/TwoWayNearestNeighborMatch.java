@@ -234,7 +234,7 @@ public class TwoWayNearestNeighborMatch extends TwoWayMatchController {
 	
 	protected void runMatchingProcess(int passNum)
 	{
-		System.out.printf("Beginning match pass %d\n", passNum);
+		this.events.note("Beginning match pass %d", passNum);
 		
 		TwoWayMatchPatient firstPatientInTreatmentGroup = processPatients(this.treatmentGroup, this.txTree);
 		TwoWayMatchPatient firstPatientInReferentGroup = processPatients(this.workingReferentGroup, this.refTree);
@@ -265,7 +265,7 @@ public class TwoWayNearestNeighborMatch extends TwoWayMatchController {
 		// ensure that the referent group also has the patient with the lowest
 		// and highest PSs
 		// no need to unpad, since the original referent group will be left as-is
-		TwoWayMatchController.padPatientsInGroup(this.workingReferentGroup, this.match.matchRatio);
+		this.padPatientsInGroup(this.workingReferentGroup, this.match.matchRatio);
 		
 		if (this.match.parallelMatchingMode == 0) {
 			for (int i = 1; i <= this.match.matchRatio; i++) {
@@ -285,7 +285,7 @@ public class TwoWayNearestNeighborMatch extends TwoWayMatchController {
       	} else 
        		runMatchingProcess(1);
       	
-		System.out.printf("Matching complete.\n");
+		this.events.note("Matching complete.");
 
 		this.collapseMatchSets();
 		Collections.sort(this.matches, new MatchSetDistanceComparator());
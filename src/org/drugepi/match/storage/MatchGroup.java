@@ -27,8 +27,13 @@ public class MatchGroup extends ArrayList<MatchPatient> {
 		Collections.shuffle(this);
 	}
 	
-	public void sort(Comparator<Object> comparator) {
-		Collections.sort(this, comparator);
+	// sorts in place without Collections.sort, which calls back into this 
+	// method on Java 8 and later, where it overrides ArrayList.sort
+	public void sort(Comparator<? super MatchPatient> comparator) {
+		MatchPatient[] patients = this.toArray(new MatchPatient[this.size()]);
+		Arrays.sort(patients, comparator);
+		for (int i = 0; i < patients.length; i++)
+			this.set(i, patients[i]);
 	}
 
 	public int hashCode() {
@@ -7,7 +7,7 @@ package org.drugepi.match.storage;
 
 import java.util.Comparator;
 
-import org.drugepi.match.controllers.MatchController;
+import org.drugepi.match.MatchRandomizer;
 
 import Jama.Matrix;
 
@@ -29,16 +29,16 @@ public class MatchPatient implements Comparable<Object> {
 	
 	private PSVector psVector;
 	
-	public MatchPatient(int numGroups) {
-		this.randomId = MatchController.getRandomizer().nextDouble();
+	public MatchPatient(int numGroups, MatchRandomizer randomizer) {
+		this.randomId = randomizer.nextDouble();
 		this.matchStatus = STATUS_UNMATCHED;
 		this.psVector = new PSVector(numGroups);
 		this.counter = 0;
 	}
 	
-	public void addPs(double ps) {
+	public void addPs(double ps, MatchRandomizer randomizer) {
 		this.psVector.addToVector(ps);
-		this.psVector.perturbPs();
+		this.psVector.perturbPs(randomizer);
 	}
 	
 	public double getPs() {
@@ -7,14 +7,16 @@ package org.drugepi.match.storage;
 
 import java.util.*;
 
+import org.drugepi.match.MatchRandomizer;
+
 public class MultiMatchPatient extends MatchPatient {
 	public List<List<MultiMatchPatient>> potentialMatches;
 	
 	// hack!
 	private List<MatchGroup> matchGroups;
 
-	public MultiMatchPatient(int numGroups) {
-		super(numGroups);
+	public MultiMatchPatient(int numGroups, MatchRandomizer randomizer) {
+		super(numGroups, randomizer);
 		
 		this.potentialMatches = new ArrayList<List<MultiMatchPatient>>();
 		this.matchGroups = null;
@@ -6,7 +6,6 @@
 package org.drugepi.match.storage;
 
 import org.drugepi.match.MatchRandomizer;
-import org.drugepi.match.controllers.MatchController;
 
 import Jama.Matrix;
 
@@ -35,10 +34,8 @@ public class PSVector {
 		this.kdTreeKey = new KDTreeKey(psVector[0]);
 	}
 	
-	public void perturbPs() 
+	public void perturbPs(MatchRandomizer randomizer) 
 	{
-		MatchRandomizer randomizer = MatchController.getRandomizer();
-		
 		// perturb d very slightly
 		double r = (randomizer.nextDouble() / (randomizer.nextBoolean() ? 10000000000000d : -10000000000000d));
 		for (int i = 0; i < this.numPsAdded; i++)
@@ -7,6 +7,8 @@ package org.drugepi.match.storage;
 
 import java.util.PriorityQueue;
 
+import org.drugepi.match.MatchRandomizer;
+
 public class TwoWayMatchPatient extends MatchPatient {
 	private static final double[] digitMaskValues = {
 		1d,				// 10^0
@@ -39,8 +41,8 @@ public class TwoWayMatchPatient extends MatchPatient {
 	public TwoWayMatchPatient nextInGroup;
 	public TwoWayMatchPatient prevInGroup;
 	
-	public TwoWayMatchPatient() {
-		super(2);
+	public TwoWayMatchPatient(MatchRandomizer randomizer) {
+		super(2, randomizer);
 		
 		matchCount = 0;
 		leftMatchCount = 0;
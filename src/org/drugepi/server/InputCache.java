@@ -0,0 +1,217 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.io.File;
+import java.util.*;
+
+import org.drugepi.util.*;
+
+/**
+ * Patient and dimension files held in memory between jobs.  Files are keyed by
+ * absolute path and read again if their size or modification time changes.  The least
+ * recently used files are dropped once the cache holds more than {@link #maxRows} rows;
+ * a single file larger than that is never cached and is read from disk each time.
+ * <p>
+ * Readers already handed out keep their rows even if the file is later dropped.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class InputCache {
+	/**
+	 * Maximum number of rows held across all cached files.  Zero disables the cache.
+	 */
+	public long maxRows;
+
+	private LinkedHashMap<String, CachedFile> files;
+	private long numRows;
+	private long numHits;
+	private long numMisses;
+
+	private static class CachedFile {
+		private long lastModified;
+		private long length;
+		private boolean loaded;
+		private boolean counted;
+		// null when the file is too large to cache
+		private List<String[]> rows;
+		private int numColumns;
+
+		private CachedFile(File file)
+		{
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+		}
+
+		private boolean isCurrent(File file)
+		{
+			return ((file.lastModified() == this.lastModified) &&
+					(file.length() == this.length));
+		}
+	}
+
+	/**
+	 * @param maxRows	Maximum number of rows held across all cached files.
+	 */
+	public InputCache(long maxRows)
+	{
+		super();
+		this.maxRows = maxRows;
+		this.files = new LinkedHashMap<String, CachedFile>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get a reader for a tab-delimited file, reading the file into the cache if it is
+	 * not already there.
+	 *
+	 * @param filePath		Path of the tab-delimited file.
+	 * @return				A reader for the file's rows.
+	 * @throws Exception
+	 */
+	public RowReader getReader(String filePath)
+	throws Exception
+	{
+		if (this.maxRows <= 0)
+			return new TabDelimitedFileReader(filePath);
+
+		File file = new File(filePath).getAbsoluteFile();
+		String key = file.getPath();
+
+		CachedFile cachedFile;
+		boolean hit;
+		synchronized (this) {
+			cachedFile = this.files.get(key);
+			if ((cachedFile != null) && (! cachedFile.isCurrent(file))) {
+				this.remove(key);
+				cachedFile = null;
+			}
+			hit = (cachedFile != null);
+			if (! hit) {
+				cachedFile = new CachedFile(file);
+				this.files.put(key, cachedFile);
+			}
+		}
+
+		// other jobs asking for the same file wait here while it is read
+		synchronized (cachedFile) {
+			if (! cachedFile.loaded)
+				this.load(key, cachedFile);
+		}
+
+		synchronized (this) {
+			if ((hit) && (cachedFile.rows != null))
+				this.numHits++;
+			else
+				this.numMisses++;
+		}
+
+		if (cachedFile.rows == null)
+			return new TabDelimitedFileReader(filePath);
+
+		return new ListRowReader(cachedFile.rows, cachedFile.numColumns);
+	}
+
+	/**
+	 * Drop all cached files.
+	 */
+	public synchronized void clear()
+	{
+		for (String key: new ArrayList<String>(this.files.keySet()))
+			this.remove(key);
+	}
+
+	private void load(String key, CachedFile cachedFile)
+	throws Exception
+	{
+		List<String[]> rows = new ArrayList<String[]>();
+		RowReader reader = new TabDelimitedFileReader(key);
+		try {
+			String[] row;
+			while ((row = reader.getNextRow()) != null) {
+				if (rows.size() >= this.maxRows) {
+					rows = null;
+					break;
+				}
+				rows.add(row);
+			}
+		} finally {
+			reader.close();
+		}
+
+		cachedFile.numColumns = reader.getNumColumns();
+		cachedFile.rows = rows;
+		cachedFile.loaded = true;
+
+		if (rows == null)
+			return;
+
+		synchronized (this) {
+			// the file may have changed and been dropped while it was read
+			if (this.files.get(key) != cachedFile)
+				return;
+
+			cachedFile.counted = true;
+			this.numRows += rows.size();
+
+			Iterator<Map.Entry<String, CachedFile>> it = this.files.entrySet().iterator();
+			while ((this.numRows > this.maxRows) && (it.hasNext())) {
+				CachedFile oldest = it.next().getValue();
+				if ((oldest == cachedFile) || (! oldest.counted))
+					continue;
+
+				this.numRows -= oldest.rows.size();
+				oldest.counted = false;
+				it.remove();
+			}
+		}
+	}
+
+	private void remove(String key)
+	{
+		CachedFile cachedFile = this.files.remove(key);
+		if ((cachedFile != null) && (cachedFile.counted)) {
+			this.numRows -= cachedFile.rows.size();
+			cachedFile.counted = false;
+		}
+	}
+
+	/**
+	 * @return	Number of rows now held in the cache.
+	 */
+	public synchronized long getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * @return	Number of requests answered from the cache.
+	 */
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * @return	Number of requests that read the file from disk.
+	 */
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * @see #maxRows
+	 */
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+	/**
+	 * @see #maxRows
+	 */
+	public void setMaxRows(long maxRows) {
+		this.maxRows = maxRows;
+	}
+}
@@ -0,0 +1,453 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.*;
+import org.drugepi.hdps.Hdps;
+import org.drugepi.match.Match;
+
+/**
+ * Runs many hd-PS and match studies concurrently in one JVM.  Each study has its own
+ * tool object, so its parameters, random seeds and results are independent of the
+ * others.  Studies that read the same patient or dimension files share one copy of the
+ * file through an {@link InputCache}.
+ * <p>
+ * The manifest uses the commands of {@link ToolboxJob}, one per line.  Each study starts
+ * with <code>JOB <i>name</i></code> and ends with <code>RUN</code>; blank lines and lines
+ * starting with <code>#</code> are ignored.  For example:
+ * <pre>
+ * JOB statins
+ * TOOL HDPS
+ * SET tempDirectory	/studies/statins
+ * SET stabilitySeed	42
+ * PATIENTS /data/statins/patients.txt
+ * DIMENSION Drugs	/data/shared/dim_drugs.txt
+ * RUN
+ * </pre>
+ * Each hd-PS study needs its own <code>tempDirectory</code>, and each match study must
+ * set <code>outfilePath</code>.
+ * <p>
+ * Up to {@link #numJobs} studies run at once.  A study starts only when its threads fit
+ * within {@link #threadBudget} and heap use is below {@link #maxHeapPercent}, unless no
+ * other study is running.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolboxBatch {
+	/**
+	 * Maximum number of studies run at once.
+	 * <p>
+	 * Default: 4.
+	 */
+	public int numJobs = 4;
+
+	/**
+	 * Total number of worker threads that running studies may use.  An hd-PS study
+	 * uses one thread per dimension while reading, and <code>numThreads</code> while
+	 * fitting; a match study uses one.
+	 * <p>
+	 * Default: the number of available processors.
+	 */
+	public int threadBudget = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Heap use, as a percent of the maximum heap, above which no further study starts.
+	 * <p>
+	 * Default: 70.
+	 */
+	public int maxHeapPercent = 70;
+
+	/**
+	 * Maximum number of input rows shared between studies.  0 disables sharing.
+	 * <p>
+	 * Default: 20,000,000.
+	 */
+	public long maxCachedRows = 20000000;
+
+	private List<BatchJob> jobs;
+	private InputCache inputCache;
+	private Semaphore threads;
+	private Set<String> tempDirectories;
+	private Set<String> manifestTempDirectories;
+	private int numRunning;
+	private ToolListener listener;
+	private ToolEvents events;
+
+	private class BatchJob implements Runnable {
+		private String name;
+		private List<String> lines;
+		private String errorMessage;
+		private long elapsedMillis;
+		private ToolListener listener;
+		private ToolEvents events;
+
+		private BatchJob(String name)
+		{
+			this.name = name;
+			this.lines = new ArrayList<String>();
+			this.elapsedMillis = -1;
+			this.listener = new PrefixListener(name, ToolboxBatch.this.listener);
+			this.events = new ToolEvents(null);
+			this.events.addListener(this.listener);
+		}
+
+		public void run()
+		{
+			int numThreads = 0;
+			try {
+				waitForMemory();
+
+				PharmacoepiTool tool = null;
+				for (String line: this.lines) {
+					String command = ToolboxCommands.getCommand(line);
+					String[] args = ToolboxCommands.getArgs(line);
+					if (command.equals("TOOL")) {
+						tool = ToolboxCommands.createTool(args);
+						tool.removeAllListeners();
+						tool.addListener(this.listener);
+					} else if (tool == null) {
+						throw new PharmacoepiToolException("No tool specified.  TOOL must come first.");
+					} else {
+						ToolboxCommands.apply(tool, command, args, inputCache);
+					}
+				}
+
+				if (tool == null)
+					throw new PharmacoepiToolException("No tool specified.");
+				if (tool instanceof Hdps) {
+					if (((Hdps) tool).getTempDirectory() == null)
+						throw new PharmacoepiToolException("hd-PS studies must set tempDirectory.");
+					String path = new File(((Hdps) tool).getTempDirectory()).getAbsolutePath();
+					if (! reserveTempDirectory(path))
+						throw new PharmacoepiToolException("Another study uses the same tempDirectory.");
+				} else if (((Match) tool).getOutfilePath() == null) {
+					throw new PharmacoepiToolException("Match studies must set outfilePath.");
+				}
+
+				int n = Math.min(getNumThreads(tool), threadBudget);
+				threads.acquire(n);
+				numThreads = n;
+
+				long startTime = System.currentTimeMillis();
+				if (tool instanceof Hdps)
+					((Hdps) tool).run();
+				else
+					((Match) tool).run();
+				this.elapsedMillis = System.currentTimeMillis() - startTime;
+			} catch (Throwable t) {
+				this.errorMessage = (t.getMessage() == null ? t.toString() : t.getMessage());
+				this.events.note("ERROR: %s", this.errorMessage);
+			} finally {
+				threads.release(numThreads);
+				jobFinished();
+			}
+		}
+	}
+
+	/*
+	 * Passes a study's events to the batch's listener, with the study's name before each
+	 * line of its messages.
+	 */
+	private static class PrefixListener implements ToolListener {
+		private String prefix;
+		private ToolListener listener;
+
+		private PrefixListener(String name, ToolListener listener)
+		{
+			this.prefix = "[" + name + "] ";
+			this.listener = listener;
+		}
+
+		public void message(PharmacoepiTool tool, String message)
+		{
+			this.listener.message(tool, this.prefix + message.replace("\n", "\n" + this.prefix));
+		}
+
+		public void phaseStarted(PharmacoepiTool tool, String phase)
+		{
+			this.listener.phaseStarted(tool, phase);
+		}
+
+		public void phaseEnded(PharmacoepiTool tool, String phase, long elapsedMillis)
+		{
+			this.listener.phaseEnded(tool, phase, elapsedMillis);
+		}
+
+		public void rowsProcessed(PharmacoepiTool tool, String source, long numRows)
+		{
+			this.listener.rowsProcessed(tool, source, numRows);
+		}
+
+		public void dimensionDone(PharmacoepiTool tool, int dimensionId, String description,
+				long numRows)
+		{
+			this.listener.dimensionDone(tool, dimensionId, description, numRows);
+		}
+
+		public void matchesMade(PharmacoepiTool tool, long numMatches)
+		{
+			this.listener.matchesMade(tool, numMatches);
+		}
+	}
+
+	/**
+	 * Create a batch that writes its messages, and those of its studies, to the console.
+	 */
+	public ToolboxBatch()
+	{
+		this(new ConsoleToolListener());
+	}
+
+	/**
+	 * @param listener	Listener for the batch's messages and its studies' events, or
+	 * 					null to run silently.  Each line of a study's messages starts with
+	 * 					the study's name in brackets.  The batch's own messages are sent
+	 * 					with a null tool.
+	 */
+	public ToolboxBatch(ToolListener listener)
+	{
+		super();
+		this.jobs = new ArrayList<BatchJob>();
+		this.tempDirectories = new HashSet<String>();
+		this.manifestTempDirectories = new HashSet<String>();
+		// studies pass their events on, so they need a listener even when the batch is silent
+		this.listener = (listener == null ? new ToolListenerAdapter() {} : listener);
+		this.events = new ToolEvents(null);
+		this.events.addListener(this.listener);
+	}
+
+	/**
+	 * Read studies from a manifest file.
+	 *
+	 * @param filePath		Path of the manifest.
+	 * @throws Exception
+	 */
+	public void addManifest(String filePath)
+	throws Exception
+	{
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(filePath), "UTF-8"));
+		try {
+			BatchJob job = null;
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				if ((line.trim().length() == 0) || (line.startsWith("#")))
+					continue;
+
+				String command = ToolboxCommands.getCommand(line);
+				if (command.equals("JOB")) {
+					if (job != null)
+						throw new PharmacoepiToolException(String.format(
+								"Line %d: study %s has no RUN.", lineNumber, job.name));
+					job = new BatchJob(line.substring(command.length()).trim());
+				} else if (job == null) {
+					throw new PharmacoepiToolException(String.format(
+							"Line %d: JOB must come before %s.", lineNumber, command));
+				} else if (command.equals("RUN")) {
+					this.jobs.add(job);
+					job = null;
+				} else {
+					String[] args = ToolboxCommands.getArgs(line);
+					if ((command.equals("SET")) && (args.length == 2) && 
+						(args[0].equals("tempDirectory")) && 
+						(! this.manifestTempDirectories.add(new File(args[1]).getAbsolutePath())))
+						throw new PharmacoepiToolException(String.format(
+								"Line %d: another study uses tempDirectory %s.", lineNumber, args[1]));
+
+					job.lines.add(line);
+				}
+			}
+
+			if (job != null)
+				throw new PharmacoepiToolException(String.format(
+						"Study %s has no RUN.", job.name));
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Run all studies and wait for them to finish.
+	 *
+	 * @return	Number of studies that failed.
+	 * @throws Exception
+	 */
+	public int run()
+	throws Exception
+	{
+		long startTime = System.currentTimeMillis();
+		this.events.note("NOTE: %s batch of %d studies starting, %d at a time.",
+				PharmacoepiTool.description, this.jobs.size(), this.numJobs);
+
+		this.inputCache = new InputCache(this.maxCachedRows);
+		// fair, so that studies needing many threads are not passed over
+		this.threads = new Semaphore(this.threadBudget, true);
+		// each study keeps its temporary directory for the whole batch
+		this.tempDirectories.clear();
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.numJobs);
+		for (BatchJob job: this.jobs)
+			executor.execute(job);
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		int numFailed = 0;
+		for (BatchJob job: this.jobs) {
+			if (job.errorMessage != null) {
+				numFailed++;
+				this.events.note("NOTE: Study %s failed: %s", job.name, job.errorMessage);
+			} else {
+				this.events.note("NOTE: Study %s finished in %d ms.", job.name, job.elapsedMillis);
+			}
+		}
+
+		this.events.note("NOTE: Batch finished in %d ms.  %d of %d studies failed.",
+				System.currentTimeMillis() - startTime, numFailed, this.jobs.size());
+		this.inputCache.clear();
+
+		return numFailed;
+	}
+
+	private static int getNumThreads(PharmacoepiTool tool)
+	{
+		if (tool instanceof Hdps) {
+			Hdps hdps = (Hdps) tool;
+			return Math.max(1, Math.max(hdps.getNumThreads(), hdps.getNumDimensions()));
+		}
+
+		return 1;
+	}
+
+	/*
+	 * Wait until heap use is below the limit or no other study is running.
+	 */
+	private synchronized void waitForMemory()
+	throws InterruptedException
+	{
+		while ((this.numRunning > 0) && (getHeapPercent() >= this.maxHeapPercent)) {
+			// the heap may hold only garbage
+			System.gc();
+			if (getHeapPercent() < this.maxHeapPercent)
+				break;
+
+			this.wait();
+		}
+
+		this.numRunning++;
+	}
+
+	private synchronized void jobFinished()
+	{
+		this.numRunning--;
+		this.notifyAll();
+	}
+
+	private synchronized boolean reserveTempDirectory(String tempDirectory)
+	{
+		return this.tempDirectories.add(tempDirectory);
+	}
+
+	private static double getHeapPercent()
+	{
+		Runtime r = Runtime.getRuntime();
+		return (100d * (r.totalMemory() - r.freeMemory()) / r.maxMemory());
+	}
+
+	/*
+	 * ===========================================
+	 * GETTERS AND SETTERS
+	 * ===========================================
+	 */
+
+	/**
+	 * @see #numJobs
+	 */
+	public int getNumJobs() {
+		return numJobs;
+	}
+
+	/**
+	 * @see #numJobs
+	 */
+	public void setNumJobs(int numJobs) {
+		this.numJobs = numJobs;
+	}
+
+	/**
+	 * @see #threadBudget
+	 */
+	public int getThreadBudget() {
+		return threadBudget;
+	}
+
+	/**
+	 * @see #threadBudget
+	 */
+	public void setThreadBudget(int threadBudget) {
+		this.threadBudget = threadBudget;
+	}
+
+	/**
+	 * @see #maxHeapPercent
+	 */
+	public int getMaxHeapPercent() {
+		return maxHeapPercent;
+	}
+
+	/**
+	 * @see #maxHeapPercent
+	 */
+	public void setMaxHeapPercent(int maxHeapPercent) {
+		this.maxHeapPercent = maxHeapPercent;
+	}
+
+	/**
+	 * @see #maxCachedRows
+	 */
+	public long getMaxCachedRows() {
+		return maxCachedRows;
+	}
+
+	/**
+	 * @see #maxCachedRows
+	 */
+	public void setMaxCachedRows(long maxCachedRows) {
+		this.maxCachedRows = maxCachedRows;
+	}
+
+	/**
+	 * Run the studies in a manifest.
+	 * <pre>
+	 * java -cp pharmacoepi.jar org.drugepi.server.ToolboxBatch manifest [numJobs] [threadBudget]
+	 * </pre>
+	 * Exits with status 1 if any study fails.
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.out.println("Usage: ToolboxBatch manifest [numJobs] [threadBudget]");
+			System.exit(2);
+		}
+
+		ToolboxBatch batch = new ToolboxBatch();
+		if (args.length > 1)
+			batch.setNumJobs(Integer.parseInt(args[1]));
+		if (args.length > 2)
+			batch.setThreadBudget(Integer.parseInt(args[2]));
+
+		batch.addManifest(args[0]);
+		System.exit(batch.run() == 0 ? 0 : 1);
+	}
+}
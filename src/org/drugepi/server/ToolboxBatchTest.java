@@ -0,0 +1,164 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import org.drugepi.*;
+import org.drugepi.hdps.HdpsSyntheticCohort;
+import org.drugepi.util.Utils;
+import org.junit.*;
+
+/**
+ * Checks that a batch reports a failed study, releases the failed study's resources and
+ * still runs the other studies.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolboxBatchTest {
+	private String directory;
+	private String dataDirectory;
+	private HdpsSyntheticCohort cohort;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.directory = Files.createTempDirectory("toolbox_batch_test").toString();
+		this.dataDirectory = Utils.getFilePath(this.directory, "data");
+		new File(this.dataDirectory).mkdirs();
+
+		this.cohort = new HdpsSyntheticCohort();
+		this.cohort.numPatients = 500;
+		this.cohort.numDimensions = 1;
+		this.cohort.numCodes = 50;
+		this.cohort.write(this.dataDirectory);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		deleteDirectory(new File(this.directory));
+	}
+
+	/*
+	 * A patient file whose exposure cannot be read, so that the study fails after its
+	 * local database has been opened.
+	 */
+	private String writeBadPatientFile() throws Exception
+	{
+		String path = Utils.getFilePath(this.dataDirectory, "bad_patients.txt");
+		PrintWriter writer = new PrintWriter(path, "UTF-8");
+		writer.print("patient_id\texposure\toutcome\tfollow_up\tindex_date\n");
+		writer.print("1\tunknown\t0\t365\t0\n");
+		writer.close();
+
+		return path;
+	}
+
+	/*
+	 * A dimension file with a row that has no code column, so that the study fails
+	 * while the dimension is read.
+	 */
+	private String writeBadDimensionFile() throws Exception
+	{
+		String path = Utils.getFilePath(this.dataDirectory, "bad_dimension.txt");
+		PrintWriter writer = new PrintWriter(path, "UTF-8");
+		writer.print("patient_id\tcode\tservice_date\n");
+		writer.print("1\n");
+		writer.close();
+
+		return path;
+	}
+
+	private String writeManifest(String badTempDirectory, String badDimensionTempDirectory,
+			String goodTempDirectory)
+	throws Exception
+	{
+		String path = Utils.getFilePath(this.directory, "manifest.txt");
+		String dimensionPath = this.cohort.getDimensionFilePath(this.dataDirectory, 0);
+		PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+		writer.print("JOB bad\nTOOL HDPS\n");
+		writer.printf("SET tempDirectory\t%s\n", badTempDirectory);
+		writer.printf("PATIENTS %s\n", this.writeBadPatientFile());
+		writer.printf("DIMENSION Synthetic dimension 1\t%s\n", dimensionPath);
+		writer.print("RUN\n\n");
+
+		writer.print("JOB bad_dimension\nTOOL HDPS\n");
+		writer.printf("SET tempDirectory\t%s\n", badDimensionTempDirectory);
+		writer.printf("PATIENTS %s\n", this.cohort.getPatientFilePath(this.dataDirectory));
+		writer.printf("DIMENSION Synthetic dimension 1\t%s\n", this.writeBadDimensionFile());
+		writer.print("RUN\n\n");
+
+		writer.print("JOB good\nTOOL HDPS\n");
+		writer.printf("SET tempDirectory\t%s\n", goodTempDirectory);
+		writer.print("SET k\t10\nSET topN\t20\n");
+		writer.printf("PATIENTS %s\n", this.cohort.getPatientFilePath(this.dataDirectory));
+		writer.printf("DIMENSION Synthetic dimension 1\t%s\n", dimensionPath);
+		writer.print("RUN\n");
+		writer.close();
+
+		return path;
+	}
+
+	private static void deleteDirectory(File directory)
+	{
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				if (f.isDirectory())
+					deleteDirectory(f);
+				else
+					f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testFailedStudy() throws Exception
+	{
+		String badTempDirectory = Utils.getFilePath(this.directory, "bad");
+		String badDimensionTempDirectory = Utils.getFilePath(this.directory, "bad_dimension");
+		String goodTempDirectory = Utils.getFilePath(this.directory, "good");
+		new File(badTempDirectory).mkdirs();
+		new File(badDimensionTempDirectory).mkdirs();
+		new File(goodTempDirectory).mkdirs();
+
+		final StringBuffer messages = new StringBuffer();
+		ToolboxBatch batch = new ToolboxBatch(new ConsoleToolListener() {
+			public void message(PharmacoepiTool tool, String message) {
+				super.message(tool, message);
+				messages.append(message).append('\n');
+			}
+		});
+		batch.setNumJobs(2);
+		batch.addManifest(this.writeManifest(badTempDirectory, badDimensionTempDirectory,
+				goodTempDirectory));
+		assertEquals(2, batch.run());
+
+		// failures reach the batch's listener, with each study's messages prefixed
+		assertTrue(messages.toString().contains("\n[bad] ERROR: "));
+		assertTrue(messages.toString().contains("\nNOTE: Study bad_dimension failed: "));
+		assertTrue(messages.toString().contains("\n[good] "));
+
+		// the failed study closed its local database, which removes the database's files
+		assertFalse(new File(badTempDirectory, "je.lck").exists());
+		assertEquals(0, new File(badTempDirectory).listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".jdb");
+			}
+		}).length);
+
+		// a failed dimension fails the study rather than leaving a partial run
+		assertFalse(new File(badDimensionTempDirectory, "output_all_vars.txt").exists());
+		assertTrue(new File(goodTempDirectory, "output_all_vars.txt").exists());
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Client for a {@link ToolboxServer}.  Its methods take and return only strings and
+ * numbers, so it can be called from SAS through <code>JavaObj</code> and from R through
+ * rJava in place of building an {@link org.drugepi.hdps.Hdps} or
+ * {@link org.drugepi.match.Match} object.  For example:
+ * <pre>
+ * ToolboxClient client = new ToolboxClient();
+ * client.newJob("MATCH");
+ * client.call("initMatch", "NN", "2");
+ * client.call("addMatchGroup", "0");
+ * client.call("addMatchGroup", "1");
+ * client.set("outfilePath", "/data/matches.txt");
+ * client.addPatients("/data/patients.txt");
+ * if (client.run() != 0)
+ *     System.out.println(client.getErrorMessage());
+ * </pre>
+ * Parameters and calls are held by the client and sent when {@link #run()} is called.
+ * Progress messages are written to standard output as they arrive.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolboxClient {
+	/**
+	 * Write the job's progress messages to standard output.
+	 * <p>
+	 * Default: 1 (true).
+	 */
+	public int echoMessages = 1;
+
+	private int port;
+	private String token;
+	private List<String> request;
+	private StringBuilder messages;
+	private StringBuilder outputData;
+	private List<String> outputFiles;
+	private String errorMessage;
+	private long elapsedMillis;
+
+	/**
+	 * Connect to the server described in
+	 * {@link ToolboxServer#DEFAULT_CONNECTION_FILE}.
+	 *
+	 * @throws Exception
+	 */
+	public ToolboxClient()
+	throws Exception
+	{
+		this(ToolboxServer.DEFAULT_CONNECTION_FILE);
+	}
+
+	/**
+	 * Connect to the server described in a connection file.
+	 *
+	 * @param connectionFile	The file written by the server when it started.
+	 * @throws Exception
+	 */
+	public ToolboxClient(String connectionFile)
+	throws Exception
+	{
+		Properties p = new Properties();
+		InputStream is = new FileInputStream(connectionFile);
+		try {
+			p.load(is);
+		} finally {
+			is.close();
+		}
+
+		this.init(Integer.parseInt(p.getProperty("port")), p.getProperty("token"));
+	}
+
+	/**
+	 * Connect to a server on the given port.
+	 *
+	 * @param port		The server's port.
+	 * @param token		The server's access token.
+	 */
+	public ToolboxClient(int port, String token)
+	{
+		this.init(port, token);
+	}
+
+	private void init(int port, String token)
+	{
+		this.port = port;
+		this.token = token;
+		this.request = new ArrayList<String>();
+		this.newJob("HDPS");
+	}
+
+	/**
+	 * Start a new job, discarding any parameters and results of the last one.
+	 *
+	 * @param tool		HDPS or MATCH.
+	 */
+	public void newJob(String tool)
+	{
+		this.request.clear();
+		this.request.add("TOOL " + tool);
+		this.messages = new StringBuilder();
+		this.outputData = new StringBuilder();
+		this.outputFiles = new ArrayList<String>();
+		this.errorMessage = null;
+		this.elapsedMillis = -1;
+	}
+
+	/**
+	 * Set a parameter of the tool, e.g. <code>set("topN", "200")</code>.
+	 */
+	public void set(String name, String value)
+	{
+		this.request.add("SET " + join(name, value));
+	}
+
+	/**
+	 * Call a method of the tool, e.g. <code>call("addMatchGroup", "1")</code>.
+	 */
+	public void call(String method)
+	{
+		this.request.add("CALL " + method);
+	}
+
+	public void call(String method, String arg1)
+	{
+		this.request.add("CALL " + join(method, arg1));
+	}
+
+	public void call(String method, String arg1, String arg2)
+	{
+		this.request.add("CALL " + join(method, arg1, arg2));
+	}
+
+	public void call(String method, String arg1, String arg2, String arg3)
+	{
+		this.request.add("CALL " + join(method, arg1, arg2, arg3));
+	}
+
+	public void call(String method, String[] args)
+	{
+		String[] fields = new String[args.length + 1];
+		fields[0] = method;
+		System.arraycopy(args, 0, fields, 1, args.length);
+		this.request.add("CALL " + join(fields));
+	}
+
+	/**
+	 * Add patients from a tab-delimited file.  The server keeps the file in memory for
+	 * later jobs.
+	 */
+	public void addPatients(String filePath)
+	{
+		this.request.add("PATIENTS " + filePath);
+	}
+
+	/**
+	 * Add an hd-PS dimension from a tab-delimited file.  The server keeps the file in
+	 * memory for later jobs.
+	 */
+	public void addDimension(String description, String filePath)
+	{
+		this.request.add("DIMENSION " + join(description, filePath));
+	}
+
+	/**
+	 * Send the job to the server and wait for it to finish.
+	 *
+	 * @return	0 if the job succeeded, or 1 if it failed.  See {@link #getErrorMessage()}.
+	 * @throws Exception	If the server cannot be reached.
+	 */
+	public int run()
+	throws Exception
+	{
+		List<String> lines = new ArrayList<String>(this.request);
+		lines.add("RUN");
+		return this.send(lines);
+	}
+
+	/**
+	 * Ask the server to stop once its running jobs finish.
+	 *
+	 * @throws Exception	If the server cannot be reached.
+	 */
+	public void shutdownServer()
+	throws Exception
+	{
+		this.send(Collections.singletonList("SHUTDOWN"));
+	}
+
+	private int send(List<String> lines)
+	throws Exception
+	{
+		Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), this.port);
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			out.write(ToolboxJob.PROTOCOL + " " + this.token + "\n");
+			for (String line: lines)
+				out.write(line + "\n");
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String type = (space < 0 ? line : line.substring(0, space));
+				String value = (space < 0 ? "" : line.substring(space + 1));
+
+				if (type.equals("MESSAGE")) {
+					this.messages.append(value).append('\n');
+					if (this.echoMessages != 0)
+						System.out.println(value);
+				} else if (type.equals("OUTPUT")) {
+					this.outputData.append(value).append('\n');
+				} else if (type.equals("FILE")) {
+					this.outputFiles.add(value);
+				} else if (type.equals("OK")) {
+					this.elapsedMillis = Long.parseLong(value);
+					return 0;
+				} else if (type.equals("ERROR")) {
+					this.errorMessage = value;
+					return 1;
+				}
+			}
+		} finally {
+			socket.close();
+		}
+
+		this.errorMessage = "Connection closed by server.";
+		return 1;
+	}
+
+	private static String join(String... fields)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append('\t');
+			sb.append(fields[i]);
+		}
+
+		return sb.toString();
+	}
+
+	/*
+	 * ===========================================
+	 * GETTERS AND SETTERS
+	 * ===========================================
+	 */
+
+	/**
+	 * @return	Progress messages from the last job, one per line.
+	 */
+	public String getMessages() {
+		return messages.toString();
+	}
+
+	/**
+	 * @return	Match output from the last job, in the form returned by
+	 * 			{@link org.drugepi.match.Match#getMatchOutputData()}, if no output file was set.
+	 */
+	public String getMatchOutputData() {
+		return outputData.toString();
+	}
+
+	/**
+	 * @return	Number of files written by the last hd-PS job.
+	 */
+	public int getNumOutputFiles() {
+		return outputFiles.size();
+	}
+
+	/**
+	 * @param i		Index of the file, starting at 0.
+	 * @return		Path of a file written by the last hd-PS job.
+	 */
+	public String getOutputFile(int i) {
+		return outputFiles.get(i);
+	}
+
+	/**
+	 * @return	The reason the last job failed, or null if it succeeded.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return	Time the last job took on the server.
+	 */
+	public double getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @see #echoMessages
+	 */
+	public int getEchoMessages() {
+		return echoMessages;
+	}
+
+	/**
+	 * @see #echoMessages
+	 */
+	public void setEchoMessages(int echoMessages) {
+		this.echoMessages = echoMessages;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.lang.reflect.*;
+
+import org.drugepi.*;
+import org.drugepi.hdps.Hdps;
+import org.drugepi.match.Match;
+
+/*
+ * Commands that create and set up a tool, shared by server connections and batch
+ * manifests.  See {@link ToolboxJob} for the commands.
+ */
+class ToolboxCommands {
+	/*
+	 * The command word of a line.
+	 */
+	static String getCommand(String line)
+	{
+		int space = line.indexOf(' ');
+		return (space < 0 ? line : line.substring(0, space));
+	}
+
+	/*
+	 * The tab-separated arguments of a line.
+	 */
+	static String[] getArgs(String line)
+	{
+		int space = line.indexOf(' ');
+		return (space < 0 ? new String[0] : line.substring(space + 1).split("\t", -1));
+	}
+
+	static PharmacoepiTool createTool(String[] args)
+	throws Exception
+	{
+		checkArgs("TOOL", args, 1);
+		if (args[0].equalsIgnoreCase("HDPS"))
+			return new Hdps();
+		else if (args[0].equalsIgnoreCase("MATCH"))
+			return new Match();
+
+		throw new PharmacoepiToolException(String.format(
+				"Invalid tool %s specified.  Tool must be either HDPS or MATCH.", args[0]));
+	}
+
+	/*
+	 * Apply a SET, CALL, PATIENTS or DIMENSION command to a tool.
+	 */
+	static void apply(PharmacoepiTool tool, String command, String[] args, InputCache inputCache)
+	throws Exception
+	{
+		if (command.equals("SET")) {
+			checkArgs(command, args, 2);
+			setParameter(tool, args[0], args[1]);
+		} else if (command.equals("CALL")) {
+			if (args.length < 1)
+				throw new PharmacoepiToolException("CALL requires a method name.");
+			String[] methodArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, methodArgs, 0, methodArgs.length);
+			callMethod(tool, args[0], methodArgs);
+		} else if (command.equals("PATIENTS")) {
+			checkArgs(command, args, 1);
+			tool.addPatients(inputCache.getReader(args[0]));
+		} else if (command.equals("DIMENSION")) {
+			checkArgs(command, args, 2);
+			if (! (tool instanceof Hdps))
+				throw new PharmacoepiToolException("DIMENSION requires an hd-PS job.");
+			((Hdps) tool).addDimension(args[0], inputCache.getReader(args[1]));
+		} else {
+			throw new PharmacoepiToolException(String.format("Unknown command %s.", command));
+		}
+	}
+
+	static void checkArgs(String command, String[] args, int numArgs)
+	throws PharmacoepiToolException
+	{
+		if (args.length != numArgs)
+			throw new PharmacoepiToolException(String.format(
+					"%s requires %d argument(s).", command, numArgs));
+	}
+
+	/**
+	 * Set a tool parameter by its setter, e.g. <code>setTopN</code> for <code>topN</code>,
+	 * or failing that by its public field.
+	 */
+	static void setParameter(Object target, String name, String value)
+	throws Exception
+	{
+		if (name.length() == 0)
+			throw new PharmacoepiToolException("No parameter name specified.");
+
+		String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		if (invoke(target, setterName, new String[] { value }))
+			return;
+
+		Field field;
+		try {
+			field = target.getClass().getField(name);
+		} catch (NoSuchFieldException e) {
+			throw new PharmacoepiToolException(String.format("Unknown parameter %s.", name));
+		}
+
+		int modifiers = field.getModifiers();
+		Object fieldValue = convert(value, field.getType());
+		if ((Modifier.isStatic(modifiers)) || (Modifier.isFinal(modifiers)) || (fieldValue == null))
+			throw new PharmacoepiToolException(String.format("Parameter %s cannot be set to %s.",
+					name, value));
+
+		field.set(target, fieldValue);
+	}
+
+	/**
+	 * Call a public tool method with arguments converted from strings.
+	 */
+	static void callMethod(Object target, String name, String[] args)
+	throws Exception
+	{
+		if ((name.equals("run")) || (! invoke(target, name, args)))
+			throw new PharmacoepiToolException(String.format(
+					"No method %s taking %d argument(s) can be called.", name, args.length));
+	}
+
+	private static boolean invoke(Object target, String name, String[] args)
+	throws Exception
+	{
+		// try methods taking only strings first, as SAS callers do
+		for (int pass = 0; pass < 2; pass++) {
+			for (Method method: target.getClass().getMethods()) {
+				if ((! method.getName().equals(name)) ||
+					(method.getParameterTypes().length != args.length) ||
+					(Modifier.isStatic(method.getModifiers())) ||
+					(! method.getDeclaringClass().getName().startsWith("org.drugepi.")))
+					continue;
+
+				Class<?>[] types = method.getParameterTypes();
+				Object[] values = new Object[args.length];
+				boolean allStrings = true;
+				boolean converted = true;
+				for (int i = 0; i < args.length; i++) {
+					allStrings &= (types[i] == String.class);
+					values[i] = convert(args[i], types[i]);
+					converted &= (values[i] != null);
+				}
+
+				if ((! converted) || ((pass == 0) && (! allStrings)))
+					continue;
+
+				try {
+					method.invoke(target, values);
+				} catch (InvocationTargetException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Convert a string argument to the parameter type, or return null if it cannot be.
+	 */
+	private static Object convert(String value, Class<?> type)
+	{
+		try {
+			if (type == String.class)
+				return value;
+			if ((type == int.class) || (type == Integer.class))
+				return Integer.valueOf(value.trim());
+			if ((type == long.class) || (type == Long.class))
+				return Long.valueOf(value.trim());
+			if ((type == double.class) || (type == Double.class))
+				return Double.valueOf(value.trim());
+			if ((type == boolean.class) || (type == Boolean.class)) {
+				if (value.trim().equalsIgnoreCase("true") || value.trim().equals("1"))
+					return Boolean.TRUE;
+				if (value.trim().equalsIgnoreCase("false") || value.trim().equals("0"))
+					return Boolean.FALSE;
+			}
+		} catch (NumberFormatException e) {
+			// not convertible
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.io.*;
+import java.net.Socket;
+
+import org.drugepi.*;
+import org.drugepi.hdps.Hdps;
+import org.drugepi.match.Match;
+
+/**
+ * One client connection to a {@link ToolboxServer}.  The client sends a job as lines of
+ * UTF-8 text, and the server streams back the job's progress and results.  Arguments
+ * within a line are separated by tabs.
+ * <p>
+ * Client lines:
+ * <ul>
+ * <li><code>TOOLBOX 1 <i>token</i></code>: must be the first line.</li>
+ * <li><code>TOOL HDPS</code> or <code>TOOL MATCH</code>: creates the tool.</li>
+ * <li><code>SET <i>name</i>	<i>value</i></code>: calls the tool's setter for the
+ * parameter, or sets its public field.</li>
+ * <li><code>CALL <i>method</i>	<i>arg</i>	...</code>: calls a public method of the tool,
+ * e.g. <code>CALL initMatch	NN	2</code>.</li>
+ * <li><code>PATIENTS <i>path</i></code>: adds patients from a tab-delimited file, through
+ * the server's input cache.</li>
+ * <li><code>DIMENSION <i>description</i>	<i>path</i></code>: adds an hd-PS dimension
+ * from a tab-delimited file, through the server's input cache.</li>
+ * <li><code>RUN</code>: runs the job.</li>
+ * <li><code>SHUTDOWN</code>: stops the server once running jobs finish.</li>
+ * </ul>
+ * Server lines:
+ * <ul>
+ * <li><code>MESSAGE <i>text</i></code>, <code>PHASE_START <i>phase</i></code>,
+ * <code>PHASE_END <i>phase</i>	<i>millis</i></code>,
+ * <code>ROWS <i>source</i>	<i>rows</i></code>,
+ * <code>DIMENSION <i>id</i>	<i>description</i>	<i>rows</i></code> and
+ * <code>MATCHES <i>matches</i></code>: progress events from the tool.</li>
+ * <li><code>OUTPUT <i>row</i></code>: a row of match output, when the job sets no
+ * output file.</li>
+ * <li><code>FILE <i>path</i></code>: a file written by an hd-PS job.</li>
+ * <li><code>OK <i>millis</i></code> or <code>ERROR <i>message</i></code>: the last
+ * line.</li>
+ * </ul>
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolboxJob implements Runnable {
+	public static final String PROTOCOL = "TOOLBOX 1";
+
+	// time allowed between request lines
+	private static final int REQUEST_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	private ToolboxServer server;
+	private Socket socket;
+	private BufferedReader in;
+	private Writer out;
+	private PharmacoepiTool tool;
+
+	public ToolboxJob(ToolboxServer server, Socket socket)
+	{
+		super();
+		this.server = server;
+		this.socket = socket;
+	}
+
+	public void run()
+	{
+		long jobNumber = this.server.nextJobNumber();
+		try {
+			this.socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+			this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), "UTF-8"));
+			this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), "UTF-8"));
+
+			String line = this.in.readLine();
+			if ((line == null) || (! line.startsWith(PROTOCOL + " ")) ||
+				(! this.server.isValidToken(line.substring(PROTOCOL.length() + 1)))) {
+				this.send("ERROR", "Not authorized.");
+				return;
+			}
+
+			this.runJob(jobNumber);
+		} catch (Throwable t) {
+			String message = (t.getMessage() == null ? t.toString() : t.getMessage());
+			this.server.getEvents().note("NOTE: Job %d failed: %s", jobNumber, message);
+			try {
+				this.send("ERROR", message);
+			} catch (IOException e) {
+				// the client has gone
+			}
+		} finally {
+			try {
+				this.socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	private void runJob(long jobNumber)
+	throws Exception
+	{
+		String line;
+		while ((line = this.in.readLine()) != null) {
+			String command = ToolboxCommands.getCommand(line);
+			String[] args = ToolboxCommands.getArgs(line);
+
+			if (command.equals("TOOL")) {
+				this.tool = ToolboxCommands.createTool(args);
+				this.tool.removeAllListeners();
+				this.tool.addListener(new SocketListener());
+			} else if (command.equals("RUN")) {
+				this.runTool(jobNumber);
+				return;
+			} else if (command.equals("SHUTDOWN")) {
+				this.server.getEvents().note("NOTE: Job %d requested shutdown.", jobNumber);
+				this.server.stop();
+				this.send("OK", "0");
+				return;
+			} else {
+				ToolboxCommands.apply(this.getTool(), command, args, this.server.getInputCache());
+			}
+		}
+	}
+
+	private void runTool(long jobNumber)
+	throws Exception
+	{
+		PharmacoepiTool tool = this.getTool();
+		this.server.getEvents().note("NOTE: Job %d (%s) starting.", jobNumber,
+				tool.getClass().getSimpleName());
+
+		// the client waits for as long as the job takes
+		this.socket.setSoTimeout(0);
+		long startTime = System.currentTimeMillis();
+
+		if (tool instanceof Hdps) {
+			Hdps hdps = (Hdps) tool;
+			hdps.run();
+			for (String path: hdps.getOutputFiles())
+				this.send("FILE", path);
+		} else {
+			Match match = (Match) tool;
+			match.run();
+			if ((match.getOutfilePath() == null) && (match.getMatchOutputData() != null)) {
+				for (String row: match.getMatchOutputData().split("\r?\n"))
+					this.send("OUTPUT", row.split("\t", -1));
+			}
+		}
+
+		long elapsedMillis = System.currentTimeMillis() - startTime;
+		this.send("OK", Long.toString(elapsedMillis));
+		this.server.getEvents().note("NOTE: Job %d finished in %d ms.", jobNumber, elapsedMillis);
+	}
+
+	private PharmacoepiTool getTool()
+	throws PharmacoepiToolException
+	{
+		if (this.tool == null)
+			throw new PharmacoepiToolException("No tool specified.  Send TOOL first.");
+
+		return this.tool;
+	}
+
+	private synchronized void send(String type, String... fields)
+	throws IOException
+	{
+		StringBuilder sb = new StringBuilder(type);
+		for (int i = 0; i < fields.length; i++) {
+			sb.append(i == 0 ? ' ' : '\t');
+			// fields are single lines
+			sb.append(fields[i].replace('\n', ' ').replace('\r', ' ').replace('\t', ' '));
+		}
+		sb.append('\n');
+
+		this.out.write(sb.toString());
+		this.out.flush();
+	}
+
+	private class SocketListener implements ToolListener {
+		private void sendEvent(String type, String... fields)
+		{
+			try {
+				send(type, fields);
+			} catch (IOException e) {
+				// the client has gone; let the job finish
+			}
+		}
+
+		public void message(PharmacoepiTool tool, String message)
+		{
+			for (String line: message.split("\r?\n"))
+				this.sendEvent("MESSAGE", line);
+		}
+
+		public void phaseStarted(PharmacoepiTool tool, String phase)
+		{
+			this.sendEvent("PHASE_START", phase);
+		}
+
+		public void phaseEnded(PharmacoepiTool tool, String phase, long elapsedMillis)
+		{
+			this.sendEvent("PHASE_END", phase, Long.toString(elapsedMillis));
+		}
+
+		public void rowsProcessed(PharmacoepiTool tool, String source, long numRows)
+		{
+			this.sendEvent("ROWS", source, Long.toString(numRows));
+		}
+
+		public void dimensionDone(PharmacoepiTool tool, int dimensionId, String description,
+				long numRows)
+		{
+			this.sendEvent("DIMENSION", Integer.toString(dimensionId), description,
+					Long.toString(numRows));
+		}
+
+		public void matchesMade(PharmacoepiTool tool, long numMatches)
+		{
+			this.sendEvent("MATCHES", Long.toString(numMatches));
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.server;
+
+import java.io.*;
+import java.net.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.drugepi.*;
+
+/**
+ * A long-running toolbox process that runs hd-PS and match jobs for clients on the same
+ * machine.  Starting a JVM for every job costs several seconds of class loading and JIT
+ * compilation, and every job reads its patient and dimension files from scratch.  The
+ * server stays warm between jobs and holds recently used input files in an
+ * {@link InputCache}.
+ * <p>
+ * The server listens on the loopback interface only.  On start it writes its port and a
+ * random access token to {@link #connectionFile}, readable only by the current user;
+ * clients must present the token.  Jobs run on a fixed pool of {@link #numThreads}
+ * threads, with up to {@link #maxQueuedJobs} more waiting.  Further connections are
+ * refused.  See {@link ToolboxClient} for the client side and {@link ToolboxJob} for the
+ * protocol.
+ * <p>
+ * Start the server with
+ * <pre>
+ * java -cp pharmacoepi.jar org.drugepi.server.ToolboxServer [port] [numThreads] [maxCachedRows]
+ * </pre>
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class ToolboxServer {
+	public static final String DEFAULT_CONNECTION_FILE =
+		System.getProperty("user.home") + File.separator + ".drugepi" + File.separator +
+		"toolbox_server.properties";
+
+	/**
+	 * Port to listen on, or 0 to use any free port.
+	 * <p>
+	 * Default: 0.
+	 */
+	public int port = 0;
+
+	/**
+	 * Number of jobs run at once.  Each hd-PS job uses its own threads in addition.
+	 * <p>
+	 * Default: 2.
+	 */
+	public int numThreads = 2;
+
+	/**
+	 * Number of jobs that may wait for a free thread.
+	 * <p>
+	 * Default: 16.
+	 */
+	public int maxQueuedJobs = 16;
+
+	/**
+	 * Maximum number of input rows held in the cache between jobs.  0 disables the cache.
+	 * <p>
+	 * Default: 20,000,000.
+	 */
+	public long maxCachedRows = 20000000;
+
+	/**
+	 * File to which the port and access token are written.
+	 * <p>
+	 * Default: <code>.drugepi/toolbox_server.properties</code> in the user's home directory.
+	 */
+	public String connectionFile = DEFAULT_CONNECTION_FILE;
+
+	private ServerSocket serverSocket;
+	private ThreadPoolExecutor executor;
+	private InputCache inputCache;
+	private String token;
+	private volatile boolean stopping;
+	private long numJobs;
+	private ToolEvents events;
+
+	/**
+	 * Create a server that writes its status messages to the console.
+	 */
+	public ToolboxServer()
+	{
+		this(new ConsoleToolListener());
+	}
+
+	/**
+	 * @param listener	Listener for the status messages of the server and its jobs, or
+	 * 					null to run silently.  The messages are sent with a null tool.
+	 */
+	public ToolboxServer(ToolListener listener)
+	{
+		super();
+		this.events = new ToolEvents(null);
+		if (listener != null)
+			this.events.addListener(listener);
+	}
+
+	/**
+	 * Open the server socket and write the connection file.  Call {@link #serve()} to
+	 * accept connections.
+	 *
+	 * @throws Exception
+	 */
+	public void start()
+	throws Exception
+	{
+		this.inputCache = new InputCache(this.maxCachedRows);
+		this.executor = new ThreadPoolExecutor(this.numThreads, this.numThreads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(this.maxQueuedJobs, 1)));
+
+		byte[] tokenBytes = new byte[16];
+		new SecureRandom().nextBytes(tokenBytes);
+		StringBuilder sb = new StringBuilder();
+		for (byte b: tokenBytes)
+			sb.append(String.format("%02x", b));
+		this.token = sb.toString();
+
+		this.serverSocket = new ServerSocket(this.port, 50, InetAddress.getByName("127.0.0.1"));
+		this.port = this.serverSocket.getLocalPort();
+		this.writeConnectionFile();
+
+		this.events.note("NOTE: %s server version %s listening on 127.0.0.1:%d with %d job threads.",
+				PharmacoepiTool.description, PharmacoepiTool.version, this.port, this.numThreads);
+	}
+
+	/**
+	 * Accept connections until {@link #stop()} is called.
+	 *
+	 * @throws Exception
+	 */
+	public void serve()
+	throws Exception
+	{
+		while (! this.stopping) {
+			Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+			} catch (SocketException e) {
+				if (this.stopping)
+					break;
+				throw e;
+			}
+
+			try {
+				this.executor.execute(new ToolboxJob(this, socket));
+			} catch (RejectedExecutionException e) {
+				refuse(socket, "Server busy.  Try again later.");
+			}
+		}
+
+		this.executor.shutdown();
+		this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		new File(this.connectionFile).delete();
+		this.events.note("NOTE: Server stopped.");
+	}
+
+	/**
+	 * Stop accepting connections.  Jobs already accepted run to completion.
+	 */
+	public void stop()
+	{
+		this.stopping = true;
+		try {
+			this.serverSocket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	private void writeConnectionFile()
+	throws Exception
+	{
+		File file = new File(this.connectionFile);
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+
+		// create the file empty and restrict it before the token is written
+		file.delete();
+		file.createNewFile();
+		file.setReadable(false, false);
+		file.setWritable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(true, true);
+
+		Properties p = new Properties();
+		p.setProperty("port", Integer.toString(this.port));
+		p.setProperty("token", this.token);
+		OutputStream os = new FileOutputStream(file);
+		try {
+			p.store(os, PharmacoepiTool.description + " server");
+		} finally {
+			os.close();
+		}
+	}
+
+	private static void refuse(Socket socket, String message)
+	{
+		try {
+			Writer w = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+			w.write("ERROR " + message + "\n");
+			w.flush();
+			socket.close();
+		} catch (IOException e) {
+			// the client has gone
+		}
+	}
+
+	/*
+	 * ===========================================
+	 * METHODS FOR JOBS
+	 * ===========================================
+	 */
+
+	boolean isValidToken(String token)
+	{
+		if (token == null)
+			return false;
+
+		// compare in constant time
+		return java.security.MessageDigest.isEqual(this.token.getBytes(), token.getBytes());
+	}
+
+	synchronized long nextJobNumber()
+	{
+		return ++this.numJobs;
+	}
+
+	InputCache getInputCache()
+	{
+		return this.inputCache;
+	}
+
+	ToolEvents getEvents()
+	{
+		return this.events;
+	}
+
+	/*
+	 * ===========================================
+	 * GETTERS AND SETTERS
+	 * ===========================================
+	 */
+
+	/**
+	 * @see #port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @see #port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @see #numThreads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @see #numThreads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @see #maxQueuedJobs
+	 */
+	public int getMaxQueuedJobs() {
+		return maxQueuedJobs;
+	}
+
+	/**
+	 * @see #maxQueuedJobs
+	 */
+	public void setMaxQueuedJobs(int maxQueuedJobs) {
+		this.maxQueuedJobs = maxQueuedJobs;
+	}
+
+	/**
+	 * @see #maxCachedRows
+	 */
+	public long getMaxCachedRows() {
+		return maxCachedRows;
+	}
+
+	/**
+	 * @see #maxCachedRows
+	 */
+	public void setMaxCachedRows(long maxCachedRows) {
+		this.maxCachedRows = maxCachedRows;
+	}
+
+	/**
+	 * @see #connectionFile
+	 */
+	public String getConnectionFile() {
+		return connectionFile;
+	}
+
+	/**
+	 * @see #connectionFile
+	 */
+	public void setConnectionFile(String connectionFile) {
+		this.connectionFile = connectionFile;
+	}
+
+	public static void main(String[] args)
+	throws Exception
+	{
+		final ToolboxServer server = new ToolboxServer();
+		if (args.length > 0)
+			server.setPort(Integer.parseInt(args[0]));
+		if (args.length > 1)
+			server.setNumThreads(Integer.parseInt(args[1]));
+		if (args.length > 2)
+			server.setMaxCachedRows(Long.parseLong(args[2]));
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.stop();
+			}
+		});
+
+		server.start();
+		server.serve();
+	}
+}
@@ -20,7 +20,11 @@ public class DatabaseRowReader extends RowReader {
 	private Statement statement;
 	private ResultSet rs;
 	
-	private String query;
+	protected String driverClass;
+	protected String url;
+	protected Properties properties;
+	protected String query;
+	protected int fetchSize;
 	
 	/**
 	 * DatabaseRowReader constructor.
@@ -66,6 +70,27 @@ public class DatabaseRowReader extends RowReader {
 		this.open(driverClass, url, username, password, query);
 	}
 	
+	/**
+	 * DatabaseRowReader constructor.  Opens a database connection using the specified parameters,
+	 * and fetches rows from the database the specified number at a time.
+	 * 
+	 * @param driverClass Class of the JDBC driver for this database.
+	 * @param url  JDBC URL of the database.
+	 * @param username  Username for logging into the database.
+	 * @param password  Password for logging into the database.
+	 * @param query SQL query that will yield the data rows.
+	 * @param fetchSize Number of rows fetched at a time, or 0 for the driver's default.
+	 * @throws Exception
+	 */
+	public DatabaseRowReader(String driverClass, String url, String username, String password, String query,
+			int fetchSize)
+	throws Exception
+	{
+		this();
+		this.fetchSize = fetchSize;
+		this.open(driverClass, url, username, password, query);
+	}
+	
 	/**
 	 * Open a database connection and run the query that will yield the data rows.
 	 * 
@@ -100,15 +125,43 @@ public class DatabaseRowReader extends RowReader {
 	public void open(String driverClass, String url, Properties properties, String query) 
 	throws Exception
 	{
-		Class.forName(driverClass);
-
+		this.setDatabase(driverClass, url, properties, query);
 		this.connection = DriverManager.getConnection(url, properties);
-		this.statement = this.connection.createStatement();
+		this.statement = createStatement(this.connection, this.fetchSize);
 		this.rs = this.statement.executeQuery(query);
 		
 		this.numColumns = this.rs.getMetaData().getColumnCount();
 	}
 	
+	/**
+	 * Open another connection to the reader's database.
+	 * 
+	 * @return The connection, which the caller must close.
+	 * @throws Exception
+	 */
+	public Connection createConnection()
+	throws Exception
+	{
+		return DriverManager.getConnection(this.url, this.properties);
+	}
+	
+	/**
+	 * Create a reader of another query on the reader's database, read the same way as this one.
+	 * 
+	 * @param query SQL query that will yield the data rows.
+	 * @return The reader.
+	 * @throws Exception
+	 */
+	public DatabaseRowReader createReader(String query)
+	throws Exception
+	{
+		DatabaseRowReader reader = new DatabaseRowReader();
+		reader.fetchSize = this.fetchSize;
+		reader.open(this.driverClass, this.url, this.properties, query);
+		
+		return reader;
+	}
+	
 	public void reset()
 	throws Exception
 	{
@@ -148,7 +201,49 @@ public class DatabaseRowReader extends RowReader {
 		if (! rs.next()) 
 			return null;
 		
-		int numColumns = this.rs.getMetaData().getColumnCount();
+		return readRow(this.rs, this.numColumns);
+	}
+	
+	/**
+	 * Record the database and query to read, and load the JDBC driver.
+	 */
+	protected void setDatabase(String driverClass, String url, Properties properties, String query)
+	throws Exception
+	{
+		Class.forName(driverClass);
+		
+		this.driverClass = driverClass;
+		this.url = url;
+		this.properties = properties;
+		this.query = query;
+	}
+	
+	/**
+	 * Create a statement that fetches the specified number of rows at a time.
+	 * 
+	 * @param fetchSize Number of rows fetched at a time, or 0 for the driver's default.
+	 */
+	protected static Statement createStatement(Connection connection, int fetchSize)
+	throws SQLException
+	{
+		if (fetchSize <= 0)
+			return connection.createStatement();
+		
+		// some drivers, e.g. PostgreSQL's, fetch in batches only outside auto-commit
+		connection.setAutoCommit(false);
+		Statement statement = connection.createStatement(
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		
+		return statement;
+	}
+	
+	/**
+	 * Read the current row of a result set.
+	 */
+	protected static String[] readRow(ResultSet rs, int numColumns)
+	throws SQLException
+	{
 		String[] row = new String[numColumns];
 		for (int i = 0; i < numColumns; i++) {
 			row[i] = rs.getString(i + 1);
@@ -160,4 +255,8 @@ public class DatabaseRowReader extends RowReader {
 	public String getQuery() {
 		return query;
 	}
+
+	public String getUrl() {
+		return url;
+	}
 }
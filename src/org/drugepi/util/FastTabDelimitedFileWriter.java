@@ -0,0 +1,280 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.util;
+
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Write rows of data to a tab-delimited file through a file channel and a large direct
+ * byte buffer.  Output is byte-for-byte the same as {@link TabDelimitedFileWriter}.
+ * <p>
+ * Rows can be written whole with {@link #writeRow(String[])}, or field by field with
+ * {@link #writeString(String)}, {@link #writeInt(int)}, {@link #writeLong(long)}, and
+ * {@link #writeDouble(double)}, followed by {@link #endRow()}.  Field-by-field writing
+ * avoids building strings for numeric values; doubles are formatted as by
+ * {@link Utils#formatOutputDouble(double)}.
+ * <p>
+ * Unlike {@link TabDelimitedFileWriter}, this writer is not synchronized.  Rows written
+ * from more than one thread must be synchronized by the caller.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class FastTabDelimitedFileWriter extends RowWriter {
+	/**
+	 * Size of the output buffer, in bytes.
+	 */
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	private static final byte TAB = '\t';
+	private static final byte NEWLINE = '\n';
+
+	private FileOutputStream outputStream;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private byte[] scratch;
+	private Charset charset;
+	private boolean atRowStart;
+
+    /**
+     * FastTabDelimitedFileWriter constructor.  Opens a file at the specified path for writing.
+     *
+     * @param filePath  Path of the tab-delimited file to write.  If it already exists,
+     * 					the file will be replaced.
+     * @throws Exception
+     */
+	public FastTabDelimitedFileWriter(String filePath)
+	throws Exception
+	{
+		super();
+
+		this.outputStream = new FileOutputStream(filePath);
+		this.channel = this.outputStream.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.scratch = new byte[FixedPrecisionFormatter.MAX_LENGTH];
+		this.charset = Charset.defaultCharset();
+		this.atRowStart = true;
+	}
+
+    /**
+     * FastTabDelimitedFileWriter constructor.  Opens a file at the specified path for writing
+     * and writes a header row of field names.
+     *
+     * @param filePath  Path of the tab-delimited file to write.  If it already exists,
+     * 					the file will be replaced.
+     * @param fieldNames  Names of the fields for the header row of the file.
+     * @throws Exception
+     */
+	public FastTabDelimitedFileWriter(String filePath, String[] fieldNames)
+	throws Exception
+	{
+		this(filePath);
+		this.writeHeaderRow(fieldNames);
+	}
+
+    /**
+     * Writes a header row of field names to the output stream.
+     *
+     * @param fieldNames  Names of the fields for the header row of the file.
+     * @throws Exception
+     */
+	public void writeHeaderRow(String[] fieldNames)
+	throws Exception
+	{
+		this.writeRow(fieldNames);
+	}
+
+    /* (non-Javadoc)
+     * @see org.drugepi.util.RowWriter#writeRow(java.lang.String[])
+     */
+	public void writeRow(String[] contents)
+	throws Exception
+	{
+		for (int i = 0; i < contents.length; i++)
+			this.writeString(contents[i]);
+		this.endRow();
+	}
+
+	/**
+	 * Write a string field to the current row.  A null string is written as "null".
+	 *
+	 * @throws Exception
+	 */
+	public void writeString(String s)
+	throws Exception
+	{
+		this.startField();
+
+		if (s == null)
+			s = "null";
+
+		int length = s.length();
+		if (length > this.scratch.length)
+			this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// not ASCII; encode the whole string in the platform charset, as FileWriter does
+				this.put(s.getBytes(this.charset));
+				return;
+			}
+			this.scratch[i] = (byte) c;
+		}
+		this.put(this.scratch, length);
+	}
+
+	/**
+	 * Write an integer field to the current row.
+	 *
+	 * @throws Exception
+	 */
+	public void writeInt(int value)
+	throws Exception
+	{
+		this.writeLong(value);
+	}
+
+	/**
+	 * Write a long integer field to the current row.
+	 *
+	 * @throws Exception
+	 */
+	public void writeLong(long value)
+	throws Exception
+	{
+		this.startField();
+
+		if (value == Long.MIN_VALUE) {
+			this.put(Long.toString(value).getBytes(this.charset));
+			return;
+		}
+
+		int length = 0;
+		boolean negative = (value < 0);
+		if (negative)
+			value = -value;
+
+		// digits are written backwards, then reversed
+		do {
+			this.scratch[length++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		if (negative)
+			this.scratch[length++] = '-';
+		for (int i = 0, j = length - 1; i < j; i++, j--) {
+			byte b = this.scratch[i];
+			this.scratch[i] = this.scratch[j];
+			this.scratch[j] = b;
+		}
+
+		this.put(this.scratch, length);
+	}
+
+	/**
+	 * Write a double field to the current row, formatted as by
+	 * {@link Utils#formatOutputDouble(double)}.
+	 *
+	 * @throws Exception
+	 */
+	public void writeDouble(double value)
+	throws Exception
+	{
+		this.startField();
+
+		if (Utils.isMissingOutputDouble(value)) {
+			this.put(Utils.MISSING_OUTPUT_DOUBLE.getBytes(this.charset));
+			return;
+		}
+
+		if (this.scratch.length < FixedPrecisionFormatter.MAX_LENGTH)
+			this.scratch = new byte[FixedPrecisionFormatter.MAX_LENGTH];
+		int length = FixedPrecisionFormatter.format(value, this.scratch, 0);
+		this.put(this.scratch, length);
+	}
+
+	/**
+	 * End the current row.
+	 *
+	 * @throws Exception
+	 */
+	public void endRow()
+	throws Exception
+	{
+		if (this.buffer.remaining() < 1)
+			this.flush();
+		this.buffer.put(NEWLINE);
+		this.atRowStart = true;
+	}
+
+	/**
+	 * Write any buffered output to the file.
+	 *
+	 * @throws Exception
+	 */
+	public void flush()
+	throws Exception
+	{
+		this.buffer.flip();
+		while (this.buffer.hasRemaining())
+			this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+
+    /* (non-Javadoc)
+     * @see org.drugepi.util.RowWriter#close()
+     */
+	public void close()
+	throws Exception
+	{
+		try {
+			this.flush();
+		} finally {
+			this.channel.close();
+			this.outputStream.close();
+		}
+	}
+
+	public String toString()
+	{
+		return null;
+	}
+
+	private void startField()
+	throws Exception
+	{
+		if (! this.atRowStart) {
+			if (this.buffer.remaining() < 1)
+				this.flush();
+			this.buffer.put(TAB);
+		}
+		this.atRowStart = false;
+	}
+
+	private void put(byte[] bytes)
+	throws Exception
+	{
+		this.put(bytes, bytes.length);
+	}
+
+	private void put(byte[] bytes, int length)
+	throws Exception
+	{
+		int offset = 0;
+		while (length > 0) {
+			if (! this.buffer.hasRemaining())
+				this.flush();
+
+			int n = Math.min(length, this.buffer.remaining());
+			this.buffer.put(bytes, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+}
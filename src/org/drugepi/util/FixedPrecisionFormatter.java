@@ -0,0 +1,147 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.util;
+
+import java.util.Locale;
+
+/**
+ * Formats doubles with ten digits after the decimal point, producing exactly the same
+ * text as <code>String.format(Locale.US, "%.10f", d)</code> without the cost of
+ * <code>java.util.Formatter</code>.
+ * <p>
+ * The value is scaled by 10<sup>10</sup> and rounded to a long.  <code>String.format</code>
+ * rounds half up from the shortest decimal representation of the double, which can differ
+ * from rounding the scaled binary value only when the scaled value lies within a few ulps
+ * of a rounding tie.  Those values, and values too large to scale into a long exactly,
+ * are passed to <code>String.format</code>.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ */
+public class FixedPrecisionFormatter {
+	/**
+	 * Number of digits after the decimal point.
+	 */
+	public static final int PRECISION = 10;
+
+	/**
+	 * Maximum length of a formatted value, in characters.
+	 */
+	public static final int MAX_LENGTH = 330;
+
+	private static final double SCALE = 1e10;
+	private static final long SCALE_LONG = 10000000000L;
+
+	// values at or above this magnitude are passed to String.format
+	private static final double MAX_FAST_VALUE = 4.0e5;
+
+	/**
+	 * @return	The formatted value.
+	 */
+	public static String format(double d)
+	{
+		long scaled = getScaledValue(d);
+		if (scaled < 0)
+			return formatSlow(d);
+
+		char[] buffer = new char[32];
+		int length = 0;
+		if (isNegative(d))
+			buffer[length++] = '-';
+		length = appendScaledValue(scaled, buffer, length);
+
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Format a value as ASCII bytes.
+	 *
+	 * @param d			The value.
+	 * @param dest		Destination array; must have at least {@link #MAX_LENGTH} bytes
+	 * 					available from <code>offset</code>.
+	 * @param offset	Position in <code>dest</code> at which to start.
+	 * @return			Position in <code>dest</code> following the formatted value.
+	 */
+	public static int format(double d, byte[] dest, int offset)
+	{
+		long scaled = getScaledValue(d);
+		if (scaled < 0) {
+			String s = formatSlow(d);
+			for (int i = 0; i < s.length(); i++)
+				dest[offset++] = (byte) s.charAt(i);
+			return offset;
+		}
+
+		char[] buffer = new char[32];
+		int length = 0;
+		if (isNegative(d))
+			buffer[length++] = '-';
+		length = appendScaledValue(scaled, buffer, length);
+
+		for (int i = 0; i < length; i++)
+			dest[offset++] = (byte) buffer[i];
+		return offset;
+	}
+
+	private static String formatSlow(double d)
+	{
+		return String.format(Locale.US, "%.10f", d);
+	}
+
+	private static boolean isNegative(double d)
+	{
+		// String.format keeps the sign of negative zero and of negative values that round to zero
+		return ((d < 0) || ((d == 0) && (1.0 / d < 0)));
+	}
+
+	/*
+	 * Return |d| * 10^10 rounded half up, or -1 if the value must be
+	 * formatted by String.format.
+	 */
+	private static long getScaledValue(double d)
+	{
+		double a = Math.abs(d);
+		if (! (a < MAX_FAST_VALUE))
+			return -1;
+
+		if (a == Math.rint(a))
+			return (long) a * SCALE_LONG;
+
+		double s = a * SCALE;
+		double floor = Math.floor(s);
+		double fraction = s - floor;
+		if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(s))
+			return -1;
+
+		return (long) floor + (fraction > 0.5 ? 1 : 0);
+	}
+
+	private static int appendScaledValue(long scaled, char[] buffer, int offset)
+	{
+		long integerPart = scaled / SCALE_LONG;
+		long fractionPart = scaled % SCALE_LONG;
+
+		// integer digits, written backwards then reversed
+		int start = offset;
+		do {
+			buffer[offset++] = (char) ('0' + (integerPart % 10));
+			integerPart /= 10;
+		} while (integerPart > 0);
+		for (int i = start, j = offset - 1; i < j; i++, j--) {
+			char c = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = c;
+		}
+
+		buffer[offset++] = '.';
+		for (int i = PRECISION - 1; i >= 0; i--) {
+			buffer[offset + i] = (char) ('0' + (fractionPart % 10));
+			fractionPart /= 10;
+		}
+
+		return offset + PRECISION;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.drugepi.util;
+
+import java.util.List;
+
+/**
+ * Read rows of data from a list of rows already held in memory.  The list is not
+ * copied and may be shared by several readers; each row is copied as it is returned,
+ * so callers may change the rows they receive.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ *
+ */
+public class ListRowReader extends RowReader {
+	private List<String[]> rows;
+	private int nextRow;
+
+    /**
+     * ListRowReader constructor.
+     *
+     * @param rows			The rows to read, not including a header row.
+     * @param numColumns	Number of columns in the data.
+     * @throws Exception
+     */
+    public ListRowReader(List<String[]> rows, int numColumns)
+    throws Exception
+    {
+    	super();
+    	this.rows = rows;
+    	this.numColumns = numColumns;
+    	this.nextRow = 0;
+    }
+
+     /* (non-Javadoc)
+     * @see org.drugepi.util.RowReader#getNextRow()
+     */
+    public String[] getNextRow()
+        throws Exception
+    {
+    	if (this.nextRow >= this.rows.size())
+    		return null;
+
+    	return this.rows.get(this.nextRow++).clone();
+    }
+
+    public void reset()
+    throws Exception
+    {
+    	this.nextRow = 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.drugepi.util.RowReader#close()
+     */
+    public void close()
+        throws Exception
+    {
+    	// the rows belong to the caller
+    }
+}
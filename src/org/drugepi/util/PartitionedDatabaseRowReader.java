@@ -0,0 +1,405 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.drugepi.util;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Read rows of data from a database through several cursors at once.  The query is split
+ * into partitions, each read on its own connection by its own thread, and the rows of all
+ * partitions are handed to the reader through one bounded queue.
+ * <p>
+ * A query is partitioned either by hash, on <code>MOD(column, n)</code> or
+ * <code>MOD(hashFunction(column), n)</code>, or by range, on equal ranges of an integer
+ * column between its minimum and maximum.  The partition column is the query's first
+ * column unless another is set.  A character column can be partitioned only by hash, 
+ * through a hash function.  Rows arrive in no particular order.
+ * <p>
+ * The cursors are opened when the first row is read, so the partitioning can be set
+ * after the reader is created.
+ *
+ * @author Jeremy A. Rassen
+ * @version 1.0.0
+ *
+ */
+public class PartitionedDatabaseRowReader extends DatabaseRowReader {
+	public static final String PARTITION_HASH = "HASH";
+	public static final String PARTITION_RANGE = "RANGE";
+
+	// rows handed to the reader at a time, and batches held in the queue
+	private static final int BATCH_SIZE = 1000;
+	private static final int QUEUE_BATCHES = 64;
+
+	// marks the end of a partition's rows
+	private static final String[][] END_OF_PARTITION = new String[0][];
+
+	private int numPartitions;
+	private String partitionMethod;
+	private String partitionColumn;
+	private String hashFunction;
+	private Map<String, Integer> columnTypes;
+
+	private ExecutorService executor;
+	private BlockingQueue<String[][]> queue;
+	private List<Statement> statements;
+	private volatile boolean closed;
+	private volatile Exception failure;
+	private int numPartitionsFinished;
+	private String[][] batch;
+	private int batchPosition;
+
+	/**
+	 * PartitionedDatabaseRowReader constructor.  Checks the query using the specified parameters.
+	 *
+	 * @param driverClass Class of the JDBC driver for this database.
+	 * @param url  JDBC URL of the database.
+	 * @param username  Username for logging into the database.
+	 * @param password  Password for logging into the database.
+	 * @param query SQL query that will yield the data rows.
+	 * @param numPartitions Number of partitions, each read through its own cursor.
+	 * @param fetchSize Number of rows each cursor fetches at a time, or 0 for the driver's default.
+	 * @throws Exception
+	 */
+	public PartitionedDatabaseRowReader(String driverClass, String url, String username, String password,
+			String query, int numPartitions, int fetchSize)
+	throws Exception
+	{
+		this(numPartitions, fetchSize);
+		this.open(driverClass, url, username, password, query);
+	}
+
+	private PartitionedDatabaseRowReader(int numPartitions, int fetchSize)
+	throws Exception
+	{
+		super();
+		if (numPartitions < 1)
+			throw new IllegalArgumentException("The number of partitions must be at least 1.");
+
+		this.numPartitions = numPartitions;
+		this.fetchSize = fetchSize;
+		this.partitionMethod = PARTITION_HASH;
+	}
+
+	/**
+	 * Check the query and find its columns.  The query's rows are not read until the first
+	 * call to {@link #getNextRow()}.
+	 *
+	 * @param driverClass Class of the JDBC driver for this database.
+	 * @param url  JDBC URL of the database.
+	 * @param properties Properties for opening the database.
+	 * @param query SQL query that will yield the data rows.
+	 * @throws Exception
+	 */
+	public void open(String driverClass, String url, Properties properties, String query)
+	throws Exception
+	{
+		this.setDatabase(driverClass, url, properties, query);
+
+		Connection connection = DriverManager.getConnection(url, properties);
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(String.format(
+					"SELECT * FROM (%s) D WHERE 1=0", query));
+			ResultSetMetaData metaData = rs.getMetaData();
+			this.numColumns = metaData.getColumnCount();
+			if (this.partitionColumn == null)
+				this.partitionColumn = metaData.getColumnName(1);
+			this.columnTypes = new HashMap<String, Integer>();
+			for (int i = 1; i <= this.numColumns; i++)
+				this.columnTypes.put(metaData.getColumnName(i).toLowerCase(), metaData.getColumnType(i));
+			rs.close();
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Set how the query is partitioned.  Must be called before the first row is read.
+	 *
+	 * @param method HASH or RANGE.
+	 * @param column Column on which to partition, or null for the query's first column.
+	 * 			For RANGE, and for HASH with no hash function, the column must be an integer.
+	 * @param hashFunction For HASH, the SQL function that makes an integer of the column's
+	 * 			values, e.g. <code>hashtext</code> in PostgreSQL, or null to use the values as is.
+	 * @throws IllegalArgumentException If the method is invalid, or the column is not an
+	 * 			integer column and cannot be partitioned by the method.
+	 */
+	public void setPartitioning(String method, String column, String hashFunction)
+	{
+		this.setPartitioning(method, column, hashFunction, null);
+	}
+
+	/**
+	 * Set how the query is partitioned.  Must be called before the first row is read.
+	 *
+	 * @param method HASH or RANGE.
+	 * @param column Column on which to partition, or null for the query's first column.
+	 * @param hashFunction For HASH, the SQL function that makes an integer of the column's
+	 * 			values, or null to use integer values as is.
+	 * @param characterHashFunction For HASH with no hash function, the SQL function used
+	 * 			if the column is not an integer column, e.g. the database's own, or null.
+	 * @throws IllegalArgumentException If the method is invalid, or the column is not an
+	 * 			integer column and cannot be partitioned by the method.
+	 */
+	public void setPartitioning(String method, String column, String hashFunction,
+			String characterHashFunction)
+	{
+		if (this.queue != null)
+			throw new IllegalStateException("The partitioning cannot be changed once reading has started.");
+
+		if (method.equalsIgnoreCase(PARTITION_HASH))
+			this.partitionMethod = PARTITION_HASH;
+		else if (method.equalsIgnoreCase(PARTITION_RANGE))
+			this.partitionMethod = PARTITION_RANGE;
+		else
+			throw new IllegalArgumentException(String.format(
+					"Invalid partition method %s specified.  Method must be HASH or RANGE.", method));
+
+		if (column != null)
+			this.partitionColumn = column;
+		this.hashFunction = hashFunction;
+
+		// a column that is not among the query's, e.g. an expression, is taken as is
+		Integer type = (this.columnTypes == null ? null : 
+			this.columnTypes.get(this.partitionColumn.toLowerCase()));
+		if ((type == null) || (isIntegerType(type)))
+			return;
+
+		if (this.partitionMethod.equals(PARTITION_RANGE))
+			throw new IllegalArgumentException(String.format(
+					"Partition column %s is not an integer column, so cannot be partitioned by RANGE.",
+					this.partitionColumn));
+
+		if (this.hashFunction == null) {
+			if (characterHashFunction == null)
+				throw new IllegalArgumentException(String.format(
+						"Partition column %s is not an integer column.  A hash function must be specified to partition it by HASH.",
+						this.partitionColumn));
+			this.hashFunction = characterHashFunction;
+		}
+	}
+
+	/**
+	 * Create a reader of another query on the reader's database, partitioned the same way
+	 * as this one.
+	 *
+	 * @param query SQL query that will yield the data rows.
+	 * @return The reader.
+	 * @throws Exception
+	 */
+	public DatabaseRowReader createReader(String query)
+	throws Exception
+	{
+		PartitionedDatabaseRowReader reader =
+			new PartitionedDatabaseRowReader(this.numPartitions, this.fetchSize);
+		reader.partitionMethod = this.partitionMethod;
+		reader.partitionColumn = this.partitionColumn;
+		reader.hashFunction = this.hashFunction;
+		reader.open(this.driverClass, this.url, this.properties, query);
+
+		return reader;
+	}
+
+	public void reset()
+	throws Exception
+	{
+		throw new UnsupportedOperationException("A partitioned database reader cannot be reset.");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.drugepi.util.RowReader#close()
+	 */
+	public void close() throws Exception {
+		this.closed = true;
+
+		if (this.statements != null) {
+			synchronized (this.statements) {
+				for (Statement statement: this.statements) {
+					try {
+						statement.cancel();
+					} catch (Exception e) {
+						// do nothing -- this is OK.
+					}
+				}
+			}
+		}
+
+		// wakes partitions waiting for room in the queue
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.drugepi.util.RowReader#getNextRow()
+	 */
+	public String[] getNextRow() throws Exception {
+		if (this.queue == null)
+			this.start();
+
+		while ((this.batch == null) || (this.batchPosition >= this.batch.length)) {
+			if (this.numPartitionsFinished == this.numPartitions)
+				return null;
+
+			this.batch = this.queue.take();
+			this.batchPosition = 0;
+			if (this.batch == END_OF_PARTITION) {
+				this.numPartitionsFinished++;
+				if (this.failure != null) {
+					this.close();
+					throw this.failure;
+				}
+			}
+		}
+
+		return this.batch[this.batchPosition++];
+	}
+
+	/*
+	 * ===========================================
+	 * PRIVATE METHODS
+	 * ===========================================
+	 */
+	private void start()
+	throws Exception
+	{
+		List<String> conditions = this.getPartitionConditions();
+
+		this.queue = new ArrayBlockingQueue<String[][]>(QUEUE_BATCHES);
+		this.statements = new ArrayList<Statement>();
+		this.numPartitionsFinished = 0;
+		this.executor = Executors.newFixedThreadPool(this.numPartitions);
+		for (final String condition: conditions) {
+			Runnable task = new Runnable() {
+				public void run() {
+					readPartition(condition);
+				}
+			};
+			this.executor.submit(task);
+		}
+		this.executor.shutdown();
+	}
+
+	/*
+	 * The condition selecting each partition's rows.  Rows whose partition column is null
+	 * are read with the first partition.
+	 */
+	private List<String> getPartitionConditions()
+	throws Exception
+	{
+		String column = "D." + this.partitionColumn;
+		List<String> conditions = new ArrayList<String>(this.numPartitions);
+
+		if (this.partitionMethod.equals(PARTITION_HASH)) {
+			String hash = (this.hashFunction == null ? column :
+				String.format("%s(%s)", this.hashFunction, column));
+			for (int i = 0; i < this.numPartitions; i++) {
+				// the sign of MOD follows the hash, so match either sign
+				conditions.add(String.format("MOD(%s, %d) IN (%d, %d)",
+						hash, this.numPartitions, i, -i));
+			}
+		} else {
+			long min = 0;
+			long max = -1;
+			Connection connection = DriverManager.getConnection(this.url, this.properties);
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(String.format(
+						"SELECT MIN(%s), MAX(%s) FROM (%s) D", column, column, this.query));
+				if (rs.next()) {
+					min = rs.getLong(1);
+					max = (rs.wasNull() ? -1 : rs.getLong(2));
+				}
+				rs.close();
+				statement.close();
+			} finally {
+				connection.close();
+			}
+
+			long width = Math.max((max - min) / this.numPartitions + 1, 1);
+			for (int i = 0; i < this.numPartitions; i++) {
+				long low = min + i * width;
+				long high = (i == this.numPartitions - 1 ? max : low + width - 1);
+				conditions.add(String.format("%s BETWEEN %d AND %d", column, low, high));
+			}
+		}
+
+		conditions.set(0, String.format("(%s OR %s IS NULL)", conditions.get(0), column));
+
+		return conditions;
+	}
+
+	private static boolean isIntegerType(int sqlType)
+	{
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void readPartition(String condition)
+	{
+		Connection connection = null;
+		try {
+			connection = DriverManager.getConnection(this.url, this.properties);
+			Statement statement = createStatement(connection, this.fetchSize);
+			synchronized (this.statements) {
+				this.statements.add(statement);
+			}
+
+			ResultSet rs = statement.executeQuery(String.format(
+					"SELECT * FROM (%s) D WHERE %s", this.query, condition));
+			String[][] rows = new String[BATCH_SIZE][];
+			int numRows = 0;
+			while ((! this.closed) && (rs.next())) {
+				rows[numRows++] = readRow(rs, this.numColumns);
+				if (numRows == BATCH_SIZE) {
+					this.queue.put(rows);
+					rows = new String[BATCH_SIZE][];
+					numRows = 0;
+				}
+			}
+			if (numRows > 0)
+				this.queue.put(Arrays.copyOf(rows, numRows));
+
+			rs.close();
+			statement.close();
+		} catch (InterruptedException e) {
+			// closed
+		} catch (Exception e) {
+			synchronized (this) {
+				if ((this.failure == null) && (! this.closed))
+					this.failure = e;
+			}
+		} finally {
+			try {
+				if (connection != null)
+					connection.close();
+			} catch (Exception e) {
+				// do nothing -- this is OK.
+			}
+
+			if (! this.closed) {
+				try {
+					this.queue.put(END_OF_PARTITION);
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+		}
+	}
+}
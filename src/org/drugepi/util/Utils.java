@@ -17,6 +17,11 @@ import org.drugepi.hdps.storage.HdpsVariable;
  * @version 1.0.0
  */
 public class Utils {
+	/**
+	 * Value returned by {@link #parseInputDate(String)} for a missing date.
+	 */
+	public static final int MISSING_DATE = Integer.MIN_VALUE;
+	
 	/**
 	 * Pick the top N items from the specified list.
 	 * 
@@ -91,20 +96,33 @@ public class Utils {
         return buffer.toString();
     }
 
+	/**
+	 * Text written for a missing double.
+	 */
+	public static final String MISSING_OUTPUT_DOUBLE = ".";
+	
+	/**
+	 * @return	Whether a double is written to output files as missing: NaN, infinite,
+	 * 			or {@link HdpsVariable#INVALID}.
+	 */
+	public static boolean isMissingOutputDouble(double d) {
+		return ((Double.isNaN(d)) ||
+				(Double.isInfinite(d)) ||
+				(d == HdpsVariable.INVALID));
+	}
+	
 	/**
 	 * Formats a double for file output.  Changes NaN to .
 	 * 
 	 * @throws Exception
 	 */
 	public static String formatOutputDouble(double d) {
-		if ((Double.isNaN(d)) ||
-			(Double.isInfinite(d)) ||
-			(d == HdpsVariable.INVALID))
-			return ".";
+		if (isMissingOutputDouble(d))
+			return MISSING_OUTPUT_DOUBLE;
 		
-		// format for US, for easy SAS input
-		// !!! maybe this is a bad thing? 
-		return String.format(Locale.US, "%.10f", d);
+		// format for US, for easy SAS input; same text as 
+		// String.format(Locale.US, "%.10f", d)
+		return FixedPrecisionFormatter.format(d);
 	}	
 	
 	/**
@@ -119,6 +137,24 @@ public class Utils {
 			return Double.parseDouble(s);
 	}	
 	
+	/**
+	 * Reads an integer date (e.g., a SAS date value) from an input file.  Changes . or 
+	 * an empty string to {@link #MISSING_DATE}.
+	 * 
+	 * @throws NumberFormatException
+	 */
+	public static int parseInputDate(String s) {
+		if ((s == null) || (s.length() == 0) || (s.equals(".")))
+			return MISSING_DATE;
+		
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			// SAS will sometimes write dates as 18000.0
+			return (int) Double.parseDouble(s);
+		}
+	}	
+	
     
 	/**
 	 * Joins an array of strings into a single tab-delimited string.